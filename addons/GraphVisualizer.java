@@ -26,6 +26,7 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.io.*;
+import java.nio.charset.Charset;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
@@ -47,6 +48,12 @@ import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jmeter.util.JMeterUtils;
 import org.apache.jmeter.visualizers.Sample;
 import org.apache.jmeter.visualizers.gui.AbstractVisualizer;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import addons.EventSink;
+import addons.EventSinks;
+import addons.TraceSampler;
 
 /**
  * This class implements a statistical analyser that calculates both the average
@@ -59,6 +66,15 @@ import org.apache.jmeter.visualizers.gui.AbstractVisualizer;
 public class GraphVisualizer extends AbstractVisualizer implements
 		ImageVisualizer, ItemListener, Clearable {
 
+	/** The Constant log. */
+	private static final Logger log = LoggingManager.getLoggerForClass();
+
+	/** The trace of the samples received, one per response. */
+	private static final TraceSampler TRACE_SAMPLE = new TraceSampler(log);
+
+	/** The events of the samples written. */
+	private static final EventSink EVENTS = EventSinks.get();
+
 	/** The go. */
 	private JButton go;
 
@@ -74,17 +90,11 @@ public class GraphVisualizer extends AbstractVisualizer implements
 	/** The choosertitle. */
 	private String choosertitle;
 
-	/** The destination folder. */
-	public static String destinationFolder;
+	/** The destination folder, set on the event thread and read by the samplers. */
+	private volatile String destinationFolder;
 
 	/** The test id. */
-	public static int testId;
-
-	/** The req url. */
-	private String reqUrl;
-
-	/** The clean url. */
-	private String cleanUrl;
+	private int testId;
 
 	/** The Constant serialVersionUID. */
 	private static final long serialVersionUID = 240L;
@@ -93,26 +103,26 @@ public class GraphVisualizer extends AbstractVisualizer implements
 	private static final String ZERO = "0"; //$NON-NLS-1$
 
 	/** The log file name. */
-	public static String logFileName;
+	private volatile String logFileName;
 
 	/** The result file name. */
-	public static String resultFileName;
+	private String resultFileName;
 
 	/** The nf. */
 	private NumberFormat nf = NumberFormat.getInstance(); // OK, because used in
 															// synchronised
 															// method
 	/** The log file. */
-	private static File logFile;
+	private File logFile;
 
 	/** The writer log. */
-	private static FileWriter writerLog;
+	private transient FileWriter writerLog;
 
 	/** The result file. */
-	private static File resultFile;
+	private File resultFile;
 
 	/** The writer result. */
-	private static FileWriter writerResult;
+	private transient FileWriter writerResult;
 
 	/** The model. */
 	private CachingStatCalculator model;
@@ -169,7 +179,7 @@ public class GraphVisualizer extends AbstractVisualizer implements
 	private JTextField medianField;
 
 	/** The is windows. */
-	private static Boolean isWindows = false;
+	private volatile Boolean isWindows = false;
 
 	/**
 	 * Constructor for the GraphVisualizer object.
@@ -200,7 +210,9 @@ public class GraphVisualizer extends AbstractVisualizer implements
 	 *            the s
 	 */
 	public synchronized void updateGui(Sample s) {
-		System.out.print(s);
+		if (TRACE_SAMPLE.isEnabled()) {
+			log.debug("updateGui " + s); // $NON-NLS-1$
+		}
 		// We have received one more sample
 		graph.updateGui(s);
 
@@ -222,7 +234,6 @@ public class GraphVisualizer extends AbstractVisualizer implements
 	 */
 	public void add(SampleResult res) {
 		String sSistemaOperativo = System.getProperty("os.name");
-		System.out.println("os: " + sSistemaOperativo);
 
 		if (sSistemaOperativo.contains("Windows")) {
 			isWindows = true;
@@ -232,20 +243,13 @@ public class GraphVisualizer extends AbstractVisualizer implements
 		String filename = "";
 		Calendar cal = Calendar.getInstance();
 		DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd.HH.mm.ss");
+		EventSink.Event event = EVENTS.begin(EventSink.Kind.CAPTURE_WRITE);
 		try {
 
-			reqUrl = res.getUrlAsString();
-
-			cleanUrl = reqUrl;
-			cleanUrl = cleanUrl.replace("http", "");
-			cleanUrl = cleanUrl.replace(":", "");
-			cleanUrl = cleanUrl.replace("//", "");
-			cleanUrl = cleanUrl.replace("?", "-");
-			cleanUrl = cleanUrl.replace("&.", "-");
-			// cleanUrl = cleanUrl.replace("www.", "");
-			cleanUrl = cleanUrl.replace("/", "");
+			// Locals only: the samplers of every thread share the visualizer
+			String key = cleanUrl(res.getUrlAsString());
 
-			filename = cleanUrl + ".html";
+			filename = key + ".html";
 
 			String folderName = "$" + dateFormat.format(cal.getTime()) + "_";
 
@@ -266,24 +270,25 @@ public class GraphVisualizer extends AbstractVisualizer implements
 				file = new File(getDestinationFolder() + "\\" + folderName
 						+ "\\" + filename);
 			}
-			FileWriter writer = new FileWriter(file);
-
 			res.setEncodingAndType("text/xml; charset=utf-8");
 
-			writer.write(res.getResponseDataAsString());
-
-			writer.close();
+			OutputStream writer = new FileOutputStream(file);
+			try {
+				writer.write(captureBytes(res));
+			} finally {
+				writer.close();
+			}
 
-			logFile = new File(getDestinationFolder() + System.getProperty("file.separator") + getLogFileName());
+			File logFile = new File(getDestinationFolder() + System.getProperty("file.separator") + getLogFileName());
 
 			FileWriter writerLog = new FileWriter(logFile, true);
 
-			writerLog.append("#" + cleanUrl + "@");
-			writerLog.append(getDestinationFolder() + System.getProperty("file.separator") + folderName + System.getProperty("file.separator")
-					+ filename + "\n");
+			writerLog.append("#" + key + "@" + getDestinationFolder() + System.getProperty("file.separator") + folderName
+					+ System.getProperty("file.separator") + filename + "\n");
 			writerLog.close();
+			event.commit(key, 1, res.getBytes());
 		} catch (IOException ex) {
-			ex.printStackTrace();
+			log.warn("Could not save " + filename, ex); // $NON-NLS-1$
 		}
 	}
 
@@ -491,12 +496,47 @@ public class GraphVisualizer extends AbstractVisualizer implements
 		return chooseGraphsPanel;
 	}
 
+	/**
+	 * Turns the URL of a sample into the web of the capture log, which also
+	 * names the sample file.
+	 * 
+	 * @param url
+	 *            the url
+	 * @return the clean url
+	 */
+	public static String cleanUrl(String url) {
+		String cleanUrl = url;
+		cleanUrl = cleanUrl.replace("http", "");
+		cleanUrl = cleanUrl.replace(":", "");
+		cleanUrl = cleanUrl.replace("//", "");
+		cleanUrl = cleanUrl.replace("?", "-");
+		cleanUrl = cleanUrl.replace("&.", "-");
+		// cleanUrl = cleanUrl.replace("www.", "");
+		cleanUrl = cleanUrl.replace("/", "");
+		return cleanUrl;
+	}
+
+	/**
+	 * Gets the bytes of a sample as the capture writes them: the response
+	 * decoded as UTF-8 and encoded in the platform charset, the one the
+	 * analysis reads the samples with. The live graph searches the same
+	 * bytes, so it finds the fragments and columns of the capture.
+	 * 
+	 * @param res
+	 *            the sample result
+	 * @return the bytes of the sample file
+	 */
+	public static byte[] captureBytes(SampleResult res) {
+		return new String(res.getResponseData(), Charset.forName("UTF-8")) // $NON-NLS-1$
+				.getBytes(Charset.defaultCharset());
+	}
+
 	/**
 	 * Gets the destination folder.
 	 * 
 	 * @return the destination folder
 	 */
-	public static String getDestinationFolder() {
+	public String getDestinationFolder() {
 		return destinationFolder;
 	}
 
@@ -506,7 +546,7 @@ public class GraphVisualizer extends AbstractVisualizer implements
 	 * @param value
 	 *            the new destination folder
 	 */
-	public static void setDestinationFolder(String value) {
+	public void setDestinationFolder(String value) {
 		destinationFolder = value;
 	}
 
@@ -515,8 +555,7 @@ public class GraphVisualizer extends AbstractVisualizer implements
 	 * 
 	 * @return the log file name
 	 */
-	public static String getLogFileName() {
-		System.out.println("getLogFileName:" + logFileName);
+	public String getLogFileName() {
 		return logFileName;
 	}
 
@@ -525,8 +564,7 @@ public class GraphVisualizer extends AbstractVisualizer implements
 	 * 
 	 * @return the result file name
 	 */
-	public static String getResultFileName() {
-		System.out.println("getResultFileName:" + resultFileName);
+	public String getResultFileName() {
 		return resultFileName;
 	}
 
@@ -536,7 +574,7 @@ public class GraphVisualizer extends AbstractVisualizer implements
 	 * @param s
 	 *            the new log file name
 	 */
-	public static void setLogFileName(String s) {
+	public void setLogFileName(String s) {
 		logFileName = s;
 	}
 
@@ -546,7 +584,7 @@ public class GraphVisualizer extends AbstractVisualizer implements
 	 * @param s
 	 *            the new result file name
 	 */
-	public static void setResultFileName(String s) {
+	public void setResultFileName(String s) {
 		resultFileName = s;
 	}
 
@@ -771,15 +809,16 @@ public class GraphVisualizer extends AbstractVisualizer implements
 					}
 
 				} catch (IOException ex) {
-					ex.printStackTrace();
+					log.warn("Could not create " + logFile, ex); // $NON-NLS-1$
 				}
 
-				System.out
-						.println("destinationFolder (MySelectFolder actionPerformed):"
-								+ destinationFolder);
+				if (log.isDebugEnabled()) {
+					log.debug("destinationFolder (MySelectFolder actionPerformed):" // $NON-NLS-1$
+							+ destinationFolder);
+				}
 				labelFolder.setText("Destination folder: " + destinationFolder);
 			} else {
-				System.out.println("No Selection ");
+				log.debug("No Selection"); // $NON-NLS-1$
 			}
 		}
 	}
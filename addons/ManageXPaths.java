@@ -41,6 +41,8 @@ import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jmeter.util.JMeterUtils;
 import org.apache.jmeter.visualizers.Sample;
 import org.apache.jmeter.visualizers.gui.AbstractVisualizer;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
 
 import org.apache.jmeter.extractor.gui.XPathExtractorGui;
 import org.apache.jmeter.extractor.XPathExtractor;
@@ -63,6 +65,9 @@ import addons.*;
  */
 public class ManageXPaths implements ActionListener  {
 
+	/** The Constant log. */
+	private static final Logger log = LoggingManager.getLoggerForClass();
+
 	/** The x paths dialog. */
 	public JDialog xPathsDialog;
 
@@ -87,26 +92,20 @@ public class ManageXPaths implements ActionListener  {
 
 
 
-	/** The xpaths. */
-	private static List<String> xpaths = new ArrayList<String>();
-	
-	/** The num exec. */
-	static int numExec = 0;
-
-	/** The Constant webClient. */
-	static final WebClient webClient = new WebClient();
-	
-	/** The current page. */
-	private static HtmlPage currentPage;
+	/** The queries edited by this window. */
+	private final XPath queries;
 
-	/** The list nodes. */
-	private static ArrayList<TempNode> listNodes;
+	/** The num exec. */
+	private int numExec = 0;
 
 	/**
 	 * Instantiates a new manage x paths.
+	 *
+	 * @param queries
+	 *            the queries edited by this window
 	 */
-	public ManageXPaths() {
-
+	public ManageXPaths(XPath queries) {
+		this.queries = queries;
 	}
 
 	/* (non-Javadoc)
@@ -115,8 +114,9 @@ public class ManageXPaths implements ActionListener  {
 	public void actionPerformed(ActionEvent e) {
 
 		numExec++;
-		System.out.println("ManageXPaths > actionPerformed -> numExec:"
-				+ numExec);
+		if (log.isDebugEnabled()) {
+			log.debug("ManageXPaths > actionPerformed -> numExec:" + numExec); // $NON-NLS-1$
+		}
 
 		xPathsDialog = new JDialog();
 		xPathsDialog.setModal(true);
@@ -146,7 +146,7 @@ public class ManageXPaths implements ActionListener  {
 	 */
 	public JPanel createManageXPathsPanel() {
 
-		System.out.println("ManageXPaths > createManageXPathsPanel");
+		log.debug("ManageXPaths > createManageXPathsPanel"); // $NON-NLS-1$
 		JPanel manLabelPanel = new JPanel();
 		manLabelPanel.setLayout(null);
 
@@ -159,19 +159,15 @@ public class ManageXPaths implements ActionListener  {
 
 		XPathsListLabel = new JLabel("Actual XPaths");
 
-		if (numExec == 1) {
-			XPath.listModel = new DefaultListModel();
-		}
-
-		XPath.XPathList = new JList(XPath.listModel);
+		queries.XPathList = new JList(queries.getStaticsQuerysLM());
 
-		XPath.XPathList
+		queries.XPathList
 				.setSelectionMode(ListSelectionModel.SINGLE_INTERVAL_SELECTION);
-		XPath.XPathList.setLayoutOrientation(JList.VERTICAL);
+		queries.XPathList.setLayoutOrientation(JList.VERTICAL);
 
-		XPath.XPathList.setVisibleRowCount(10);
+		queries.XPathList.setVisibleRowCount(10);
 
-		JScrollPane listScroller = new JScrollPane(XPath.XPathList);
+		JScrollPane listScroller = new JScrollPane(queries.XPathList);
 		listScroller.setPreferredSize(new Dimension(490, 300));
 
 		addLabelButton.addActionListener(new ButtonListener());
@@ -185,18 +181,18 @@ public class ManageXPaths implements ActionListener  {
 		manLabelPanel.add(confirmButton);
 
 		manLabelPanel.add(XPathsListLabel);
-		manLabelPanel.add(XPath.XPathList);
+		manLabelPanel.add(queries.XPathList);
 
 		writeLabel.setBounds(10, 10, 485, 20);
 		newLabelCode.setBounds(10, 30, 485, 25);
 		addLabelButton.setBounds(10, 60, 220, 30);
 		clearAllButton.setBounds(240, 60, 220, 30);
 		XPathsListLabel.setBounds(10, 95, 485, 25);
-		XPath.XPathList.setBounds(10, 125, 485, 300);
+		queries.XPathList.setBounds(10, 125, 485, 300);
 		confirmButton.setBounds(10, 430, 485, 25);
 
 		manLabelPanel.setVisible(true);
-		XPath.XPathList.repaint();
+		queries.XPathList.repaint();
 
 		return manLabelPanel;
 	}
@@ -218,8 +214,7 @@ public class ManageXPaths implements ActionListener  {
 		 * @see java.awt.event.ActionListener#actionPerformed(java.awt.event.ActionEvent)
 		 */
 		public void actionPerformed(ActionEvent e) {
-			System.out
-					.println("JMeter downloader debug: Add XPath button pressed.");
+			log.debug("Add XPath button pressed"); // $NON-NLS-1$
 
 			String s = newLabelCode.getText();
 			if (s.isEmpty()) {
@@ -228,7 +223,7 @@ public class ManageXPaths implements ActionListener  {
 						.showMessageDialog(xPathsDialog,
 								"Empty XPaths not allowed.\nPlease write a valid XPath.");
 			} else {
-				if (XPath.listModel.contains(s)) {
+				if (queries.getStaticsQuerysLM().contains(s)) {
 					JOptionPane
 							.showMessageDialog(
 									xPathsDialog,
@@ -236,7 +231,7 @@ public class ManageXPaths implements ActionListener  {
 											+ s
 											+ " already in the list.\nWrite a new XPath or SUBMIT.");
 				} else {
-					XPath.addQuery(s);
+					queries.addQuery(s);
 					newLabelCode.setText("");
 				}
 			}
@@ -260,10 +255,9 @@ public class ManageXPaths implements ActionListener  {
 		 * @see java.awt.event.ActionListener#actionPerformed(java.awt.event.ActionEvent)
 		 */
 		public void actionPerformed(ActionEvent e) {
-			System.out
-					.println("JMeter downloader debug: Clear XPaths button pressed.");
-			XPath.listModel.clear();
-			XPath.XPathList.repaint();
+			log.debug("Clear XPaths button pressed"); // $NON-NLS-1$
+			queries.getStaticsQuerysLM().clear();
+			queries.XPathList.repaint();
 		}
 	}
 
@@ -286,8 +280,7 @@ public class ManageXPaths implements ActionListener  {
 		 */
 		public void actionPerformed(ActionEvent e) {
 
-			System.out
-					.println("JMeter downloader debug: Confirm XPaths button pressed.");
+			log.debug("Confirm XPaths button pressed"); // $NON-NLS-1$
 
 			xPathsDialog.dispose();
 		}
@@ -22,6 +22,8 @@ import java.util.StringTokenizer;
 import java.util.ArrayList;
 //import java.security.MessageDigest;
 
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
 import org.w3c.dom.CDATASection;
 
 // TODO: Auto-generated Javadoc
@@ -35,6 +37,18 @@ import org.w3c.dom.CDATASection;
  */
 public class TempNode {
 
+	/** The Constant log. */
+	private static final Logger log = LoggingManager.getLoggerForClass();
+
+	/** The trace of addSample, called for every fragment found. */
+	private static final TraceSampler TRACE_ADD = new TraceSampler(log);
+
+	/** The trace of foundAt, called for every node and sample. */
+	private static final TraceSampler TRACE_FOUND = new TraceSampler(log);
+
+	/** The trace of the constructor. */
+	private static final TraceSampler TRACE_NEW = new TraceSampler(log);
+
 	/** The id. */
 	private Integer id; // ID formed by the hash of the source
 
@@ -106,22 +120,24 @@ public class TempNode {
 	/**
 	 * Adds a sample
 	 */
-	public void addSample(String sample) {
-		System.out.println("addSample" + sample); //$NON-NLS-1$
-		System.out.println("addSample-samples" + this.samples.toString()); //$NON-NLS-1$
+	public synchronized void addSample(String sample) {
+		if (TRACE_ADD.isEnabled()) {
+			log.debug("addSample " + sample + ", samples: " + samples.size()); //$NON-NLS-1$ //$NON-NLS-2$
+		}
 		try {
 			this.samples.add(sample);
 		} catch (Exception e) {
-			System.out.println("Error at TempNode>addSample");
+			log.warn("Error at TempNode>addSample " + sample, e); //$NON-NLS-1$
 		}
 	}
 
 	/**
 	 * Check if the sample exists in the nodeList
 	 */
-	public boolean foundAt(String sample) {
-		System.out.println("TempNode>foundAt-sample" + sample);
-		System.out.println("TempNode>foundAt-samples(size)" + samples.size());
+	public synchronized boolean foundAt(String sample) {
+		if (TRACE_FOUND.isEnabled()) {
+			log.debug("foundAt " + sample + ", samples: " + samples.size()); //$NON-NLS-1$ //$NON-NLS-2$
+		}
 		if (this.samples.contains(sample)) {
 			return true;
 		} else {
@@ -147,8 +163,10 @@ public class TempNode {
 	 *            the src
 	 */
 	public TempNode(String src) {
-		System.out.println("TempNode - TempNode()");
 		init(src);
+		if (TRACE_NEW.isEnabled()) {
+			log.debug("TempNode " + id + ", size: " + size); //$NON-NLS-1$ //$NON-NLS-2$
+		}
 	}
 
 	/**
@@ -164,7 +182,7 @@ public class TempNode {
 			this.setContent(src);
 			this.samples = new ArrayList<String>();
 		} catch (Exception e) {
-			e.printStackTrace();
+			log.warn("Exception found at init", e); //$NON-NLS-1$
 		}
 
 	}
@@ -197,7 +215,7 @@ public class TempNode {
 		try {
 			this.fatherId = x.hashCode();
 		} catch (Exception e) {
-			e.printStackTrace();
+			log.warn("Exception found at setFatherId x:" + x, e); //$NON-NLS-1$
 		}
 	}
 
@@ -211,7 +229,7 @@ public class TempNode {
 		try {
 			this.fatherId = x;
 		} catch (Exception e) {
-			e.printStackTrace();
+			log.warn("Exception found at setFatherId x:" + x, e); //$NON-NLS-1$
 		}
 	}
 
@@ -311,7 +329,7 @@ public class TempNode {
 			this.openerTag = ot;
 			return true;
 		} catch (Exception e) {
-			System.out.println("Exception found at setOpenerTag ot:" + ot);
+			log.warn("Exception found at setOpenerTag ot:" + ot, e); //$NON-NLS-1$
 			return false;
 		}
 	}
@@ -329,7 +347,7 @@ public class TempNode {
 			this.size = s;
 			return true;
 		} catch (Exception e) {
-			System.out.println("Exception found at setSize st:" + s);
+			log.warn("Exception found at setSize st:" + s, e); //$NON-NLS-1$
 			return false;
 		}
 	}
@@ -347,7 +365,7 @@ public class TempNode {
 			this.web = web;
 			return true;
 		} catch (Exception e) {
-			System.out.println("Exception found at setSize st:" + web);
+			log.warn("Exception found at setWeb web:" + web, e); //$NON-NLS-1$
 			return false;
 		}
 	}
@@ -21,26 +21,50 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.net.URL;
 import java.math.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.lang.Math;
 import java.io.*;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.script.ScriptException;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.TransformerException;
 
 import org.apache.jmeter.assertions.AssertionResult;
+import org.apache.jmeter.engine.event.LoopIterationEvent;
 import org.apache.jmeter.processor.PostProcessor;
 import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jmeter.testelement.AbstractScopedTestElement;
+import org.apache.jmeter.testelement.TestListener;
 import org.apache.jmeter.testelement.property.BooleanProperty;
 import org.apache.jmeter.threads.JMeterContext;
 import org.apache.jmeter.threads.JMeterVariables;
 import org.apache.jmeter.util.TidyException;
 import org.apache.jmeter.util.XPathUtil;
+import org.apache.jmeter.visualizers.GraphVisualizer;
 import org.apache.jorphan.logging.LoggingManager;
 import org.apache.jorphan.util.JMeterError;
 import org.apache.jorphan.util.JOrphanUtils;
@@ -48,13 +72,17 @@ import org.apache.log.Logger;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 import org.apache.xpath.XPathAPI;
+import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.DTMIterator;
 import org.apache.xpath.objects.XObject;
 
 import org.w3c.dom.*;
 
 import com.gargoylesoftware.htmlunit.MockWebConnection;
+import com.gargoylesoftware.htmlunit.StringWebResponse;
 import com.gargoylesoftware.htmlunit.WebClient;
 import com.gargoylesoftware.htmlunit.html.HtmlElement;
+import com.gargoylesoftware.htmlunit.html.HTMLParser;
 import com.gargoylesoftware.htmlunit.html.HtmlDivision;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
 
@@ -67,7 +95,6 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 
 import addons.*;
-import org.apache.jmeter.visualizers.GraphVisualizer;
 
 import org.w3c.dom.*;
 import org.w3c.dom.html.HTMLElement;
@@ -104,11 +131,29 @@ import addons.LevenshteinDistance;
  * See Bugzilla: 37183
  */
 public class XPathExtractor extends AbstractScopedTestElement implements
-		PostProcessor, Serializable {
+		PostProcessor, TestListener, Serializable {
 
 	/** The Constant log. */
 	private static final Logger log = LoggingManager.getLoggerForClass();
 
+	/** The trace of the samples analyzed, one per sample. */
+	private static final TraceSampler TRACE_SAMPLE = new TraceSampler(log);
+
+	/** The trace of the log lines read, one per line and list. */
+	private static final TraceSampler TRACE_LOG_LINE = new TraceSampler(log);
+
+	/** The trace of the nodes created, one per fragment found. */
+	private static final TraceSampler TRACE_NODE = new TraceSampler(log);
+
+	/** The trace of the XML written, one per sample. */
+	private static final TraceSampler TRACE_SAMPLE_XML = new TraceSampler(log);
+
+	/** The trace of the similarity loop, one per node. */
+	private static final TraceSampler TRACE_EDGES = new TraceSampler(log);
+
+	/** The events of the similarity batches. */
+	private static final EventSink EVENTS = EventSinks.get();
+
 	/** The Constant serialVersionUID. */
 	private static final long serialVersionUID = 240L;
 
@@ -122,6 +167,9 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 	/** The Constant REFNAME. */
 	private static final String REFNAME = "XPathExtractor.refname"; // $NON-NLS-1$
 
+	/** The Constant MATCH_LIMIT. */
+	private static final String MATCH_LIMIT = "XPathExtractor.matchLimit"; // $NON-NLS-1$
+
 	/** The Constant DEFAULT. */
 	private static final String DEFAULT = "XPathExtractor.default"; // $NON-NLS-1$
 
@@ -151,8 +199,39 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 
 	/** The Constant FRAGMENT. */
 	private static final String FRAGMENT = "XPathExtractor.fragment"; // $NON-NLS-1$
+
+	/** The Constant STREAMING. */
+	private static final String STREAMING = "XPathExtractor.streaming"; // $NON-NLS-1$
+
+	/** The Constant SEARCH_TYPE. */
+	private static final String SEARCH_TYPE = "XPathExtractor.searchType"; // $NON-NLS-1$
+
+	/** The Constant LIVE. */
+	private static final String LIVE = "XPathExtractor.live"; // $NON-NLS-1$
+
+	/** The Constant LIVE_RESULT. */
+	private static final String LIVE_RESULT = "XPathExtractor.liveResult"; // $NON-NLS-1$
+
+	/** The Constant QUERIES. */
+	private static final String QUERIES = "XPathExtractor.queries"; // $NON-NLS-1$
 	// - JMX file attributes
 
+	/** Search type for XPath queries. */
+	public static final String SEARCH_XPATH = "xpath"; // $NON-NLS-1$
+
+	/** Search type for CSS selectors. */
+	public static final String SEARCH_CSS = "css"; // $NON-NLS-1$
+
+	/** Search type for raw start markers. */
+	public static final String SEARCH_MARKERS = "markers"; // $NON-NLS-1$
+
+	/**
+	 * The registries of the running tests by result file. JMeter gives every
+	 * thread its own clone of the extractor, so the clones find the registry
+	 * of their test here.
+	 */
+	private static final ConcurrentMap<String, FragmentRegistry> LIVE_REGISTRIES = new ConcurrentHashMap<String, FragmentRegistry>();
+
 	/** The fr. */
 	private FileReader fr = null;
 
@@ -222,21 +301,36 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 	/** The processing node. */
 	private Integer processingNode = 0;
 
-	/** The xpaths. */
-	private static List<String> xpaths = new ArrayList<String>();
+	/** Orders nodes by start, the outer first when they start together. */
+	private static final Comparator<TempNode> BY_POSITION = new Comparator<TempNode>() {
+		public int compare(TempNode a, TempNode b) {
+			int c = XPathExtractor.compare(a.getStartLineNumber(),
+					a.getStartColumnNumber(), b.getStartLineNumber(),
+					b.getStartColumnNumber());
+			return c != 0 ? c : XPathExtractor.compare(b.getEndLineNumber(),
+					b.getEndColumnNumber(), a.getEndLineNumber(),
+					a.getEndColumnNumber());
+		}
+	};
 
 	/** The samples. */
 	private ArrayList<String> samples;
 
-	/** The xpath len. */
-	private static Integer xpathLen = 0;
+	/** The context of the running analysis, or null. */
+	private transient AnalysisContext analysis;
+
+	/** The listener of the running analysis, or null. */
+	private transient AnalysisListener listener;
 
-	/** The node counter. */
-	private static Integer nodeCounter = 0;
+	/** The number of extraction threads of the running analysis. */
+	private transient int workers = 1;
 
-	// private TempNode tn;
-	/** The list nodes. */
-	public static ArrayList<TempNode> listNodes;
+	/** The stage metrics of the last staged analysis. */
+	private transient List<StagedPipeline.StageMetrics> pipelineMetrics = Collections
+			.emptyList();
+
+	/** Receives the nodes of extractSample instead of listNodes. */
+	private transient List<TempNode> nodeSink;
 
 	/** The web client. */
 	final WebClient webClient = new WebClient();
@@ -244,6 +338,33 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 	/** The current page. */
 	private HtmlPage currentPage;
 
+	/** The XML declaration prefix. */
+	private static final String XML_PREFIX = "<?xml "; // $NON-NLS-1$
+
+	/** The UTF-8 charset. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8"); // $NON-NLS-1$
+
+	/** The US-ASCII charset, a subset of UTF-8. */
+	private static final Charset US_ASCII = Charset.forName("US-ASCII"); // $NON-NLS-1$
+
+	/** Per thread transformer used to serialize fragments. */
+	private static final ThreadLocal<Transformer> FRAGMENT_TRANSFORMER = new ThreadLocal<Transformer>() {
+		@Override
+		protected Transformer initialValue() {
+			try {
+				return TransformerFactory.newInstance().newTransformer();
+			} catch (TransformerConfigurationException e) {
+				throw new JMeterError("Cannot create a transformer", e);
+			}
+		}
+	};
+
+	/** The CSS selectors, compiled once per extractor. */
+	private final Map<String, CssSelector> selectors = new HashMap<String, CssSelector>();
+
+	/** The start markers, compiled once per extractor. */
+	private final Map<String, BoundaryScanner> scanners = new HashMap<String, BoundaryScanner>();
+
 	/**
 	 * Concat.
 	 * 
@@ -301,6 +422,14 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 		if (previousResult == null) {
 			return;
 		}
+		if (isLive()) {
+			try {
+				registerLive(previousResult);
+			} catch (RuntimeException e) { // Never fail the sample for the graph
+				log.warn("Could not register the fragments of " // $NON-NLS-1$
+						+ previousResult.getSampleLabel(), e);
+			}
+		}
 		JMeterVariables vars = context.getVariables();
 		String refName = getRefName();
 		vars.put(refName, getDefaultValue());
@@ -314,17 +443,30 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 		vars.put(matchNR, "0"); // In case parse fails // $NON-NLS-1$
 		vars.remove(concat(refName, "1")); // In case parse fails // $NON-NLS-1$
 
-		List<String> matches = new ArrayList<String>();
+		final int limit = getMatchLimit();
+		List<String> matches = new ArrayList<String>(limit > 0 ? limit : 10);
 		try {
 			if (isScopeVariable()) {
 				String inputString = vars.get(getVariableName());
 				Document d = parseResponse(inputString);
-				getValuesForXPath(d, getXPathQuery(), matches);
+				getValuesForXPath(d, getXPathQuery(), matches, limit);
 			} else {
 				List<SampleResult> samples = getSampleList(previousResult);
+				DocumentCache documents = DocumentCache.forSample(previousResult);
+				String settings = DocumentCache.settings(false, false,
+						useNameSpace(), isTolerant(), isQuiet(), showWarnings(),
+						reportErrors(), isDownloadDTDs());
 				for (SampleResult res : samples) {
-					Document d = parseResponse(res.getResponseDataAsString());
-					getValuesForXPath(d, getXPathQuery(), matches);
+					if (limit > 0 && matches.size() >= limit) {
+						break; // No need to parse the other results
+					}
+					// Reuse the document of a previous extractor on this sample
+					Document d = documents.get(res, settings);
+					if (d == null) {
+						d = parseResponse(res);
+						documents.put(res, settings, d);
+					}
+					getValuesForXPath(d, getXPathQuery(), matches, limit);
 				}
 			}
 			final int matchCount = matches.size();
@@ -458,6 +600,26 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 		return getPropertyAsString(DEFAULT);
 	}
 
+	/**
+	 * Sets the maximum number of matches stored as variables. The evaluation
+	 * stops once it is reached.
+	 * 
+	 * @param limit
+	 *            the limit, 0 for all the matches
+	 */
+	public void setMatchLimit(int limit) {
+		setProperty(MATCH_LIMIT, Math.max(0, limit), 0);
+	}
+
+	/**
+	 * Gets the match limit.
+	 * 
+	 * @return the match limit, 0 for all the matches
+	 */
+	public int getMatchLimit() {
+		return getPropertyAsInt(MATCH_LIMIT);
+	}
+
 	/**
 	 * Sets the tolerant.
 	 * 
@@ -572,13 +734,239 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 		setProperty(FRAGMENT, selected, false);
 	}
 
+	/**
+	 * Should treatSample stream the samples instead of building an HtmlUnit
+	 * page? The streamed fragments are compact XML and not the indented
+	 * asXml() of HtmlUnit, so their size, node id and distances differ from
+	 * an analysis without streaming.
+	 * 
+	 * @return true if the streaming engine is used when it supports every
+	 *         query
+	 */
+	public boolean isStreaming() {
+		return getPropertyAsBoolean(STREAMING, false);
+	}
+
+	/**
+	 * Sets the streaming extraction.
+	 * 
+	 * @param selected
+	 *            true to stream the samples.
+	 */
+	public void setStreaming(boolean selected) {
+		setProperty(STREAMING, selected, false);
+	}
+
+	/**
+	 * Gets the search type.
+	 * 
+	 * @return {@link #SEARCH_XPATH}, {@link #SEARCH_CSS} or
+	 *         {@link #SEARCH_MARKERS}
+	 */
+	public String getSearchType() {
+		return getPropertyAsString(SEARCH_TYPE, SEARCH_XPATH);
+	}
+
+	/**
+	 * Sets the search type.
+	 * 
+	 * @param type
+	 *            {@link #SEARCH_XPATH}, {@link #SEARCH_CSS} or
+	 *            {@link #SEARCH_MARKERS}
+	 */
+	public void setSearchType(String type) {
+		setProperty(SEARCH_TYPE, type, SEARCH_XPATH);
+	}
+
+	/**
+	 * Should the fragments be registered while the test runs, to write the
+	 * result when it ends?
+	 * 
+	 * @return true if the graph is built during the test
+	 */
+	public boolean isLive() {
+		return getPropertyAsBoolean(LIVE, false);
+	}
+
+	/**
+	 * Sets the live graph building.
+	 * 
+	 * @param selected
+	 *            true to build the graph during the test.
+	 */
+	public void setLive(boolean selected) {
+		setProperty(LIVE, selected, false);
+	}
+
+	/**
+	 * Gets the GraphML file written at the end of a live test.
+	 * 
+	 * @return the result file name
+	 */
+	public String getLiveResult() {
+		return getPropertyAsString(LIVE_RESULT);
+	}
+
+	/**
+	 * Sets the GraphML file written at the end of a live test.
+	 * 
+	 * @param fileName
+	 *            the result file name
+	 */
+	public void setLiveResult(String fileName) {
+		setProperty(LIVE_RESULT, fileName, ""); // $NON-NLS-1$
+	}
+
+	/**
+	 * Gets the queries of the graph, one per line of the property.
+	 * 
+	 * @return the queries
+	 */
+	public List<String> getQueries() {
+		List<String> queries = new ArrayList<String>();
+		for (String query : getPropertyAsString(QUERIES, "").split("\n")) { // $NON-NLS-1$ // $NON-NLS-2$
+			if (query.trim().length() > 0) {
+				queries.add(query);
+			}
+		}
+		return queries;
+	}
+
+	/**
+	 * Sets the queries of the graph.
+	 * 
+	 * @param queries
+	 *            the queries
+	 */
+	public void setQueries(List<String> queries) {
+		StringBuilder sb = new StringBuilder();
+		for (String query : queries) {
+			if (sb.length() > 0) {
+				sb.append('\n');
+			}
+			sb.append(query);
+		}
+		setProperty(QUERIES, sb.toString(), ""); // $NON-NLS-1$
+	}
+
+	/* ================= live graph ================= */
+
+	/* (non-Javadoc)
+	 * @see org.apache.jmeter.testelement.TestListener#testStarted()
+	 */
+	public void testStarted() {
+		if (!isLive()) {
+			return;
+		}
+		String fileName = getLiveResult();
+		List<String> queries = getQueries();
+		if (fileName.length() == 0 || queries.isEmpty()) {
+			log.warn("Live graph disabled: no result file or no queries"); // $NON-NLS-1$
+			return;
+		}
+		File result = new File(fileName).getAbsoluteFile();
+		FragmentRegistry registry = new FragmentRegistry(new AnalysisContext(
+				result.getParentFile(), null, result, queries));
+		registry.getContext().getMetrics().start();
+		if (LIVE_REGISTRIES.putIfAbsent(result.getPath(), registry) != null) {
+			log.warn("Live graph " + result + " already built by another extractor"); // $NON-NLS-1$ // $NON-NLS-2$
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.jmeter.testelement.TestListener#testStarted(java.lang.String)
+	 */
+	public void testStarted(String host) {
+		testStarted();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.jmeter.testelement.TestListener#testEnded()
+	 */
+	public void testEnded() {
+		if (!isLive() || getLiveResult().length() == 0) {
+			return;
+		}
+		String key = new File(getLiveResult()).getAbsolutePath();
+		FragmentRegistry registry = LIVE_REGISTRIES.remove(key);
+		if (registry == null) {
+			return;
+		}
+		this.analysis = registry.getContext();
+		try {
+			registry.snapshot();
+			writeResultsXml();
+			writeMetricsReport();
+			log.info("Live graph " + key + ": " + registry.getSampleCount() // $NON-NLS-1$ // $NON-NLS-2$
+					+ " samples, " + registry.getFragmentCount() + " fragments"); // $NON-NLS-1$ // $NON-NLS-2$
+		} catch (IllegalStateException e) {
+			log.error("Could not write the live graph " + key, e); // $NON-NLS-1$
+		} finally {
+			this.analysis = null;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.jmeter.testelement.TestListener#testEnded(java.lang.String)
+	 */
+	public void testEnded(String host) {
+		testEnded();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.jmeter.testelement.TestListener#testIterationStart(org.apache.jmeter.engine.event.LoopIterationEvent)
+	 */
+	public void testIterationStart(LoopIterationEvent event) {
+		// The live graph only follows the samples
+	}
+
+	/**
+	 * Registers the fragments of a response in the registry of the running
+	 * test. The response is searched in memory, as the HTML Downloader would
+	 * have written it, and named like the sample of a capture taken at the
+	 * time stamp of the result.
+	 * 
+	 * @param res
+	 *            the sample result
+	 */
+	private void registerLive(SampleResult res) {
+		String fileName = getLiveResult();
+		if (fileName.length() == 0 || res.getURL() == null) {
+			return;
+		}
+		FragmentRegistry registry = LIVE_REGISTRIES.get(new File(fileName)
+				.getAbsolutePath());
+		if (registry == null) {
+			return; // Not started, or already written
+		}
+		String web = GraphVisualizer.cleanUrl(res.getUrlAsString());
+		String folderName = "$" // $NON-NLS-1$
+				+ new SimpleDateFormat("yyyyMMdd.HH.mm.ss").format(new Date( // $NON-NLS-1$
+						res.getTimeStamp())) + "_"; // $NON-NLS-1$
+		String sample = new File(new File(registry.getContext()
+				.getCaptureFolder(), folderName), web + ".html").getPath(); // $NON-NLS-1$
+		byte[] data = GraphVisualizer.captureBytes(res);
+
+		this.analysis = registry.getContext();
+		nodeSink = new ArrayList<TempNode>();
+		try {
+			treatSample(web, sample, data);
+			nest(nodeSink);
+			registry.register(web, sample, nodeSink);
+		} finally {
+			this.analysis = null;
+			nodeSink = null;
+		}
+	}
+
 	/* ================= internal business ================= */
 	/**
 	 * Converts (X)HTML response to DOM object Tree. This version cares of
-	 * charset of response.
+	 * charset of response. The parser is taken from the {@link ParserPool} of
+	 * the sampler thread instead of being built for every sample.
 	 * 
-	 * @param unicodeData
-	 *            the unicode data
+	 * @param res
+	 *            the sample result
 	 * @return the document
 	 * @throws UnsupportedEncodingException
 	 *             the unsupported encoding exception
@@ -591,26 +979,91 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 	 * @throws TidyException
 	 *             the tidy exception
 	 */
-	private Document parseResponse(String unicodeData)
+	private Document parseResponse(SampleResult res)
 			throws UnsupportedEncodingException, IOException,
 			ParserConfigurationException, SAXException, TidyException {
 		// TODO: validate contentType for reasonable types?
 
 		// NOTE: responseData encoding is server specific
-		// Therefore we do byte -> unicode -> byte conversion
-		// to ensure UTF-8 encoding as required by XPathUtil
-		// convert unicode String -> UTF-8 bytes
-		byte[] utf8data = unicodeData.getBytes("UTF-8"); // $NON-NLS-1$
-		ByteArrayInputStream in = new ByteArrayInputStream(utf8data);
-		boolean isXML = JOrphanUtils.isXML(utf8data);
-		// this method assumes UTF-8 input data
-		return XPathUtil.makeDocument(in, false, false, useNameSpace(),
-				isTolerant(), isQuiet(), showWarnings(), reportErrors(), isXML,
+		Charset cs = getCharset(res.getDataEncodingWithDefault());
+		if (cs == null) {
+			return parseResponse(res.getResponseDataAsString());
+		}
+		byte[] data = res.getResponseData();
+		ByteArrayInputStream in = new ByteArrayInputStream(data);
+		if (UTF_8.equals(cs) || US_ASCII.equals(cs)) {
+			// Already UTF-8 as the parsers expect: read the response bytes
+			// without decoding or copying them
+			return ParserPool.makeDocument(in, false, false, useNameSpace(),
+					isTolerant(), isQuiet(), showWarnings(), reportErrors(),
+					JOrphanUtils.isXML(data), isDownloadDTDs());
+		}
+		// Decoded while parsing, never held as a String
+		return ParserPool.makeDocument(new InputStreamReader(in, cs), false,
+				false, useNameSpace(), isTolerant(), isQuiet(),
+				showWarnings(), reportErrors(), isXML(data, cs),
 				isDownloadDTDs());
 	}
 
 	/**
-	 * Extract value from Document d by XPath query.
+	 * Converts (X)HTML variable to DOM object Tree. The characters are parsed
+	 * as they are, without encoding them to UTF-8 first.
+	 * 
+	 * @param unicodeData
+	 *            the unicode data
+	 * @return the document
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws ParserConfigurationException
+	 *             the parser configuration exception
+	 * @throws SAXException
+	 *             the sAX exception
+	 * @throws TidyException
+	 *             the tidy exception
+	 */
+	private Document parseResponse(String unicodeData) throws IOException,
+			ParserConfigurationException, SAXException, TidyException {
+		return ParserPool.makeDocument(new StringReader(unicodeData), false,
+				false, useNameSpace(), isTolerant(), isQuiet(),
+				showWarnings(), reportErrors(),
+				unicodeData.startsWith(XML_PREFIX), isDownloadDTDs());
+	}
+
+	/**
+	 * Looks up a response charset.
+	 * 
+	 * @param encoding
+	 *            the encoding name
+	 * @return the charset, or null if it is not supported
+	 */
+	private static Charset getCharset(String encoding) {
+		try {
+			return Charset.forName(encoding);
+		} catch (IllegalArgumentException e) {
+			// Illegal or unsupported charset name
+			return null;
+		}
+	}
+
+	/**
+	 * Checks for an XML declaration, as JOrphanUtils.isXML does for UTF-8,
+	 * decoding only the first bytes.
+	 * 
+	 * @param data
+	 *            the response data
+	 * @param cs
+	 *            the charset
+	 * @return true, if the data starts with an XML declaration
+	 */
+	private static boolean isXML(byte[] data, Charset cs) {
+		int len = Math.min(data.length, 4 * XML_PREFIX.length());
+		return new String(data, 0, len, cs).startsWith(XML_PREFIX);
+	}
+
+	/**
+	 * Extract value from Document d by XPath query. Same results as
+	 * XPathUtil.putValuesForXPathInList, but the query is compiled once and
+	 * kept in the {@link CompiledXPathCache}.
 	 * 
 	 * @param d
 	 *            the document
@@ -618,14 +1071,72 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 	 *            the query to execute
 	 * @param matchStrings
 	 *            list of matched strings (may include nulls)
+	 * @param limit
+	 *            the maximum size of matchStrings, 0 for no limit
 	 * @return the values for x path
 	 * @throws TransformerException
 	 *             the transformer exception
 	 */
 	private void getValuesForXPath(Document d, String query,
-			List<String> matchStrings) throws TransformerException {
-		XPathUtil
-				.putValuesForXPathInList(d, query, matchStrings, getFragment());
+			List<String> matchStrings, int limit) throws TransformerException {
+		XObject xObject = CompiledXPathCache.getInstance().eval(d, query,
+				useNameSpace(), false);
+		final int objectType = xObject.getType();
+		if (objectType == XObject.CLASS_NODESET) {
+			// Walk the iterator instead of the node list, so the rest of the
+			// document is not searched once the limit is reached
+			DTMIterator nodes = xObject.iter();
+			int handle;
+			while ((limit <= 0 || matchStrings.size() < limit)
+					&& (handle = nodes.nextNode()) != DTM.NULL) {
+				Node match = nodes.getDTM(handle).getNode(handle);
+				String val;
+				if (match instanceof Element) {
+					if (getFragment()) {
+						val = getValueForNode(match);
+					} else {
+						// elements have empty nodeValue, but we are usually
+						// interested in their content
+						final Node firstChild = match.getFirstChild();
+						if (firstChild != null) {
+							val = firstChild.getNodeValue();
+						} else {
+							val = match.getNodeValue();
+						}
+					}
+				} else {
+					val = match.getNodeValue();
+				}
+				matchStrings.add(val);
+			}
+		} else if (objectType == XObject.CLASS_NULL
+				|| objectType == XObject.CLASS_UNKNOWN
+				|| objectType == XObject.CLASS_UNRESOLVEDVARIABLE) {
+			log.warn("Unexpected object type: " + xObject.getTypeString()
+					+ " returned for: " + query);
+		} else {
+			matchStrings.add(xObject.toString());
+		}
+	}
+
+	/**
+	 * Serializes a node as an XML fragment.
+	 * 
+	 * @param node
+	 *            the node
+	 * @return the fragment
+	 */
+	private static String getValueForNode(Node node) {
+		StringWriter sw = new StringWriter();
+		try {
+			Transformer t = FRAGMENT_TRANSFORMER.get();
+			t.reset();
+			t.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes"); // $NON-NLS-1$
+			t.transform(new DOMSource(node), new StreamResult(sw));
+		} catch (TransformerException e) {
+			sw.write(e.getMessageAndLocation());
+		}
+		return sw.toString();
 	}
 
 	/**
@@ -698,81 +1209,821 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 	}
 
 	/**
-	 * Do the job - extract value from (X)HTML response using XPath Query.
-	 * Return value as variable defined by REFNAME. Returns DEFAULT value if not
-	 * found.
+	 * Analyze the captured samples of a context.
+	 * 
+	 * @param context
+	 *            the analysis context
+	 * @return true if the results were written
 	 */
-	public void analyzeSamples() {
-		System.out.println("XPathExtractor (analyzeSamples)");
-		// String sSistemaOperativo = System.getProperty("os.name");
-		// System.out.println("os: " +sSistemaOperativo);
+	public boolean analyzeSamples(AnalysisContext context) {
+		return analyzeSamples(context, null);
+	}
 
-		// ManageXPaths handle all the info about the User's XPaths
-		XPath x = new XPath();
+	/**
+	 * Analyze the captured samples, reporting the progress of every phase to
+	 * a listener that can also cancel the analysis between two samples.
+	 * 
+	 * @param context
+	 *            the analysis context
+	 * @param listener
+	 *            the listener, or null
+	 * @return true if the results were written, false if cancelled
+	 * @throws IllegalStateException
+	 *             if the result could not be written
+	 */
+	public boolean analyzeSamples(AnalysisContext context,
+			AnalysisListener listener) {
+		return analyzeSamples(context, listener, 1);
+	}
 
-		// Check if next lines can be deleted
-		// Put all the ocurrences of the 'xpaths' into xpaths
-		for (int j = 0; j < x.getCountQuerys(); j++) {
-			System.out.println("xpaths!: " + x.getStaticsQuery(j));
-			xpaths.add(x.getStaticsQuery(j));
+	/**
+	 * Analyze the captured samples, searching them with several workers.
+	 * Every worker has its own copy of this extractor, and so its own
+	 * WebClient; the fragments are added in the order of the samples whatever
+	 * the number of workers.
+	 * 
+	 * @param context
+	 *            the analysis context
+	 * @param listener
+	 *            the listener, or null
+	 * @param workers
+	 *            the number of extraction threads
+	 * @return true if the results were written, false if cancelled
+	 * @throws IllegalStateException
+	 *             if the result could not be written
+	 */
+	public boolean analyzeSamples(AnalysisContext context,
+			AnalysisListener listener, int workers) {
+		this.analysis = context;
+		this.listener = listener;
+		this.workers = workers;
+		context.getMetrics().start();
+		try {
+			return runAnalysis() && writeMetricsReport();
+		} finally {
+			this.analysis = null;
+			this.listener = null;
+			this.workers = 1;
 		}
+	}
 
-		ArrayList<String> webs = getWebListComplete(); // Here we save all the
-														// address
-														// analyzed
-
-		ArrayList<String> websMin = getWebList(); // Here we save all the
-													// address
-													// analyzed
-
-		ArrayList<String> samples = getSampleList(); // Here we save all .html
-														// samples
-
-		System.out.println("analyzeSamples > samples: " + samples.toString());
-
-		this.listNodes = new ArrayList<TempNode>();
-
-		TempNode webTN;
-		// first we create a node for each URL sampled
-		for (int j = 0; j < websMin.size(); j++) {
-			webTN = new TempNode(websMin.get(j));
-			webTN.setFatherId(); // My father is r00t!
-			listNodes.add(webTN);
-		}
+	/**
+	 * Sets the context of the analysis, for callers driving a single phase of
+	 * it, like the benchmarks.
+	 * 
+	 * @param context
+	 *            the analysis context, or null when done
+	 */
+	void setAnalysis(AnalysisContext context) {
+		this.analysis = context;
+	}
 
-		// For each sample
-		for (int i = 0; i < samples.size(); i++) {
-			System.out.println("analyzeSamples > samples loop i: " + i);
-			treatSample(webs.get(i), samples.get(i));
+	/**
+	 * Gets the context of the running analysis.
+	 * 
+	 * @return the context
+	 * @throws IllegalStateException
+	 *             if no analysis is running
+	 */
+	private AnalysisContext analysis() {
+		if (analysis == null) {
+			throw new IllegalStateException("No analysis running"); // $NON-NLS-1$
 		}
+		return analysis;
+	}
 
-		orderNodes();
+	/**
+	 * Gives every worker thread its own copy of this extractor, and so its own
+	 * WebClient and XML writer state.
+	 * 
+	 * @return the copies
+	 */
+	private ThreadLocal<XPathExtractor> workerCopies() {
+		return new ThreadLocal<XPathExtractor>() {
+			@Override
+			protected XPathExtractor initialValue() {
+				XPathExtractor copy = (XPathExtractor) XPathExtractor.this
+						.clone();
+				copy.analysis = analysis;
+				return copy;
+			}
+		};
+	}
 
-		// For each sample write an XML with da nodes
-		for (int i = 0; i < samples.size(); i++) {
-			System.out.println("analyzeSamples > samples loop i: " + i);
-			writeSampleXml(webs.get(i), samples.get(i));
+	/**
+	 * Searches the samples with a pool of workers.
+	 * 
+	 * @param webs
+	 *            the web of every sample
+	 * @param samples
+	 *            the samples
+	 * @return false if the analysis was cancelled
+	 */
+	private boolean treatSamples(final List<String> webs,
+			final List<String> samples, NodeStore store) {
+		final ThreadLocal<XPathExtractor> extractors = workerCopies();
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		// The samples searched ahead of the one added, so the nodes waiting
+		// to be added stay few
+		int ahead = workers * 4;
+		try {
+			List<Future<List<TempNode>>> results = new ArrayList<Future<List<TempNode>>>(
+					samples.size());
+			for (int i = 0; i < samples.size(); i++) {
+				for (int n = results.size(); n < samples.size()
+						&& n <= i + ahead; n++) {
+					final String web = webs.get(n);
+					final String sample = samples.get(n);
+					results.add(pool.submit(new Callable<List<TempNode>>() {
+						public List<TempNode> call() {
+							return extractors.get().extractSample(web, sample);
+						}
+					}));
+				}
+				if (isCancelled()) {
+					return false;
+				}
+				try {
+					analysis().getNodes().addAll(results.get(i).get());
+				} catch (ExecutionException e) {
+					log.error("Error searching " + samples.get(i), e.getCause());
+				}
+				results.set(i, null);
+				store.sampleAdded();
+				keepWithinBudget(store, webs, samples, i + 1);
+				progress(AnalysisListener.Phase.EXTRACTION, i + 1);
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			pool.shutdownNow();
 		}
-
-		writeResultsXml();
-
-		JOptionPane.showMessageDialog(null, "XML generation completed");
 	}
 
 	/**
-	 * Generate an array with all the downloaded samples.
+	 * Analyze the captured samples as a pipeline. The log is read line by line
+	 * and every sample goes through the extraction, the nesting, the
+	 * collection of its fragments and the writing of its XML while the next
+	 * ones are still being read; bounded queues between the stages hold back
+	 * the log reader when a stage falls behind. Only the similarity, which
+	 * compares every pair of fragments, waits for the last sample. The nodes
+	 * are kept in the order of a batch analysis, so both write the same
+	 * result.
 	 * 
-	 * @return list containing all the downloaded samples
+	 * @param context
+	 *            the analysis context
+	 * @param listener
+	 *            the listener, or null
+	 * @param extractors
+	 *            the threads searching the samples
+	 * @param writers
+	 *            the threads writing the sample XMLs
+	 * @param capacity
+	 *            the capacity of the queue in front of every stage
+	 * @return true if the results were written, false if cancelled
 	 */
-	protected ArrayList<String> getSampleList() {
-		System.out.println("XPathExtractor > getSampleList");
-		ArrayList<String> samples = new ArrayList<String>();
-
+	public boolean analyzeSamplesStaged(AnalysisContext context,
+			AnalysisListener listener, int extractors, int writers,
+			int capacity) {
+		this.analysis = context;
+		this.listener = listener;
+		context.getMetrics().start();
 		try {
+			return runStagedAnalysis(extractors, writers, capacity)
+					&& writeMetricsReport();
+		} finally {
+			this.analysis = null;
+			this.listener = null;
+		}
+	}
 
-			fileLog = new File(GraphVisualizer.getDestinationFolder()
-					+ System.getProperty("file.separator")
-					+ GraphVisualizer.getLogFileName());
+	/**
+	 * Gets the metrics of the stages of the last staged analysis.
+	 * 
+	 * @return the metrics, empty if no staged analysis ran
+	 */
+	public List<StagedPipeline.StageMetrics> getPipelineMetrics() {
+		return pipelineMetrics;
+	}
+
+	/**
+	 * Runs the staged analysis.
+	 * 
+	 * @param extractors
+	 *            the extractors
+	 * @param writers
+	 *            the writers
+	 * @param capacity
+	 *            the capacity
+	 * @return true if the results were written, false if cancelled
+	 */
+	private boolean runStagedAnalysis(int extractors, int writers,
+			int capacity) {
+		File logFile = analysis().getLogFile();
+
+		phaseStarted(AnalysisListener.Phase.LOG, 1);
+		AnalysisMetrics.Span logRead = analysis().getMetrics().begin(
+				AnalysisMetrics.Stage.LOG_READ);
+		int total = countSamples(logFile);
+		logRead.end(total, logFile.length());
+		progress(AnalysisListener.Phase.LOG, 1);
+
+		final List<TempNode> roots = new ArrayList<TempNode>();
+		final Set<String> rootWebs = new HashSet<String>();
+		final List<TempNode> collected = new ArrayList<TempNode>();
+		final ThreadLocal<XPathExtractor> copies = workerCopies();
+		final AtomicInteger written = new AtomicInteger();
+
+		StagedPipeline<SampleWork> pipeline = new StagedPipeline<SampleWork>(
+				"analysis", capacity); // $NON-NLS-1$
+		pipeline.addStage("extract", extractors, false, // $NON-NLS-1$
+				new StagedPipeline.Stage<SampleWork>() {
+					public SampleWork process(SampleWork w) {
+						w.nodes = copies.get().extractSample(w.web, w.sample);
+						return w;
+					}
+				});
+		pipeline.addStage("nesting", extractors, false, // $NON-NLS-1$
+				new StagedPipeline.Stage<SampleWork>() {
+					public SampleWork process(SampleWork w) {
+						nest(w.nodes);
+						return w;
+					}
+				});
+		// Single threaded and in log order, so the nodes are in the order
+		// of a batch analysis
+		pipeline.addStage("collect", 1, true, // $NON-NLS-1$
+				new StagedPipeline.Stage<SampleWork>() {
+					public SampleWork process(SampleWork w) {
+						if (rootWebs.add(w.web)) {
+							TempNode webTN = new TempNode(w.web);
+							webTN.setFatherId(); // My father is r00t!
+							roots.add(webTN);
+						}
+						collected.addAll(w.nodes);
+						return w;
+					}
+				});
+		pipeline.addStage("write", writers, false, // $NON-NLS-1$
+				new StagedPipeline.Stage<SampleWork>() {
+					public SampleWork process(SampleWork w) {
+						copies.get().writeSampleXml(w.web, w.sample, w.nodes);
+						progress(AnalysisListener.Phase.EXTRACTION,
+								written.incrementAndGet());
+						return null;
+					}
+				});
+
+		phaseStarted(AnalysisListener.Phase.EXTRACTION, total);
+		pipeline.start();
+		boolean completed;
+		try {
+			readLog(logFile, pipeline);
+			completed = pipeline.finish();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			pipeline.cancel();
+			completed = false;
+		}
+		pipelineMetrics = pipeline.getMetrics();
+		log.info("Pipeline: " + pipeline);
+		if (!completed) {
+			return false;
+		}
+
+		List<TempNode> listNodes = analysis().getNodes();
+		listNodes.clear();
+		listNodes.addAll(roots);
+		listNodes.addAll(collected);
+		if (!writeResultsXml()) {
+			return false;
+		}
+
+		log.info("XPath expressions: " + CompiledXPathCache.getInstance());
+		log.info("XML generation completed");
+		return true;
+	}
+
+	/**
+	 * Submits every sample of the log to the pipeline, stopping early if the
+	 * analysis is cancelled.
+	 * 
+	 * @param logFile
+	 *            the log file
+	 * @param pipeline
+	 *            the pipeline
+	 */
+	private void readLog(File logFile, StagedPipeline<SampleWork> pipeline) {
+		try {
+			BufferedReader br = new BufferedReader(new FileReader(logFile));
+			try {
+				String line = br.readLine(); // Debug line
+				while ((line = br.readLine()) != null) {
+					if (isCancelled()) {
+						pipeline.cancel();
+						break;
+					}
+					int at = line.indexOf('@');
+					if (at < 1) {
+						log.warn("Skipping log line: " + line);
+						continue;
+					}
+					/* From # to @ */
+					pipeline.submit(new SampleWork(line.substring(1, at), line
+							.substring(at + 1)));
+				}
+			} finally {
+				br.close();
+			}
+		} catch (IOException e) {
+			log.error("Error reading " + logFile, e);
+		}
+	}
+
+	/**
+	 * Counts the samples of the log.
+	 * 
+	 * @param logFile
+	 *            the log file
+	 * @return the number of sample lines
+	 */
+	private static int countSamples(File logFile) {
+		int count = 0;
+		try {
+			BufferedReader br = new BufferedReader(new FileReader(logFile));
+			try {
+				br.readLine(); // Debug line
+				while (br.readLine() != null) {
+					count++;
+				}
+			} finally {
+				br.close();
+			}
+		} catch (IOException e) {
+			log.error("Error reading " + logFile, e);
+		}
+		return count;
+	}
+
+	/**
+	 * A sample going through the staged analysis.
+	 */
+	private static final class SampleWork {
+
+		/** The web. */
+		final String web;
+
+		/** The sample location. */
+		final String sample;
+
+		/** The nodes found at the sample. */
+		List<TempNode> nodes;
+
+		/**
+		 * Instantiates a new sample work.
+		 * 
+		 * @param web
+		 *            the web
+		 * @param sample
+		 *            the sample
+		 */
+		SampleWork(String web, String sample) {
+			this.web = web;
+			this.sample = sample;
+		}
+	}
+
+	/**
+	 * Searches one sample, returning its fragments instead of adding them to
+	 * listNodes.
+	 * 
+	 * @param web
+	 *            the web
+	 * @param sampleLocation
+	 *            the sample location
+	 * @return the nodes of the sample
+	 */
+	public List<TempNode> extractSample(String web, String sampleLocation) {
+		nodeSink = new ArrayList<TempNode>();
+		try {
+			treatSample(web, sampleLocation);
+			return nodeSink;
+		} finally {
+			nodeSink = null;
+		}
+	}
+
+	/**
+	 * Runs the phases of the analysis.
+	 * 
+	 * @return true if the results were written, false if cancelled
+	 */
+	private boolean runAnalysis() {
+		if (log.isDebugEnabled()) {
+			log.debug("analyzeSamples " + analysis().getLogFile()); // $NON-NLS-1$
+		}
+
+		File checkpointFile = analysis().getCheckpointFile();
+		if (checkpointFile != null) {
+			AnalysisCheckpoint previous = AnalysisCheckpoint
+					.read(checkpointFile);
+			if (previous != null
+					&& previous.matches(analysis().getQueries(),
+							getSearchType(), isStreaming(), analysis()
+									.getSimilarityFilter().toString(),
+							analysis().getLogFile())) {
+				return runIncrementalAnalysis(previous);
+			}
+		}
+
+		phaseStarted(AnalysisListener.Phase.LOG, 3);
+		AnalysisMetrics.Span logRead = analysis().getMetrics().begin(
+				AnalysisMetrics.Stage.LOG_READ);
+		ArrayList<String> webs = getWebListComplete(); // Here we save all the
+														// address
+														// analyzed
+		progress(AnalysisListener.Phase.LOG, 1);
+
+		ArrayList<String> websMin = getWebList(); // Here we save all the
+													// address
+													// analyzed
+		progress(AnalysisListener.Phase.LOG, 2);
+
+		ArrayList<String> samples = getSampleList(); // Here we save all .html
+														// samples
+		// The log is read once for each list
+		logRead.end(samples.size(), 3 * analysis().getLogFile().length());
+		progress(AnalysisListener.Phase.LOG, 3);
+
+		if (log.isDebugEnabled()) {
+			log.debug("analyzeSamples > samples: " + samples.size()); // $NON-NLS-1$
+		}
+
+		List<TempNode> listNodes = analysis().getNodes();
+		listNodes.clear();
+
+		TempNode webTN;
+		// first we create a node for each URL sampled
+		for (int j = 0; j < websMin.size(); j++) {
+			webTN = new TempNode(websMin.get(j));
+			webTN.setFatherId(); // My father is r00t!
+			listNodes.add(webTN);
+		}
+
+		NodeStore store = new NodeStore(listNodes, analysis().getNodeBudget(),
+				analysis().getSpillFolder());
+		try {
+			return runAnalysis(webs, samples, store);
+		} finally {
+			analysis().setSpilledNodes(store.getSpilled());
+			store.close();
+		}
+	}
+
+	/**
+	 * Runs the phases of the analysis after the log, keeping the nodes within
+	 * their budget.
+	 * 
+	 * @param webs
+	 *            the web of every sample
+	 * @param samples
+	 *            the samples
+	 * @param store
+	 *            the store of the nodes
+	 * @return true if the results were written, false if cancelled
+	 */
+	private boolean runAnalysis(List<String> webs, List<String> samples,
+			NodeStore store) {
+		File checkpointFile = analysis().getCheckpointFile();
+
+		// For each sample
+		phaseStarted(AnalysisListener.Phase.EXTRACTION, samples.size());
+		if (workers > 1) {
+			if (!treatSamples(webs, samples, store)) {
+				return false;
+			}
+		} else {
+			for (int i = 0; i < samples.size(); i++) {
+				if (isCancelled()) {
+					return false;
+				}
+				treatSample(webs.get(i), samples.get(i));
+				store.sampleAdded();
+				keepWithinBudget(store, webs, samples, i + 1);
+				progress(AnalysisListener.Phase.EXTRACTION, i + 1);
+			}
+		}
+
+		if (store.isSpilled()) {
+			// Nested and written sample by sample, as they were extracted
+			if (checkpointFile != null) {
+				log.warn("The nodes did not fit their budget: no checkpoint saved"); // $NON-NLS-1$
+			}
+			if (!writeSpilledResultsXml(store)) {
+				return false;
+			}
+			log.info("XPath expressions: " + CompiledXPathCache.getInstance());
+			log.info("XML generation completed");
+			return true;
+		}
+
+		// Nested sample by sample, the way the spilled nodes are, so the
+		// result does not depend on the budget
+		if (!nestSamples(samples, store)) {
+			return false;
+		}
+
+		// For each sample write an XML with da nodes
+		phaseStarted(AnalysisListener.Phase.SAMPLE_XML, samples.size());
+		for (int i = 0; i < samples.size(); i++) {
+			if (isCancelled()) {
+				return false;
+			}
+			writeSampleXml(webs.get(i), samples.get(i));
+			progress(AnalysisListener.Phase.SAMPLE_XML, i + 1);
+		}
+
+		if (checkpointFile == null) {
+			if (!writeResultsXml()) {
+				return false;
+			}
+		} else {
+			List<int[]> similarities = new ArrayList<int[]>();
+			if (!writeResultsXml(0, AnalysisCheckpoint.noSimilarities(),
+					similarities)) {
+				return false;
+			}
+			try {
+				saveCheckpoint(AnalysisCheckpoint.offsetAfterLines(analysis()
+						.getLogFile(), samples.size() + 1), similarities);
+			} catch (IOException e) {
+				log.warn("Could not save the checkpoint " + checkpointFile, e);
+			}
+		}
+
+		log.info("XPath expressions: " + CompiledXPathCache.getInstance());
+		log.info("XML generation completed");
+		return true;
+	}
+
+	/**
+	 * Keeps the nodes in memory within their budget. Once past it, the nodes
+	 * of every sample extracted are nested and the sample XML written right
+	 * away, as the staged analysis does, and the nodes in memory are spilled
+	 * whenever they pass the budget again.
+	 * 
+	 * @param store
+	 *            the store of the nodes
+	 * @param webs
+	 *            the web of every sample
+	 * @param samples
+	 *            the samples
+	 * @param done
+	 *            the samples whose nodes were added
+	 */
+	private void keepWithinBudget(NodeStore store, List<String> webs,
+			List<String> samples, int done) {
+		if (!store.isSpilled() && !store.isOverBudget()) {
+			return;
+		}
+		List<TempNode> nodes = analysis().getNodes();
+		int next = store.getFirstUnwritten();
+		for (int i = store.getSamplesWritten(); i < done; i++) {
+			int end = store.getSampleEnd(i);
+			List<TempNode> sampleNodes = nodes.subList(next, end);
+			nest(sampleNodes);
+			writeSampleXml(webs.get(i), samples.get(i), sampleNodes);
+			next = end;
+		}
+		store.markWritten(done);
+		if (store.isOverBudget()) {
+			try {
+				store.spill();
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not spill the nodes", e); // $NON-NLS-1$
+			}
+		}
+	}
+
+	/**
+	 * Nests the nodes of every sample, one sample at a time.
+	 * 
+	 * @param samples
+	 *            the samples
+	 * @param store
+	 *            the store of the nodes, none of them written
+	 * @return false if the analysis was cancelled
+	 */
+	private boolean nestSamples(List<String> samples, NodeStore store) {
+		List<TempNode> nodes = analysis().getNodes();
+		phaseStarted(AnalysisListener.Phase.NESTING, samples.size());
+		int next = store.getFirstUnwritten();
+		for (int i = 0; i < samples.size(); i++) {
+			if (isCancelled()) {
+				return false;
+			}
+			int end = store.getSampleEnd(i);
+			nest(nodes.subList(next, end));
+			next = end;
+			progress(AnalysisListener.Phase.NESTING, i + 1);
+		}
+		return true;
+	}
+
+	/**
+	 * Continues the analysis of a checkpoint: only the samples logged after
+	 * it are searched and written, and only the pairs holding one of their
+	 * new nodes are compared. The new nodes are nested sample by sample and
+	 * added after the nodes of the checkpoint, in the order of a batch
+	 * analysis of the whole log, so both write the same result.
+	 * 
+	 * @param previous
+	 *            the checkpoint
+	 * @return true if the results were written, false if cancelled
+	 */
+	private boolean runIncrementalAnalysis(AnalysisCheckpoint previous) {
+		File logFile = analysis().getLogFile();
+		List<String> webs = new ArrayList<String>();
+		List<String> samples = new ArrayList<String>();
+
+		phaseStarted(AnalysisListener.Phase.LOG, 1);
+		AnalysisMetrics.Span logRead = analysis().getMetrics().begin(
+				AnalysisMetrics.Stage.LOG_READ);
+		long offset;
+		try {
+			offset = AnalysisCheckpoint.readSamples(logFile, previous
+					.getLogOffset(), webs, samples);
+		} catch (IOException e) {
+			log.error("Error reading " + logFile, e);
+			return false;
+		}
+		logRead.end(samples.size(), offset - previous.getLogOffset());
+		progress(AnalysisListener.Phase.LOG, 1);
+		log.info("Continuing the checkpoint with " + samples.size()
+				+ " new samples");
+
+		List<TempNode> listNodes = analysis().getNodes();
+		listNodes.clear();
+		listNodes.addAll(previous.getNodes());
+		int firstNew = listNodes.size();
+
+		Set<String> rootWebs = new HashSet<String>();
+		for (TempNode tn : listNodes) {
+			if (tn.getWeb() == null) {
+				rootWebs.add(tn.getContent());
+			}
+		}
+
+		List<List<TempNode>> found = new ArrayList<List<TempNode>>(
+				samples.size());
+		phaseStarted(AnalysisListener.Phase.EXTRACTION, samples.size());
+		for (int i = 0; i < samples.size(); i++) {
+			if (isCancelled()) {
+				return false;
+			}
+			String web = webs.get(i);
+			String sample = samples.get(i);
+			if (rootWebs.add(web)) {
+				TempNode webTN = new TempNode(web);
+				webTN.setFatherId(); // My father is r00t!
+				listNodes.add(webTN);
+			}
+			List<TempNode> nodes = extractSample(web, sample);
+			nest(nodes);
+			listNodes.addAll(nodes);
+			found.add(nodes);
+			progress(AnalysisListener.Phase.EXTRACTION, i + 1);
+		}
+
+		phaseStarted(AnalysisListener.Phase.SAMPLE_XML, samples.size());
+		for (int i = 0; i < samples.size(); i++) {
+			if (isCancelled()) {
+				return false;
+			}
+			writeSampleXml(webs.get(i), samples.get(i), found.get(i));
+			progress(AnalysisListener.Phase.SAMPLE_XML, i + 1);
+		}
+
+		List<int[]> similarities = new ArrayList<int[]>(previous
+				.getSimilarities().size());
+		if (!writeResultsXml(firstNew, previous.getSimilarities(),
+				similarities)) {
+			return false;
+		}
+		try {
+			saveCheckpoint(offset, similarities);
+		} catch (IOException e) {
+			log.warn("Could not save the checkpoint "
+					+ analysis().getCheckpointFile(), e);
+		}
+
+		log.info("XML generation completed");
+		return true;
+	}
+
+	/**
+	 * Saves the nodes of the analysis and their similarities for the next
+	 * one.
+	 * 
+	 * @param offset
+	 *            the offset of the log after the last sample analyzed
+	 * @param similarities
+	 *            the similarities written
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void saveCheckpoint(long offset, List<int[]> similarities)
+			throws IOException {
+		AnalysisContext context = analysis();
+		new AnalysisCheckpoint(context.getQueries(), getSearchType(),
+				isStreaming(), context.getSimilarityFilter().toString(),
+				AnalysisCheckpoint.readHeader(context
+						.getLogFile()), offset, context.getNodes(),
+				similarities).write(context.getCheckpointFile());
+	}
+
+	/**
+	 * Writes the metrics of the analysis next to its result.
+	 * 
+	 * @return true, even if the report could not be written
+	 */
+	private boolean writeMetricsReport() {
+		AnalysisContext context = analysis();
+		AnalysisMetrics metrics = context.getMetrics();
+		metrics.end();
+		File report = AnalysisMetrics.reportFile(context.getResultFile());
+		try {
+			metrics.writeJson(report, context.getResultFile());
+		} catch (IOException e) {
+			log.warn("Could not write the metrics " + report, e);
+		}
+		log.info("Metrics: " + metrics);
+		return true;
+	}
+
+	/**
+	 * Nests the nodes of one sample, measured as a call of orderNodes.
+	 * 
+	 * @param nodes
+	 *            the nodes of a single sample
+	 */
+	private void nest(List<TempNode> nodes) {
+		AnalysisMetrics.Span span = analysis().getMetrics().begin(
+				AnalysisMetrics.Stage.NESTING);
+		orderNodes(nodes);
+		span.end(nodes.size(), 0);
+	}
+
+	/**
+	 * Reports the start of a phase to the listener.
+	 * 
+	 * @param phase
+	 *            the phase
+	 * @param size
+	 *            the number of steps
+	 */
+	private void phaseStarted(AnalysisListener.Phase phase, int size) {
+		if (listener != null) {
+			listener.phaseStarted(phase, size);
+		}
+	}
+
+	/**
+	 * Reports progress to the listener.
+	 * 
+	 * @param phase
+	 *            the phase
+	 * @param done
+	 *            the steps done
+	 */
+	private void progress(AnalysisListener.Phase phase, int done) {
+		if (listener != null) {
+			listener.progress(phase, done);
+		}
+	}
+
+	/**
+	 * Checks if the listener cancelled the analysis.
+	 * 
+	 * @return true, if cancelled
+	 */
+	private boolean isCancelled() {
+		return listener != null && listener.isCancelled();
+	}
+
+	/**
+	 * Generate an array with all the downloaded samples.
+	 * 
+	 * @return list containing all the downloaded samples
+	 */
+	protected ArrayList<String> getSampleList() {
+		ArrayList<String> samples = new ArrayList<String>();
+
+		try {
+
+			fileLog = analysis().getLogFile();
 
 			FileReader fr = new FileReader(fileLog);
 
@@ -784,23 +2035,18 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 				linea = br.readLine();// Debug line
 				while ((linea = br.readLine()) != null) {
 					String sl = linea.toString();
-					System.out.println("sl: " + sl);
-					System.out.println("sl.indexOf('@') "
-							+ Integer.toString(sl.indexOf("@")));
-					System.out.println("(sl.length() - 1) "
-							+ Integer.toString((sl.length() - 1)));
 					String ts = sl
 							.substring(sl.indexOf("@") + 1, (sl.length())); // fixed
 					samples.add(ts);
-					System.out.println("sample:" + samples);
+					if (TRACE_LOG_LINE.isEnabled()) {
+						log.debug("getSampleList " + samples.size() + ": " + ts); // $NON-NLS-1$ // $NON-NLS-2$
+					}
 				}
 			} catch (IOException e) {
-				System.out
-						.println("IOEXception in XPathExtractor > getSampleList");
+				log.warn("IOException in XPathExtractor > getSampleList", e); // $NON-NLS-1$
 			}
-			System.out.println("samples: " + samples.toString());
 		} catch (Exception e) {
-			e.printStackTrace();
+			log.warn("Could not read the samples of " + fileLog, e); // $NON-NLS-1$
 		}
 		return samples;
 	}
@@ -811,17 +2057,10 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 	 * @return list containing all the site addresses
 	 */
 	protected ArrayList<String> getWebList() {
-		System.out.println("XPathExtractor > getWebList");
 		ArrayList<String> webs = new ArrayList<String>();
 
-		System.out.println("getWebList> logFile:"
-				+ GraphVisualizer.getDestinationFolder()
-				+ System.getProperty("file.separator")
-				+ GraphVisualizer.getLogFileName());
 		try {
-			fileLog = new File(GraphVisualizer.getDestinationFolder()
-					+ System.getProperty("file.separator")
-					+ GraphVisualizer.getLogFileName());
+			fileLog = analysis().getLogFile();
 
 			FileReader fr = new FileReader(fileLog);
 
@@ -833,22 +2072,19 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 			try {
 				// linea = br.readLine(); // Skip First line, its debug only
 				while ((linea = br.readLine()) != null) {
-					System.out.println(linea);
+					if (TRACE_LOG_LINE.isEnabled()) {
+						log.debug("getWebList " + linea); // $NON-NLS-1$
+					}
 					if (!(webs.contains(linea.substring(1, linea.indexOf("@"))))) {
 						/* From # to @ */
 						webs.add(linea.substring(1, linea.indexOf("@")));
-
-						System.out.println("webs:" + webs);
 					}
 				}
 			} catch (IOException e) {
-				System.out
-						.println("IOEXception in XPathExtractor > getWebList "
-								+ e.toString());
+				log.warn("IOException in XPathExtractor > getWebList", e); // $NON-NLS-1$
 			}
-			System.out.println("webs: " + webs.toString());
 		} catch (Exception e) {
-			e.printStackTrace();
+			log.warn("Could not read the webs of " + fileLog, e); // $NON-NLS-1$
 		}
 		return webs;
 	}
@@ -859,16 +2095,10 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 	 * @return list containing all the site addresses
 	 */
 	protected ArrayList<String> getWebListComplete() {
-		System.out.println("XPathExtractor > getWebList");
 		ArrayList<String> webs = new ArrayList<String>();
 
-		System.out.println("getWebList> logFile:"
-				+ GraphVisualizer.getDestinationFolder()
-				+ System.getProperty("file.separator")
-				+ GraphVisualizer.getLogFileName());
 		try {
-			fileLog = new File(GraphVisualizer.getDestinationFolder() + "/"
-					+ GraphVisualizer.getLogFileName());
+			fileLog = analysis().getLogFile();
 
 			FileReader fr = new FileReader(fileLog);
 
@@ -879,102 +2109,64 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 			try {
 				// linea = br.readLine(); // Skip First line, its debug only
 				while ((linea = br.readLine()) != null) {
-					System.out.println(linea);
+					if (TRACE_LOG_LINE.isEnabled()) {
+						log.debug("getWebListComplete " + linea); // $NON-NLS-1$
+					}
 					/* From # to @ */
 					webs.add(linea.substring(1, linea.indexOf("@")));
-
-					System.out.println("webs:" + webs.size());
-
 				}
 			} catch (IOException e) {
-				System.out
-						.println("IOEXception in XPathExtractor > getWebList "
-								+ e.toString());
+				log.warn("IOException in XPathExtractor > getWebList", e); // $NON-NLS-1$
 			}
-			System.out.println("webs: " + webs.toString());
 		} catch (Exception e) {
-			e.printStackTrace();
+			log.warn("Could not read the webs of " + fileLog, e); // $NON-NLS-1$
 		}
 		return webs;
 	}
 
 	/**
-	 * orderNodes - Order nodes and fix father-sons relations (fragments)
+	 * orderNodes - Order the nodes of one sample by position and make every
+	 * node a son of the innermost node enclosing it. The nodes enclosed by no
+	 * other keep the web as father.
 	 * 
-	 * @return list containing all the site addresses
+	 * @param nodes
+	 *            the nodes of a single sample
 	 */
-	private void orderNodes() {
-
-		TempNode tna, tnb, auxTn;
-
-		ArrayList<String> webs = getWebListComplete();
-		// webs contains all address analyzed
-
-		/*
-		 * sca == startColumn A. scb == startColumn B. sla == startLine A. slb
-		 * == startLine B. eca == endColumn A. ecb == endColumn B. ela ==
-		 * endLine A. elb == endLine B.
-		 */
-		Integer sca, scb, sla, slb, eca, ecb, ela, elb;
-
-		for (int k = 0; k < webs.size(); k++) {
-			/*
-			 * For all node - if node.getTarget != 0 skip node - for all nodes
-			 */
-
-			for (int i = 0; i < listNodes.size(); i++) {
-
-				tna = listNodes.get(i);
-				if (!webs.get(k).equals(tna.getWeb())) {
-					continue;
-					// we only treat nodes from webs.get(k)
-					// others >> skip
-				}
-				if (tna.getFatherId() != 0) { // Skip urls
-
-					sca = (Integer) tna.getStartColumnNumber();
-					sla = (Integer) tna.getStartLineNumber();
-					eca = (Integer) tna.getEndColumnNumber();
-					ela = (Integer) tna.getEndLineNumber();
-
-					for (int j = 0; j < (listNodes.size() - i); j++) {
-						tnb = listNodes.get(j);
-						if (tnb.getFatherId() != 0) {
-							scb = (Integer) tnb.getStartColumnNumber();
-							slb = (Integer) tnb.getStartLineNumber();
-							ecb = (Integer) tnb.getEndColumnNumber();
-							elb = (Integer) tnb.getEndLineNumber();
-
-							if (slb > sla) { // greater line
-								auxTn = listNodes.get(j);
-								listNodes.set(j, listNodes.get(j + 1));
-								listNodes.set(j + 1, auxTn);
-
-								// Hack to find lost sons !!!
-								if ((elb < ela) && (ecb < ela)) {
-									tnb.setFatherId(tna.getId());
-								}
-
-							} else if ((slb == sla) && (scb > sca)) {
-								/*
-								 * Same line & greater column
-								 */
-								auxTn = listNodes.get(j);
-								listNodes.set(j, listNodes.get(j + 1));
-								listNodes.set(j + 1, auxTn);
-
-								// Hack to find lost sons !!!
-								if ((elb < ela) && (ecb < ela)) {
-									tnb.setFatherId(tna.getId());
-								}
-							}
-						}
-
-					}
-				}
+	static void orderNodes(List<TempNode> nodes) {
+		Collections.sort(nodes, BY_POSITION);
+		// The chain of open nodes enclosing the current position
+		List<TempNode> stack = new ArrayList<TempNode>();
+		for (TempNode tn : nodes) {
+			while (!stack.isEmpty()
+					&& compare(stack.get(stack.size() - 1).getEndLineNumber(),
+							stack.get(stack.size() - 1).getEndColumnNumber(),
+							tn.getEndLineNumber(), tn.getEndColumnNumber()) < 0) {
+				stack.remove(stack.size() - 1);
+			}
+			if (!stack.isEmpty()) {
+				tn.setFatherId(stack.get(stack.size() - 1).getId());
 			}
+			stack.add(tn);
 		}
+	}
 
+	/**
+	 * Compares two positions.
+	 * 
+	 * @param line1
+	 *            the line1
+	 * @param column1
+	 *            the column1
+	 * @param line2
+	 *            the line2
+	 * @param column2
+	 *            the column2
+	 * @return a negative number, zero or a positive number if the first
+	 *         position is before, at or after the second
+	 */
+	private static int compare(int line1, int column1, int line2, int column2) {
+		return line1 != line2 ? (line1 < line2 ? -1 : 1)
+				: (column1 < column2 ? -1 : (column1 == column2 ? 0 : 1));
 	}
 
 	/*
@@ -982,14 +2174,30 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 	 * html files folder... u know what I wanna say xD
 	 */
 	private void writeSampleXml(String web, String sampleLocation) {
+		writeSampleXml(web, sampleLocation, analysis().getNodes());
+	}
+
+	/**
+	 * Write the XML of a sample with the nodes found at it.
+	 * 
+	 * @param web
+	 *            the web
+	 * @param sampleLocation
+	 *            the sample location
+	 * @param nodes
+	 *            the nodes to look the sample nodes up in
+	 */
+	void writeSampleXml(String web, String sampleLocation,
+			List<TempNode> nodes) {
 
 		TempNode tn, tn2;
 		ArrayList<Integer> nodeList = new ArrayList<Integer>();
 
-		System.out.println("writeSamplesXmls");
-
 		// for (int i = 0; i < samples.size(); i++) {
-		System.out.println("writeSamplesXmls sampleLocation:" + sampleLocation);
+		AnalysisMetrics.Span span = analysis().getMetrics().begin(
+				AnalysisMetrics.Stage.SAMPLE_WRITE);
+		long written = 0;
+		String fileName = sampleLocation;
 		try {
 			DocumentBuilderFactory docFactory = DocumentBuilderFactory
 					.newInstance();
@@ -1004,10 +2212,8 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 			graphNodeSample.setAttribute("id", nextNodeID().toString());
 			graphNodeSample.setAttribute("edgedefault", "directed");
 
-			for (int j = 0; j < listNodes.size(); j++) {
-				System.out.println("listNodes j :" + j);
-
-				tn = listNodes.get(j);
+			for (int j = 0; j < nodes.size(); j++) {
+				tn = nodes.get(j);
 				if (!tn.foundAt(sampleLocation)) {
 					/**
 					 * Skip other tempNodes
@@ -1015,7 +2221,6 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 					continue;
 				}
 
-				System.out.println("listNodes charged");
 				tagNodeSample = doc.createElement("node");
 				// JOptionPane.showMessageDialog(null,"test123" );
 
@@ -1075,26 +2280,24 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 			Calendar cal = Calendar.getInstance();
 			DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd.HH.mm.ss");
 
-			String fileName = sampleLocation;
 			fileName = fileName.replace(".html", "");
 			fileName = fileName + "-" + dateFormat.format(cal.getTime())
 					+ ".xml";
 
-			System.out.println("fileName:" + fileName);
+			if (TRACE_SAMPLE_XML.isEnabled()) {
+				log.debug("writeSampleXml " + fileName); // $NON-NLS-1$
+			}
 
-			String folder = GraphVisualizer.getDestinationFolder().replaceAll(
-					"%20", " ");// Patch to fix paths with
-								// white spaces
 			File archivo = new File(fileName);
 			StreamResult result = new StreamResult(archivo);
 
 			transformer.transform(source, result);
+			written = archivo.length();
 
 		} catch (Exception e) {
-			System.out.println("writeSamplesXmls exception first try"
-					+ e.toString());
-			e.printStackTrace();
+			log.warn("Could not write the XML of " + sampleLocation, e); // $NON-NLS-1$
 		}
+		span.end(fileName, 1, written);
 
 		// }
 
@@ -1102,17 +2305,54 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 
 	/**
 	 * Write results xml.
+	 * 
+	 * @return false if the analysis was cancelled
+	 * @throws IllegalStateException
+	 *             if the result could not be written
+	 */
+	private boolean writeResultsXml() {
+		return writeResultsXml(0, AnalysisCheckpoint.noSimilarities(), null);
+	}
+
+	/**
+	 * Write results xml, reusing the similarities of a checkpoint: only the
+	 * pairs holding a node from firstNew on are compared. The similarity edges
+	 * are the ones the {@link SimilarityFilter} of the analysis keeps; with k
+	 * neighbours they are collected while computed, and every parent edge
+	 * waits for them to be written with the similarities of its node, in the
+	 * order of the spilled result. With the binary export, the graph is also
+	 * written by {@link #writeBinaryGraph(List)}.
+	 *
+	 * @param firstNew
+	 *            the index of the first node not in the checkpoint
+	 * @param known
+	 *            the similarities between the nodes before firstNew
+	 * @param similarities
+	 *            receives every similarity written, or null
+	 * @return false if the analysis was cancelled
+	 * @throws IllegalStateException
+	 *             if the result could not be written
 	 */
-	private void writeResultsXml() {
+	boolean writeResultsXml(int firstNew, List<int[]> known,
+			List<int[]> similarities) {
 
 		ArrayList<Integer> nodeList = new ArrayList<Integer>();
-		String file;
-		String folder;
 		String web1, web2;
 		int size1, size2;
 		int dist; //Levi.distance
 		TempNode tn, tn2;
-		System.out.println("writeResultsXml2");
+		List<TempNode> listNodes = analysis().getNodes();
+		int next = 0; // The next known similarity
+		SimilarityFilter filter = analysis().getSimilarityFilter();
+		NeighbourCollector neighbours = filter.getNeighbours() > 0 ? new NeighbourCollector(
+				listNodes.size(), filter.getNeighbours()) : null;
+		// The parent edges waiting for the neighbours kept
+		Element[] parents = neighbours != null ? new Element[listNodes.size()]
+				: null;
+		// The binary graph needs the similarities too
+		List<int[]> written = similarities == null
+				&& analysis().isBinaryExport() ? new ArrayList<int[]>()
+				: similarities;
 		try {
 			DocumentBuilderFactory docFactory = DocumentBuilderFactory
 					.newInstance();
@@ -1123,8 +2363,9 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 			// rootElement is the super-root node of the DAG
 			rootElement = doc.createElement("graphml");
 
+			// No id: it would depend on the samples written before, and so on
+			// the mode of the analysis
 			graphNode = doc.createElement("graph");
-			graphNode.setAttribute("id", nextNodeID().toString());
 			graphNode.setAttribute("edgedefault", "directed");
 
 			sizeNode = doc.createElement("key");
@@ -1144,41 +2385,76 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 			rootElement.appendChild(sizeNode);
 			rootElement.appendChild(etiquetaNode);
 
-			System.out.println("listNodes.size()" + listNodes.size());
+			if (log.isDebugEnabled()) {
+				log.debug("writeResultsXml > nodes: " + listNodes.size()); // $NON-NLS-1$
+			}
 
 			// Add edge father-son
+			phaseStarted(AnalysisListener.Phase.SIMILARITY, listNodes.size());
+			AnalysisMetrics metrics = analysis().getMetrics();
+			AnalysisMetrics.Span distances = metrics
+					.begin(AnalysisMetrics.Stage.DISTANCE);
+			long computed = 0, chars = 0, rootPairs = 0, lengthPairs = 0, filtered = 0;
 			for (int i = 0; i < listNodes.size(); i++) {
-				System.out.println("WriteResultsXml > add edges : i " + i);
+				if (isCancelled()) {
+					return false;
+				}
+				progress(AnalysisListener.Phase.SIMILARITY, i);
+				if (TRACE_EDGES.isEnabled()) {
+					log.debug("writeResultsXml > add edges : i " + i); // $NON-NLS-1$
+				}
+				if (i < firstNew) {
+					// Pairs of two checkpoint nodes are never compared again
+					metrics.skip(AnalysisMetrics.Prune.CHECKPOINT, firstNew
+							- i - 1);
+				}
 				tn = listNodes.get(i);
 				web1 = tn.getWeb();
 				if (web1 == null) {
+					rootPairs += listNodes.size() - Math.max(i + 1, firstNew);
 					continue;
 				}
 				String content = tn.getContent();
+				EventSink.Event batch = EVENTS
+						.begin(EventSink.Kind.SIMILARITY_BATCH);
+				long batchComputed = computed, batchChars = chars;
 
 				edgeNode = doc.createElement("edge");
-				edgeNode.setAttribute("id", Integer.toString(nodeCounter++));
 				edgeNode.setAttribute("source", Integer.toString(tn.getId()));
 				edgeNode.setAttribute("target",
 						Integer.toString(tn.getFatherId()));
 				edgeNode.setAttribute("when", tn.getDate());
 				edgeNode.setAttribute("url", tn.getWeb());
 
-				rootElement.appendChild(edgeNode);
-
-				/** Levistein Distance */
-				for (int j = i; j < listNodes.size(); j++) {
+				if (parents != null) {
+					parents[i] = edgeNode;
+				} else {
+					edgeNode.setAttribute("id", Integer.toString(analysis().nextEdgeId()));
+					rootElement.appendChild(edgeNode);
+				}
 
-					/* Do not calculate distance with the same node */
-					if (j == i) {
+				/* Distances between two nodes of the checkpoint */
+				while (next < known.size() && known.get(next)[0] == i) {
+					int[] s = known.get(next++);
+					if (neighbours != null) {
+						neighbours.offer(s[0], s[1], s[2]);
 						continue;
 					}
-					
+					rootElement.appendChild(similarityEdge(tn,
+							listNodes.get(s[1]), s[2]));
+					if (written != null) {
+						written.add(s);
+					}
+				}
+
+				/** Levistein Distance */
+				for (int j = Math.max(i + 1, firstNew); j < listNodes.size(); j++) {
 					tn2 = listNodes.get(j);
 					String content2 = tn2.getContent();
 
 					web2 = tn2.getWeb();
 					if (web2 == null) { //avoid initial nodes
+						rootPairs++;
 						continue;
 					}
 
@@ -1188,25 +2464,63 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 						dist = LevenshteinDistance
 								.computeLevenshteinDistance(tn.getContent(),
 										tn2.getContent());
-						edgeNode = doc.createElement("edge");
-						edgeNode.setAttribute("id",
-								Integer.toString(nodeCounter++));
-						edgeNode.setAttribute("LevenshteinDistance",
-								Integer.toString(dist));
-						edgeNode.setAttribute("node1",
-								Integer.toString(tn.getId()));
-						edgeNode.setAttribute("node2",
-								Integer.toString(tn2.getId()));
-
-						rootElement.appendChild(edgeNode);
+						computed++;
+						chars += content.length() + content2.length();
+						if (!filter.accepts(dist, content.length(),
+								content2.length())) {
+							filtered++;
+						} else if (neighbours != null) {
+							neighbours.offer(i, j, dist);
+						} else {
+							rootElement.appendChild(similarityEdge(tn, tn2,
+									dist));
+							if (written != null) {
+								written.add(new int[] { i, j, dist });
+							}
+						}
 
 					} else {
+						lengthPairs++;
 						continue;
 					}
 
 				}
+				batch.commit(String.valueOf(tn.getId()), computed
+						- batchComputed, chars - batchChars);
 			}
+			if (neighbours != null) {
+				List<int[]> kept = neighbours.edges();
+				int s = 0;
+				for (int i = 0; i < parents.length; i++) {
+					if (parents[i] != null) {
+						parents[i].setAttribute("id", Integer.toString(analysis().nextEdgeId()));
+						rootElement.appendChild(parents[i]);
+					}
+					for (; s < kept.size() && kept.get(s)[0] == i; s++) {
+						int[] edge = kept.get(s);
+						rootElement.appendChild(similarityEdge(listNodes
+								.get(i), listNodes.get(edge[1]), edge[2]));
+					}
+				}
+				if (written != null) {
+					written.addAll(kept);
+				}
+				log.info("Similarity filter " + filter + ": " + kept.size() // $NON-NLS-1$ // $NON-NLS-2$
+						+ " edges kept"); // $NON-NLS-1$
+			}
+			if (filtered > 0) {
+				log.info("Similarity filter " + filter + ": " + filtered // $NON-NLS-1$ // $NON-NLS-2$
+						+ " pairs over the distance"); // $NON-NLS-1$
+			}
+			metrics.skip(AnalysisMetrics.Prune.ROOT, rootPairs);
+			metrics.skip(AnalysisMetrics.Prune.LENGTH, lengthPairs);
+			distances.end(computed, chars);
+
+			progress(AnalysisListener.Phase.SIMILARITY, listNodes.size());
 
+			phaseStarted(AnalysisListener.Phase.RESULT_WRITE, 1);
+			AnalysisMetrics.Span resultWrite = metrics
+					.begin(AnalysisMetrics.Stage.RESULT_WRITE);
 			doc.appendChild(rootElement);
 			// write the content into XML file
 			TransformerFactory transformerFactory = TransformerFactory
@@ -1214,28 +2528,243 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 			Transformer transformer = transformerFactory.newTransformer();
 			DOMSource source = new DOMSource(doc);
 
-			/* Patch to fix filenames with white spaces */
-			file = GraphVisualizer.getResultFileName().replaceAll("%20", " ");
-
-			folder = GraphVisualizer.getDestinationFolder().replaceAll("%20",
-					" ");// Patch to fix paths with white spaces
-
-			File archivo = new File(folder
-					+ System.getProperty("file.separator") + file);
+			File archivo = analysis().getResultFile();
 			StreamResult result = new StreamResult(archivo);
 
 			transformer.transform(source, result);
+			resultWrite.end(archivo.getPath(), 1, archivo.length());
+			if (analysis().isBinaryExport()) {
+				writeBinaryGraph(written);
+			}
+			progress(AnalysisListener.Phase.RESULT_WRITE, 1);
 		} catch (Exception e) {
-			System.out.println("writeResultsXml exception first try"
-					+ e.toString());
-			e.printStackTrace();
+			throw new IllegalStateException("Could not write the result " // $NON-NLS-1$
+					+ analysis().getResultFile(), e);
 		}
+		return true;
+	}
+
+	/**
+	 * Writes the binary graph of the result, see {@link CsrGraph}, from the
+	 * node list.
+	 *
+	 * @param similarities
+	 *            the similarities written, sorted by the first and then the
+	 *            second index
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeBinaryGraph(List<int[]> similarities) throws IOException {
+		AnalysisContext context = analysis();
+		List<TempNode> listNodes = context.getNodes();
+		AnalysisMetrics.Span span = context.getMetrics().begin(
+				AnalysisMetrics.Stage.BINARY_WRITE);
+		CsrGraphWriter csr = null;
+		try {
+			csr = new CsrGraphWriter(context.getResultFile(), listNodes.size());
+			for (int i = 0; i < listNodes.size(); i++) {
+				csr.addNode(i, listNodes.get(i));
+			}
+			for (int[] s : similarities) {
+				csr.addSimilarity(s[0], s[1], s[2]);
+			}
+			csr.finish();
+			span.end(CsrGraph.graphFile(context.getResultFile()).getPath(),
+					listNodes.size() + similarities.size(), csr.length());
+		} finally {
+			if (csr != null) {
+				csr.close();
+			}
+		}
+	}
+
+	/**
+	 * Write the results of nodes spilled to disk. The similarities are computed
+	 * by a {@link SimilarityJoin} on disk, within the node budget, and the
+	 * GraphML is streamed to the result file from its sorted edges instead of
+	 * built in memory. The edges are the ones of {@link #writeResultsXml()},
+	 * kept by the same {@link SimilarityFilter}, in the order of the node list.
+	 * With the binary export, the similarities go to a {@link CsrGraphWriter}
+	 * as they are streamed, and the nodes are read back from their runs.
+	 * 
+	 * @param store
+	 *            the store of the nodes
+	 * @return false if the analysis was cancelled
+	 * @throws IllegalStateException
+	 *             if the result could not be written
+	 */
+	private boolean writeSpilledResultsXml(NodeStore store) {
+		AnalysisContext context = analysis();
+		AnalysisMetrics metrics = context.getMetrics();
+		File archivo = context.getResultFile();
+		long roots = store.getRoots(), others = store.size() - roots;
+		phaseStarted(AnalysisListener.Phase.SIMILARITY, store.size());
+		SimilarityJoin join = null;
+		CsrGraphWriter csr = null;
+		OutputStream out = null;
+		try {
+			// The nodes left in memory go to disk too: the join has the budget
+			store.spill();
+			join = new SimilarityJoin(context.getNodeBudget(),
+					context.getSpillFolder(), context.getSimilarityFilter());
+			join.partition(store.byLength());
+
+			AnalysisMetrics.Span distances = metrics
+					.begin(AnalysisMetrics.Stage.DISTANCE);
+			for (int block = 0; block < join.getBlocks(); block++) {
+				if (isCancelled()) {
+					return false;
+				}
+				progress(AnalysisListener.Phase.SIMILARITY, store.getRoots()
+						+ join.getNodesJoined());
+				EventSink.Event batch = EVENTS
+						.begin(EventSink.Kind.SIMILARITY_BATCH);
+				long computed = join.getComputed(), chars = join.getChars();
+				join.joinNext();
+				batch.commit("block " + block, join.getComputed() - computed, // $NON-NLS-1$
+						join.getChars() - chars);
+			}
+			metrics.skip(AnalysisMetrics.Prune.ROOT, roots * (roots - 1) / 2
+					+ roots * others);
+			metrics.skip(AnalysisMetrics.Prune.LENGTH, others * (others - 1)
+					/ 2 - join.getComputed());
+			distances.end(join.getComputed(), join.getChars());
+			if (join.getFiltered() > 0) {
+				log.info("Similarity filter " + context.getSimilarityFilter() // $NON-NLS-1$
+						+ ": " + join.getFiltered() + " pairs over the distance"); // $NON-NLS-1$ // $NON-NLS-2$
+			}
+			progress(AnalysisListener.Phase.SIMILARITY, store.size());
+
+			phaseStarted(AnalysisListener.Phase.RESULT_WRITE, 1);
+			AnalysisMetrics.Span resultWrite = metrics
+					.begin(AnalysisMetrics.Stage.RESULT_WRITE);
+			out = new BufferedOutputStream(new FileOutputStream(archivo));
+			XMLStreamWriter xml = XMLOutputFactory.newInstance()
+					.createXMLStreamWriter(out, "UTF-8"); // $NON-NLS-1$
+			xml.writeStartDocument("UTF-8", "1.0"); // $NON-NLS-1$ // $NON-NLS-2$
+			xml.writeStartElement("graphml"); // $NON-NLS-1$
+			// The attributes in name order, as the DOM of the result in
+			// memory writes them, so both results are the same file
+			xml.writeEmptyElement("graph"); // $NON-NLS-1$
+			xml.writeAttribute("edgedefault", "directed"); // $NON-NLS-1$ // $NON-NLS-2$
+			writeKey(xml, "size", "fragment.size", "integer"); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$
+			writeKey(xml, "source.code", "staring.tag", "string"); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$
+			if (context.isBinaryExport()) {
+				csr = new CsrGraphWriter(archivo, store.size());
+			}
+			Iterator<SimilarityJoin.Edge> edges = join.edges();
+			while (edges.hasNext()) {
+				SimilarityJoin.Edge edge = edges.next();
+				String id = Integer.toString(context.nextEdgeId());
+				xml.writeEmptyElement("edge"); // $NON-NLS-1$
+				if (edge.isParent()) {
+					xml.writeAttribute("id", id); // $NON-NLS-1$
+					xml.writeAttribute("source", Integer.toString(edge.getSource())); // $NON-NLS-1$
+					xml.writeAttribute("target", Integer.toString(edge.getTarget())); // $NON-NLS-1$
+					xml.writeAttribute("url", edge.getUrl()); // $NON-NLS-1$
+					xml.writeAttribute("when", edge.getWhen()); // $NON-NLS-1$
+				} else {
+					xml.writeAttribute("LevenshteinDistance", // $NON-NLS-1$
+							Integer.toString(edge.getDistance()));
+					xml.writeAttribute("id", id); // $NON-NLS-1$
+					xml.writeAttribute("node1", Integer.toString(edge.getSource())); // $NON-NLS-1$
+					xml.writeAttribute("node2", Integer.toString(edge.getTarget())); // $NON-NLS-1$
+					if (csr != null) {
+						csr.addSimilarity(edge.getIndex1(), edge.getIndex2(),
+								edge.getDistance());
+					}
+				}
+			}
+			xml.writeEndElement();
+			xml.writeEndDocument();
+			xml.close();
+			out.close();
+			out = null;
+			resultWrite.end(archivo.getPath(), 1, archivo.length());
+			if (csr != null) {
+				// The similarities are in; the nodes come from the runs again
+				AnalysisMetrics.Span binaryWrite = metrics
+						.begin(AnalysisMetrics.Stage.BINARY_WRITE);
+				List<TempNode> listNodes = context.getNodes();
+				for (int i = 0; i < roots; i++) {
+					csr.addNode(i, listNodes.get(i));
+				}
+				Iterator<NodeStore.Entry> entries = store.byLength();
+				while (entries.hasNext()) {
+					NodeStore.Entry entry = entries.next();
+					csr.addNode(entry.getIndex(), entry.getNode());
+				}
+				csr.finish();
+				binaryWrite.end(CsrGraph.graphFile(archivo).getPath(), store
+						.size() + csr.getSimilarityCount(), csr.length());
+			}
+			progress(AnalysisListener.Phase.RESULT_WRITE, 1);
+		} catch (Exception e) {
+			throw new IllegalStateException("Could not write the result " // $NON-NLS-1$
+					+ archivo, e);
+		} finally {
+			JOrphanUtils.closeQuietly(out);
+			if (csr != null) {
+				csr.close();
+			}
+			if (join != null) {
+				join.close();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes a key of the result GraphML.
+	 * 
+	 * @param xml
+	 *            the writer
+	 * @param id
+	 *            the id
+	 * @param name
+	 *            the attribute name
+	 * @param type
+	 *            the attribute type
+	 * @throws XMLStreamException
+	 *             if the result cannot be written
+	 */
+	private static void writeKey(XMLStreamWriter xml, String id, String name,
+			String type) throws XMLStreamException {
+		xml.writeEmptyElement("key"); // $NON-NLS-1$
+		xml.writeAttribute("attr.name", name); // $NON-NLS-1$
+		xml.writeAttribute("attr.type", type); // $NON-NLS-1$
+		xml.writeAttribute("for", "node"); // $NON-NLS-1$ // $NON-NLS-2$
+		xml.writeAttribute("id", id); // $NON-NLS-1$
+	}
+
+	/**
+	 * Creates the similarity edge between two nodes.
+	 * 
+	 * @param tn
+	 *            the first node
+	 * @param tn2
+	 *            the second node
+	 * @param dist
+	 *            the Levenshtein distance of their contents
+	 * @return the edge
+	 */
+	private Element similarityEdge(TempNode tn, TempNode tn2, int dist) {
+		edgeNode = doc.createElement("edge");
+		edgeNode.setAttribute("id", Integer.toString(analysis().nextEdgeId()));
+		edgeNode.setAttribute("LevenshteinDistance", Integer.toString(dist));
+		edgeNode.setAttribute("node1", Integer.toString(tn.getId()));
+		edgeNode.setAttribute("node2", Integer.toString(tn2.getId()));
+		return edgeNode;
 	}
 
 	/**
 	 * treatSample - Search and create new nodes for all the XPaths occurrences
 	 * into the sample, at sampleLocation.
 	 * 
+	 * When streaming is enabled the queries supported by
+	 * {@link StreamingXPathEngine} are evaluated in a single SAX pass over the
+	 * sample, and only the remaining ones load the HtmlUnit page.
+	 * 
 	 * @param web
 	 *            the web
 	 * @param sampleLocation
@@ -1243,81 +2772,487 @@ public class XPathExtractor extends AbstractScopedTestElement implements
 	 * @return nothing
 	 */
 	public void treatSample(String web, String sampleLocation) {
+		treatSample(web, sampleLocation, null);
+	}
+
+	/**
+	 * treatSample - Search a sample read from its file, or held in memory.
+	 * 
+	 * @param web
+	 *            the web
+	 * @param sampleLocation
+	 *            the sample location, only a name if the data is given
+	 * @param data
+	 *            the sample as the HTML Downloader writes it, or null to read
+	 *            it from sampleLocation
+	 */
+	void treatSample(String web, String sampleLocation, byte[] data) {
+		List<String> xpaths = analysis().getQueries();
 
-		System.out.println("treatSample > sample:" + sampleLocation);
+		if (TRACE_SAMPLE.isEnabled()) {
+			log.debug("treatSample " + sampleLocation + " - queries: " // $NON-NLS-1$ // $NON-NLS-2$
+					+ xpaths.size());
+		}
 
 		String date = sampleLocation;
 
 		// BECAREFUL !! '$' and '_' limits where is the date
 		date = date.substring((date.indexOf("$") + 1), date.indexOf("_"));
 
-		// Put all the occurrences of this 'xpaths' into xpaths
-		for (int j = 0; j < XPath.getCountQuerys(); j++) {
-			xpaths.add(XPath.getStaticsQuery(j));
+		List<List<Fragment>> found = new ArrayList<List<Fragment>>(Collections
+				.<List<Fragment>> nCopies(xpaths.size(), null));
+		String[] engines = new String[xpaths.size()];
+
+		// Only the queries missing from the cache are evaluated
+		ExtractionCache cache = analysis().getExtractionCache();
+		String sampleHash = null;
+		if (cache != null) {
+			if (data == null) {
+				try {
+					data = readSample(sampleLocation);
+				} catch (IOException e) {
+					log.warn("Could not read " + sampleLocation + " "
+							+ e.getLocalizedMessage());
+					return;
+				}
+			}
+			sampleHash = ExtractionCache.hash(data);
+			for (int i = 0; i < xpaths.size(); i++) {
+				found.set(i, cache.get(sampleHash, engineOf(xpaths.get(i)),
+						xpaths.get(i)));
+			}
+		}
+
+		if (SEARCH_CSS.equals(getSearchType())) {
+			searchCss(sampleLocation, data, found, engines);
+		} else if (SEARCH_MARKERS.equals(getSearchType())) {
+			searchMarkers(sampleLocation, data, found, engines);
+		} else {
+			searchXPaths(sampleLocation, data, found, engines);
+		}
+
+		AnalysisMetrics.Span span = analysis().getMetrics().begin(
+				AnalysisMetrics.Stage.NODE_CREATION);
+		int nodes = 0;
+		long chars = 0;
+		for (int i = 0; i < xpaths.size(); i++) {
+			List<Fragment> fragments = found.get(i);
+			if (fragments == null) {
+				continue; // The query failed
+			}
+			if (cache != null && engines[i] != null) {
+				cache.put(sampleHash, engines[i], xpaths.get(i), fragments);
+			}
+			for (Fragment f : fragments) {
+				addFragmentNode(f.getContent(), web, date, sampleLocation,
+						f.getStartColumnNumber(), f.getStartLineNumber(),
+						f.getEndColumnNumber(), f.getEndLineNumber());
+				nodes++;
+				chars += f.getContent().length();
+			}
 		}
+		span.end(nodes, chars);
+	}
 
-		System.out.println("xpaths.size(): " + xpaths.size());
+	/**
+	 * Gets the engine evaluating a query with the current settings, as known
+	 * by the extraction cache.
+	 * 
+	 * @param query
+	 *            the query
+	 * @return the engine
+	 */
+	private String engineOf(String query) {
+		if (SEARCH_CSS.equals(getSearchType())) {
+			return SEARCH_CSS;
+		}
+		if (SEARCH_MARKERS.equals(getSearchType())) {
+			return SEARCH_MARKERS + "-" + Charset.defaultCharset().name(); // $NON-NLS-1$
+		}
+		return isStreamed() ? SEARCH_XPATH + "-sax" // $NON-NLS-1$
+				: SEARCH_XPATH + "-dom"; // $NON-NLS-1$
+	}
 
+	/**
+	 * Are the XPaths evaluated by the streaming engine? Only if it supports
+	 * every query: its fragments are not written as HtmlUnit's, so one result
+	 * never holds both.
+	 * 
+	 * @return true if the samples are streamed
+	 */
+	private boolean isStreamed() {
+		if (!isStreaming()) {
+			return false;
+		}
+		for (String query : analysis().getQueries()) {
+			if (!StreamingXPathEngine.isSupported(query)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Evaluates the XPaths without fragments yet. When streaming is enabled
+	 * and {@link StreamingXPathEngine} supports every query, they are
+	 * evaluated in a single SAX pass over the sample; otherwise, or if the
+	 * sample cannot be streamed, the HtmlUnit page is loaded, once.
+	 * 
+	 * @param sampleLocation
+	 *            the sample location
+	 * @param data
+	 *            the sample, or null to read it from sampleLocation
+	 * @param found
+	 *            the fragments of every query, null for the ones to evaluate
+	 * @param engines
+	 *            receives the engine of every query evaluated
+	 */
+	private void searchXPaths(String sampleLocation, byte[] data,
+			List<List<Fragment>> found, String[] engines) {
+		List<String> xpaths = analysis().getQueries();
+		List<String> pending = new ArrayList<String>();
+		for (int i = 0; i < xpaths.size(); i++) {
+			if (found.get(i) == null) {
+				pending.add(xpaths.get(i));
+			}
+		}
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		StreamingXPathEngine engine = null;
+		List<List<Fragment>> streamed = null;
+		if (isStreamed()) {
+			engine = new StreamingXPathEngine(pending);
+			if (engine.hasSupportedQueries()) {
+				// A single pass evaluates every supported query
+				AnalysisMetrics.Span span = analysis().getMetrics().begin(
+						AnalysisMetrics.Stage.QUERY);
+				streamed = streamSample(engine, sampleLocation, data);
+				int supported = 0;
+				for (int p = 0; p < pending.size(); p++) {
+					if (engine.isSupported(p)) {
+						supported++;
+					}
+				}
+				span.end(pending.toString(), supported, sizeOf(sampleLocation,
+						data));
+			}
+		}
+
+		boolean loaded = false;
+		int k = 0; // Index in pending
 		// For each xpath
 		for (int i = 0; i < xpaths.size(); i++) {
-			System.out.println("analyzeSamples > treatSample sampleLocation: "
-					+ sampleLocation);
-			System.out.println("analyzeSamples > treatSample xpaths: "
-					+ xpaths.get(i).toString());
+			if (found.get(i) != null) {
+				continue;
+			}
+			int p = k++;
 
-			webClient.setJavaScriptEnabled(false);
-			webClient.setCssEnabled(false);
+			if (streamed != null && engine.isSupported(p)) {
+				found.set(i, streamed.get(p));
+				engines[i] = SEARCH_XPATH + "-sax"; // $NON-NLS-1$
+				continue;
+			}
 
-			TempNode tn;
 			// webClient
 			try {
-				System.out
-						.println("GraphVisualizer.getDestinationFolder(): "
-								+ "file:/"
-								+ GraphVisualizer.getDestinationFolder()
-								+ System.getProperty("file.separator")
-								+ sampleLocation);
-
-				currentPage = webClient.getPage("file://" + sampleLocation);
+				if (!loaded) {
+					currentPage = loadPage(sampleLocation, data);
+					loaded = true;
+				}
 
-				List<?> matches = currentPage.getByXPath(xpaths.get(i));
+				AnalysisMetrics.Span span = analysis().getMetrics().begin(
+						AnalysisMetrics.Stage.QUERY);
+				List<Node> matches = CompiledXPathCache.getInstance()
+						.selectNodes(currentPage, xpaths.get(i), false, true);
 
+				List<Fragment> fragments = new ArrayList<Fragment>();
 				for (int j = 0; j < matches.size(); j++) {
+					if (!(matches.get(j) instanceof HtmlElement)) {
+						continue;
+					}
+					fragments.add(fragmentOf((HtmlElement) matches.get(j)));
+				}
+				span.end(xpaths.get(i), 1, 0);
+				found.set(i, fragments);
+				engines[i] = SEARCH_XPATH + "-dom"; // $NON-NLS-1$
+			} catch (Exception e) {
+				log.warn("Could not evaluate " + xpaths.get(i) + " on " // $NON-NLS-1$ // $NON-NLS-2$
+						+ sampleLocation, e);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the queries without fragments yet as CSS selectors. The page
+	 * is loaded once, only if a selector is evaluated, and every selector is
+	 * compiled only the first time it is used.
+	 * 
+	 * @param sampleLocation
+	 *            the sample location
+	 * @param data
+	 *            the sample, or null to read it from sampleLocation
+	 * @param found
+	 *            the fragments of every query, null for the ones to evaluate
+	 * @param engines
+	 *            receives the engine of every query evaluated
+	 */
+	private void searchCss(String sampleLocation, byte[] data,
+			List<List<Fragment>> found, String[] engines) {
+		List<String> xpaths = analysis().getQueries();
+		if (!found.contains(null)) {
+			return;
+		}
+		try {
+			currentPage = loadPage(sampleLocation, data);
+		} catch (Exception e) {
+			log.warn("Could not load " + sampleLocation + " "
+					+ e.getLocalizedMessage());
+			return;
+		}
+		for (int i = 0; i < xpaths.size(); i++) {
+			if (found.get(i) != null) {
+				continue;
+			}
+			String query = xpaths.get(i);
+			CssSelector selector = selectors.get(query);
+			if (selector == null) {
+				try {
+					selector = new CssSelector(query);
+				} catch (IllegalArgumentException e) {
+					log.warn("Unsupported CSS selector (" + query + ")");
+					continue;
+				}
+				selectors.put(query, selector);
+			}
+			AnalysisMetrics.Span span = analysis().getMetrics().begin(
+					AnalysisMetrics.Stage.QUERY);
+			List<Fragment> fragments = new ArrayList<Fragment>();
+			for (HtmlElement match : selector.select(currentPage)) {
+				fragments.add(fragmentOf(match));
+			}
+			span.end(query, 1, 0);
+			found.set(i, fragments);
+			engines[i] = SEARCH_CSS;
+		}
+	}
 
-					tn = new TempNode(((HtmlDivision) matches.get(j)).asXml());
-					tn.setWeb(web);
-					tn.setDate(date);
+	/**
+	 * Search the raw bytes of the sample with the queries without fragments
+	 * yet as start markers, without parsing it. The sample is written by the
+	 * HTML Downloader with the platform encoding, so it is decoded the same
+	 * way.
+	 * 
+	 * @param sampleLocation
+	 *            the sample location
+	 * @param data
+	 *            the sample, or null to read it from sampleLocation
+	 * @param found
+	 *            the fragments of every query, null for the ones to evaluate
+	 * @param engines
+	 *            receives the engine of every query evaluated
+	 */
+	private void searchMarkers(String sampleLocation, byte[] data,
+			List<List<Fragment>> found, String[] engines) {
+		List<String> xpaths = analysis().getQueries();
+		if (!found.contains(null)) {
+			return;
+		}
+		Charset cs = Charset.defaultCharset();
+		ByteBuffer buf;
+		AnalysisMetrics.Span load = analysis().getMetrics().begin(
+				AnalysisMetrics.Stage.PAGE_LOAD);
+		try {
+			buf = data != null ? ByteBuffer.wrap(data) : BoundaryScanner
+					.map(new File(sampleLocation));
+		} catch (IOException e) {
+			log.warn("Could not read " + sampleLocation + " "
+					+ e.getLocalizedMessage());
+			return;
+		}
+		load.end(sampleLocation, 1, buf.remaining());
+		for (int i = 0; i < xpaths.size(); i++) {
+			if (found.get(i) != null) {
+				continue;
+			}
+			String query = xpaths.get(i);
+			BoundaryScanner scanner = scanners.get(query);
+			if (scanner == null) {
+				try {
+					scanner = new BoundaryScanner(query, cs);
+				} catch (IllegalArgumentException e) {
+					log.warn("Start marker must begin with a tag (" + query
+							+ ")");
+					continue;
+				}
+				scanners.put(query, scanner);
+			}
+			AnalysisMetrics.Span span = analysis().getMetrics().begin(
+					AnalysisMetrics.Stage.QUERY);
+			found.set(i, scanner.scan(buf, cs));
+			span.end(query, 1, buf.remaining());
+			engines[i] = SEARCH_MARKERS + "-" + cs.name(); // $NON-NLS-1$
+		}
+	}
 
-					tn.setFatherId(web);
+	/**
+	 * Gets the fragment of a matching element.
+	 * 
+	 * @param match
+	 *            the element
+	 * @return the fragment
+	 */
+	private static Fragment fragmentOf(HtmlElement match) {
+		return new Fragment(match.asXml(), match.getStartLineNumber(), match
+				.getStartColumnNumber(), match.getEndLineNumber(), match
+				.getEndColumnNumber());
+	}
 
-					tn.addSample(sampleLocation);
+	/**
+	 * Reads a sample.
+	 * 
+	 * @param sampleLocation
+	 *            the sample location
+	 * @return the bytes of the sample
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static byte[] readSample(String sampleLocation) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(sampleLocation, "r"); // $NON-NLS-1$
+		try {
+			byte[] data = new byte[(int) raf.length()];
+			raf.readFully(data);
+			return data;
+		} finally {
+			raf.close();
+		}
+	}
 
-					/* Saving Node limits */
-					tn.setStartColumnNumber(((HtmlDivision) matches.get(j))
-							.getStartColumnNumber());
-					tn.setStartColumnNumber(((HtmlDivision) matches.get(j))
-							.getStartLineNumber());
-					tn.setStartColumnNumber(((HtmlDivision) matches.get(j))
-							.getEndColumnNumber());
-					tn.setStartColumnNumber(((HtmlDivision) matches.get(j))
-							.getEndLineNumber());
+	/**
+	 * Loads the HtmlUnit page of a sample, without JavaScript nor CSS.
+	 * 
+	 * @param sampleLocation
+	 *            the sample location
+	 * @param data
+	 *            the sample, or null to read it from sampleLocation
+	 * @return the page
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private HtmlPage loadPage(String sampleLocation, byte[] data)
+			throws IOException {
+		AnalysisMetrics.Span span = analysis().getMetrics().begin(
+				AnalysisMetrics.Stage.PAGE_LOAD);
+		webClient.setJavaScriptEnabled(false);
+		webClient.setCssEnabled(false);
+		HtmlPage page;
+		if (data == null) {
+			page = webClient.getPage("file://" + sampleLocation); // $NON-NLS-1$
+		} else {
+			StringWebResponse response = new StringWebResponse(new String(
+					data, Charset.defaultCharset()), new URL("file://" // $NON-NLS-1$
+					+ sampleLocation));
+			page = HTMLParser.parseHtml(response, webClient
+					.getCurrentWindow());
+		}
+		span.end(sampleLocation, 1, sizeOf(sampleLocation, data));
+		return page;
+	}
 
-					System.out.println("matches.get(i).toString() "
-							+ tn.getContent());
-					System.out.println("New TempNode i:" + tn.getId()
-							+ "getStartColumnNumber:"
-							+ tn.getStartColumnNumber());
+	/**
+	 * Gets the size of a sample.
+	 * 
+	 * @param sampleLocation
+	 *            the sample location
+	 * @param data
+	 *            the sample, or null to read it from sampleLocation
+	 * @return the bytes
+	 */
+	private static long sizeOf(String sampleLocation, byte[] data) {
+		return data != null ? data.length : new File(sampleLocation).length();
+	}
 
-					// Adding tn to listNodes
-					XPathExtractor.listNodes.add(tn);
-				}
-			} catch (Exception e) {
-				System.out.println("EXception at treatSampleXpath"
-						+ e.toString());
+	/**
+	 * Streams a sample through the engine.
+	 * 
+	 * @param engine
+	 *            the engine
+	 * @param sampleLocation
+	 *            the sample location
+	 * @param data
+	 *            the sample, or null to read it from sampleLocation
+	 * @return the fragments of each query, or null if the sample could not be
+	 *         streamed (the HtmlUnit page is used instead)
+	 */
+	private List<List<Fragment>> streamSample(StreamingXPathEngine engine,
+			String sampleLocation, byte[] data) {
+		InputStream in = null;
+		try {
+			in = data != null ? new ByteArrayInputStream(data)
+					: new BufferedInputStream(new FileInputStream(
+							sampleLocation));
+			return engine.extract(in);
+		} catch (IOException e) {
+			log.warn("Could not stream " + sampleLocation + " "
+					+ e.getLocalizedMessage());
+		} catch (SAXException e) {
+			log.warn("Could not stream " + sampleLocation + " "
+					+ e.getLocalizedMessage());
+		} finally {
+			JOrphanUtils.closeQuietly(in);
+		}
+		return null;
+	}
 
-				e.printStackTrace();
-			}
+	/**
+	 * Creates a TempNode for a match and adds it to listNodes.
+	 * 
+	 * @param content
+	 *            the fragment source
+	 * @param web
+	 *            the web
+	 * @param date
+	 *            the date
+	 * @param sampleLocation
+	 *            the sample location
+	 * @param startColumn
+	 *            the start column number
+	 * @param startLine
+	 *            the start line number
+	 * @param endColumn
+	 *            the end column number
+	 * @param endLine
+	 *            the end line number
+	 */
+	private void addFragmentNode(String content, String web, String date,
+			String sampleLocation, int startColumn, int startLine,
+			int endColumn, int endLine) {
+		TempNode tn = new TempNode(content);
+		tn.setWeb(web);
+		tn.setDate(date);
+
+		tn.setFatherId(web);
+
+		tn.addSample(sampleLocation);
+
+		/* Saving Node limits */
+		tn.setStartColumnNumber(startColumn);
+		tn.setStartLineNumber(startLine);
+		tn.setEndColumnNumber(endColumn);
+		tn.setEndLineNumber(endLine);
+
+		if (TRACE_NODE.isEnabled()) {
+			log.debug("New TempNode " + tn.getId() + " at " + startLine + ":" // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$
+					+ startColumn + " of " + sampleLocation + ", size: " // $NON-NLS-1$ // $NON-NLS-2$
+					+ tn.getSize());
 		}
 
+		// Adding tn to listNodes
+		if (nodeSink != null) {
+			nodeSink.add(tn);
+		} else {
+			analysis().getNodes().add(tn);
+		}
 	}
 }
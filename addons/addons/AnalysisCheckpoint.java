@@ -0,0 +1,493 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.jorphan.util.JOrphanUtils;
+import org.apache.log.Logger;
+
+/**
+ * The Class AnalysisCheckpoint.
+ *
+ * @description What an analysis leaves for the next one on the same capture:
+ *              the offset of the log after the last sample analyzed, the nodes
+ *              found and the similarities already computed between them. The
+ *              next analysis only reads the samples after the offset, and only
+ *              compares the pairs holding a new node.
+ *
+ *              A checkpoint is only reused with the same queries, search type,
+ *              streaming setting and similarity filter, and while the log still starts with the
+ *              same line and has not shrunk.
+ */
+public class AnalysisCheckpoint {
+
+	/** The Constant log. */
+	private static final Logger log = LoggingManager.getLoggerForClass();
+
+	/** The magic number of the checkpoint files. */
+	private static final int MAGIC = 0x58504331; // XPC1
+
+	/** The version of the file format. */
+	private static final int VERSION = 2;
+
+	/** The UTF-8 charset. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8"); // $NON-NLS-1$
+
+	/** The queries. */
+	private final List<String> queries;
+
+	/** The search type. */
+	private final String searchType;
+
+	/** The streaming setting. */
+	private final boolean streaming;
+
+	/** The similarity filter, as text. */
+	private final String similarityFilter;
+
+	/** The first line of the log. */
+	private final String logHeader;
+
+	/** The offset of the log after the last sample analyzed. */
+	private final long logOffset;
+
+	/** The nodes, in the order of the result. */
+	private final List<TempNode> nodes;
+
+	/**
+	 * The similarities, as {node index, node index, distance} sorted by the
+	 * first and then the second index.
+	 */
+	private final List<int[]> similarities;
+
+	/**
+	 * Instantiates a new analysis checkpoint.
+	 *
+	 * @param queries
+	 *            the queries
+	 * @param searchType
+	 *            the search type
+	 * @param streaming
+	 *            the streaming setting
+	 * @param similarityFilter
+	 *            the similarity filter, as text
+	 * @param logHeader
+	 *            the first line of the log
+	 * @param logOffset
+	 *            the offset of the log after the last sample analyzed
+	 * @param nodes
+	 *            the nodes
+	 * @param similarities
+	 *            the similarities
+	 */
+	public AnalysisCheckpoint(List<String> queries, String searchType,
+			boolean streaming, String similarityFilter, String logHeader,
+			long logOffset, List<TempNode> nodes, List<int[]> similarities) {
+		this.queries = queries;
+		this.searchType = searchType;
+		this.streaming = streaming;
+		this.similarityFilter = similarityFilter;
+		this.logHeader = logHeader;
+		this.logOffset = logOffset;
+		this.nodes = nodes;
+		this.similarities = similarities;
+	}
+
+	/**
+	 * Gets the offset of the log after the last sample analyzed.
+	 *
+	 * @return the log offset
+	 */
+	public long getLogOffset() {
+		return logOffset;
+	}
+
+	/**
+	 * Gets the nodes.
+	 *
+	 * @return the nodes
+	 */
+	public List<TempNode> getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Gets the similarities.
+	 *
+	 * @return the similarities
+	 */
+	public List<int[]> getSimilarities() {
+		return similarities;
+	}
+
+	/**
+	 * Checks if the checkpoint can be continued by an analysis.
+	 *
+	 * @param queries
+	 *            the queries of the analysis
+	 * @param searchType
+	 *            the search type of the analysis
+	 * @param streaming
+	 *            the streaming setting of the analysis
+	 * @param similarityFilter
+	 *            the similarity filter of the analysis, as text
+	 * @param logFile
+	 *            the log
+	 * @return true, if the analysis can start at the log offset
+	 */
+	public boolean matches(List<String> queries, String searchType,
+			boolean streaming, String similarityFilter, File logFile) {
+		return this.queries.equals(queries)
+				&& this.searchType.equals(searchType)
+				&& this.streaming == streaming
+				&& this.similarityFilter.equals(similarityFilter)
+				&& logFile.length() >= logOffset
+				&& logHeader.equals(readHeader(logFile));
+	}
+
+	/**
+	 * Reads a checkpoint.
+	 *
+	 * @param file
+	 *            the checkpoint file
+	 * @return the checkpoint, or null if there is none or it cannot be read
+	 */
+	public static AnalysisCheckpoint read(File file) {
+		if (!file.isFile()) {
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				log.warn("Ignoring checkpoint " + file + ": unknown format"); // $NON-NLS-1$ // $NON-NLS-2$
+				return null;
+			}
+			String searchType = readString(in);
+			boolean streaming = in.readBoolean();
+			String similarityFilter = readString(in);
+			int count = in.readInt();
+			List<String> queries = new ArrayList<String>(count);
+			for (int i = 0; i < count; i++) {
+				queries.add(readString(in));
+			}
+			String logHeader = readString(in);
+			long logOffset = in.readLong();
+
+			count = in.readInt();
+			List<TempNode> nodes = new ArrayList<TempNode>(count);
+			for (int i = 0; i < count; i++) {
+				nodes.add(readNode(in));
+			}
+
+			count = in.readInt();
+			List<int[]> similarities = new ArrayList<int[]>(count);
+			for (int i = 0; i < count; i++) {
+				similarities.add(new int[] { in.readInt(), in.readInt(),
+						in.readInt() });
+			}
+			return new AnalysisCheckpoint(queries, searchType, streaming,
+					similarityFilter, logHeader, logOffset, nodes, similarities);
+		} catch (IOException e) {
+			log.warn("Ignoring checkpoint " + file + ": " // $NON-NLS-1$ // $NON-NLS-2$
+					+ e.getLocalizedMessage());
+			return null;
+		} finally {
+			JOrphanUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Writes the checkpoint. It is written beside the file and then renamed,
+	 * so an interrupted write leaves the previous checkpoint.
+	 *
+	 * @param file
+	 *            the checkpoint file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void write(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp"); // $NON-NLS-1$
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, searchType);
+			out.writeBoolean(streaming);
+			writeString(out, similarityFilter);
+			out.writeInt(queries.size());
+			for (String query : queries) {
+				writeString(out, query);
+			}
+			writeString(out, logHeader);
+			out.writeLong(logOffset);
+
+			out.writeInt(nodes.size());
+			for (TempNode tn : nodes) {
+				writeNode(out, tn);
+			}
+
+			out.writeInt(similarities.size());
+			for (int[] s : similarities) {
+				out.writeInt(s[0]);
+				out.writeInt(s[1]);
+				out.writeInt(s[2]);
+			}
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+			throw new IOException("Could not replace " + file); // $NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Reads the samples of the log after an offset. Only complete lines are
+	 * read, so a sample being written by the HTML Downloader is left for the
+	 * next analysis.
+	 *
+	 * @param logFile
+	 *            the log
+	 * @param offset
+	 *            the offset to start at, 0 to skip the first line
+	 * @param webs
+	 *            receives the web of every sample
+	 * @param samples
+	 *            receives the samples
+	 * @return the offset after the last complete line
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static long readSamples(File logFile, long offset,
+			List<String> webs, List<String> samples) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(logFile));
+		try {
+			long skipped = 0;
+			while (skipped < offset) {
+				long n = in.skip(offset - skipped);
+				if (n <= 0) {
+					return offset; // The log shrank
+				}
+				skipped += n;
+			}
+			long position = offset;
+			boolean header = offset == 0;
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			int b;
+			while ((b = in.read()) != -1) {
+				if (b != '\n') {
+					line.write(b);
+					continue;
+				}
+				position += line.size() + 1;
+				String s = new String(line.toByteArray(), Charset
+						.defaultCharset()).trim();
+				line.reset();
+				if (header) {
+					header = false; // Debug line
+					continue;
+				}
+				int at = s.indexOf('@');
+				if (at < 1) {
+					log.warn("Skipping log line: " + s); // $NON-NLS-1$
+					continue;
+				}
+				/* From # to @ */
+				webs.add(s.substring(1, at));
+				samples.add(s.substring(at + 1));
+			}
+			return position;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Gets the offset of the log after a number of lines.
+	 *
+	 * @param logFile
+	 *            the log
+	 * @param lines
+	 *            the lines
+	 * @return the offset, or the length of the log if it has fewer lines
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static long offsetAfterLines(File logFile, int lines)
+			throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(logFile));
+		try {
+			long position = 0;
+			int b;
+			int seen = 0;
+			while (seen < lines && (b = in.read()) != -1) {
+				position++;
+				if (b == '\n') {
+					seen++;
+				}
+			}
+			return position;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the first line of the log.
+	 *
+	 * @param logFile
+	 *            the log
+	 * @return the first line, or an empty string if it cannot be read
+	 */
+	public static String readHeader(File logFile) {
+		try {
+			BufferedReader br = new BufferedReader(new FileReader(logFile));
+			try {
+				String line = br.readLine();
+				return line == null ? "" : line; // $NON-NLS-1$
+			} finally {
+				br.close();
+			}
+		} catch (IOException e) {
+			return ""; // $NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Gets the empty list of similarities of a first analysis.
+	 *
+	 * @return the empty list
+	 */
+	public static List<int[]> noSimilarities() {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Reads a node written by {@link #writeNode(DataOutputStream, TempNode)}.
+	 *
+	 * @param in
+	 *            the in
+	 * @return the node
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static TempNode readNode(DataInputStream in) throws IOException {
+		TempNode tn = new TempNode(readString(in));
+		if (in.readBoolean()) {
+			tn.setWeb(readString(in));
+		}
+		tn.setDate(readString(in));
+		tn.setFatherId(Integer.valueOf(in.readInt()));
+		tn.setStartColumnNumber(in.readInt());
+		tn.setStartLineNumber(in.readInt());
+		tn.setEndColumnNumber(in.readInt());
+		tn.setEndLineNumber(in.readInt());
+		int samples = in.readInt();
+		ArrayList<String> found = new ArrayList<String>(samples);
+		for (int j = 0; j < samples; j++) {
+			found.add(readString(in));
+		}
+		tn.setSamples(found);
+		return tn;
+	}
+
+	/**
+	 * Writes a node: its content, web, date, father, position and samples.
+	 *
+	 * @param out
+	 *            the out
+	 * @param tn
+	 *            the node
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static void writeNode(DataOutputStream out, TempNode tn)
+			throws IOException {
+		writeString(out, tn.getContent());
+		out.writeBoolean(tn.getWeb() != null);
+		if (tn.getWeb() != null) {
+			writeString(out, tn.getWeb());
+		}
+		writeString(out, tn.getDate());
+		out.writeInt(tn.getFatherId().intValue());
+		out.writeInt(tn.getStartColumnNumber().intValue());
+		out.writeInt(tn.getStartLineNumber().intValue());
+		out.writeInt(tn.getEndColumnNumber().intValue());
+		out.writeInt(tn.getEndLineNumber().intValue());
+		List<String> samples = tn.getSamples();
+		out.writeInt(samples.size());
+		for (String sample : samples) {
+			writeString(out, sample);
+		}
+	}
+
+	/**
+	 * Reads a string of any length.
+	 *
+	 * @param in
+	 *            the in
+	 * @return the string
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static String readString(DataInputStream in) throws IOException {
+		byte[] b = new byte[in.readInt()];
+		in.readFully(b);
+		return new String(b, UTF_8);
+	}
+
+	/**
+	 * Writes a string of any length; writeUTF is limited to 64 KB.
+	 *
+	 * @param out
+	 *            the out
+	 * @param s
+	 *            the s
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static void writeString(DataOutputStream out, String s)
+			throws IOException {
+		byte[] b = s.getBytes(UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+}
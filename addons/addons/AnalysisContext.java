@@ -0,0 +1,327 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jmeter.util.JMeterUtils;
+
+/**
+ * The Class AnalysisContext.
+ *
+ * @description Everything one run of XPathExtractor.analyzeSamples reads and
+ *              builds: the capture to analyze, the queries, the result file
+ *              and the nodes found. Each analysis has its own context, so
+ *              several analyses can run at the same time in one JVM, including
+ *              while HTML Downloader keeps capturing.
+ *
+ *              The inputs are fixed when the context is created; the queries
+ *              are copied, so editing the query list afterwards does not
+ *              change a running analysis. A checkpoint file can be set before
+ *              the analysis starts to continue the previous one.
+ *
+ *              The node list holds every node while they fit the node budget;
+ *              past it, a full analysis spills them to disk, and the list only
+ *              holds the roots and the nodes found since the last spill. See
+ *              {@link NodeStore}.
+ */
+public class AnalysisContext {
+
+	/** The default name of the capture log. */
+	public static final String DEFAULT_LOG_FILE_NAME = "log.txt"; // $NON-NLS-1$
+
+	/** The capture folder. */
+	private final File captureFolder;
+
+	/** The log file. */
+	private final File logFile;
+
+	/** The result file. */
+	private final File resultFile;
+
+	/** The queries. */
+	private final List<String> queries;
+
+	/** The nodes found, in order. Only modified by the analysis thread. */
+	private final List<TempNode> nodes = new ArrayList<TempNode>();
+
+	/** The checkpoint file, or null. */
+	private File checkpointFile;
+
+	/** The extraction cache, or null. */
+	private ExtractionCache extractionCache;
+
+	/** The heap budget of the nodes in bytes, 0 for none. */
+	private long nodeBudget = NodeStore.defaultBudget();
+
+	/** The folder of the spilled nodes, or null for the temporary folder. */
+	private File spillFolder;
+
+	/** The nodes spilled to disk, not in the node list. */
+	private int spilledNodes;
+
+	/** The similarity edges kept in the result. */
+	private SimilarityFilter similarityFilter = SimilarityFilter
+			.fromProperties();
+
+	/** Is the result also written as a binary graph? */
+	private boolean binaryExport = JMeterUtils.getPropDefault(
+			"xpathextractor.export.binary", false); // $NON-NLS-1$
+
+	/** The ids of the edges of the result. */
+	private final AtomicInteger edgeIds = new AtomicInteger();
+
+	/** The metrics of the analysis. */
+	private final AnalysisMetrics metrics = new AnalysisMetrics();
+
+	/**
+	 * Instantiates a new analysis context.
+	 *
+	 * @param captureFolder
+	 *            the folder holding the capture log
+	 * @param logFileName
+	 *            the name of the capture log, null for log.txt
+	 * @param resultFile
+	 *            the GraphML result, relative to the capture folder unless
+	 *            absolute
+	 * @param queries
+	 *            the queries
+	 */
+	public AnalysisContext(File captureFolder, String logFileName,
+			File resultFile, List<String> queries) {
+		if (captureFolder == null || resultFile == null || queries == null) {
+			throw new IllegalArgumentException(
+					"The capture folder, result file and queries are required"); // $NON-NLS-1$
+		}
+		this.captureFolder = captureFolder;
+		this.logFile = new File(captureFolder,
+				logFileName == null ? DEFAULT_LOG_FILE_NAME : logFileName);
+		this.resultFile = resultFile.isAbsolute() ? resultFile : new File(
+				captureFolder, resultFile.getPath());
+		this.queries = Collections.unmodifiableList(new ArrayList<String>(
+				queries));
+	}
+
+	/**
+	 * Gets the capture folder.
+	 *
+	 * @return the capture folder
+	 */
+	public File getCaptureFolder() {
+		return captureFolder;
+	}
+
+	/**
+	 * Gets the capture log.
+	 *
+	 * @return the log file
+	 */
+	public File getLogFile() {
+		return logFile;
+	}
+
+	/**
+	 * Gets the result file.
+	 *
+	 * @return the result file
+	 */
+	public File getResultFile() {
+		return resultFile;
+	}
+
+	/**
+	 * Gets the queries.
+	 *
+	 * @return the unmodifiable queries
+	 */
+	public List<String> getQueries() {
+		return queries;
+	}
+
+	/**
+	 * Gets the checkpoint file.
+	 *
+	 * @return the checkpoint file, or null if the analysis starts from scratch
+	 */
+	public File getCheckpointFile() {
+		return checkpointFile;
+	}
+
+	/**
+	 * Sets the checkpoint file: the analysis continues the checkpoint if it
+	 * matches, and leaves a new one for the next analysis.
+	 *
+	 * @param checkpointFile
+	 *            the checkpoint file, relative to the capture folder unless
+	 *            absolute, or null
+	 */
+	public void setCheckpointFile(File checkpointFile) {
+		this.checkpointFile = checkpointFile == null
+				|| checkpointFile.isAbsolute() ? checkpointFile : new File(
+				captureFolder, checkpointFile.getPath());
+	}
+
+	/**
+	 * Gets the extraction cache.
+	 *
+	 * @return the extraction cache, or null if every query is evaluated
+	 */
+	public ExtractionCache getExtractionCache() {
+		return extractionCache;
+	}
+
+	/**
+	 * Sets the extraction cache.
+	 *
+	 * @param extractionCache
+	 *            the extraction cache, or null
+	 */
+	public void setExtractionCache(ExtractionCache extractionCache) {
+		this.extractionCache = extractionCache;
+	}
+
+	/**
+	 * Gets the nodes found.
+	 *
+	 * @return the nodes
+	 */
+	public List<TempNode> getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Gets the number of nodes found, in the node list and spilled.
+	 *
+	 * @return the node count
+	 */
+	public int getNodeCount() {
+		return nodes.size() + spilledNodes;
+	}
+
+	/**
+	 * Sets the nodes spilled to disk.
+	 *
+	 * @param spilledNodes
+	 *            the nodes not in the node list
+	 */
+	public void setSpilledNodes(int spilledNodes) {
+		this.spilledNodes = spilledNodes;
+	}
+
+	/**
+	 * Gets the heap budget of the nodes.
+	 *
+	 * @return the budget in bytes, 0 for none
+	 */
+	public long getNodeBudget() {
+		return nodeBudget;
+	}
+
+	/**
+	 * Sets the heap budget of the nodes.
+	 *
+	 * @param nodeBudget
+	 *            the budget in bytes, 0 for none
+	 */
+	public void setNodeBudget(long nodeBudget) {
+		this.nodeBudget = nodeBudget;
+	}
+
+	/**
+	 * Gets the folder of the spilled nodes.
+	 *
+	 * @return the folder, or null for the temporary folder
+	 */
+	public File getSpillFolder() {
+		return spillFolder;
+	}
+
+	/**
+	 * Sets the folder of the spilled nodes, on a local disk.
+	 *
+	 * @param spillFolder
+	 *            the folder, or null for the temporary folder
+	 */
+	public void setSpillFolder(File spillFolder) {
+		this.spillFolder = spillFolder;
+	}
+
+	/**
+	 * Gets the similarity edges kept in the result.
+	 *
+	 * @return the filter
+	 */
+	public SimilarityFilter getSimilarityFilter() {
+		return similarityFilter;
+	}
+
+	/**
+	 * Sets the similarity edges kept in the result.
+	 *
+	 * @param similarityFilter
+	 *            the filter, {@link SimilarityFilter#ALL} for every edge
+	 */
+	public void setSimilarityFilter(SimilarityFilter similarityFilter) {
+		this.similarityFilter = similarityFilter;
+	}
+
+	/**
+	 * Is the result also written as a binary graph, see {@link CsrGraph}?
+	 *
+	 * @return true, if written
+	 */
+	public boolean isBinaryExport() {
+		return binaryExport;
+	}
+
+	/**
+	 * Sets whether the result is also written as a binary graph.
+	 *
+	 * @param binaryExport
+	 *            true to write it
+	 */
+	public void setBinaryExport(boolean binaryExport) {
+		this.binaryExport = binaryExport;
+	}
+
+	/**
+	 * Gets the metrics of the analysis.
+	 *
+	 * @return the metrics
+	 */
+	public AnalysisMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Gets the next edge id.
+	 *
+	 * @return the edge id
+	 */
+	public int nextEdgeId() {
+		return edgeIds.getAndIncrement();
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+/**
+ * The Interface AnalysisListener.
+ *
+ * @description Follows a run of XPathExtractor.analyzeSamples. The methods are
+ *              called from the thread running the analysis, which checks
+ *              isCancelled between two samples (or two nodes while computing
+ *              the similarities) and stops if it returns true.
+ */
+public interface AnalysisListener {
+
+	/**
+	 * The phases of an analysis, in order.
+	 */
+	public enum Phase {
+
+		/** Reading the capture log. */
+		LOG("Loading log"), // $NON-NLS-1$
+
+		/** Searching the fragments of every sample. */
+		EXTRACTION("Extracting fragments"), // $NON-NLS-1$
+
+		/** Nesting the fragments of every web. */
+		NESTING("Nesting fragments"), // $NON-NLS-1$
+
+		/** Writing the XML of every sample. */
+		SAMPLE_XML("Writing sample XML"), // $NON-NLS-1$
+
+		/** Comparing the fragments. */
+		SIMILARITY("Computing similarity"), // $NON-NLS-1$
+
+		/** Writing the GraphML result. */
+		RESULT_WRITE("Writing result"); // $NON-NLS-1$
+
+		/** The label. */
+		private final String label;
+
+		/**
+		 * Instantiates a new phase.
+		 *
+		 * @param label
+		 *            the label
+		 */
+		private Phase(String label) {
+			this.label = label;
+		}
+
+		/**
+		 * Gets the label.
+		 *
+		 * @return the label
+		 */
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	/**
+	 * A phase starts.
+	 *
+	 * @param phase
+	 *            the phase
+	 * @param size
+	 *            the number of steps of the phase
+	 */
+	void phaseStarted(Phase phase, int size);
+
+	/**
+	 * Steps of the current phase are done.
+	 *
+	 * @param phase
+	 *            the phase
+	 * @param done
+	 *            the number of steps done
+	 */
+	void progress(Phase phase, int done);
+
+	/**
+	 * Checks if the analysis must stop.
+	 *
+	 * @return true, if cancelled
+	 */
+	boolean isCancelled();
+}
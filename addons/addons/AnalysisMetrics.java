@@ -0,0 +1,529 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The Class AnalysisMetrics.
+ *
+ * @description Where the time of an analysis goes: the wall and CPU time, the
+ *              calls, the items and the bytes of every stage of
+ *              XPathExtractor.analyzeSamples, and the distance computations
+ *              each pruning rule saved. The stages are finer than the phases
+ *              of {@link AnalysisListener}: the extraction is split into the
+ *              page loads, the query evaluations and the node creations, and
+ *              they can overlap when several threads extract.
+ *
+ *              A stage is timed by a {@link Span}, from the thread doing the
+ *              work, so the CPU time is the one of that thread. The counters
+ *              are atomic and shared by the worker threads of the analysis.
+ *              The report is written as JSON next to the GraphML result.
+ */
+public class AnalysisMetrics {
+
+	/**
+	 * The stages of an analysis.
+	 */
+	public enum Stage {
+
+		/** Reading the capture log. */
+		LOG_READ("logRead", "Log read", null), // $NON-NLS-1$ // $NON-NLS-2$
+
+		/** Loading the HtmlUnit page of a sample. */
+		PAGE_LOAD("pageLoad", "Page load", EventSink.Kind.PAGE_PARSE), // $NON-NLS-1$ // $NON-NLS-2$
+
+		/** Evaluating the queries on a sample. */
+		QUERY("queryEvaluation", "Query evaluation", EventSink.Kind.QUERY), // $NON-NLS-1$ // $NON-NLS-2$
+
+		/** Creating the nodes of the fragments found. */
+		NODE_CREATION("nodeCreation", "Node creation", null), // $NON-NLS-1$ // $NON-NLS-2$
+
+		/** Nesting the nodes, orderNodes. */
+		NESTING("orderNodes", "Nesting", null), // $NON-NLS-1$ // $NON-NLS-2$
+
+		/** Writing the XML of a sample. */
+		SAMPLE_WRITE("sampleWrite", "Sample XML", EventSink.Kind.GRAPHML_FLUSH), // $NON-NLS-1$ // $NON-NLS-2$
+
+		/** Comparing the fragments. The batches are events of their own. */
+		DISTANCE("distance", "Distances", null), // $NON-NLS-1$ // $NON-NLS-2$
+
+		/** Writing the GraphML result. */
+		RESULT_WRITE("resultWrite", "Result write", EventSink.Kind.GRAPHML_FLUSH), // $NON-NLS-1$ // $NON-NLS-2$
+
+		/** Writing the binary graph of the result. */
+		BINARY_WRITE("binaryWrite", "Binary graph", null); // $NON-NLS-1$ // $NON-NLS-2$
+
+		/** The key in the report. */
+		private final String key;
+
+		/** The label. */
+		private final String label;
+
+		/** The events of its calls, or null. */
+		private final EventSink.Kind kind;
+
+		/**
+		 * Instantiates a new stage.
+		 *
+		 * @param key
+		 *            the key
+		 * @param label
+		 *            the label
+		 * @param kind
+		 *            the events of its calls, or null
+		 */
+		private Stage(String key, String label, EventSink.Kind kind) {
+			this.key = key;
+			this.label = label;
+			this.kind = kind;
+		}
+
+		/**
+		 * Gets the key in the report.
+		 *
+		 * @return the key
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * Gets the label.
+		 *
+		 * @return the label
+		 */
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	/**
+	 * The rules skipping a distance computation.
+	 */
+	public enum Prune {
+
+		/** One of the nodes is the root of a web. */
+		ROOT("root"), // $NON-NLS-1$
+
+		/** The contents differ in length by 10 characters or more. */
+		LENGTH("length"), // $NON-NLS-1$
+
+		/** The distance is known from the checkpoint. */
+		CHECKPOINT("checkpoint"); // $NON-NLS-1$
+
+		/** The key in the report. */
+		private final String key;
+
+		/**
+		 * Instantiates a new prune.
+		 *
+		 * @param key
+		 *            the key
+		 */
+		private Prune(String key) {
+			this.key = key;
+		}
+
+		/**
+		 * Gets the key in the report.
+		 *
+		 * @return the key
+		 */
+		public String getKey() {
+			return key;
+		}
+	}
+
+	/** The counters of every stage. */
+	private static final int WALL = 0, CPU = 1, CALLS = 2, ITEMS = 3,
+			BYTES = 4, COUNTERS = 5;
+
+	/** The events of the stage calls. */
+	private static final EventSink EVENTS = EventSinks.get();
+
+	/** The threads. */
+	private static final ThreadMXBean THREADS = ManagementFactory
+			.getThreadMXBean();
+
+	/** Is the CPU time of the threads measured? */
+	private static final boolean CPU_TIME = THREADS
+			.isCurrentThreadCpuTimeSupported()
+			&& THREADS.isThreadCpuTimeEnabled();
+
+	/** The counters of the stages. */
+	private final AtomicLongArray stages = new AtomicLongArray(Stage
+			.values().length
+			* COUNTERS);
+
+	/** The distance computations skipped by every rule. */
+	private final AtomicLongArray skipped = new AtomicLongArray(Prune
+			.values().length);
+
+	/** When the analysis started. */
+	private final AtomicLong started = new AtomicLong();
+
+	/** When the analysis ended, 0 while it runs. */
+	private final AtomicLong ended = new AtomicLong();
+
+	/**
+	 * The Class Span.
+	 *
+	 * @description The timing of one call of a stage, ended by the thread
+	 *              that began it. The call is also an event of the
+	 *              {@link EventSink}, if the stage has a kind of event.
+	 */
+	public final class Span {
+
+		/** The stage. */
+		private final Stage stage;
+
+		/** The event, or null. */
+		private final EventSink.Event event;
+
+		/** The wall time at the start. */
+		private final long wall;
+
+		/** The CPU time of the thread at the start. */
+		private final long cpu;
+
+		/**
+		 * Instantiates a new span.
+		 *
+		 * @param stage
+		 *            the stage
+		 */
+		private Span(Stage stage) {
+			this.stage = stage;
+			this.event = stage.kind == null ? null : EVENTS.begin(stage.kind);
+			this.cpu = cpuTime();
+			this.wall = System.nanoTime();
+		}
+
+		/**
+		 * Ends the span.
+		 *
+		 * @param items
+		 *            the items processed
+		 * @param bytes
+		 *            the bytes processed
+		 */
+		public void end(long items, long bytes) {
+			end(null, items, bytes);
+		}
+
+		/**
+		 * Ends the span, and commits its event with a subject.
+		 *
+		 * @param subject
+		 *            the sample, query or file of the call
+		 * @param items
+		 *            the items processed
+		 * @param bytes
+		 *            the bytes processed
+		 */
+		public void end(String subject, long items, long bytes) {
+			if (event != null) {
+				event.commit(subject, items, bytes);
+			}
+			long w = System.nanoTime() - wall;
+			long c = cpuTime() - cpu;
+			int base = stage.ordinal() * COUNTERS;
+			stages.addAndGet(base + WALL, w);
+			stages.addAndGet(base + CPU, c);
+			stages.incrementAndGet(base + CALLS);
+			stages.addAndGet(base + ITEMS, items);
+			stages.addAndGet(base + BYTES, bytes);
+		}
+	}
+
+	/**
+	 * Marks the start of the analysis, if not started yet.
+	 */
+	public void start() {
+		started.compareAndSet(0, System.nanoTime());
+	}
+
+	/**
+	 * Marks the end of the analysis.
+	 */
+	public void end() {
+		ended.set(System.nanoTime());
+	}
+
+	/**
+	 * Begins a call of a stage.
+	 *
+	 * @param stage
+	 *            the stage
+	 * @return the span to end when the call is done
+	 */
+	public Span begin(Stage stage) {
+		return new Span(stage);
+	}
+
+	/**
+	 * Counts distance computations skipped by a rule.
+	 *
+	 * @param rule
+	 *            the rule
+	 * @param pairs
+	 *            the pairs not compared
+	 */
+	public void skip(Prune rule, long pairs) {
+		skipped.addAndGet(rule.ordinal(), pairs);
+	}
+
+	/**
+	 * Gets the wall time of a stage.
+	 *
+	 * @param stage
+	 *            the stage
+	 * @return the nanoseconds
+	 */
+	public long getWallNanos(Stage stage) {
+		return get(stage, WALL);
+	}
+
+	/**
+	 * Gets the CPU time of a stage, summed over its threads.
+	 *
+	 * @param stage
+	 *            the stage
+	 * @return the nanoseconds, 0 if the JVM does not measure it
+	 */
+	public long getCpuNanos(Stage stage) {
+		return get(stage, CPU);
+	}
+
+	/**
+	 * Gets the calls of a stage.
+	 *
+	 * @param stage
+	 *            the stage
+	 * @return the calls
+	 */
+	public long getCalls(Stage stage) {
+		return get(stage, CALLS);
+	}
+
+	/**
+	 * Gets the items of a stage: samples, pages, queries, nodes or distance
+	 * computations.
+	 *
+	 * @param stage
+	 *            the stage
+	 * @return the items
+	 */
+	public long getItems(Stage stage) {
+		return get(stage, ITEMS);
+	}
+
+	/**
+	 * Gets the bytes processed by a stage: the characters of the fragments for
+	 * the node creation and the distances.
+	 *
+	 * @param stage
+	 *            the stage
+	 * @return the bytes
+	 */
+	public long getBytes(Stage stage) {
+		return get(stage, BYTES);
+	}
+
+	/**
+	 * Gets the distance computations skipped by a rule.
+	 *
+	 * @param rule
+	 *            the rule
+	 * @return the pairs not compared
+	 */
+	public long getSkipped(Prune rule) {
+		return skipped.get(rule.ordinal());
+	}
+
+	/**
+	 * Gets the wall time of the analysis.
+	 *
+	 * @return the nanoseconds, until now if it runs
+	 */
+	public long getElapsedNanos() {
+		long start = started.get();
+		if (start == 0) {
+			return 0;
+		}
+		long end = ended.get();
+		return (end == 0 ? System.nanoTime() : end) - start;
+	}
+
+	/**
+	 * Gets the file of the report of a result: its name without extension,
+	 * followed by .metrics.json.
+	 *
+	 * @param resultFile
+	 *            the GraphML result
+	 * @return the report file
+	 */
+	public static File reportFile(File resultFile) {
+		String name = resultFile.getName();
+		int dot = name.lastIndexOf('.');
+		return new File(resultFile.getParentFile(), (dot > 0 ? name
+				.substring(0, dot) : name)
+				+ ".metrics.json"); // $NON-NLS-1$
+	}
+
+	/**
+	 * Writes the report as JSON.
+	 *
+	 * @param file
+	 *            the file
+	 * @param resultFile
+	 *            the result the report is about
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void writeJson(File file, File resultFile) throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8"); // $NON-NLS-1$
+		try {
+			out.write(toJson(resultFile));
+			out.write('\n');
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Gets the report as JSON.
+	 *
+	 * @param resultFile
+	 *            the result the report is about
+	 * @return the JSON
+	 */
+	public String toJson(File resultFile) {
+		StringBuilder sb = new StringBuilder(1024);
+		sb.append("{\n  \"result\": \"") // $NON-NLS-1$
+				.append(AnalyzerCli.escape(resultFile.getPath()))
+				.append("\",\n  \"wallMs\": ").append(millis(getElapsedNanos())) // $NON-NLS-1$
+				.append(",\n  \"cpuTimeMeasured\": ").append(CPU_TIME) // $NON-NLS-1$
+				.append(",\n  \"stages\": {"); // $NON-NLS-1$
+		for (Stage s : Stage.values()) {
+			sb.append(s.ordinal() > 0 ? "," : "").append("\n    \"") // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$
+					.append(s.getKey()).append("\": {\"wallMs\": ") // $NON-NLS-1$
+					.append(millis(getWallNanos(s))).append(", \"cpuMs\": ") // $NON-NLS-1$
+					.append(millis(getCpuNanos(s))).append(", \"calls\": ") // $NON-NLS-1$
+					.append(getCalls(s)).append(", \"items\": ") // $NON-NLS-1$
+					.append(getItems(s)).append(", \"bytes\": ") // $NON-NLS-1$
+					.append(getBytes(s)).append('}');
+		}
+		sb.append("\n  },\n  \"distances\": {\"computed\": ") // $NON-NLS-1$
+				.append(getItems(Stage.DISTANCE)).append(", \"skipped\": {"); // $NON-NLS-1$
+		for (Prune p : Prune.values()) {
+			sb.append(p.ordinal() > 0 ? ", " : "").append('"') // $NON-NLS-1$ // $NON-NLS-2$
+					.append(p.getKey()).append("\": ").append(getSkipped(p)); // $NON-NLS-1$
+		}
+		return sb.append("}}\n}").toString(); // $NON-NLS-1$
+	}
+
+	/**
+	 * Gets a short summary: the stages taking the most time, and the distance
+	 * computations made and skipped.
+	 *
+	 * @return the summary
+	 */
+	public String summary() {
+		Stage first = null, second = null;
+		for (Stage s : Stage.values()) {
+			long w = getWallNanos(s);
+			if (first == null || w > getWallNanos(first)) {
+				second = first;
+				first = s;
+			} else if (second == null || w > getWallNanos(second)) {
+				second = s;
+			}
+		}
+		long skippedPairs = 0;
+		for (Prune p : Prune.values()) {
+			skippedPairs += getSkipped(p);
+		}
+		return String.format(Locale.ROOT,
+				"%s %.1f s, %s %.1f s; %d distances computed, %d skipped", // $NON-NLS-1$
+				first.getLabel(), getWallNanos(first) / 1e9, second
+						.getLabel(), getWallNanos(second) / 1e9, getItems(
+						Stage.DISTANCE), skippedPairs);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Stage s : Stage.values()) {
+			sb.append(s.ordinal() > 0 ? ", " : "").append(s.getKey()).append( // $NON-NLS-1$ // $NON-NLS-2$
+					'=').append(millis(getWallNanos(s))).append("ms"); // $NON-NLS-1$
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Gets a counter of a stage.
+	 *
+	 * @param stage
+	 *            the stage
+	 * @param counter
+	 *            the counter
+	 * @return the value
+	 */
+	private long get(Stage stage, int counter) {
+		return stages.get(stage.ordinal() * COUNTERS + counter);
+	}
+
+	/**
+	 * Gets the CPU time of the current thread.
+	 *
+	 * @return the nanoseconds, 0 if not measured
+	 */
+	private static long cpuTime() {
+		return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : 0;
+	}
+
+	/**
+	 * Formats nanoseconds as milliseconds.
+	 *
+	 * @param nanos
+	 *            the nanoseconds
+	 * @return the milliseconds, with 3 decimals
+	 */
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", Double.valueOf(nanos / 1e6)); // $NON-NLS-1$
+	}
+}
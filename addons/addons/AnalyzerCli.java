@@ -0,0 +1,453 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.jmeter.extractor.XPathExtractor;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * The Class AnalyzerCli.
+ *
+ * @description Runs the "Build XML file" analysis without JMeter's GUI, for
+ *              batch analyses on servers:
+ *
+ *              <pre>
+ * java -cp lib/*:lib/ext/* addons.AnalyzerCli [options] captureFolder queryFile output [workers]
+ * </pre>
+ *
+ *              The query file holds one query per line; blank lines and lines
+ *              starting with '#' are ignored. The analysis logs through
+ *              JMeter's logging, and a single JSON line summarizing the run is
+ *              printed on the standard output. The exit code is 0 on success, 1
+ *              if the analysis failed and 2 for a usage error.
+ *
+ *              With --checkpoint the analysis continues the checkpoint left by
+ *              the previous one, by default log.txt.checkpoint in the capture
+ *              folder, and only analyzes the samples logged since. With
+ *              --cache the fragments of every query and sample are kept, by
+ *              default in .extraction-cache in the capture folder, and only
+ *              the queries or samples not seen before are evaluated.
+ *
+ *              --neighbours=k keeps the similarity edges of the k closest
+ *              neighbours of every node, and --max-distance=d the ones whose
+ *              normalized distance is at most d; see {@link SimilarityFilter}.
+ *              --binary also writes the result as a memory-mapped binary
+ *              graph next to it; see {@link CsrGraph}.
+ */
+public final class AnalyzerCli implements AnalysisListener {
+
+	/** The Constant log. */
+	private static final Logger log = LoggingManager.getLoggerForClass();
+
+	/** The exit code of a completed analysis. */
+	public static final int EXIT_OK = 0;
+
+	/** The exit code of a failed analysis. */
+	public static final int EXIT_FAILED = 1;
+
+	/** The exit code of a usage error. */
+	public static final int EXIT_USAGE = 2;
+
+	/** The usage. */
+	private static final String USAGE = "Usage: AnalyzerCli [--search=xpath|css|markers] [--streaming] [--log=log.txt] [--staged[=queueCapacity]] [--checkpoint[=file]] [--cache[=folder]] [--budget=KB] [--neighbours=k] [--max-distance=0..1] [--binary]" // $NON-NLS-1$
+			+ " captureFolder queryFile output [workers]"; // $NON-NLS-1$
+
+	/** The suffix of the default checkpoint, after the log name. */
+	private static final String CHECKPOINT_SUFFIX = ".checkpoint"; // $NON-NLS-1$
+
+	/** The default capacity of the queues of a staged analysis. */
+	private static final int DEFAULT_CAPACITY = 64;
+
+	/** The stages of a staged analysis. */
+	private List<StagedPipeline.StageMetrics> stages;
+
+	/** The extraction cache, or null. */
+	private ExtractionCache cache;
+
+	/** The duration of every phase, in milliseconds. */
+	private final Map<Phase, Long> durations = new EnumMap<Phase, Long>(
+			Phase.class);
+
+	/** The number of steps of every phase. */
+	private final Map<Phase, Integer> sizes = new EnumMap<Phase, Integer>(
+			Phase.class);
+
+	/** The current phase. */
+	private Phase phase;
+
+	/** The start time of the current phase. */
+	private long phaseStart;
+
+	/**
+	 * Instantiates a new analyzer cli.
+	 */
+	private AnalyzerCli() {
+		// Created by main
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the arguments
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true"); // $NON-NLS-1$ // $NON-NLS-2$
+		System.exit(run(args));
+	}
+
+	/**
+	 * Runs an analysis.
+	 *
+	 * @param args
+	 *            the arguments
+	 * @return the exit code
+	 */
+	public static int run(String[] args) {
+		String searchType = XPathExtractor.SEARCH_XPATH;
+		String logName = AnalysisContext.DEFAULT_LOG_FILE_NAME;
+		boolean streaming = false;
+		int staged = 0;
+		String checkpoint = null;
+		String cache = null;
+		long budget = -1;
+		int neighbours = -1;
+		double maxDistance = -1;
+		boolean binary = false;
+		List<String> positional = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.startsWith("--search=")) { // $NON-NLS-1$
+				searchType = arg.substring(arg.indexOf('=') + 1);
+			} else if (arg.equals("--streaming")) { // $NON-NLS-1$
+				streaming = true;
+			} else if (arg.equals("--staged")) { // $NON-NLS-1$
+				staged = DEFAULT_CAPACITY;
+			} else if (arg.startsWith("--staged=")) { // $NON-NLS-1$
+				try {
+					staged = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+				} catch (NumberFormatException e) {
+					staged = -1;
+				}
+				if (staged < 1) {
+					System.err.println(USAGE);
+					return EXIT_USAGE;
+				}
+			} else if (arg.equals("--checkpoint")) { // $NON-NLS-1$
+				checkpoint = ""; // $NON-NLS-1$
+			} else if (arg.startsWith("--checkpoint=")) { // $NON-NLS-1$
+				checkpoint = arg.substring(arg.indexOf('=') + 1);
+			} else if (arg.equals("--cache")) { // $NON-NLS-1$
+				cache = ExtractionCache.DEFAULT_FOLDER_NAME;
+			} else if (arg.startsWith("--cache=")) { // $NON-NLS-1$
+				cache = arg.substring(arg.indexOf('=') + 1);
+			} else if (arg.startsWith("--budget=")) { // $NON-NLS-1$
+				try {
+					budget = Long.parseLong(arg.substring(arg.indexOf('=') + 1));
+				} catch (NumberFormatException e) {
+					budget = -1;
+				}
+				if (budget < 0) {
+					System.err.println(USAGE);
+					return EXIT_USAGE;
+				}
+			} else if (arg.startsWith("--neighbours=")) { // $NON-NLS-1$
+				try {
+					neighbours = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+				} catch (NumberFormatException e) {
+					neighbours = -1;
+				}
+				if (neighbours < 0) {
+					System.err.println(USAGE);
+					return EXIT_USAGE;
+				}
+			} else if (arg.startsWith("--max-distance=")) { // $NON-NLS-1$
+				try {
+					maxDistance = Double.parseDouble(arg.substring(arg.indexOf('=') + 1));
+				} catch (NumberFormatException e) {
+					maxDistance = -1;
+				}
+				if (!(maxDistance >= 0 && maxDistance <= 1)) {
+					System.err.println(USAGE);
+					return EXIT_USAGE;
+				}
+			} else if (arg.equals("--binary")) { // $NON-NLS-1$
+				binary = true;
+			} else if (arg.startsWith("--log=")) { // $NON-NLS-1$
+				logName = arg.substring(arg.indexOf('=') + 1);
+			} else {
+				positional.add(arg);
+			}
+		}
+		if (positional.size() < 3 || positional.size() > 4
+				|| !isSearchType(searchType)
+				|| (checkpoint != null && staged > 0)) {
+			System.err.println(USAGE);
+			return EXIT_USAGE;
+		}
+		File folder = new File(positional.get(0));
+		File queryFile = new File(positional.get(1));
+		File output = new File(positional.get(2)).getAbsoluteFile();
+		int workers = Runtime.getRuntime().availableProcessors();
+		if (positional.size() == 4) {
+			try {
+				workers = Integer.parseInt(positional.get(3));
+			} catch (NumberFormatException e) {
+				workers = 0;
+			}
+		}
+		if (workers < 1 || !folder.isDirectory() || !queryFile.isFile()) {
+			System.err.println(USAGE);
+			return EXIT_USAGE;
+		}
+
+		AnalyzerCli cli = new AnalyzerCli();
+		long start = System.currentTimeMillis();
+		boolean completed;
+		String error = null;
+		AnalysisContext context = null;
+		try {
+			context = new AnalysisContext(folder.getAbsoluteFile(), logName,
+					output, readQueries(queryFile));
+			if (checkpoint != null) {
+				context.setCheckpointFile(new File(
+						checkpoint.length() > 0 ? checkpoint : logName
+								+ CHECKPOINT_SUFFIX));
+			}
+			if (budget >= 0) {
+				context.setNodeBudget(budget * 1024);
+			}
+			if (neighbours >= 0 || maxDistance >= 0) {
+				SimilarityFilter filter = context.getSimilarityFilter();
+				context.setSimilarityFilter(new SimilarityFilter(
+						neighbours >= 0 ? neighbours : filter.getNeighbours(),
+						maxDistance >= 0 ? maxDistance : filter.getMaxDistance()));
+			}
+			if (binary) {
+				context.setBinaryExport(true);
+			}
+			if (cache != null) {
+				File cacheFolder = new File(cache);
+				cli.cache = new ExtractionCache(cacheFolder.isAbsolute() ? cacheFolder
+						: new File(context.getCaptureFolder(), cache));
+				context.setExtractionCache(cli.cache);
+			}
+
+			XPathExtractor extractor = new XPathExtractor();
+			extractor.setSearchType(searchType);
+			extractor.setStreaming(streaming);
+			if (staged > 0) {
+				completed = extractor.analyzeSamplesStaged(context, cli, workers,
+						workers, staged);
+				cli.stages = extractor.getPipelineMetrics();
+			} else {
+				completed = extractor.analyzeSamples(context, cli, workers);
+			}
+			completed &= output.isFile();
+		} catch (Exception e) {
+			log.error("Analysis of " + folder + " failed", e); // $NON-NLS-1$ // $NON-NLS-2$
+			completed = false;
+			error = e.toString();
+		}
+		cli.phaseEnded();
+		long elapsed = System.currentTimeMillis() - start;
+
+		int nodes = context == null ? 0 : context.getNodeCount();
+		System.out.println(cli.summary(completed, error, workers, nodes, elapsed,
+				output.isFile() ? output.length() : 0));
+		return completed ? EXIT_OK : EXIT_FAILED;
+	}
+
+	/**
+	 * Checks a search type.
+	 *
+	 * @param type
+	 *            the type
+	 * @return true, if known
+	 */
+	private static boolean isSearchType(String type) {
+		return XPathExtractor.SEARCH_XPATH.equals(type)
+				|| XPathExtractor.SEARCH_CSS.equals(type)
+				|| XPathExtractor.SEARCH_MARKERS.equals(type);
+	}
+
+	/**
+	 * Reads the queries.
+	 *
+	 * @param file
+	 *            the query file, in UTF-8
+	 * @return the queries
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static List<String> readQueries(File file) throws IOException {
+		List<String> queries = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8")); // $NON-NLS-1$
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0 && !line.startsWith("#")) { // $NON-NLS-1$
+					queries.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return queries;
+	}
+
+	/* (non-Javadoc)
+	 * @see addons.AnalysisListener#phaseStarted(addons.AnalysisListener.Phase, int)
+	 */
+	public void phaseStarted(Phase p, int size) {
+		phaseEnded();
+		phase = p;
+		phaseStart = System.currentTimeMillis();
+		sizes.put(p, Integer.valueOf(size));
+	}
+
+	/* (non-Javadoc)
+	 * @see addons.AnalysisListener#progress(addons.AnalysisListener.Phase, int)
+	 */
+	public void progress(Phase p, int done) {
+		// Only the phase durations are reported
+	}
+
+	/* (non-Javadoc)
+	 * @see addons.AnalysisListener#isCancelled()
+	 */
+	public boolean isCancelled() {
+		return false;
+	}
+
+	/**
+	 * Records the duration of the current phase.
+	 */
+	private void phaseEnded() {
+		if (phase != null) {
+			durations.put(phase,
+					Long.valueOf(System.currentTimeMillis() - phaseStart));
+			phase = null;
+		}
+	}
+
+	/**
+	 * Builds the JSON summary line.
+	 *
+	 * @param completed
+	 *            the completed
+	 * @param error
+	 *            the error, or null
+	 * @param workers
+	 *            the workers
+	 * @param nodes
+	 *            the number of nodes
+	 * @param elapsed
+	 *            the elapsed time
+	 * @param outputBytes
+	 *            the size of the result
+	 * @return the summary
+	 */
+	private String summary(boolean completed, String error, int workers,
+			int nodes, long elapsed, long outputBytes) {
+		Integer samples = sizes.get(Phase.EXTRACTION);
+		StringBuilder sb = new StringBuilder(256);
+		sb.append("{\"status\":\"").append(completed ? "completed" : "failed") // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$
+				.append('"');
+		if (error != null) {
+			sb.append(",\"error\":\"").append(escape(error)).append('"'); // $NON-NLS-1$
+		}
+		sb.append(",\"workers\":").append(workers) // $NON-NLS-1$
+				.append(",\"samples\":").append(samples == null ? 0 : samples) // $NON-NLS-1$
+				.append(",\"nodes\":").append(nodes) // $NON-NLS-1$
+				.append(",\"outputBytes\":").append(outputBytes) // $NON-NLS-1$
+				.append(",\"elapsedMs\":").append(elapsed) // $NON-NLS-1$
+				.append(",\"phasesMs\":{"); // $NON-NLS-1$
+		boolean first = true;
+		for (Map.Entry<Phase, Long> e : durations.entrySet()) {
+			if (!first) {
+				sb.append(',');
+			}
+			first = false;
+			sb.append('"').append(e.getKey().name().toLowerCase())
+					.append("\":").append(e.getValue()); // $NON-NLS-1$
+		}
+		sb.append('}');
+		if (stages != null) {
+			sb.append(",\"stages\":{"); // $NON-NLS-1$
+			for (int i = 0; i < stages.size(); i++) {
+				StagedPipeline.StageMetrics m = stages.get(i);
+				sb.append(i > 0 ? "," : "").append('"').append(m.getName()) // $NON-NLS-1$ // $NON-NLS-2$
+						.append("\":{\"threads\":").append(m.getThreads()) // $NON-NLS-1$
+						.append(",\"processed\":").append(m.getProcessed()) // $NON-NLS-1$
+						.append(",\"errors\":").append(m.getErrors()) // $NON-NLS-1$
+						.append(",\"maxQueueDepth\":").append(m.getMaxQueueDepth()) // $NON-NLS-1$
+						.append(",\"busyMs\":").append(m.getBusyMillis()) // $NON-NLS-1$
+						.append(",\"blockedMs\":").append(m.getBlockedMillis()) // $NON-NLS-1$
+						.append(",\"perSecond\":") // $NON-NLS-1$
+						.append(String.format(Locale.ROOT, "%.1f", // $NON-NLS-1$
+								Double.valueOf(m.getThroughput()))).append('}');
+			}
+			sb.append('}');
+		}
+		if (cache != null) {
+			sb.append(",\"cache\":{\"hits\":").append(cache.getHits()) // $NON-NLS-1$
+					.append(",\"misses\":").append(cache.getMisses()).append('}'); // $NON-NLS-1$
+		}
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * Escapes a JSON string.
+	 *
+	 * @param s
+	 *            the string
+	 * @return the escaped string
+	 */
+	static String escape(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 8);
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format(Locale.ROOT, "\\u%04x", Integer.valueOf(c))); // $NON-NLS-1$
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
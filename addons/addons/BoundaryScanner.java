@@ -0,0 +1,597 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The Class BoundaryScanner.
+ *
+ * @description Finds fragments directly in the raw bytes of a captured page.
+ *              A fragment starts at every opener tag beginning with a start
+ *              marker (an opener tag prefix like &lt;div class="post-body")
+ *              and ends after the tag closing it. The page is read once,
+ *              keeping a stack of the open elements: the end tags left out
+ *              of li, p, tr, td, option and the like are implied by the next
+ *              sibling opener or by the closing tag of the parent, and an
+ *              element never closed ends with its enclosing element, or the
+ *              page. Comments, scripts and styles are skipped. No DOM is
+ *              built, so malformed or very large pages are handled in linear
+ *              time, besides the fragments themselves.
+ *
+ *              The fragments are the source text of the page, not the XML
+ *              HtmlUnit writes, so their node ids and distances differ from
+ *              the ones of a search in the page. Their columns are counted in
+ *              characters.
+ */
+public class BoundaryScanner {
+
+	/** Elements that never have a closing tag. */
+	private static final Set<String> VOID_ELEMENTS = names("area", "base",
+			"br", "col", "hr", "img", "input", "link", "meta", "param");
+
+	/** Elements whose text is not markup. */
+	private static final Set<String> RAW_TEXT = names("script", "style");
+
+	/** The openers closing an open p. */
+	private static final Set<String> P_CLOSERS = names("address", "article",
+			"aside", "blockquote", "dd", "details", "div", "dl", "dt",
+			"fieldset", "figcaption", "figure", "footer", "form", "h1", "h2",
+			"h3", "h4", "h5", "h6", "header", "hr", "li", "main", "menu",
+			"nav", "ol", "p", "pre", "section", "table", "ul");
+
+	/**
+	 * The end tags implied by an opener: for every rule, the openers, the
+	 * open elements they close and the elements the search stops at.
+	 */
+	private static final Rule[] RULES = {
+			new Rule(P_CLOSERS, names("p"), names("applet", "button",
+					"caption", "html", "marquee", "object", "table", "td",
+					"th")),
+			new Rule(names("li"), names("li"), names("ol", "ul")),
+			new Rule(names("dd", "dt"), names("dd", "dt"), names("dl")),
+			new Rule(names("tr"), names("tr"), names("table", "tbody",
+					"tfoot", "thead")),
+			new Rule(names("td", "th"), names("td", "th"), names("table",
+					"tr")),
+			new Rule(names("tbody", "tfoot", "thead"), names("tbody",
+					"tfoot", "thead"), names("table")),
+			new Rule(names("option"), names("option"), names("datalist",
+					"optgroup", "select")),
+			new Rule(names("optgroup"), names("optgroup", "option"),
+					names("select")) };
+
+	/** The start of a comment. */
+	private static final byte[] COMMENT_START = { '<', '!', '-', '-' };
+
+	/** The end of a comment. */
+	private static final byte[] COMMENT_END = { '-', '-', '>' };
+
+	/** The marker. */
+	private final String marker;
+
+	/** The marker bytes. */
+	private final byte[] pattern;
+
+	/** The lower case tag name of the marker. */
+	private final String tag;
+
+	/**
+	 * An end tag implied by the opener of another element.
+	 */
+	private static final class Rule {
+
+		/** The openers. */
+		final Set<String> openers;
+
+		/** The open elements they close. */
+		final Set<String> closed;
+
+		/** The elements the search for them stops at. */
+		final Set<String> scope;
+
+		/**
+		 * Instantiates a new rule.
+		 *
+		 * @param openers
+		 *            the openers
+		 * @param closed
+		 *            the open elements they close
+		 * @param scope
+		 *            the elements the search stops at
+		 */
+		Rule(Set<String> openers, Set<String> closed, Set<String> scope) {
+			this.openers = openers;
+			this.closed = closed;
+			this.scope = scope;
+		}
+	}
+
+	/**
+	 * An open element.
+	 */
+	private static final class Open {
+
+		/** The lower case name. */
+		final String name;
+
+		/** The index of its fragment, -1 if it does not start with the marker. */
+		final int fragment;
+
+		/**
+		 * Instantiates a new open element.
+		 *
+		 * @param name
+		 *            the name
+		 * @param fragment
+		 *            the index of its fragment, or -1
+		 */
+		Open(String name, int fragment) {
+			this.name = name;
+			this.fragment = fragment;
+		}
+	}
+
+	/**
+	 * Compiles a start marker.
+	 *
+	 * @param marker
+	 *            the marker, starting with '&lt;' and a tag name
+	 * @param cs
+	 *            the charset of the captured pages
+	 * @throws IllegalArgumentException
+	 *             if the marker does not start with a tag
+	 */
+	public BoundaryScanner(String marker, Charset cs) {
+		this.marker = marker;
+		if (marker.length() < 2 || marker.charAt(0) != '<') {
+			throw new IllegalArgumentException(marker);
+		}
+		int end = 1;
+		while (end < marker.length()
+				&& Character.isLetterOrDigit(marker.charAt(end))) {
+			end++;
+		}
+		if (end == 1) {
+			throw new IllegalArgumentException(marker);
+		}
+		this.pattern = marker.getBytes(cs);
+		this.tag = marker.substring(1, end).toLowerCase();
+	}
+
+	/**
+	 * Gets the marker.
+	 *
+	 * @return the marker
+	 */
+	public String getMarker() {
+		return marker;
+	}
+
+	/**
+	 * Maps a captured page into memory.
+	 *
+	 * @param file
+	 *            the file
+	 * @return the read only buffer
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r"); // $NON-NLS-1$
+		try {
+			FileChannel channel = raf.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Scans a page for the fragments starting with the marker.
+	 *
+	 * @param buf
+	 *            the page bytes, from position 0 to limit
+	 * @param cs
+	 *            the charset used to decode the fragments
+	 * @return the fragments in document order
+	 */
+	public List<Fragment> scan(ByteBuffer buf, Charset cs) {
+		int limit = buf.limit();
+		// The start and end of every fragment, in document order
+		List<int[]> spans = new ArrayList<int[]>();
+		List<Open> open = new ArrayList<Open>();
+		int p = 0;
+		while (p < limit) {
+			if (buf.get(p) != '<') {
+				p++;
+				continue;
+			}
+			if (startsWith(buf, p, limit, COMMENT_START)) {
+				int close = indexOf(buf, COMMENT_END, p + COMMENT_START.length,
+						limit);
+				p = close < 0 ? limit : close + COMMENT_END.length;
+				continue;
+			}
+			boolean closing = p + 1 < limit && buf.get(p + 1) == '/';
+			String name = tagName(buf, closing ? p + 2 : p + 1, limit);
+			if (name == null) {
+				// A doctype, a processing instruction or a lone '<'
+				byte next = p + 1 < limit ? buf.get(p + 1) : 0;
+				p = next == '!' || next == '?' ? tagEnd(buf, p, limit) : p + 1;
+				continue;
+			}
+			int end = tagEnd(buf, p, limit);
+			if (closing) {
+				int i = lastIndexOf(open, name);
+				if (i >= 0) {
+					// The elements left open inside end with it
+					close(open, i + 1, p, spans);
+					close(open, i, end, spans);
+				}
+				p = end;
+				continue;
+			}
+			int implied = impliedEnd(open, name);
+			if (implied >= 0) {
+				close(open, implied, p, spans);
+			}
+			int fragment = -1;
+			if (name.equals(tag) && startsWith(buf, p, limit, pattern)) {
+				fragment = spans.size();
+				spans.add(new int[] { p, end });
+			}
+			if (RAW_TEXT.contains(name)) {
+				end = skipRawText(buf, end, limit, name);
+				if (fragment >= 0) {
+					spans.get(fragment)[1] = end;
+				}
+			} else if (!VOID_ELEMENTS.contains(name) && buf.get(end - 2) != '/') {
+				open.add(new Open(name, fragment));
+			}
+			p = end;
+		}
+		close(open, 0, limit, spans);
+		return fragments(buf, cs, spans);
+	}
+
+	/**
+	 * Finds the open elements ended by an opener, when their end tag is left
+	 * out.
+	 *
+	 * @param open
+	 *            the open elements
+	 * @param name
+	 *            the name of the opener
+	 * @return the index of the first open element it ends, or -1
+	 */
+	private static int impliedEnd(List<Open> open, String name) {
+		int first = -1;
+		for (int r = 0; r < RULES.length; r++) {
+			Rule rule = RULES[r];
+			if (!rule.openers.contains(name)) {
+				continue;
+			}
+			for (int i = open.size() - 1; i > first; i--) {
+				String openName = open.get(i).name;
+				if (rule.closed.contains(openName)) {
+					first = first < 0 ? i : Math.min(first, i);
+					break;
+				}
+				if (rule.scope.contains(openName)) {
+					break;
+				}
+			}
+		}
+		return first;
+	}
+
+	/**
+	 * Finds the innermost open element with a name.
+	 *
+	 * @param open
+	 *            the open elements
+	 * @param name
+	 *            the name
+	 * @return its index, or -1
+	 */
+	private static int lastIndexOf(List<Open> open, String name) {
+		for (int i = open.size() - 1; i >= 0; i--) {
+			if (open.get(i).name.equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Closes the open elements from an index on.
+	 *
+	 * @param open
+	 *            the open elements
+	 * @param from
+	 *            the index of the first element closed
+	 * @param end
+	 *            the position where they end
+	 * @param spans
+	 *            the spans of the fragments
+	 */
+	private static void close(List<Open> open, int from, int end,
+			List<int[]> spans) {
+		for (int i = open.size() - 1; i >= from; i--) {
+			Open o = open.remove(i);
+			if (o.fragment >= 0) {
+				spans.get(o.fragment)[1] = end;
+			}
+		}
+	}
+
+	/**
+	 * Decodes the fragments and finds their lines and columns, with a single
+	 * pass over the page.
+	 *
+	 * @param buf
+	 *            the buffer
+	 * @param cs
+	 *            the charset
+	 * @param spans
+	 *            the start and end of every fragment
+	 * @return the fragments
+	 */
+	private static List<Fragment> fragments(ByteBuffer buf, Charset cs,
+			List<int[]> spans) {
+		int[] positions = new int[spans.size() * 2];
+		for (int i = 0; i < spans.size(); i++) {
+			positions[2 * i] = spans.get(i)[0];
+			positions[2 * i + 1] = spans.get(i)[1];
+		}
+		Arrays.sort(positions);
+		int[] lines = new int[positions.length];
+		int[] columns = new int[positions.length];
+		int line = 1;
+		int column = 1;
+		int cursor = 0;
+		for (int i = 0; i < positions.length; i++) {
+			int from = cursor; // The text of the line not counted yet
+			for (; cursor < positions[i]; cursor++) {
+				if (buf.get(cursor) == '\n') {
+					line++;
+					column = 1;
+					from = cursor + 1;
+				}
+			}
+			column += decode(buf, from, cursor, cs).length();
+			lines[i] = line;
+			columns[i] = column;
+		}
+		List<Fragment> fragments = new ArrayList<Fragment>(spans.size());
+		for (int[] span : spans) {
+			int start = Arrays.binarySearch(positions, span[0]);
+			int end = Arrays.binarySearch(positions, span[1]);
+			fragments.add(new Fragment(decode(buf, span[0], span[1], cs)
+					.toString(), lines[start], columns[start], lines[end],
+					columns[end]));
+		}
+		return fragments;
+	}
+
+	/**
+	 * Decodes a part of the buffer.
+	 *
+	 * @param buf
+	 *            the buffer
+	 * @param from
+	 *            the start
+	 * @param to
+	 *            the end
+	 * @param cs
+	 *            the charset
+	 * @return the characters
+	 */
+	private static CharBuffer decode(ByteBuffer buf, int from, int to,
+			Charset cs) {
+		ByteBuffer part = buf.duplicate();
+		part.limit(to);
+		part.position(from);
+		return cs.decode(part);
+	}
+
+	/**
+	 * Reads the name of a tag.
+	 *
+	 * @param buf
+	 *            the buffer
+	 * @param p
+	 *            the position after '&lt;' or '&lt;/'
+	 * @param limit
+	 *            the limit
+	 * @return the lower case name, or null if no tag starts there
+	 */
+	private static String tagName(ByteBuffer buf, int p, int limit) {
+		int end = p;
+		while (end < limit && isNameByte(buf.get(end))) {
+			end++;
+		}
+		if (end == p || !isLetter(buf.get(p))) {
+			return null;
+		}
+		char[] name = new char[end - p];
+		for (int i = 0; i < name.length; i++) {
+			byte b = buf.get(p + i);
+			name[i] = (char) (b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b);
+		}
+		return new String(name);
+	}
+
+	/**
+	 * Checks if a byte is an ASCII letter.
+	 *
+	 * @param b
+	 *            the byte
+	 * @return true, if it is
+	 */
+	private static boolean isLetter(byte b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+	}
+
+	/**
+	 * Checks if a byte can be part of a tag name.
+	 *
+	 * @param b
+	 *            the byte
+	 * @return true, if it can
+	 */
+	private static boolean isNameByte(byte b) {
+		return isLetter(b) || (b >= '0' && b <= '9') || b == '-' || b == ':';
+	}
+
+	/**
+	 * Skips the text of a script or style element.
+	 *
+	 * @param buf
+	 *            the buffer
+	 * @param q
+	 *            the position after its opener tag
+	 * @param limit
+	 *            the limit
+	 * @param name
+	 *            the tag name
+	 * @return the position after its closing tag
+	 */
+	private static int skipRawText(ByteBuffer buf, int q, int limit,
+			String name) {
+		for (; q < limit; q++) {
+			if (buf.get(q) == '<' && q + 1 < limit && buf.get(q + 1) == '/'
+					&& name.equals(tagName(buf, q + 2, limit))) {
+				return tagEnd(buf, q, limit);
+			}
+		}
+		return limit;
+	}
+
+	/**
+	 * Finds the end of the tag started at p, honouring quoted attributes.
+	 *
+	 * @param buf
+	 *            the buffer
+	 * @param p
+	 *            the position of '&lt;'
+	 * @param limit
+	 *            the limit
+	 * @return the position after '&gt;', or limit
+	 */
+	private static int tagEnd(ByteBuffer buf, int p, int limit) {
+		byte quote = 0;
+		for (int i = p + 1; i < limit; i++) {
+			byte b = buf.get(i);
+			if (quote != 0) {
+				if (b == quote) {
+					quote = 0;
+				}
+			} else if (b == '"' || b == '\'') {
+				quote = b;
+			} else if (b == '>') {
+				return i + 1;
+			}
+		}
+		return limit;
+	}
+
+	/**
+	 * Checks if a byte pattern starts at p.
+	 *
+	 * @param buf
+	 *            the buffer
+	 * @param p
+	 *            the position
+	 * @param limit
+	 *            the limit
+	 * @param pat
+	 *            the pattern
+	 * @return true, if found
+	 */
+	private static boolean startsWith(ByteBuffer buf, int p, int limit,
+			byte[] pat) {
+		if (p + pat.length > limit) {
+			return false;
+		}
+		for (int i = 0; i < pat.length; i++) {
+			if (buf.get(p + i) != pat[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds a byte pattern.
+	 *
+	 * @param buf
+	 *            the buffer
+	 * @param pat
+	 *            the pattern
+	 * @param from
+	 *            the start
+	 * @param limit
+	 *            the limit
+	 * @return the position, or -1
+	 */
+	private static int indexOf(ByteBuffer buf, byte[] pat, int from, int limit) {
+		byte first = pat[0];
+		int last = limit - pat.length;
+		outer: for (int i = from; i <= last; i++) {
+			if (buf.get(i) != first) {
+				continue;
+			}
+			for (int j = 1; j < pat.length; j++) {
+				if (buf.get(i + j) != pat[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Builds a set of names.
+	 *
+	 * @param names
+	 *            the names
+	 * @return the set
+	 */
+	private static Set<String> names(String... names) {
+		return new HashSet<String>(Arrays.asList(names));
+	}
+}
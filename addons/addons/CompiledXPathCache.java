@@ -0,0 +1,362 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.transform.TransformerException;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.xml.utils.PrefixResolver;
+import org.apache.xml.utils.PrefixResolverDefault;
+import org.apache.xpath.XPath;
+import org.apache.xpath.XPathContext;
+import org.apache.xpath.objects.XObject;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * The Class CompiledXPathCache.
+ *
+ * @description Bounded, thread-safe LRU cache of compiled Xalan expressions,
+ *              shared by every extraction in the JVM, so a query is parsed and
+ *              compiled once instead of on every sample. Entries are keyed by
+ *              the query text and the namespace and HTML settings.
+ *
+ *              A compiled expression is immutable once built, and every
+ *              evaluation gets its own XPathContext, so the same entry can be
+ *              evaluated concurrently. Queries with namespace prefixes are
+ *              resolved against each document and are never cached.
+ *
+ *              The size is set with the JMeter property
+ *              xpathextractor.cache.size (500 by default).
+ */
+public final class CompiledXPathCache {
+
+	/** The default maximum number of entries. */
+	private static final int DEFAULT_SIZE = 500;
+
+	/** The shared instance. */
+	private static final CompiledXPathCache INSTANCE = new CompiledXPathCache(
+			JMeterUtils.getPropDefault("xpathextractor.cache.size", // $NON-NLS-1$
+					DEFAULT_SIZE));
+
+	/** Resolver used to compile queries without prefixes. */
+	private static final PrefixResolver NO_PREFIXES = new PrefixResolver() {
+		public String getNamespaceForPrefix(String prefix) {
+			return null;
+		}
+
+		public String getNamespaceForPrefix(String prefix, Node context) {
+			return null;
+		}
+
+		public String getBaseIdentifier() {
+			return null;
+		}
+
+		public boolean handlesNullPrefixes() {
+			return false;
+		}
+	};
+
+	/** The maximum number of entries. */
+	private final int maxSize;
+
+	/** The entries, in access order. Guarded by itself. */
+	private final Map<String, XPath> cache;
+
+	/** The hits. */
+	private final AtomicLong hits = new AtomicLong();
+
+	/** The misses. */
+	private final AtomicLong misses = new AtomicLong();
+
+	/** The evictions. */
+	private final AtomicLong evictions = new AtomicLong();
+
+	/** The evaluations of queries that cannot be cached. */
+	private final AtomicLong uncached = new AtomicLong();
+
+	/**
+	 * Instantiates a new cache.
+	 *
+	 * @param maxSize
+	 *            the maximum number of compiled expressions
+	 */
+	public CompiledXPathCache(int maxSize) {
+		this.maxSize = Math.max(1, maxSize);
+		this.cache = new LinkedHashMap<String, XPath>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, XPath> eldest) {
+				if (size() > CompiledXPathCache.this.maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Gets the shared instance.
+	 *
+	 * @return the cache
+	 */
+	public static CompiledXPathCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Evaluates a query.
+	 *
+	 * @param context
+	 *            the context node
+	 * @param query
+	 *            the query
+	 * @param namespace
+	 *            true if the document was parsed namespace aware
+	 * @param html
+	 *            true to match element names case insensitively, as HtmlUnit
+	 *            does for HTML pages
+	 * @return the result
+	 * @throws TransformerException
+	 *             if the query is not valid
+	 */
+	public XObject eval(Node context, String query, boolean namespace,
+			boolean html) throws TransformerException {
+		String expr = html ? lowerCaseOutsideBrackets(query) : query;
+		PrefixResolver resolver;
+		XPath xpath;
+		if (hasPrefix(expr)) {
+			uncached.incrementAndGet();
+			Node nsNode = context instanceof Document ? ((Document) context)
+					.getDocumentElement() : context;
+			resolver = new PrefixResolverDefault(nsNode);
+			xpath = new XPath(expr, null, resolver, XPath.SELECT, null);
+		} else {
+			resolver = NO_PREFIXES;
+			xpath = get(expr, namespace, html);
+		}
+		return xpath.execute(new XPathContext(), context, resolver);
+	}
+
+	/**
+	 * Selects the nodes matching a query.
+	 *
+	 * @param context
+	 *            the context node
+	 * @param query
+	 *            the query
+	 * @param namespace
+	 *            true if the document was parsed namespace aware
+	 * @param html
+	 *            true for HTML pages
+	 * @return the nodes in document order
+	 * @throws TransformerException
+	 *             if the query is not valid or does not select nodes
+	 */
+	public List<Node> selectNodes(Node context, String query,
+			boolean namespace, boolean html) throws TransformerException {
+		NodeList nodes = eval(context, query, namespace, html).nodelist();
+		List<Node> result = new ArrayList<Node>(nodes.getLength());
+		for (int i = 0; i < nodes.getLength(); i++) {
+			result.add(nodes.item(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Gets a compiled expression, compiling it on a miss.
+	 *
+	 * @param expr
+	 *            the expression, without prefixes
+	 * @param namespace
+	 *            the namespace setting
+	 * @param html
+	 *            the HTML setting
+	 * @return the compiled expression
+	 * @throws TransformerException
+	 *             if the query is not valid
+	 */
+	private XPath get(String expr, boolean namespace, boolean html)
+			throws TransformerException {
+		String key = new StringBuilder(expr.length() + 3).append(
+				namespace ? 'n' : '-').append(html ? 'h' : '-').append(':')
+				.append(expr).toString();
+		XPath xpath;
+		synchronized (cache) {
+			xpath = cache.get(key);
+		}
+		if (xpath != null) {
+			hits.incrementAndGet();
+			return xpath;
+		}
+		misses.incrementAndGet();
+		// Compiled outside of the lock: two threads may compile the same
+		// query once, which is cheaper than serializing every compilation
+		xpath = new XPath(expr, null, NO_PREFIXES, XPath.SELECT, null);
+		synchronized (cache) {
+			cache.put(key, xpath);
+		}
+		return xpath;
+	}
+
+	/**
+	 * Checks if a query uses namespace prefixes (a single ':' outside of
+	 * literals, '::' being an axis).
+	 *
+	 * @param expr
+	 *            the expression
+	 * @return true, if it has prefixes
+	 */
+	static boolean hasPrefix(String expr) {
+		char quote = 0;
+		for (int i = 0; i < expr.length(); i++) {
+			char c = expr.charAt(i);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '\'' || c == '"') {
+				quote = c;
+			} else if (c == ':') {
+				if (i + 1 < expr.length() && expr.charAt(i + 1) == ':') {
+					i++;
+				} else {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Lower cases the names outside of predicates and literals, like HtmlUnit
+	 * does before evaluating a query over an HTML page.
+	 *
+	 * @param query
+	 *            the query
+	 * @return the processed query
+	 */
+	static String lowerCaseOutsideBrackets(String query) {
+		char[] chars = query.toCharArray();
+		int depth = 0;
+		char quote = 0;
+		for (int i = 0; i < chars.length; i++) {
+			char c = chars[i];
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '\'' || c == '"') {
+				quote = c;
+			} else if (c == '[') {
+				depth++;
+			} else if (c == ']') {
+				depth--;
+			} else if (depth == 0) {
+				chars[i] = Character.toLowerCase(c);
+			}
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Gets the hits.
+	 *
+	 * @return the hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets the misses.
+	 *
+	 * @return the misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Gets the evictions.
+	 *
+	 * @return the evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Gets the evaluations that bypassed the cache.
+	 *
+	 * @return the uncached evaluations
+	 */
+	public long getUncached() {
+		return uncached.get();
+	}
+
+	/**
+	 * Gets the number of compiled expressions.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * Removes every compiled expression and resets the counters.
+	 */
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+		uncached.set(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "CompiledXPathCache[size=" + size() + ", hits=" + getHits() // $NON-NLS-1$
+				+ ", misses=" + getMisses() + ", evictions=" + getEvictions() // $NON-NLS-1$ // $NON-NLS-1$
+				+ ", uncached=" + getUncached() + "]"; // $NON-NLS-1$ // $NON-NLS-1$
+	}
+}
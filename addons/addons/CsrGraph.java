@@ -0,0 +1,543 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * The Class CsrGraph.
+ *
+ * @description The result graph in binary, memory-mapped: a reader of the
+ *              files of {@link CsrGraphWriter}. Next to the GraphML result
+ *              are two files named after it:
+ *              <ul>
+ *              <li>name.graph: a header, the node table, the strings of the
+ *              webs and dates, and the parent and similarity edges in
+ *              compressed sparse rows (CSR): for every node, the offset of its
+ *              first edge, then the targets of every row one after the other
+ *              </li>
+ *              <li>name.blob: the content of the nodes, in UTF-8</li>
+ *              </ul>
+ *
+ *              A node is its index in the node list of the analysis. Its
+ *              parent is the first node with its father id. A similarity
+ *              edge is in the row of its lower node only, so the row of a node
+ *              holds its similarities with the nodes after it.
+ *
+ *              Every number is big-endian. The files are mapped in chunks of
+ *              1 GB, so they can be larger than a single mapping allows;
+ *              nothing is read until asked for, except the strings.
+ */
+public class CsrGraph implements Closeable {
+
+	/** The magic number of a graph file: XPG1. */
+	static final int MAGIC = 0x58504731;
+
+	/** The version of the format. */
+	static final int VERSION = 1;
+
+	/** The bytes of the header. */
+	static final int HEADER_BYTES = 96;
+
+	/**
+	 * The bytes of a node: id, father id, web, date, body offset, body bytes
+	 * and content length.
+	 */
+	static final int NODE_BYTES = 32;
+
+	/** The section of the strings. */
+	static final int STRINGS = 0;
+
+	/** The section of the first parent of every node, and the end. */
+	static final int PARENT_OFFSETS = 1;
+
+	/** The section of the parents. */
+	static final int PARENT_TARGETS = 2;
+
+	/** The section of the first similarity of every node, and the end. */
+	static final int SIMILARITY_OFFSETS = 3;
+
+	/** The section of the second node of the similarities. */
+	static final int SIMILARITY_TARGETS = 4;
+
+	/** The section of the distances of the similarities. */
+	static final int SIMILARITY_DISTANCES = 5;
+
+	/** The number of sections after the node table. */
+	static final int SECTIONS = 6;
+
+	/** The bits of the offset in a chunk. */
+	private static final int CHUNK_BITS = 30;
+
+	/** The bytes of a chunk. */
+	private static final long CHUNK = 1L << CHUNK_BITS;
+
+	/** The UTF-8 charset. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8"); // $NON-NLS-1$
+
+	/** The number of nodes. */
+	private final int nodeCount;
+
+	/** The number of parent edges. */
+	private final int parentCount;
+
+	/** The number of similarity edges. */
+	private final long similarityCount;
+
+	/** The webs and dates. */
+	private final String[] strings;
+
+	/** The node table. */
+	private Section nodes;
+
+	/** The parent offsets. */
+	private Section parentOffsets;
+
+	/** The parents. */
+	private Section parents;
+
+	/** The similarity offsets. */
+	private Section similarityOffsets;
+
+	/** The similarity targets. */
+	private Section similarityTargets;
+
+	/** The similarity distances. */
+	private Section similarityDistances;
+
+	/** The bodies. */
+	private Section blob;
+
+	/**
+	 * Part of a file, mapped in chunks.
+	 */
+	private static final class Section {
+
+		/** The chunks. */
+		private final MappedByteBuffer[] chunks;
+
+		/**
+		 * Maps part of a file.
+		 *
+		 * @param channel
+		 *            the file
+		 * @param start
+		 *            the first byte
+		 * @param size
+		 *            the bytes
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		Section(FileChannel channel, long start, long size) throws IOException {
+			chunks = new MappedByteBuffer[(int) ((size + CHUNK - 1) / CHUNK)];
+			for (int c = 0; c < chunks.length; c++) {
+				long at = c * CHUNK;
+				chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, start
+						+ at, Math.min(CHUNK, size - at));
+			}
+		}
+
+		/**
+		 * Gets an int. Ints never cross a chunk.
+		 *
+		 * @param position
+		 *            its position in the section
+		 * @return the int
+		 */
+		int getInt(long position) {
+			return chunks[(int) (position >>> CHUNK_BITS)]
+					.getInt((int) (position & (CHUNK - 1)));
+		}
+
+		/**
+		 * Gets a long. Longs never cross a chunk.
+		 *
+		 * @param position
+		 *            its position in the section
+		 * @return the long
+		 */
+		long getLong(long position) {
+			return chunks[(int) (position >>> CHUNK_BITS)]
+					.getLong((int) (position & (CHUNK - 1)));
+		}
+
+		/**
+		 * Gets bytes, maybe across chunks.
+		 *
+		 * @param position
+		 *            the position of the first in the section
+		 * @param bytes
+		 *            receives the bytes
+		 */
+		void get(long position, byte[] bytes) {
+			for (int done = 0; done < bytes.length;) {
+				ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)]
+						.duplicate();
+				chunk.position((int) (position & (CHUNK - 1)));
+				int n = Math.min(bytes.length - done, chunk.remaining());
+				chunk.get(bytes, done, n);
+				done += n;
+				position += n;
+			}
+		}
+	}
+
+	/**
+	 * Maps the binary graph of a result.
+	 *
+	 * @param resultFile
+	 *            the GraphML result
+	 * @return the graph
+	 * @throws IOException
+	 *             if the files are missing or not a binary graph
+	 */
+	public static CsrGraph open(File resultFile) throws IOException {
+		return new CsrGraph(graphFile(resultFile), blobFile(resultFile));
+	}
+
+	/**
+	 * Instantiates a new graph.
+	 *
+	 * @param graphFile
+	 *            the graph file
+	 * @param blobFile
+	 *            the blob file
+	 * @throws IOException
+	 *             if the files are missing or not a binary graph
+	 */
+	public CsrGraph(File graphFile, File blobFile) throws IOException {
+		RandomAccessFile graph = new RandomAccessFile(graphFile, "r"); // $NON-NLS-1$
+		try {
+			FileChannel channel = graph.getChannel();
+			if (channel.size() < HEADER_BYTES) {
+				throw new IOException("Not a binary graph: " + graphFile); // $NON-NLS-1$
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					HEADER_BYTES);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("Not a binary graph: " + graphFile); // $NON-NLS-1$
+			}
+			nodeCount = header.getInt();
+			strings = new String[header.getInt()];
+			parentCount = header.getInt();
+			header.getInt();
+			similarityCount = header.getLong();
+			long blobBytes = header.getLong();
+			long[] sections = new long[SECTIONS];
+			for (int s = 0; s < SECTIONS; s++) {
+				sections[s] = header.getLong();
+			}
+
+			nodes = new Section(channel, HEADER_BYTES, (long) nodeCount
+					* NODE_BYTES);
+			Section stringSection = new Section(channel, sections[STRINGS],
+					sections[PARENT_OFFSETS] - sections[STRINGS]);
+			long position = 0;
+			for (int s = 0; s < strings.length; s++) {
+				byte[] bytes = new byte[stringSection.getInt(position)];
+				stringSection.get(position + 4, bytes);
+				strings[s] = new String(bytes, UTF_8);
+				position += 4 + bytes.length;
+			}
+			parentOffsets = new Section(channel, sections[PARENT_OFFSETS],
+					4L * (nodeCount + 1));
+			parents = new Section(channel, sections[PARENT_TARGETS],
+					4L * parentCount);
+			similarityOffsets = new Section(channel,
+					sections[SIMILARITY_OFFSETS], 8L * (nodeCount + 1));
+			similarityTargets = new Section(channel,
+					sections[SIMILARITY_TARGETS], 4L * similarityCount);
+			similarityDistances = new Section(channel,
+					sections[SIMILARITY_DISTANCES], 4L * similarityCount);
+
+			RandomAccessFile bodies = new RandomAccessFile(blobFile, "r"); // $NON-NLS-1$
+			try {
+				if (bodies.length() != blobBytes) {
+					throw new IOException("The blob does not match the graph: " // $NON-NLS-1$
+							+ blobFile);
+				}
+				blob = new Section(bodies.getChannel(), 0, blobBytes);
+			} finally {
+				bodies.close();
+			}
+		} finally {
+			graph.close();
+		}
+	}
+
+	/**
+	 * Gets the graph file of a result: its name without extension, followed
+	 * by .graph.
+	 *
+	 * @param resultFile
+	 *            the GraphML result
+	 * @return the graph file
+	 */
+	public static File graphFile(File resultFile) {
+		return sibling(resultFile, ".graph"); // $NON-NLS-1$
+	}
+
+	/**
+	 * Gets the blob file of a result: its name without extension, followed by
+	 * .blob.
+	 *
+	 * @param resultFile
+	 *            the GraphML result
+	 * @return the blob file
+	 */
+	public static File blobFile(File resultFile) {
+		return sibling(resultFile, ".blob"); // $NON-NLS-1$
+	}
+
+	/**
+	 * Gets the number of nodes.
+	 *
+	 * @return the nodes
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Gets the number of parent edges.
+	 *
+	 * @return the parent edges
+	 */
+	public int getParentCount() {
+		return parentCount;
+	}
+
+	/**
+	 * Gets the number of similarity edges.
+	 *
+	 * @return the similarity edges
+	 */
+	public long getSimilarityCount() {
+		return similarityCount;
+	}
+
+	/**
+	 * Gets the id of a node: the hash code of its content.
+	 *
+	 * @param node
+	 *            the node
+	 * @return the id
+	 */
+	public int getId(int node) {
+		return nodes.getInt(record(node));
+	}
+
+	/**
+	 * Gets the father id of a node.
+	 *
+	 * @param node
+	 *            the node
+	 * @return the father id, 0 for a root
+	 */
+	public int getFatherId(int node) {
+		return nodes.getInt(record(node) + 4);
+	}
+
+	/**
+	 * Gets the web of a node.
+	 *
+	 * @param node
+	 *            the node
+	 * @return the web, null for a root
+	 */
+	public String getWeb(int node) {
+		return string(nodes.getInt(record(node) + 8));
+	}
+
+	/**
+	 * Gets the date of a node.
+	 *
+	 * @param node
+	 *            the node
+	 * @return the date, or null
+	 */
+	public String getDate(int node) {
+		return string(nodes.getInt(record(node) + 12));
+	}
+
+	/**
+	 * Gets the length of the content of a node, without reading the blob.
+	 *
+	 * @param node
+	 *            the node
+	 * @return the length in chars
+	 */
+	public int getLength(int node) {
+		return nodes.getInt(record(node) + 28);
+	}
+
+	/**
+	 * Gets the content of a node.
+	 *
+	 * @param node
+	 *            the node
+	 * @return the content
+	 */
+	public String getBody(int node) {
+		long record = record(node);
+		byte[] bytes = new byte[nodes.getInt(record + 24)];
+		blob.get(nodes.getLong(record + 16), bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	/**
+	 * Gets the parent of a node.
+	 *
+	 * @param node
+	 *            the node
+	 * @return the parent, -1 if none
+	 */
+	public int getParent(int node) {
+		record(node);
+		int first = parentOffsets.getInt(4L * node);
+		return parentOffsets.getInt(4L * (node + 1)) > first ? parents
+				.getInt(4L * first) : -1;
+	}
+
+	/**
+	 * Gets the first similarity edge in the row of a node.
+	 *
+	 * @param node
+	 *            the node
+	 * @return the edge
+	 */
+	public long getSimilarityStart(int node) {
+		record(node);
+		return similarityOffsets.getLong(8L * node);
+	}
+
+	/**
+	 * Gets the end of the similarity edges in the row of a node.
+	 *
+	 * @param node
+	 *            the node
+	 * @return the edge after the last one
+	 */
+	public long getSimilarityEnd(int node) {
+		record(node);
+		return similarityOffsets.getLong(8L * (node + 1));
+	}
+
+	/**
+	 * Gets the second node of a similarity edge, after the node of its row.
+	 *
+	 * @param edge
+	 *            the edge
+	 * @return the node
+	 */
+	public int getSimilar(long edge) {
+		return similarityTargets.getInt(4L * edge(edge));
+	}
+
+	/**
+	 * Gets the Levenshtein distance of a similarity edge.
+	 *
+	 * @param edge
+	 *            the edge
+	 * @return the distance
+	 */
+	public int getDistance(long edge) {
+		return similarityDistances.getInt(4L * edge(edge));
+	}
+
+	/**
+	 * Releases the mappings to the garbage collector.
+	 */
+	public void close() {
+		nodes = null;
+		parentOffsets = null;
+		parents = null;
+		similarityOffsets = null;
+		similarityTargets = null;
+		similarityDistances = null;
+		blob = null;
+	}
+
+	/**
+	 * Gets the position of the record of a node.
+	 *
+	 * @param node
+	 *            the node
+	 * @return the position in the node table
+	 */
+	private long record(int node) {
+		if (node < 0 || node >= nodeCount) {
+			throw new IndexOutOfBoundsException("Node " + node + " of " // $NON-NLS-1$ // $NON-NLS-2$
+					+ nodeCount);
+		}
+		return (long) node * NODE_BYTES;
+	}
+
+	/**
+	 * Checks a similarity edge.
+	 *
+	 * @param edge
+	 *            the edge
+	 * @return the edge
+	 */
+	private long edge(long edge) {
+		if (edge < 0 || edge >= similarityCount) {
+			throw new IndexOutOfBoundsException("Similarity " + edge + " of " // $NON-NLS-1$ // $NON-NLS-2$
+					+ similarityCount);
+		}
+		return edge;
+	}
+
+	/**
+	 * Gets a string.
+	 *
+	 * @param index
+	 *            its index
+	 * @return the string, null for -1
+	 */
+	private String string(int index) {
+		return index < 0 ? null : strings[index];
+	}
+
+	/**
+	 * Gets a file next to a result.
+	 *
+	 * @param resultFile
+	 *            the GraphML result
+	 * @param extension
+	 *            the extension of the file
+	 * @return the file
+	 */
+	private static File sibling(File resultFile, String extension) {
+		String name = resultFile.getName();
+		int dot = name.lastIndexOf('.');
+		return new File(resultFile.getParentFile(), (dot > 0 ? name
+				.substring(0, dot) : name) + extension);
+	}
+}
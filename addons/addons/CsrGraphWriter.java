@@ -0,0 +1,438 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jorphan.util.JOrphanUtils;
+
+/**
+ * The Class CsrGraphWriter.
+ *
+ * @description Writes the result graph in the binary format of
+ *              {@link CsrGraph}, next to the GraphML. The nodes can be added
+ *              in any order, each at its index in the node list; their bodies
+ *              are appended to the blob file and their records written in
+ *              place. The similarities must come sorted by the first and then
+ *              the second index, the order of the result: their rows are
+ *              streamed to temporary files and copied after the node table by
+ *              {@link #finish()}, so only the ids and fathers of the nodes are
+ *              held, 12 bytes per node.
+ */
+public class CsrGraphWriter implements Closeable {
+
+	/** The UTF-8 charset. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8"); // $NON-NLS-1$
+
+	/** The graph file. */
+	private final File graphFile;
+
+	/** The blob file. */
+	private final File blobFile;
+
+	/** The graph file, written in place. */
+	private final RandomAccessFile graph;
+
+	/** The blob of the bodies. */
+	private final DataOutputStream blob;
+
+	/** The bytes of the blob. */
+	private long blobBytes;
+
+	/** The number of nodes. */
+	private final int nodes;
+
+	/** The id of every node. */
+	private final int[] ids;
+
+	/** The father id of every node. */
+	private final int[] fathers;
+
+	/** The index of every web and date. */
+	private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+	/** The webs and dates. */
+	private final List<String> stringList = new ArrayList<String>();
+
+	/** The first similarity of every row, streamed. */
+	private final File offsetsFile;
+
+	/** The second node of every similarity, streamed. */
+	private final File targetsFile;
+
+	/** The distance of every similarity, streamed. */
+	private final File distancesFile;
+
+	/** The offsets. */
+	private final DataOutputStream offsets;
+
+	/** The targets. */
+	private final DataOutputStream targets;
+
+	/** The distances. */
+	private final DataOutputStream distances;
+
+	/** The first row whose offset is not written. */
+	private int row;
+
+	/** The similarities. */
+	private long similarities;
+
+	/** The record of a node. */
+	private final ByteBuffer record = ByteBuffer.allocate(CsrGraph.NODE_BYTES);
+
+	/** Set once the files are complete. */
+	private boolean finished;
+
+	/**
+	 * Instantiates a new writer of the binary graph of a result.
+	 *
+	 * @param resultFile
+	 *            the GraphML result
+	 * @param nodes
+	 *            the number of nodes
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public CsrGraphWriter(File resultFile, int nodes) throws IOException {
+		this.graphFile = CsrGraph.graphFile(resultFile);
+		this.blobFile = CsrGraph.blobFile(resultFile);
+		this.nodes = nodes;
+		this.ids = new int[nodes];
+		this.fathers = new int[nodes];
+		File folder = resultFile.getAbsoluteFile().getParentFile();
+		this.offsetsFile = File.createTempFile("offsets", ".tmp", folder); // $NON-NLS-1$ // $NON-NLS-2$
+		this.targetsFile = File.createTempFile("targets", ".tmp", folder); // $NON-NLS-1$ // $NON-NLS-2$
+		this.distancesFile = File.createTempFile("distances", ".tmp", folder); // $NON-NLS-1$ // $NON-NLS-2$
+		this.offsets = open(offsetsFile);
+		this.targets = open(targetsFile);
+		this.distances = open(distancesFile);
+		this.blob = open(blobFile);
+		this.graph = new RandomAccessFile(graphFile, "rw"); // $NON-NLS-1$
+		graph.setLength(0);
+	}
+
+	/**
+	 * Adds a node.
+	 *
+	 * @param index
+	 *            its index in the node list
+	 * @param tn
+	 *            the node
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void addNode(int index, TempNode tn) throws IOException {
+		String content = tn.getContent();
+		byte[] body = content == null ? new byte[0] : content.getBytes(UTF_8);
+		ids[index] = value(tn.getId());
+		fathers[index] = value(tn.getFatherId());
+		record.clear();
+		record.putInt(ids[index]);
+		record.putInt(fathers[index]);
+		record.putInt(string(tn.getWeb()));
+		record.putInt(string(tn.getDate()));
+		record.putLong(blobBytes);
+		record.putInt(body.length);
+		record.putInt(content == null ? 0 : content.length());
+		record.flip();
+		long position = CsrGraph.HEADER_BYTES + (long) index
+				* CsrGraph.NODE_BYTES;
+		while (record.hasRemaining()) {
+			position += graph.getChannel().write(record, position);
+		}
+		blob.write(body);
+		blobBytes += body.length;
+	}
+
+	/**
+	 * Adds a similarity. They must come sorted by i and then j.
+	 *
+	 * @param i
+	 *            the index of the first node
+	 * @param j
+	 *            the index of the second node
+	 * @param distance
+	 *            the Levenshtein distance
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void addSimilarity(int i, int j, int distance) throws IOException {
+		if (i < row - 1) {
+			throw new IllegalStateException("Similarity " + i + ", " + j // $NON-NLS-1$ // $NON-NLS-2$
+					+ " out of order"); // $NON-NLS-1$
+		}
+		for (; row <= i; row++) {
+			offsets.writeLong(similarities);
+		}
+		targets.writeInt(j);
+		distances.writeInt(distance);
+		similarities++;
+	}
+
+	/**
+	 * Writes the string table, the parent rows and the similarity rows after
+	 * the node table, and the header.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void finish() throws IOException {
+		for (; row <= nodes; row++) {
+			offsets.writeLong(similarities);
+		}
+		offsets.close();
+		targets.close();
+		distances.close();
+		blob.close();
+
+		FileChannel channel = graph.getChannel();
+		long[] sections = new long[CsrGraph.SECTIONS];
+		long position = CsrGraph.HEADER_BYTES + (long) nodes
+				* CsrGraph.NODE_BYTES;
+		channel.position(position);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				Channels.newOutputStream(channel), 1 << 16));
+
+		sections[CsrGraph.STRINGS] = position;
+		for (String s : stringList) {
+			byte[] b = s.getBytes(UTF_8);
+			out.writeInt(b.length);
+			out.write(b);
+			position += 4 + b.length;
+		}
+
+		// The father of a node is the first node with its id
+		long[] byId = new long[nodes];
+		for (int i = 0; i < nodes; i++) {
+			byId[i] = ((long) ids[i] << 32) | i;
+		}
+		Arrays.sort(byId);
+		int[] parents = new int[nodes];
+		int parentCount = 0;
+		for (int i = 0; i < nodes; i++) {
+			parents[i] = find(byId, fathers[i]);
+			if (parents[i] == i) {
+				parents[i] = -1;
+			}
+			if (parents[i] >= 0) {
+				parentCount++;
+			}
+		}
+		sections[CsrGraph.PARENT_OFFSETS] = position;
+		int offset = 0;
+		for (int i = 0; i < nodes; i++) {
+			out.writeInt(offset);
+			if (parents[i] >= 0) {
+				offset++;
+			}
+		}
+		out.writeInt(offset);
+		position += 4L * (nodes + 1);
+		sections[CsrGraph.PARENT_TARGETS] = position;
+		for (int i = 0; i < nodes; i++) {
+			if (parents[i] >= 0) {
+				out.writeInt(parents[i]);
+			}
+		}
+		position += 4L * parentCount;
+		out.flush();
+
+		sections[CsrGraph.SIMILARITY_OFFSETS] = position;
+		position += copy(offsetsFile, channel, position);
+		sections[CsrGraph.SIMILARITY_TARGETS] = position;
+		position += copy(targetsFile, channel, position);
+		sections[CsrGraph.SIMILARITY_DISTANCES] = position;
+		position += copy(distancesFile, channel, position);
+
+		ByteBuffer header = ByteBuffer.allocate(CsrGraph.HEADER_BYTES);
+		header.putInt(CsrGraph.MAGIC);
+		header.putInt(CsrGraph.VERSION);
+		header.putInt(nodes);
+		header.putInt(stringList.size());
+		header.putInt(parentCount);
+		header.putInt(0);
+		header.putLong(similarities);
+		header.putLong(blobBytes);
+		for (long section : sections) {
+			header.putLong(section);
+		}
+		header.flip();
+		long at = 0;
+		while (header.hasRemaining()) {
+			at += channel.write(header, at);
+		}
+		graph.close();
+		finished = true;
+		deleteTemporary();
+	}
+
+	/**
+	 * Gets the number of similarities added.
+	 *
+	 * @return the similarities
+	 */
+	public long getSimilarityCount() {
+		return similarities;
+	}
+
+	/**
+	 * Gets the bytes of the graph and the blob files.
+	 *
+	 * @return the bytes
+	 */
+	public long length() {
+		return graphFile.length() + blobFile.length();
+	}
+
+	/**
+	 * Closes the files. Unless finished, they are deleted.
+	 */
+	public void close() {
+		JOrphanUtils.closeQuietly(offsets);
+		JOrphanUtils.closeQuietly(targets);
+		JOrphanUtils.closeQuietly(distances);
+		JOrphanUtils.closeQuietly(blob);
+		JOrphanUtils.closeQuietly(graph);
+		deleteTemporary();
+		if (!finished) {
+			graphFile.delete();
+			blobFile.delete();
+		}
+	}
+
+	/**
+	 * Gets the index of a web or date in the string table.
+	 *
+	 * @param s
+	 *            the string, or null
+	 * @return the index, -1 for null
+	 */
+	private int string(String s) {
+		if (s == null) {
+			return -1;
+		}
+		Integer index = strings.get(s);
+		if (index == null) {
+			index = Integer.valueOf(stringList.size());
+			strings.put(s, index);
+			stringList.add(s);
+		}
+		return index.intValue();
+	}
+
+	/**
+	 * Gets an id.
+	 *
+	 * @param id
+	 *            the id, or null
+	 * @return the id, 0 for null
+	 */
+	private static int value(Integer id) {
+		return id == null ? 0 : id.intValue();
+	}
+
+	/**
+	 * Finds the first node with an id.
+	 *
+	 * @param byId
+	 *            the ids and indexes, sorted
+	 * @param id
+	 *            the id
+	 * @return the index, -1 if none
+	 */
+	private static int find(long[] byId, int id) {
+		int i = Arrays.binarySearch(byId, (long) id << 32);
+		if (i < 0) {
+			i = -i - 1;
+		}
+		return i < byId.length && (int) (byId[i] >> 32) == id ? (int) byId[i]
+				: -1;
+	}
+
+	/**
+	 * Copies a file into the graph.
+	 *
+	 * @param file
+	 *            the file
+	 * @param channel
+	 *            the graph
+	 * @param position
+	 *            where it goes
+	 * @return the bytes copied
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static long copy(File file, FileChannel channel, long position)
+			throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel from = in.getChannel();
+			long size = from.size();
+			for (long done = 0; done < size;) {
+				done += channel.transferFrom(from, position + done, size - done);
+			}
+			return size;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Opens a file to stream.
+	 *
+	 * @param file
+	 *            the file
+	 * @return the stream
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static DataOutputStream open(File file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16));
+	}
+
+	/**
+	 * Deletes the temporary files.
+	 */
+	private void deleteTemporary() {
+		offsetsFile.delete();
+		targetsFile.delete();
+		distancesFile.delete();
+	}
+}
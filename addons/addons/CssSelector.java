@@ -0,0 +1,639 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.DefaultListModel;
+
+import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.gargoylesoftware.htmlunit.html.HtmlElement;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+
+/**
+ * The Class CssSelector.
+ *
+ * A CSS selector compiled once into right-to-left matchers. Matching starts
+ * with the rightmost compound selector, so #id and .class selectors reject
+ * almost every element after one attribute lookup, and only the candidates
+ * walk up their ancestors.
+ *
+ * Supported syntax: type and universal selectors, #id, .class, attribute
+ * selectors ([a], [a=v], [a~=v], [a|=v], [a^=v], [a$=v], [a*=v]), the
+ * descendant and child (&gt;) combinators and selector groups (,).
+ *
+ * The selectors are edited in the same list as the XPaths, so the Query list
+ * methods work on the {@link XPath} list given when the selector is created.
+ *
+ * @author agustinsabaterpineiro
+ */
+public class CssSelector implements Query {
+
+	/** The source of the selector. */
+	private final String selector;
+
+	/** The alternatives of the group, each one as compounds left to right. */
+	private final Compound[][] alternatives;
+
+	/** The query list used by the Query list methods. */
+	private final XPath list;
+
+	/**
+	 * Instantiates a new CSS selector, only for the Query list methods, over an
+	 * empty list.
+	 */
+	public CssSelector() {
+		this(new XPath());
+	}
+
+	/**
+	 * Instantiates a new CSS selector, only for the Query list methods.
+	 *
+	 * @param list
+	 *            the query list shared with the XPaths
+	 */
+	public CssSelector(XPath list) {
+		this.selector = null;
+		this.alternatives = new Compound[0][];
+		this.list = list;
+	}
+
+	/**
+	 * Compiles a CSS selector.
+	 *
+	 * @param selector
+	 *            the selector
+	 * @throws IllegalArgumentException
+	 *             if the selector is not supported
+	 */
+	public CssSelector(String selector) {
+		this.selector = selector;
+		String[] group = splitGroup(selector);
+		alternatives = new Compound[group.length][];
+		for (int i = 0; i < group.length; i++) {
+			alternatives[i] = parse(group[i].trim(), selector);
+		}
+		this.list = new XPath();
+	}
+
+	/**
+	 * Gets the source of the selector.
+	 *
+	 * @return the selector
+	 */
+	public String getSelector() {
+		return selector;
+	}
+
+	/**
+	 * Selects the matching elements of a page, in document order.
+	 *
+	 * @param page
+	 *            the parsed page
+	 * @return the matching elements
+	 */
+	public List<HtmlElement> select(HtmlPage page) {
+		List<HtmlElement> result = new ArrayList<HtmlElement>();
+		if (page.getDocumentElement() == null || alternatives.length == 0) {
+			return result;
+		}
+		Iterable<HtmlElement> candidates;
+		if (alternatives.length == 1) {
+			Compound last = alternatives[0][alternatives[0].length - 1];
+			if (last.id != null) {
+				candidates = page.getElementsByIdAndOrName(last.id);
+			} else if (last.tag != null) {
+				candidates = page.getElementsByTagName(last.tag);
+			} else {
+				candidates = page.getDocumentElement()
+						.getHtmlElementDescendants();
+				if (matches(page.getDocumentElement())) {
+					result.add(page.getDocumentElement());
+				}
+			}
+		} else {
+			candidates = page.getDocumentElement().getHtmlElementDescendants();
+			if (matches(page.getDocumentElement())) {
+				result.add(page.getDocumentElement());
+			}
+		}
+		for (HtmlElement e : candidates) {
+			if (matches(e)) {
+				result.add(e);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Checks if an element matches the selector.
+	 *
+	 * @param e
+	 *            the element
+	 * @return true, if it matches any alternative of the group
+	 */
+	public boolean matches(HtmlElement e) {
+		for (int i = 0; i < alternatives.length; i++) {
+			Compound[] compounds = alternatives[i];
+			if (matchesFrom(e, compounds, compounds.length - 1)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Matches compounds[0..k] right to left, starting at e.
+	 *
+	 * @param e
+	 *            the element to test against compounds[k]
+	 * @param compounds
+	 *            the compounds
+	 * @param k
+	 *            the index
+	 * @return true, if it matches
+	 */
+	private static boolean matchesFrom(HtmlElement e, Compound[] compounds,
+			int k) {
+		if (!compounds[k].matches(e)) {
+			return false;
+		}
+		if (k == 0) {
+			return true;
+		}
+		HtmlElement parent = parentElement(e);
+		if (compounds[k].child) {
+			return parent != null && matchesFrom(parent, compounds, k - 1);
+		}
+		for (HtmlElement a = parent; a != null; a = parentElement(a)) {
+			if (matchesFrom(a, compounds, k - 1)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the parent element.
+	 *
+	 * @param e
+	 *            the element
+	 * @return the parent element, or null at the root
+	 */
+	private static HtmlElement parentElement(HtmlElement e) {
+		DomNode parent = e.getParentNode();
+		return parent instanceof HtmlElement ? (HtmlElement) parent : null;
+	}
+
+	/**
+	 * Splits a selector group on the commas outside of brackets and quotes.
+	 *
+	 * @param s
+	 *            the selector
+	 * @return the alternatives
+	 */
+	private static String[] splitGroup(String s) {
+		List<String> parts = new ArrayList<String>();
+		int start = 0;
+		char quote = 0;
+		boolean bracket = false;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+			} else if (c == '[') {
+				bracket = true;
+			} else if (c == ']') {
+				bracket = false;
+			} else if (c == ',' && !bracket) {
+				parts.add(s.substring(start, i));
+				start = i + 1;
+			}
+		}
+		parts.add(s.substring(start));
+		for (String p : parts) {
+			if (p.trim().length() == 0) {
+				throw new IllegalArgumentException(s);
+			}
+		}
+		return parts.toArray(new String[parts.size()]);
+	}
+
+	/**
+	 * Parses a complex selector into compounds.
+	 *
+	 * @param s
+	 *            the complex selector
+	 * @param source
+	 *            the whole selector, for error reporting
+	 * @return the compounds, left to right
+	 */
+	private static Compound[] parse(String s, String source) {
+		List<Compound> list = new ArrayList<Compound>();
+		int i = 0;
+		boolean child = false;
+		while (i < s.length()) {
+			char c = s.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+				continue;
+			}
+			if (c == '>') {
+				if (list.isEmpty() || child) {
+					throw new IllegalArgumentException(source);
+				}
+				child = true;
+				i++;
+				continue;
+			}
+			Compound compound = new Compound(child && !list.isEmpty());
+			i = compound.parse(s, i, source);
+			list.add(compound);
+			child = false;
+		}
+		if (list.isEmpty() || child) {
+			throw new IllegalArgumentException(source);
+		}
+		return list.toArray(new Compound[list.size()]);
+	}
+
+	/**
+	 * Reads an identifier.
+	 *
+	 * @param s
+	 *            the selector
+	 * @param i
+	 *            the start
+	 * @return the end of the identifier
+	 */
+	private static int identEnd(String s, int i) {
+		while (i < s.length()) {
+			char c = s.charAt(i);
+			if (!Character.isLetterOrDigit(c) && c != '-' && c != '_') {
+				break;
+			}
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Checks if a whitespace separated list contains a word, without
+	 * splitting it.
+	 *
+	 * @param list
+	 *            the list, like a class attribute
+	 * @param word
+	 *            the word
+	 * @return true, if found
+	 */
+	private static boolean containsWord(String list, String word) {
+		int from = 0;
+		int len = word.length();
+		while (true) {
+			int i = list.indexOf(word, from);
+			if (i < 0) {
+				return false;
+			}
+			boolean startOk = i == 0 || Character.isWhitespace(list.charAt(i - 1));
+			boolean endOk = i + len == list.length()
+					|| Character.isWhitespace(list.charAt(i + len));
+			if (startOk && endOk) {
+				return true;
+			}
+			from = i + 1;
+		}
+	}
+
+	/**
+	 * A compound selector: tag, id, classes and attribute tests.
+	 */
+	private static final class Compound {
+
+		/** True if joined to the previous compound by the child combinator. */
+		final boolean child;
+
+		/** The tag, null for any. */
+		String tag;
+
+		/** The id, or null. */
+		String id;
+
+		/** The classes. */
+		final List<String> classes = new ArrayList<String>();
+
+		/** The attribute names. */
+		final List<String> attributes = new ArrayList<String>();
+
+		/** The attribute operators, 0 for presence. */
+		final List<Character> operators = new ArrayList<Character>();
+
+		/** The attribute values. */
+		final List<String> values = new ArrayList<String>();
+
+		/**
+		 * Instantiates a new compound.
+		 *
+		 * @param child
+		 *            the child combinator flag
+		 */
+		Compound(boolean child) {
+			this.child = child;
+		}
+
+		/**
+		 * Parses the compound starting at i.
+		 *
+		 * @param s
+		 *            the selector
+		 * @param i
+		 *            the start
+		 * @param source
+		 *            the whole selector, for error reporting
+		 * @return the end of the compound
+		 */
+		int parse(String s, int i, String source) {
+			int start = i;
+			if (s.charAt(i) == '*') {
+				i++;
+			} else {
+				int end = identEnd(s, i);
+				if (end > i) {
+					tag = s.substring(i, end).toLowerCase();
+					i = end;
+				}
+			}
+			while (i < s.length()) {
+				char c = s.charAt(i);
+				if (c == '#' || c == '.') {
+					int end = identEnd(s, i + 1);
+					if (end == i + 1) {
+						throw new IllegalArgumentException(source);
+					}
+					if (c == '#') {
+						id = s.substring(i + 1, end);
+					} else {
+						classes.add(s.substring(i + 1, end));
+					}
+					i = end;
+				} else if (c == '[') {
+					i = parseAttribute(s, i + 1, source);
+				} else if (Character.isWhitespace(c) || c == '>') {
+					break;
+				} else {
+					// Pseudo-classes, sibling combinators...
+					throw new IllegalArgumentException(source);
+				}
+			}
+			if (i == start) {
+				throw new IllegalArgumentException(source);
+			}
+			return i;
+		}
+
+		/**
+		 * Parses an attribute selector.
+		 *
+		 * @param s
+		 *            the selector
+		 * @param i
+		 *            the position after '['
+		 * @param source
+		 *            the whole selector, for error reporting
+		 * @return the position after ']'
+		 */
+		private int parseAttribute(String s, int i, String source) {
+			int close = closingBracket(s, i, source);
+			String body = s.substring(i, close).trim();
+			int eq = body.indexOf('=');
+			if (eq < 0) {
+				attributes.add(body.toLowerCase());
+				operators.add(Character.valueOf((char) 0));
+				values.add(null);
+				return close + 1;
+			}
+			char op = '=';
+			int nameEnd = eq;
+			if (eq > 0 && "~|^$*".indexOf(body.charAt(eq - 1)) >= 0) { // $NON-NLS-1$
+				op = body.charAt(eq - 1);
+				nameEnd = eq - 1;
+			}
+			String name = body.substring(0, nameEnd).trim().toLowerCase();
+			String value = body.substring(eq + 1).trim();
+			if (value.length() >= 2
+					&& (value.charAt(0) == '"' || value.charAt(0) == '\'')
+					&& value.charAt(value.length() - 1) == value.charAt(0)) {
+				value = value.substring(1, value.length() - 1);
+			}
+			if (!isAttributeName(name)) {
+				// Another operator, like [a!=v], would never match
+				throw new IllegalArgumentException(source);
+			}
+			attributes.add(name);
+			operators.add(Character.valueOf(op));
+			values.add(value);
+			return close + 1;
+		}
+
+		/**
+		 * Checks if s is an attribute name, like data-id or xml:lang.
+		 *
+		 * @param s
+		 *            the name
+		 * @return true, if it is a name
+		 */
+		private static boolean isAttributeName(String s) {
+			if (s.length() == 0) {
+				return false;
+			}
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (!Character.isLetterOrDigit(c) && c != '-' && c != '_'
+						&& c != ':' && c != '.') {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Finds the bracket closing an attribute selector, past the quoted
+		 * values.
+		 *
+		 * @param s
+		 *            the selector
+		 * @param i
+		 *            the position after '['
+		 * @param source
+		 *            the whole selector, for error reporting
+		 * @return the position of ']'
+		 */
+		private static int closingBracket(String s, int i, String source) {
+			char quote = 0;
+			for (; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (quote != 0) {
+					if (c == quote) {
+						quote = 0;
+					}
+				} else if (c == '"' || c == '\'') {
+					quote = c;
+				} else if (c == ']') {
+					return i;
+				}
+			}
+			throw new IllegalArgumentException(source);
+		}
+
+		/**
+		 * Tests an element, cheapest checks first.
+		 *
+		 * @param e
+		 *            the element
+		 * @return true, if it matches
+		 */
+		boolean matches(HtmlElement e) {
+			if (id != null && !id.equals(e.getId())) {
+				return false;
+			}
+			if (tag != null && !tag.equals(e.getTagName())) {
+				return false;
+			}
+			if (!classes.isEmpty()) {
+				if (!e.hasAttribute("class")) { // $NON-NLS-1$
+					return false;
+				}
+				String cls = e.getAttribute("class"); // $NON-NLS-1$
+				for (int i = 0; i < classes.size(); i++) {
+					if (!containsWord(cls, classes.get(i))) {
+						return false;
+					}
+				}
+			}
+			for (int i = 0; i < attributes.size(); i++) {
+				String name = attributes.get(i);
+				if (!e.hasAttribute(name)) {
+					return false;
+				}
+				String actual = e.getAttribute(name);
+				String expected = values.get(i);
+				switch (operators.get(i).charValue()) {
+				case 0:
+					break;
+				case '=':
+					if (!actual.equals(expected)) {
+						return false;
+					}
+					break;
+				case '~':
+					if (!containsWord(actual, expected)) {
+						return false;
+					}
+					break;
+				case '|':
+					// The value, or the value and a hyphen starting it
+					if (!actual.equals(expected)
+							&& !actual.startsWith(expected + "-")) { // $NON-NLS-1$
+						return false;
+					}
+					break;
+				case '^':
+					if (!actual.startsWith(expected)) {
+						return false;
+					}
+					break;
+				case '$':
+					if (!actual.endsWith(expected)) {
+						return false;
+					}
+					break;
+				default: // '*'
+					if (actual.indexOf(expected) < 0) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+	}
+
+	/* ================= Query list ================= */
+
+	/**
+	 * Gets the query list.
+	 *
+	 * @return the query list
+	 */
+	public String[] getQueryList() {
+		return getStaticsQuerys();
+	}
+
+	/**
+	 * Adds all the selectors into the list.
+	 *
+	 * @param s
+	 *            the s
+	 */
+	public void addQuerys(String[] s) {
+		for (int i = 0; i < s.length; i++) {
+			list.addQuery(s[i]);
+		}
+	}
+
+	/**
+	 * Clear all the selectors.
+	 */
+	public void clearQuerys() {
+		list.getStaticsQuerysLM().clear();
+	}
+
+	/**
+	 * Gets all the selectors in the list.
+	 *
+	 * @return Array
+	 */
+	public String[] getStaticsQuerys() {
+		return list.getStaticsQuerys();
+	}
+
+	/**
+	 * Gets the list model of the selectors.
+	 *
+	 * @return the list model
+	 */
+	@SuppressWarnings("rawtypes") // The signature of Query, for Java 6 Swing
+	public DefaultListModel getStaticsQuerysLM() {
+		return list.getStaticsQuerysLM();
+	}
+
+	/**
+	 * Saves the selectors.
+	 */
+	public void saveHtmlQuerys() {
+		addQuerys(getStaticsQuerys());
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.w3c.dom.Document;
+
+/**
+ * The Class DocumentCache.
+ *
+ * @description Documents parsed from the current sample of a sampler thread,
+ *              so several extractors attached to the same sampler parse each
+ *              response once. Entries are keyed by the identity of the
+ *              SampleResult (the sample or one of its sub results) and the
+ *              parser settings, and are dropped as soon as the thread moves on
+ *              to another sample.
+ *
+ *              The documents are shared between extractors and must only be
+ *              read.
+ */
+public final class DocumentCache {
+
+	/** The cache of the current thread. */
+	private static final ThreadLocal<DocumentCache> CACHES = new ThreadLocal<DocumentCache>() {
+		@Override
+		protected DocumentCache initialValue() {
+			return new DocumentCache();
+		}
+	};
+
+	/** The sample the documents belong to. */
+	private SampleResult owner;
+
+	/** The documents, by result and settings. */
+	private final Map<SampleResult, Map<String, Document>> documents = new IdentityHashMap<SampleResult, Map<String, Document>>();
+
+	/**
+	 * Instantiates a new document cache.
+	 */
+	private DocumentCache() {
+		// One per thread
+	}
+
+	/**
+	 * Gets the cache of the current thread for a sample, emptying it if it
+	 * held the documents of another sample.
+	 *
+	 * @param owner
+	 *            the sample being post processed
+	 * @return the cache
+	 */
+	public static DocumentCache forSample(SampleResult owner) {
+		DocumentCache cache = CACHES.get();
+		if (cache.owner != owner) {
+			cache.documents.clear();
+			cache.owner = owner;
+		}
+		return cache;
+	}
+
+	/**
+	 * Removes the documents of the current thread.
+	 */
+	public static void clear() {
+		CACHES.remove();
+	}
+
+	/**
+	 * Gets a parsed document.
+	 *
+	 * @param res
+	 *            the sample or sub result
+	 * @param settings
+	 *            the parser settings, see
+	 *            {@link #settings(boolean, boolean, boolean, boolean, boolean, boolean, boolean, boolean)}
+	 * @return the document, or null if it was not parsed yet
+	 */
+	public Document get(SampleResult res, String settings) {
+		Map<String, Document> docs = documents.get(res);
+		return docs == null ? null : docs.get(settings);
+	}
+
+	/**
+	 * Stores a parsed document.
+	 *
+	 * @param res
+	 *            the sample or sub result
+	 * @param settings
+	 *            the parser settings
+	 * @param doc
+	 *            the document
+	 */
+	public void put(SampleResult res, String settings, Document doc) {
+		Map<String, Document> docs = documents.get(res);
+		if (docs == null) {
+			docs = new HashMap<String, Document>(4);
+			documents.put(res, docs);
+		}
+		docs.put(settings, doc);
+	}
+
+	/**
+	 * Builds the key of the settings changing the parsed document.
+	 *
+	 * @param validate
+	 *            the validate
+	 * @param whitespace
+	 *            the whitespace
+	 * @param namespace
+	 *            the namespace
+	 * @param tolerant
+	 *            the tolerant
+	 * @param quiet
+	 *            the quiet
+	 * @param showWarnings
+	 *            the show warnings
+	 * @param reportErrors
+	 *            the report errors
+	 * @param downloadDTDs
+	 *            the download dt ds
+	 * @return the key
+	 */
+	public static String settings(boolean validate, boolean whitespace,
+			boolean namespace, boolean tolerant, boolean quiet,
+			boolean showWarnings, boolean reportErrors, boolean downloadDTDs) {
+		boolean[] flags = { validate, whitespace, namespace, tolerant, quiet,
+				showWarnings, reportErrors, downloadDTDs };
+		char[] key = new char[flags.length];
+		for (int i = 0; i < flags.length; i++) {
+			key[i] = flags[i] ? '1' : '0';
+		}
+		return new String(key);
+	}
+}
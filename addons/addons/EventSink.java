@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+/**
+ * The Interface EventSink.
+ *
+ * @description Receives the timed operations of the capture and the analysis,
+ *              one event per operation, for a profiler to put them next to its
+ *              own samples. An event begins when the operation starts and is
+ *              committed with its subject and sizes when it ends; an operation
+ *              that fails is simply not committed.
+ *
+ *              The sink in use is the one of {@link EventSinks#get()}: Java
+ *              Flight Recorder events on Java 11 or later, nothing otherwise.
+ */
+public interface EventSink {
+
+	/**
+	 * The kinds of operations.
+	 */
+	enum Kind {
+
+		/** The HTML Downloader writing a sample. */
+		CAPTURE_WRITE,
+
+		/** Parsing or mapping the page of a sample. */
+		PAGE_PARSE,
+
+		/** Evaluating a query on a sample. */
+		QUERY,
+
+		/** Comparing a node with the nodes after it. */
+		SIMILARITY_BATCH,
+
+		/** Writing a GraphML file, of a sample or the result. */
+		GRAPHML_FLUSH
+	}
+
+	/**
+	 * An operation under way.
+	 */
+	interface Event {
+
+		/**
+		 * Ends the operation and records it.
+		 *
+		 * @param subject
+		 *            what the operation worked on: the URL, the sample, the
+		 *            query, the node or the file
+		 * @param items
+		 *            the items produced or compared
+		 * @param bytes
+		 *            the bytes read or written
+		 */
+		void commit(String subject, long items, long bytes);
+	}
+
+	/** The sink recording nothing. Its events are a single instance. */
+	EventSink NONE = new EventSink() {
+
+		private final Event none = new Event() {
+			public void commit(String subject, long items, long bytes) {
+			}
+		};
+
+		public Event begin(Kind kind) {
+			return none;
+		}
+
+		@Override
+		public String toString() {
+			return "none"; // $NON-NLS-1$
+		}
+	};
+
+	/**
+	 * Begins an operation.
+	 *
+	 * @param kind
+	 *            the kind of operation
+	 * @return the event, to commit when the operation ends
+	 */
+	Event begin(Kind kind);
+}
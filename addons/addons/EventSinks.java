@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * The Class EventSinks.
+ *
+ * @description Chooses the {@link EventSink} of the JVM, once. The plugin is
+ *              built for Java 6, so the Java Flight Recorder sink,
+ *              addons.JfrEventSink, is compiled apart for Java 11 and loaded
+ *              by name. When it is not in the jar, the JVM is older than Java
+ *              11 or has no Flight Recorder, {@link EventSink#NONE} is used.
+ *
+ *              The JMeter property xpathextractor.events=false turns the
+ *              events off.
+ */
+public final class EventSinks {
+
+	/** The Constant log. */
+	private static final Logger log = LoggingManager.getLoggerForClass();
+
+	/** The class of the Flight Recorder sink. */
+	private static final String JFR_SINK = "addons.JfrEventSink"; // $NON-NLS-1$
+
+	/** The sink of the JVM. */
+	private static final EventSink SINK = load();
+
+	/**
+	 * Instantiates a new event sinks.
+	 */
+	private EventSinks() {
+	}
+
+	/**
+	 * Gets the sink of the JVM.
+	 *
+	 * @return the sink, never null
+	 */
+	public static EventSink get() {
+		return SINK;
+	}
+
+	/**
+	 * Loads the Flight Recorder sink, if it can run.
+	 *
+	 * @return the sink
+	 */
+	private static EventSink load() {
+		if (!JMeterUtils.getPropDefault("xpathextractor.events", true)) { // $NON-NLS-1$
+			return EventSink.NONE;
+		}
+		try {
+			EventSink sink = (EventSink) Class.forName(JFR_SINK).newInstance();
+			log.info("Plugin events: " + sink); // $NON-NLS-1$
+			return sink;
+		} catch (ClassNotFoundException e) {
+			log.debug("No Flight Recorder sink in the classpath"); // $NON-NLS-1$
+		} catch (LinkageError e) {
+			// Compiled for a newer Java, or jdk.jfr is missing
+			log.debug("Flight Recorder sink not supported: " + e); // $NON-NLS-1$
+		} catch (Exception e) {
+			log.debug("Flight Recorder sink not available: " + e); // $NON-NLS-1$
+		}
+		return EventSink.NONE;
+	}
+}
@@ -0,0 +1,317 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.jorphan.util.JOrphanUtils;
+import org.apache.log.Logger;
+
+/**
+ * The Class ExtractionCache.
+ *
+ * @description The fragments a query found in a sample, kept on disk between
+ *              analyses. An entry is keyed by the SHA-1 of the sample bytes,
+ *              the engine that evaluated the query and the normalized query,
+ *              so an analysis with one more query only evaluates that one,
+ *              and a sample is only parsed if one of its queries is missing.
+ *
+ *              Every entry is a file of its own, written beside its name and
+ *              then renamed, so the extraction threads can share the cache and
+ *              an interrupted analysis never leaves a broken entry.
+ */
+public class ExtractionCache {
+
+	/** The Constant log. */
+	private static final Logger log = LoggingManager.getLoggerForClass();
+
+	/** The default folder of the cache, in the capture folder. */
+	public static final String DEFAULT_FOLDER_NAME = ".extraction-cache"; // $NON-NLS-1$
+
+	/** The magic number of the entries. */
+	private static final int MAGIC = 0x58504531; // XPE1
+
+	/** The UTF-8 charset. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8"); // $NON-NLS-1$
+
+	/** The hex digits. */
+	private static final char[] HEX = "0123456789abcdef".toCharArray(); // $NON-NLS-1$
+
+	/** The folder of the cache. */
+	private final File folder;
+
+	/** The lookups found in the cache. */
+	private final AtomicLong hits = new AtomicLong();
+
+	/** The lookups missing from the cache. */
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Instantiates a new extraction cache.
+	 *
+	 * @param folder
+	 *            the folder of the cache, created when the first entry is
+	 *            written
+	 */
+	public ExtractionCache(File folder) {
+		this.folder = folder;
+	}
+
+	/**
+	 * Gets the folder.
+	 *
+	 * @return the folder
+	 */
+	public File getFolder() {
+		return folder;
+	}
+
+	/**
+	 * Hashes the bytes of a sample.
+	 *
+	 * @param data
+	 *            the sample
+	 * @return the hex SHA-1
+	 */
+	public static String hash(byte[] data) {
+		return hex(sha1().digest(data));
+	}
+
+	/**
+	 * Normalizes a query: the whitespace around it is removed and every other
+	 * run of whitespace becomes a single space, except inside quotes.
+	 *
+	 * @param query
+	 *            the query
+	 * @return the normalized query
+	 */
+	public static String normalize(String query) {
+		StringBuilder sb = new StringBuilder(query.length());
+		char quote = 0;
+		boolean space = false;
+		String q = query.trim();
+		for (int i = 0; i < q.length(); i++) {
+			char c = q.charAt(i);
+			if (quote == 0 && Character.isWhitespace(c)) {
+				space = true;
+				continue;
+			}
+			if (space) {
+				sb.append(' ');
+				space = false;
+			}
+			if (quote == 0 && (c == '\'' || c == '"')) {
+				quote = c;
+			} else if (c == quote) {
+				quote = 0;
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Gets the fragments of a query in a sample.
+	 *
+	 * @param sampleHash
+	 *            the hash of the sample
+	 * @param engine
+	 *            the engine evaluating the query
+	 * @param query
+	 *            the query
+	 * @return the fragments, or null if they are not in the cache
+	 */
+	public List<Fragment> get(String sampleHash, String engine, String query) {
+		File entry = entry(sampleHash, engine, query);
+		if (!entry.isFile()) {
+			misses.incrementAndGet();
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(entry)));
+			if (in.readInt() != MAGIC) {
+				misses.incrementAndGet();
+				return null;
+			}
+			int count = in.readInt();
+			List<Fragment> fragments = new ArrayList<Fragment>(count);
+			for (int i = 0; i < count; i++) {
+				byte[] b = new byte[in.readInt()];
+				in.readFully(b);
+				fragments.add(new Fragment(new String(b, UTF_8), in.readInt(),
+						in.readInt(), in.readInt(), in.readInt()));
+			}
+			hits.incrementAndGet();
+			return fragments;
+		} catch (IOException e) {
+			log.warn("Ignoring cache entry " + entry + ": " // $NON-NLS-1$ // $NON-NLS-2$
+					+ e.getLocalizedMessage());
+			misses.incrementAndGet();
+			return null;
+		} finally {
+			JOrphanUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Keeps the fragments of a query in a sample. A failure is only logged:
+	 * the analysis goes on without the entry.
+	 *
+	 * @param sampleHash
+	 *            the hash of the sample
+	 * @param engine
+	 *            the engine evaluating the query
+	 * @param query
+	 *            the query
+	 * @param fragments
+	 *            the fragments
+	 */
+	public void put(String sampleHash, String engine, String query,
+			List<Fragment> fragments) {
+		File entry = entry(sampleHash, engine, query);
+		File tmp = new File(entry.getPath() + "." // $NON-NLS-1$
+				+ Thread.currentThread().getId() + ".tmp"); // $NON-NLS-1$
+		try {
+			File parent = entry.getParentFile();
+			if (!parent.isDirectory() && !parent.mkdirs()
+					&& !parent.isDirectory()) {
+				throw new IOException("Could not create " + parent); // $NON-NLS-1$
+			}
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(fragments.size());
+				for (Fragment f : fragments) {
+					byte[] b = f.getContent().getBytes(UTF_8);
+					out.writeInt(b.length);
+					out.write(b);
+					out.writeInt(f.getStartLineNumber());
+					out.writeInt(f.getStartColumnNumber());
+					out.writeInt(f.getEndLineNumber());
+					out.writeInt(f.getEndColumnNumber());
+				}
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(entry)
+					&& !(entry.delete() && tmp.renameTo(entry))) {
+				throw new IOException("Could not replace " + entry); // $NON-NLS-1$
+			}
+		} catch (IOException e) {
+			log.warn("Could not cache " + entry + ": " // $NON-NLS-1$ // $NON-NLS-2$
+					+ e.getLocalizedMessage());
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Gets the lookups found in the cache.
+	 *
+	 * @return the hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets the lookups missing from the cache.
+	 *
+	 * @return the misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return folder + " hits=" + hits + " misses=" + misses; // $NON-NLS-1$ // $NON-NLS-2$
+	}
+
+	/**
+	 * Gets the file of an entry: the SHA-1 of its key, under a folder named
+	 * after the first two digits to keep the folders small.
+	 *
+	 * @param sampleHash
+	 *            the hash of the sample
+	 * @param engine
+	 *            the engine
+	 * @param query
+	 *            the query
+	 * @return the file
+	 */
+	private File entry(String sampleHash, String engine, String query) {
+		String name = hex(sha1().digest(
+				(sampleHash + '\n' + engine + '\n' + normalize(query))
+						.getBytes(UTF_8)));
+		return new File(new File(folder, name.substring(0, 2)), name
+				.substring(2));
+	}
+
+	/**
+	 * Gets a SHA-1 digest.
+	 *
+	 * @return the digest
+	 */
+	private static MessageDigest sha1() {
+		try {
+			return MessageDigest.getInstance("SHA-1"); // $NON-NLS-1$
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // Required by every JRE
+		}
+	}
+
+	/**
+	 * Formats bytes in hexadecimal.
+	 *
+	 * @param b
+	 *            the bytes
+	 * @return the hex string
+	 */
+	private static String hex(byte[] b) {
+		char[] c = new char[b.length * 2];
+		for (int i = 0; i < b.length; i++) {
+			c[2 * i] = HEX[(b[i] >> 4) & 0xf];
+			c[2 * i + 1] = HEX[b[i] & 0xf];
+		}
+		return new String(c);
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+/**
+ * The Class Fragment.
+ *
+ * @description Fragment is a matched subtree of a sample, as returned by the
+ *              extraction engines that do not build an HtmlUnit page. It
+ *              carries the serialized source and the limits of the match so
+ *              it can be turned into a TempNode.
+ */
+public class Fragment {
+
+	/** The content. */
+	private final String content;
+
+	/** The start line number. */
+	private final int startLineNumber;
+
+	/** The start column number. */
+	private final int startColumnNumber;
+
+	/** The end line number. */
+	private final int endLineNumber;
+
+	/** The end column number. */
+	private final int endColumnNumber;
+
+	/**
+	 * Instantiates a new fragment.
+	 *
+	 * @param content
+	 *            the serialized subtree
+	 * @param startLineNumber
+	 *            the start line number
+	 * @param startColumnNumber
+	 *            the start column number
+	 * @param endLineNumber
+	 *            the end line number
+	 * @param endColumnNumber
+	 *            the end column number
+	 */
+	public Fragment(String content, int startLineNumber,
+			int startColumnNumber, int endLineNumber, int endColumnNumber) {
+		this.content = content;
+		this.startLineNumber = startLineNumber;
+		this.startColumnNumber = startColumnNumber;
+		this.endLineNumber = endLineNumber;
+		this.endColumnNumber = endColumnNumber;
+	}
+
+	/**
+	 * Gets the content.
+	 *
+	 * @return the content
+	 */
+	public String getContent() {
+		return content;
+	}
+
+	/**
+	 * Gets the start line number.
+	 *
+	 * @return the start line number
+	 */
+	public int getStartLineNumber() {
+		return startLineNumber;
+	}
+
+	/**
+	 * Gets the start column number.
+	 *
+	 * @return the start column number
+	 */
+	public int getStartColumnNumber() {
+		return startColumnNumber;
+	}
+
+	/**
+	 * Gets the end line number.
+	 *
+	 * @return the end line number
+	 */
+	public int getEndLineNumber() {
+		return endLineNumber;
+	}
+
+	/**
+	 * Gets the end column number.
+	 *
+	 * @return the end column number
+	 */
+	public int getEndColumnNumber() {
+		return endColumnNumber;
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The Class FragmentRegistry.
+ *
+ * @description The fragments found while a test runs, registered by the
+ *              sampler threads as their responses arrive. A fragment is known
+ *              by its content, web and date, like in the staged analysis; the
+ *              first thread to register it keeps its node and the others only
+ *              add their sample to it.
+ *
+ *              The maps are concurrent and the nodes are queued without locks,
+ *              so the sampler threads only contend on the same fragment, never
+ *              on the whole registry.
+ */
+public class FragmentRegistry {
+
+	/** The context the registry is built for. */
+	private final AnalysisContext context;
+
+	/** The root node of every web. */
+	private final ConcurrentMap<String, TempNode> roots = new ConcurrentHashMap<String, TempNode>();
+
+	/** The roots, in registration order. */
+	private final Queue<TempNode> rootOrder = new ConcurrentLinkedQueue<TempNode>();
+
+	/** The fragments by content, web and date. */
+	private final ConcurrentMap<String, TempNode> fragments = new ConcurrentHashMap<String, TempNode>();
+
+	/** The fragments, in registration order. */
+	private final Queue<TempNode> fragmentOrder = new ConcurrentLinkedQueue<TempNode>();
+
+	/** The number of samples registered. */
+	private final AtomicInteger samples = new AtomicInteger();
+
+	/**
+	 * Instantiates a new fragment registry.
+	 *
+	 * @param context
+	 *            the context of the result
+	 */
+	public FragmentRegistry(AnalysisContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Gets the context.
+	 *
+	 * @return the context
+	 */
+	public AnalysisContext getContext() {
+		return context;
+	}
+
+	/**
+	 * Registers the nodes of a sample. The nodes must already be nested: their
+	 * father ids are content hashes, so a node keeps the right father whether
+	 * its father or a duplicate of it ends up registered.
+	 *
+	 * @param web
+	 *            the web of the sample
+	 * @param sample
+	 *            the sample
+	 * @param nodes
+	 *            the nodes found at the sample
+	 * @return the nodes first found at this sample
+	 */
+	public List<TempNode> register(String web, String sample,
+			List<TempNode> nodes) {
+		if (!roots.containsKey(web)) {
+			TempNode webTN = new TempNode(web);
+			webTN.setFatherId(); // My father is r00t!
+			if (roots.putIfAbsent(web, webTN) == null) {
+				rootOrder.add(webTN);
+			}
+		}
+		List<TempNode> owned = new ArrayList<TempNode>();
+		for (TempNode tn : nodes) {
+			String key = tn.getId() + "|" + tn.getWeb() + "|" + tn.getDate(); // $NON-NLS-1$ // $NON-NLS-2$
+			TempNode known = fragments.putIfAbsent(key, tn);
+			if (known == null) {
+				fragmentOrder.add(tn);
+				owned.add(tn);
+			} else if (!known.foundAt(sample)) {
+				known.addSample(sample);
+			}
+		}
+		samples.incrementAndGet();
+		return owned;
+	}
+
+	/**
+	 * Gets the number of samples registered.
+	 *
+	 * @return the sample count
+	 */
+	public int getSampleCount() {
+		return samples.get();
+	}
+
+	/**
+	 * Gets the number of fragments registered.
+	 *
+	 * @return the fragment count
+	 */
+	public int getFragmentCount() {
+		return fragments.size();
+	}
+
+	/**
+	 * Copies the roots and then the fragments, each in registration order, to
+	 * the nodes of the context.
+	 *
+	 * @return the nodes of the context
+	 */
+	public List<TempNode> snapshot() {
+		List<TempNode> nodes = context.getNodes();
+		nodes.clear();
+		nodes.addAll(rootOrder);
+		nodes.addAll(fragmentOrder);
+		return nodes;
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The Class NeighbourCollector.
+ *
+ * @description The k closest neighbours of every node, collected while the
+ *              distances are computed. Every node has a bounded max-heap of
+ *              its k closest neighbours so far, in two int arrays, so the
+ *              collector takes 8 bytes per node and neighbour whatever the
+ *              number of pairs compared. Ties go to the neighbour first in the
+ *              node list, so the result does not depend on the order of the
+ *              pairs.
+ *
+ *              {@link #edges()} gives every pair among the k closest of either
+ *              node once: at most k times the nodes in all, but a node among
+ *              the k closest of many others has more than k edges.
+ */
+public class NeighbourCollector {
+
+	/** Orders the edges by the first and then the second index. */
+	private static final Comparator<int[]> BY_INDEX = new Comparator<int[]>() {
+		public int compare(int[] a, int[] b) {
+			if (a[0] != b[0]) {
+				return a[0] < b[0] ? -1 : 1;
+			}
+			return a[1] < b[1] ? -1 : (a[1] == b[1] ? 0 : 1);
+		}
+	};
+
+	/** The neighbours kept per node. */
+	private final int k;
+
+	/** The heaps of neighbours, k entries per node. */
+	private final int[] others;
+
+	/** The distances of the neighbours. */
+	private final int[] distances;
+
+	/** The entries of every heap. */
+	private final int[] sizes;
+
+	/**
+	 * Instantiates a new neighbour collector.
+	 *
+	 * @param nodes
+	 *            the number of nodes
+	 * @param k
+	 *            the neighbours kept per node
+	 */
+	public NeighbourCollector(int nodes, int k) {
+		this.k = k;
+		this.others = new int[nodes * k];
+		this.distances = new int[nodes * k];
+		this.sizes = new int[nodes];
+	}
+
+	/**
+	 * Offers the distance of a pair to both nodes.
+	 *
+	 * @param i
+	 *            the index of a node
+	 * @param j
+	 *            the index of the other node
+	 * @param distance
+	 *            the distance
+	 */
+	public void offer(int i, int j, int distance) {
+		push(i, j, distance);
+		push(j, i, distance);
+	}
+
+	/**
+	 * Gets the edges kept.
+	 *
+	 * @return the edges as {node index, node index, distance}, the first index
+	 *         the lower, sorted by the first and then the second index
+	 */
+	public List<int[]> edges() {
+		List<int[]> edges = new ArrayList<int[]>();
+		for (int node = 0; node < sizes.length; node++) {
+			for (int e = node * k; e < node * k + sizes[node]; e++) {
+				int other = others[e];
+				edges.add(node < other ? new int[] { node, other, distances[e] }
+						: new int[] { other, node, distances[e] });
+			}
+		}
+		Collections.sort(edges, BY_INDEX);
+		// A pair kept by both nodes is there twice
+		List<int[]> unique = new ArrayList<int[]>(edges.size());
+		for (int[] edge : edges) {
+			if (unique.isEmpty()
+					|| BY_INDEX.compare(unique.get(unique.size() - 1), edge) != 0) {
+				unique.add(edge);
+			}
+		}
+		return unique;
+	}
+
+	/**
+	 * Offers a neighbour to the heap of a node.
+	 *
+	 * @param node
+	 *            the node
+	 * @param other
+	 *            the neighbour
+	 * @param distance
+	 *            the distance
+	 */
+	private void push(int node, int other, int distance) {
+		int base = node * k;
+		int size = sizes[node];
+		if (size < k) {
+			// Sift the new entry up
+			int e = size;
+			while (e > 0) {
+				int parent = (e - 1) / 2;
+				if (!farther(distance, other, distances[base + parent],
+						others[base + parent])) {
+					break;
+				}
+				others[base + e] = others[base + parent];
+				distances[base + e] = distances[base + parent];
+				e = parent;
+			}
+			others[base + e] = other;
+			distances[base + e] = distance;
+			sizes[node] = size + 1;
+		} else if (farther(distances[base], others[base], distance, other)) {
+			// Replace the farthest and sift it down
+			int e = 0;
+			while (true) {
+				int child = 2 * e + 1;
+				if (child >= k) {
+					break;
+				}
+				if (child + 1 < k
+						&& farther(distances[base + child + 1], others[base
+								+ child + 1], distances[base + child],
+								others[base + child])) {
+					child++;
+				}
+				if (!farther(distances[base + child], others[base + child],
+						distance, other)) {
+					break;
+				}
+				others[base + e] = others[base + child];
+				distances[base + e] = distances[base + child];
+				e = child;
+			}
+			others[base + e] = other;
+			distances[base + e] = distance;
+		}
+	}
+
+	/**
+	 * Is a neighbour farther than another one?
+	 *
+	 * @param distance1
+	 *            the distance of the first
+	 * @param other1
+	 *            the index of the first
+	 * @param distance2
+	 *            the distance of the second
+	 * @param other2
+	 *            the index of the second
+	 * @return true, if the first is farther, or as far and later in the node
+	 *         list
+	 */
+	private static boolean farther(int distance1, int other1, int distance2,
+			int other2) {
+		return distance1 != distance2 ? distance1 > distance2 : other1 > other2;
+	}
+}
@@ -0,0 +1,603 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.jorphan.util.JOrphanUtils;
+import org.apache.log.Logger;
+
+/**
+ * The Class NodeStore.
+ *
+ * @description The nodes of an analysis under a heap budget. The nodes are
+ *              kept in the node list of the {@link AnalysisContext} until
+ *              their estimated size passes the budget; then the nodes after
+ *              the roots of the webs are written to a run file, sorted by the
+ *              length of their content, and removed from the list. The roots
+ *              stay in memory.
+ *
+ *              Once spilled, the nodes are read back with {@link #byLength()}:
+ *              a merge of the runs and of the nodes still in memory, shortest
+ *              content first, so the similarity only holds the nodes of close
+ *              lengths. Every node keeps its index in the node list it would
+ *              have had, to write the edges the same way round.
+ *
+ *              The budget is the JMeter property xpathextractor.node.budget, in
+ *              MB; by default half of the maximum heap, and 0 for no budget.
+ *              The runs go to a temporary folder, removed by {@link #close()}.
+ */
+public class NodeStore implements Closeable {
+
+	/** The Constant log. */
+	private static final Logger log = LoggingManager.getLoggerForClass();
+
+	/** The bytes of a node besides its content, about. */
+	private static final int NODE_BYTES = 200;
+
+	/** The nodes in memory: the roots, then the nodes not spilled. */
+	private final List<TempNode> nodes;
+
+	/** The number of roots at the head of the nodes. */
+	private final int roots;
+
+	/** The budget in bytes, 0 for none. */
+	private final long budget;
+
+	/** The folder of the run folders. */
+	private final File parent;
+
+	/** The folder of the runs, created by the first spill. */
+	private File folder;
+
+	/** The runs. */
+	private final List<File> runs = new ArrayList<File>();
+
+	/** The nodes in every run. */
+	private final List<Integer> runSizes = new ArrayList<Integer>();
+
+	/** The runs written, merged or not. */
+	private int runsWritten;
+
+	/** The nodes spilled. */
+	private int spilled;
+
+	/** The bytes of the nodes in memory, up to counted. */
+	private long bytes;
+
+	/** The nodes whose bytes are counted. */
+	private int counted;
+
+	/** The samples whose nodes are nested and written. */
+	private int samplesWritten;
+
+	/** The first node in memory not nested and written. */
+	private int firstUnwritten;
+
+	/** The end in memory of the nodes of every sample not written. */
+	private final List<Integer> sampleEnds = new ArrayList<Integer>();
+
+	/**
+	 * A node and its index in the node list.
+	 */
+	public static final class Entry {
+
+		/** The index. */
+		private final int index;
+
+		/** The node. */
+		private final TempNode node;
+
+		/**
+		 * Instantiates a new entry.
+		 *
+		 * @param index
+		 *            the index
+		 * @param node
+		 *            the node
+		 */
+		Entry(int index, TempNode node) {
+			this.index = index;
+			this.node = node;
+		}
+
+		/**
+		 * Gets the index in the node list.
+		 *
+		 * @return the index
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Gets the node.
+		 *
+		 * @return the node
+		 */
+		public TempNode getNode() {
+			return node;
+		}
+
+		/**
+		 * Gets the length of the content.
+		 *
+		 * @return the length
+		 */
+		public int length() {
+			return node.getContent().length();
+		}
+	}
+
+	/** Orders the entries by length, then by index. */
+	private static final Comparator<Entry> BY_LENGTH = new Comparator<Entry>() {
+		public int compare(Entry a, Entry b) {
+			int la = a.length(), lb = b.length();
+			if (la != lb) {
+				return la < lb ? -1 : 1;
+			}
+			return a.index < b.index ? -1 : (a.index == b.index ? 0 : 1);
+		}
+	};
+
+	/**
+	 * Instantiates a new node store over the nodes of an analysis, holding the
+	 * roots of the webs only.
+	 *
+	 * @param nodes
+	 *            the nodes
+	 * @param budget
+	 *            the budget in bytes, 0 for none
+	 * @param parent
+	 *            the folder where the runs go
+	 */
+	public NodeStore(List<TempNode> nodes, long budget, File parent) {
+		this.nodes = nodes;
+		this.roots = nodes.size();
+		this.budget = budget;
+		this.parent = parent;
+		this.counted = roots;
+		this.firstUnwritten = roots;
+	}
+
+	/**
+	 * Gets the default budget: the property xpathextractor.node.budget in MB,
+	 * or half of the maximum heap.
+	 *
+	 * @return the budget in bytes, 0 for none
+	 */
+	public static long defaultBudget() {
+		long mb = JMeterUtils.getPropDefault("xpathextractor.node.budget", -1L); // $NON-NLS-1$
+		return mb >= 0 ? mb * 1024 * 1024 : Runtime.getRuntime().maxMemory() / 2;
+	}
+
+	/**
+	 * Is the budget passed by the nodes in memory?
+	 *
+	 * @return true, if they must be spilled
+	 */
+	public boolean isOverBudget() {
+		if (budget <= 0) {
+			return false;
+		}
+		for (; counted < nodes.size(); counted++) {
+			bytes += sizeOf(nodes.get(counted));
+		}
+		return bytes > budget;
+	}
+
+	/**
+	 * Were nodes spilled? Then the nodes in memory are only a part of them.
+	 *
+	 * @return true, if spilled
+	 */
+	public boolean isSpilled() {
+		return !runs.isEmpty();
+	}
+
+	/**
+	 * Gets the number of nodes, in memory and spilled.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return nodes.size() + spilled;
+	}
+
+	/**
+	 * Gets the number of roots.
+	 *
+	 * @return the roots
+	 */
+	public int getRoots() {
+		return roots;
+	}
+
+	/**
+	 * Gets the nodes spilled.
+	 *
+	 * @return the spilled
+	 */
+	public int getSpilled() {
+		return spilled;
+	}
+
+	/**
+	 * Gets the samples whose nodes are nested and written.
+	 *
+	 * @return the samples
+	 */
+	public int getSamplesWritten() {
+		return samplesWritten;
+	}
+
+	/**
+	 * Gets the first node in memory not nested and written.
+	 *
+	 * @return the index in memory
+	 */
+	public int getFirstUnwritten() {
+		return firstUnwritten;
+	}
+
+	/**
+	 * Marks the end of the nodes of the next sample: the nodes added since
+	 * the previous one.
+	 */
+	public void sampleAdded() {
+		sampleEnds.add(Integer.valueOf(nodes.size()));
+	}
+
+	/**
+	 * Gets the end in memory of the nodes of a sample not written. Its nodes
+	 * start at the end of the sample before, or at the first node not
+	 * written.
+	 *
+	 * @param sample
+	 *            the index of the sample
+	 * @return the index after its last node
+	 */
+	public int getSampleEnd(int sample) {
+		return sampleEnds.get(sample - samplesWritten).intValue();
+	}
+
+	/**
+	 * Marks the nodes in memory as nested and written, with their samples.
+	 *
+	 * @param samples
+	 *            the samples written so far
+	 */
+	public void markWritten(int samples) {
+		sampleEnds.subList(0, samples - samplesWritten).clear();
+		samplesWritten = samples;
+		firstUnwritten = nodes.size();
+	}
+
+	/**
+	 * Writes the nodes in memory after the roots to a new run, sorted by
+	 * length, and removes them from memory.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void spill() throws IOException {
+		List<TempNode> tail = nodes.subList(roots, nodes.size());
+		if (tail.isEmpty()) {
+			return;
+		}
+		if (folder == null) {
+			folder = File.createTempFile("nodes", "", parent); // $NON-NLS-1$ // $NON-NLS-2$
+			if (!folder.delete() || !folder.mkdirs()) {
+				throw new IOException("Could not create " + folder); // $NON-NLS-1$
+			}
+		}
+		List<Entry> entries = entries(tail, roots + spilled);
+		Collections.sort(entries, BY_LENGTH);
+		File run = new File(folder, "run" + runsWritten++); // $NON-NLS-1$
+		write(run, entries.iterator());
+		runs.add(run);
+		runSizes.add(Integer.valueOf(entries.size()));
+		log.info("Spilled " + entries.size() + " nodes, about " // $NON-NLS-1$ // $NON-NLS-2$
+				+ (bytes >> 20) + " MB, to " + run); // $NON-NLS-1$
+		spilled += entries.size();
+		tail.clear();
+		bytes = 0;
+		counted = roots;
+		firstUnwritten = roots;
+	}
+
+	/**
+	 * Gets the nodes after the roots, in memory and spilled, shortest content
+	 * first. Every run is read once, a record at a time, after merging the
+	 * runs in passes of {@value SimilarityJoin#MAX_OPEN_RUNS} while there are
+	 * more.
+	 *
+	 * @return the nodes and their index; the iterator throws
+	 *         IllegalStateException if a run cannot be read
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public Iterator<Entry> byLength() throws IOException {
+		int max = SimilarityJoin.MAX_OPEN_RUNS;
+		while (runs.size() > max) {
+			File run = new File(folder, "run" + runsWritten++); // $NON-NLS-1$
+			int size = write(run, merge(open(max)));
+			List<File> merged = runs.subList(0, max);
+			for (File file : merged) {
+				file.delete();
+			}
+			merged.clear();
+			runSizes.subList(0, max).clear();
+			runs.add(run);
+			runSizes.add(Integer.valueOf(size));
+		}
+		List<Run> open = open(runs.size());
+		List<Entry> memory = entries(nodes.subList(roots, nodes.size()), roots
+				+ spilled);
+		Collections.sort(memory, BY_LENGTH);
+		open.add(new Run(memory.iterator()));
+		return merge(open);
+	}
+
+	/**
+	 * Deletes the runs.
+	 */
+	public void close() {
+		for (File run : runs) {
+			run.delete();
+		}
+		if (folder != null) {
+			folder.delete();
+		}
+		runs.clear();
+		runSizes.clear();
+	}
+
+	/**
+	 * Opens the first runs.
+	 *
+	 * @param count
+	 *            the runs to open
+	 * @return the runs, with room for one more
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private List<Run> open(int count) throws IOException {
+		List<Run> open = new ArrayList<Run>(count + 1);
+		try {
+			for (int i = 0; i < count; i++) {
+				open.add(new Run(runs.get(i), runSizes.get(i).intValue()));
+			}
+		} catch (IOException e) {
+			for (Run run : open) {
+				run.close();
+			}
+			throw e;
+		}
+		return open;
+	}
+
+	/**
+	 * Merges sorted runs.
+	 *
+	 * @param open
+	 *            the runs
+	 * @return the entries of the runs, sorted
+	 */
+	private static Iterator<Entry> merge(List<Run> open) {
+		final PriorityQueue<Run> heads = new PriorityQueue<Run>(
+				open.size() + 1, new Comparator<Run>() {
+					public int compare(Run a, Run b) {
+						return BY_LENGTH.compare(a.head, b.head);
+					}
+				});
+		for (Run run : open) {
+			if (run.advance()) {
+				heads.add(run);
+			}
+		}
+		return new Iterator<Entry>() {
+			public boolean hasNext() {
+				return !heads.isEmpty();
+			}
+
+			public Entry next() {
+				Run run = heads.poll();
+				if (run == null) {
+					throw new NoSuchElementException();
+				}
+				Entry head = run.head;
+				if (run.advance()) {
+					heads.add(run);
+				}
+				return head;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Writes sorted entries to a run.
+	 *
+	 * @param run
+	 *            the run
+	 * @param entries
+	 *            the entries
+	 * @return the entries written
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static int write(File run, Iterator<Entry> entries)
+			throws IOException {
+		int size = 0;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(run)));
+		try {
+			while (entries.hasNext()) {
+				Entry e = entries.next();
+				out.writeInt(e.index);
+				AnalysisCheckpoint.writeNode(out, e.node);
+				size++;
+			}
+		} finally {
+			out.close();
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the entries of nodes.
+	 *
+	 * @param list
+	 *            the nodes
+	 * @param first
+	 *            the index of the first one
+	 * @return the entries
+	 */
+	private static List<Entry> entries(List<TempNode> list, int first) {
+		List<Entry> entries = new ArrayList<Entry>(list.size());
+		for (int i = 0; i < list.size(); i++) {
+			entries.add(new Entry(first + i, list.get(i)));
+		}
+		return entries;
+	}
+
+	/**
+	 * Estimates the heap of a node.
+	 *
+	 * @param tn
+	 *            the node
+	 * @return the bytes
+	 */
+	static long sizeOf(TempNode tn) {
+		String content = tn.getContent();
+		return NODE_BYTES + 2L * (content == null ? 0 : content.length());
+	}
+
+	/**
+	 * A run being read, or the nodes in memory.
+	 */
+	static final class Run {
+
+		/** The run, or null. */
+		private DataInputStream in;
+
+		/** The records left in the run. */
+		private int left;
+
+		/** The nodes in memory, or null. */
+		private final Iterator<Entry> memory;
+
+		/** The current entry. */
+		private Entry head;
+
+		/**
+		 * Opens a run.
+		 *
+		 * @param file
+		 *            the file
+		 * @param size
+		 *            its records
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		Run(File file, int size) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file), 1 << 16));
+			this.left = size;
+			this.memory = null;
+		}
+
+		/**
+		 * Reads the nodes in memory.
+		 *
+		 * @param memory
+		 *            the sorted entries
+		 */
+		Run(Iterator<Entry> memory) {
+			this.memory = memory;
+		}
+
+		/**
+		 * Moves to the next entry, closing the run at its end.
+		 *
+		 * @return false at the end
+		 */
+		boolean advance() {
+			if (memory != null) {
+				head = memory.hasNext() ? memory.next() : null;
+				return head != null;
+			}
+			if (left == 0) {
+				close();
+				head = null;
+				return false;
+			}
+			try {
+				int index = in.readInt();
+				head = new Entry(index, AnalysisCheckpoint.readNode(in));
+				left--;
+				return true;
+			} catch (IOException e) {
+				close();
+				throw new IllegalStateException("Could not read a node run", e); // $NON-NLS-1$
+			}
+		}
+
+		/**
+		 * Gets the current entry.
+		 *
+		 * @return the entry, or null at the end
+		 */
+		Entry getHead() {
+			return head;
+		}
+
+		/**
+		 * Closes the run.
+		 */
+		void close() {
+			JOrphanUtils.closeQuietly(in);
+			in = null;
+		}
+	}
+}
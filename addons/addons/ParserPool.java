@@ -0,0 +1,405 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.jmeter.util.TidyException;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+import org.w3c.dom.Document;
+import org.w3c.tidy.Tidy;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * The Class ParserPool.
+ *
+ * @description Per thread pool of configured parsers, with the same behaviour
+ *              as XPathUtil.makeDocument. XPathUtil builds a new
+ *              DocumentBuilderFactory, DocumentBuilder or Tidy for every
+ *              document; here each sampler thread keeps one parser per
+ *              combination of settings and resets it between uses.
+ */
+public final class ParserPool {
+
+	/** The Constant log. */
+	private static final Logger log = LoggingManager.getLoggerForClass();
+
+	/** The parsers of the current thread, by settings. */
+	private static final ThreadLocal<Map<String, Object>> PARSERS = new ThreadLocal<Map<String, Object>>() {
+		@Override
+		protected Map<String, Object> initialValue() {
+			return new HashMap<String, Object>();
+		}
+	};
+
+	/** Resolves every external entity to an empty document. */
+	private static final EntityResolver NO_DTDS = new EntityResolver() {
+		public InputSource resolveEntity(String publicId, String systemId) {
+			return new InputSource(new ByteArrayInputStream(new byte[] {}));
+		}
+	};
+
+	/** Error handler for validating parsers. */
+	private static final ErrorHandler VALIDATING = new Handler(true);
+
+	/** Error handler for non validating parsers. */
+	private static final ErrorHandler NOT_VALIDATING = new Handler(false);
+
+	/**
+	 * Instantiates a new parser pool.
+	 */
+	private ParserPool() {
+		// Static only
+	}
+
+	/**
+	 * Parses a document, as XPathUtil.makeDocument does.
+	 *
+	 * @param stream
+	 *            the UTF-8 encoded input
+	 * @param validate
+	 *            should the parser validate documents?
+	 * @param whitespace
+	 *            should the parser eliminate whitespace in element content?
+	 * @param namespace
+	 *            should the parser be namespace aware?
+	 * @param tolerant
+	 *            should the document be parsed with Tidy?
+	 * @param quiet
+	 *            should Tidy be quiet?
+	 * @param showWarnings
+	 *            should Tidy show warnings?
+	 * @param reportErrors
+	 *            should Tidy errors fail the parse?
+	 * @param isXml
+	 *            is the input XML?
+	 * @param downloadDTDs
+	 *            should the DTDs be downloaded?
+	 * @return the document
+	 * @throws ParserConfigurationException
+	 *             the parser configuration exception
+	 * @throws SAXException
+	 *             the SAX exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws TidyException
+	 *             if Tidy found errors and reportErrors is set
+	 */
+	public static Document makeDocument(InputStream stream, boolean validate,
+			boolean whitespace, boolean namespace, boolean tolerant,
+			boolean quiet, boolean showWarnings, boolean reportErrors,
+			boolean isXml, boolean downloadDTDs)
+			throws ParserConfigurationException, SAXException, IOException,
+			TidyException {
+		if (tolerant) {
+			return tidyDoc(stream, quiet, showWarnings, reportErrors, isXml);
+		}
+		return getDocumentBuilder(validate, whitespace, namespace,
+				downloadDTDs).parse(stream);
+	}
+
+	/**
+	 * Parses a document from characters, so the input does not have to be
+	 * encoded to UTF-8 first.
+	 *
+	 * @param reader
+	 *            the input
+	 * @param validate
+	 *            should the parser validate documents?
+	 * @param whitespace
+	 *            should the parser eliminate whitespace in element content?
+	 * @param namespace
+	 *            should the parser be namespace aware?
+	 * @param tolerant
+	 *            should the document be parsed with Tidy?
+	 * @param quiet
+	 *            should Tidy be quiet?
+	 * @param showWarnings
+	 *            should Tidy show warnings?
+	 * @param reportErrors
+	 *            should Tidy errors fail the parse?
+	 * @param isXml
+	 *            is the input XML?
+	 * @param downloadDTDs
+	 *            should the DTDs be downloaded?
+	 * @return the document
+	 * @throws ParserConfigurationException
+	 *             the parser configuration exception
+	 * @throws SAXException
+	 *             the SAX exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws TidyException
+	 *             if Tidy found errors and reportErrors is set
+	 */
+	public static Document makeDocument(Reader reader, boolean validate,
+			boolean whitespace, boolean namespace, boolean tolerant,
+			boolean quiet, boolean showWarnings, boolean reportErrors,
+			boolean isXml, boolean downloadDTDs)
+			throws ParserConfigurationException, SAXException, IOException,
+			TidyException {
+		if (tolerant) {
+			TidyParser parser = getTidy(quiet, showWarnings, isXml);
+			parser.errors.getBuffer().setLength(0);
+			Document doc = parser.tidy.parseDOM(reader, null);
+			return checkTidy(parser, doc, reportErrors);
+		}
+		return getDocumentBuilder(validate, whitespace, namespace,
+				downloadDTDs).parse(new InputSource(reader));
+	}
+
+	/**
+	 * Gets the DocumentBuilder of this thread for the settings, reset and
+	 * ready to parse.
+	 *
+	 * @param validate
+	 *            the validate
+	 * @param whitespace
+	 *            the whitespace
+	 * @param namespace
+	 *            the namespace
+	 * @param downloadDTDs
+	 *            the download DTDs
+	 * @return the document builder
+	 * @throws ParserConfigurationException
+	 *             the parser configuration exception
+	 */
+	static DocumentBuilder getDocumentBuilder(boolean validate,
+			boolean whitespace, boolean namespace, boolean downloadDTDs)
+			throws ParserConfigurationException {
+		String key = key('D', validate, whitespace, namespace, downloadDTDs);
+		Map<String, Object> parsers = PARSERS.get();
+		DocumentBuilder builder = (DocumentBuilder) parsers.get(key);
+		if (builder == null) {
+			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+			dbf.setValidating(validate);
+			dbf.setNamespaceAware(namespace);
+			dbf.setIgnoringElementContentWhitespace(whitespace);
+			builder = dbf.newDocumentBuilder();
+			parsers.put(key, builder);
+		} else {
+			builder.reset();
+		}
+		// reset() does not keep the resolver and the handler
+		if (!downloadDTDs) {
+			builder.setEntityResolver(NO_DTDS);
+		}
+		builder.setErrorHandler(validate ? VALIDATING : NOT_VALIDATING);
+		return builder;
+	}
+
+	/**
+	 * Parses with the Tidy instance of this thread for the settings.
+	 *
+	 * @param stream
+	 *            the UTF-8 encoded input
+	 * @param quiet
+	 *            the quiet
+	 * @param showWarnings
+	 *            the show warnings
+	 * @param reportErrors
+	 *            the report errors
+	 * @param isXml
+	 *            the is xml
+	 * @return the document
+	 * @throws TidyException
+	 *             if Tidy found errors and reportErrors is set
+	 */
+	private static Document tidyDoc(InputStream stream, boolean quiet,
+			boolean showWarnings, boolean reportErrors, boolean isXml)
+			throws TidyException {
+		TidyParser parser = getTidy(quiet, showWarnings, isXml);
+		parser.errors.getBuffer().setLength(0);
+		Document doc = parser.tidy.parseDOM(stream, null);
+		return checkTidy(parser, doc, reportErrors);
+	}
+
+	/**
+	 * Gets the Tidy instance of this thread for the settings.
+	 *
+	 * @param quiet
+	 *            the quiet
+	 * @param showWarnings
+	 *            the show warnings
+	 * @param isXml
+	 *            the is xml
+	 * @return the tidy parser
+	 */
+	static TidyParser getTidy(boolean quiet, boolean showWarnings,
+			boolean isXml) {
+		String key = key('T', quiet, showWarnings, isXml, false);
+		Map<String, Object> parsers = PARSERS.get();
+		TidyParser parser = (TidyParser) parsers.get(key);
+		if (parser == null) {
+			parser = new TidyParser(quiet, showWarnings, isXml);
+			parsers.put(key, parser);
+		}
+		return parser;
+	}
+
+	/**
+	 * Checks the errors of the last Tidy parse.
+	 *
+	 * @param parser
+	 *            the parser
+	 * @param doc
+	 *            the parsed document
+	 * @param reportErrors
+	 *            the report errors
+	 * @return the document
+	 * @throws TidyException
+	 *             if Tidy found errors and reportErrors is set
+	 */
+	static Document checkTidy(TidyParser parser, Document doc,
+			boolean reportErrors) throws TidyException {
+		doc.normalize();
+		if (parser.tidy.getParseErrors() > 0) {
+			if (reportErrors) {
+				log.error("TidyException: " + parser.errors.toString());
+				throw new TidyException(parser.tidy.getParseErrors(),
+						parser.tidy.getParseWarnings());
+			}
+			log.warn("Tidy errors: " + parser.errors.toString());
+		}
+		return doc;
+	}
+
+	/**
+	 * Builds the key of a combination of settings.
+	 *
+	 * @param kind
+	 *            the kind of parser
+	 * @param a
+	 *            the a
+	 * @param b
+	 *            the b
+	 * @param c
+	 *            the c
+	 * @param d
+	 *            the d
+	 * @return the key
+	 */
+	private static String key(char kind, boolean a, boolean b, boolean c,
+			boolean d) {
+		return new String(new char[] { kind, a ? '1' : '0', b ? '1' : '0',
+				c ? '1' : '0', d ? '1' : '0' });
+	}
+
+	/**
+	 * A Tidy instance with its error buffer.
+	 */
+	static final class TidyParser {
+
+		/** The tidy. */
+		final Tidy tidy = new Tidy();
+
+		/** The errors of the last parse. */
+		final StringWriter errors = new StringWriter();
+
+		/**
+		 * Instantiates a new tidy parser, configured as
+		 * XPathUtil.makeTidyParser.
+		 *
+		 * @param quiet
+		 *            the quiet
+		 * @param showWarnings
+		 *            the show warnings
+		 * @param isXml
+		 *            the is xml
+		 */
+		TidyParser(boolean quiet, boolean showWarnings, boolean isXml) {
+			tidy.setInputEncoding("UTF8"); // $NON-NLS-1$
+			tidy.setOutputEncoding("UTF8"); // $NON-NLS-1$
+			tidy.setQuiet(quiet);
+			tidy.setShowWarnings(showWarnings);
+			tidy.setMakeClean(true);
+			tidy.setXmlTags(isXml);
+			tidy.setErrout(new PrintWriter(errors));
+		}
+	}
+
+	/**
+	 * Error handler shared by the pooled builders.
+	 */
+	private static final class Handler implements ErrorHandler {
+
+		/** The validate. */
+		private final boolean validate;
+
+		/**
+		 * Instantiates a new handler.
+		 *
+		 * @param validate
+		 *            the validate
+		 */
+		Handler(boolean validate) {
+			this.validate = validate;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.xml.sax.ErrorHandler#warning(org.xml.sax.SAXParseException)
+		 */
+		public void warning(SAXParseException ex) {
+			log.info("Type=Warning " + ex);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.xml.sax.ErrorHandler#error(org.xml.sax.SAXParseException)
+		 */
+		public void error(SAXParseException ex) throws SAXException {
+			log.warn("Type=Error " + ex);
+			if (validate) {
+				throw ex;
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.xml.sax.ErrorHandler#fatalError(org.xml.sax.SAXParseException)
+		 */
+		public void fatalError(SAXParseException ex) throws SAXException {
+			log.error("Type=Fatal " + ex);
+			throw ex;
+		}
+	}
+}
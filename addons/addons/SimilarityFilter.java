@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * The Class SimilarityFilter.
+ *
+ * @description The similarity edges kept in the result. By default every pair
+ *              of nodes passing the length rule has an edge, so the result
+ *              grows with the square of the nodes. A filter keeps:
+ *              <ul>
+ *              <li>the edges whose normalized distance, the Levenshtein
+ *              distance over the longest content, is at most a threshold</li>
+ *              <li>and of them, only the k closest neighbours of every node:
+ *              an edge is kept if it is among the k closest of either node,
+ *              so there are at most k edges per node on average, though a
+ *              node among the k closest of many others has more</li>
+ *              </ul>
+ *
+ *              The defaults are the JMeter properties
+ *              xpathextractor.similarity.neighbours (0 for every neighbour)
+ *              and xpathextractor.similarity.distance (1 for any distance).
+ */
+public final class SimilarityFilter {
+
+	/** The Constant log. */
+	private static final Logger log = LoggingManager.getLoggerForClass();
+
+	/** The filter keeping every edge. */
+	public static final SimilarityFilter ALL = new SimilarityFilter(0, 1);
+
+	/** The neighbours kept per node, 0 for all. */
+	private final int neighbours;
+
+	/** The greatest normalized distance kept, 1 for any. */
+	private final double maxDistance;
+
+	/**
+	 * Instantiates a new similarity filter.
+	 *
+	 * @param neighbours
+	 *            the neighbours kept per node, 0 for all
+	 * @param maxDistance
+	 *            the greatest normalized distance kept, from 0 to 1
+	 * @throws IllegalArgumentException
+	 *             if neighbours is negative or maxDistance is out of 0 to 1
+	 */
+	public SimilarityFilter(int neighbours, double maxDistance) {
+		if (neighbours < 0 || !(maxDistance >= 0 && maxDistance <= 1)) {
+			throw new IllegalArgumentException("Invalid similarity filter: " // $NON-NLS-1$
+					+ neighbours + ", " + maxDistance); // $NON-NLS-1$
+		}
+		this.neighbours = neighbours;
+		this.maxDistance = maxDistance;
+	}
+
+	/**
+	 * Gets the filter of the JMeter properties.
+	 *
+	 * @return the filter, ALL when the properties are not set or invalid
+	 */
+	public static SimilarityFilter fromProperties() {
+		String k = JMeterUtils.getPropDefault(
+				"xpathextractor.similarity.neighbours", "0"); // $NON-NLS-1$ // $NON-NLS-2$
+		String d = JMeterUtils.getPropDefault(
+				"xpathextractor.similarity.distance", "1"); // $NON-NLS-1$ // $NON-NLS-2$
+		try {
+			return new SimilarityFilter(Integer.parseInt(k.trim()),
+					Double.parseDouble(d.trim()));
+		} catch (IllegalArgumentException e) {
+			log.warn("Keeping every similarity: " + e.getMessage()); // $NON-NLS-1$
+			return ALL;
+		}
+	}
+
+	/**
+	 * Does the filter keep every edge?
+	 *
+	 * @return true, if all
+	 */
+	public boolean isAll() {
+		return neighbours == 0 && maxDistance >= 1;
+	}
+
+	/**
+	 * Gets the neighbours kept per node.
+	 *
+	 * @return the neighbours, 0 for all
+	 */
+	public int getNeighbours() {
+		return neighbours;
+	}
+
+	/**
+	 * Gets the greatest normalized distance kept.
+	 *
+	 * @return the distance, 1 for any
+	 */
+	public double getMaxDistance() {
+		return maxDistance;
+	}
+
+	/**
+	 * Checks the distance of a pair against the threshold.
+	 *
+	 * @param distance
+	 *            the Levenshtein distance
+	 * @param length1
+	 *            the length of the first content
+	 * @param length2
+	 *            the length of the second content
+	 * @return true, if the normalized distance is at most the threshold
+	 */
+	public boolean accepts(int distance, int length1, int length2) {
+		return maxDistance >= 1
+				|| distance <= maxDistance * Math.max(length1, length2);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof SimilarityFilter)) {
+			return false;
+		}
+		SimilarityFilter other = (SimilarityFilter) o;
+		return neighbours == other.neighbours
+				&& Double.compare(maxDistance, other.maxDistance) == 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		long bits = Double.doubleToLongBits(maxDistance);
+		return 31 * neighbours + (int) (bits ^ (bits >>> 32));
+	}
+
+	/**
+	 * Describes the filter, the way it is kept in a checkpoint.
+	 *
+	 * @return all, neighbours=k, distance=d or both
+	 */
+	@Override
+	public String toString() {
+		if (isAll()) {
+			return "all"; // $NON-NLS-1$
+		}
+		StringBuilder sb = new StringBuilder();
+		if (neighbours > 0) {
+			sb.append("neighbours=").append(neighbours); // $NON-NLS-1$
+		}
+		if (maxDistance < 1) {
+			if (sb.length() > 0) {
+				sb.append(", "); // $NON-NLS-1$
+			}
+			sb.append("distance=").append(maxDistance); // $NON-NLS-1$
+		}
+		return sb.toString();
+	}
+}
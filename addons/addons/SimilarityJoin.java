@@ -0,0 +1,920 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.jorphan.util.JOrphanUtils;
+import org.apache.log.Logger;
+
+/**
+ * The Class SimilarityJoin.
+ *
+ * @description The similarity edges of nodes that do not fit in the heap, as a
+ *              block nested loop join on disk. The nodes, read shortest content
+ *              first from a {@link NodeStore}, are cut into blocks of
+ *              consecutive lengths within half of the budget, and every block
+ *              keeps its shortest and longest length. {@link #joinNext()} then
+ *              loads one block, compares its nodes with each other and streams
+ *              the blocks after it through them, as long as their shortest
+ *              content is less than 10 characters longer than its longest: the
+ *              length rule of the analysis skips the other pairs of blocks
+ *              without reading them.
+ *
+ *              The edges, the parent edge of every node and its similarity
+ *              edges, are sorted in runs within the other half of the budget
+ *              and merged by {@link #edges()} in the order of the node list,
+ *              which is the order of the result written in memory. The heap
+ *              holds one block and one run buffer, whatever the size of the
+ *              capture.
+ *
+ *              A {@link SimilarityFilter} drops the pairs over its distance as
+ *              they are computed. With k neighbours, both directions of every
+ *              pair go to candidate runs sorted by node and distance instead,
+ *              and the first k of every node are the edges kept: the same
+ *              edges as the {@link NeighbourCollector} of an analysis in
+ *              memory, without a heap per node.
+ */
+public class SimilarityJoin implements Closeable {
+
+	/** The Constant log. */
+	private static final Logger log = LoggingManager.getLoggerForClass();
+
+	/** The length difference from which two nodes are not compared. */
+	public static final int MAX_LENGTH_DIFFERENCE = 10;
+
+	/** The runs merged at once, each an open file. */
+	static final int MAX_OPEN_RUNS = 64;
+
+	/** The bytes of an edge in the run buffer, about. */
+	private static final int EDGE_BYTES = 64;
+
+	/** The bytes of the nodes of a block. */
+	private final long blockBytes;
+
+	/** The folder of the blocks and the runs. */
+	private final File folder;
+
+	/** The similarity edges kept. */
+	private final SimilarityFilter filter;
+
+	/** The blocks, shortest first. */
+	private final List<Block> blocks = new ArrayList<Block>();
+
+	/** The edges of the result, in the order of the node list. */
+	private final Sorter edges;
+
+	/** Both directions of every pair, to keep k neighbours; or null. */
+	private Sorter candidates;
+
+	/** The blocks joined. */
+	private int joined;
+
+	/** The nodes of the blocks joined. */
+	private int nodesJoined;
+
+	/** The distances computed. */
+	private long computed;
+
+	/** The characters compared. */
+	private long chars;
+
+	/** The pairs over the distance of the filter. */
+	private long filtered;
+
+	/**
+	 * An edge of the result: the parent edge of a node or the similarity edge
+	 * of two nodes.
+	 */
+	public static final class Edge {
+
+		/** The index of the node, or of the first node. */
+		private final int index1;
+
+		/** The index of the second node, -1 for a parent edge. */
+		private final int index2;
+
+		/** The source: the node or the first node. */
+		private final int source;
+
+		/** The target: the father or the second node. */
+		private final int target;
+
+		/** The Levenshtein distance of a similarity edge. */
+		private final int distance;
+
+		/** The date of a parent edge. */
+		private final String when;
+
+		/** The web of a parent edge. */
+		private final String url;
+
+		/**
+		 * Instantiates a new edge.
+		 *
+		 * @param index1
+		 *            the index1
+		 * @param index2
+		 *            the index2
+		 * @param source
+		 *            the source
+		 * @param target
+		 *            the target
+		 * @param distance
+		 *            the distance
+		 * @param when
+		 *            the when
+		 * @param url
+		 *            the url
+		 */
+		private Edge(int index1, int index2, int source, int target,
+				int distance, String when, String url) {
+			this.index1 = index1;
+			this.index2 = index2;
+			this.source = source;
+			this.target = target;
+			this.distance = distance;
+			this.when = when;
+			this.url = url;
+		}
+
+		/**
+		 * Is it the parent edge of a node?
+		 *
+		 * @return true, if parent; false for a similarity edge
+		 */
+		public boolean isParent() {
+			return index2 < 0;
+		}
+
+		/**
+		 * Gets the index of the node, or of the first node.
+		 *
+		 * @return the index in the node list
+		 */
+		public int getIndex1() {
+			return index1;
+		}
+
+		/**
+		 * Gets the index of the second node.
+		 *
+		 * @return the index in the node list, -1 for a parent edge
+		 */
+		public int getIndex2() {
+			return index2;
+		}
+
+		/**
+		 * Gets the source: the id of the node or of the first node.
+		 *
+		 * @return the source
+		 */
+		public int getSource() {
+			return source;
+		}
+
+		/**
+		 * Gets the target: the id of the father or of the second node.
+		 *
+		 * @return the target
+		 */
+		public int getTarget() {
+			return target;
+		}
+
+		/**
+		 * Gets the Levenshtein distance of a similarity edge.
+		 *
+		 * @return the distance
+		 */
+		public int getDistance() {
+			return distance;
+		}
+
+		/**
+		 * Gets the date of a parent edge.
+		 *
+		 * @return the date, or null
+		 */
+		public String getWhen() {
+			return when;
+		}
+
+		/**
+		 * Gets the web of a parent edge.
+		 *
+		 * @return the web, or null
+		 */
+		public String getUrl() {
+			return url;
+		}
+
+		/**
+		 * Gets the bytes in the run buffer, about.
+		 *
+		 * @return the bytes
+		 */
+		private long bytes() {
+			return EDGE_BYTES + (isParent() ? 2L * (when.length() + url.length())
+					: 0);
+		}
+	}
+
+	/**
+	 * Orders the edges as the result: by the index of the node, its parent
+	 * edge first, then by the index of the second node.
+	 */
+	private static final Comparator<Edge> BY_INDEX = new Comparator<Edge>() {
+		public int compare(Edge a, Edge b) {
+			if (a.index1 != b.index1) {
+				return a.index1 < b.index1 ? -1 : 1;
+			}
+			return a.index2 < b.index2 ? -1 : (a.index2 == b.index2 ? 0 : 1);
+		}
+	};
+
+	/**
+	 * Orders the candidates of every node, by its index, closest first.
+	 */
+	private static final Comparator<Edge> BY_DISTANCE = new Comparator<Edge>() {
+		public int compare(Edge a, Edge b) {
+			if (a.index1 != b.index1) {
+				return a.index1 < b.index1 ? -1 : 1;
+			}
+			if (a.distance != b.distance) {
+				return a.distance < b.distance ? -1 : 1;
+			}
+			return a.index2 < b.index2 ? -1 : (a.index2 == b.index2 ? 0 : 1);
+		}
+	};
+
+	/**
+	 * A block of nodes on disk.
+	 */
+	private static final class Block {
+
+		/** The file. */
+		private final File file;
+
+		/** The nodes. */
+		private int size;
+
+		/** The shortest length. */
+		private final int minLength;
+
+		/** The longest length. */
+		private int maxLength;
+
+		/**
+		 * Instantiates a new block.
+		 *
+		 * @param file
+		 *            the file
+		 * @param minLength
+		 *            the length of its first node
+		 */
+		Block(File file, int minLength) {
+			this.file = file;
+			this.minLength = minLength;
+			this.maxLength = minLength;
+		}
+	}
+
+	/**
+	 * Instantiates a new similarity join.
+	 *
+	 * @param budget
+	 *            the heap budget in bytes: half for a block, half for the run
+	 *            buffers
+	 * @param parent
+	 *            the folder where the blocks and the runs go, or null for the
+	 *            temporary folder
+	 * @param filter
+	 *            the similarity edges kept
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public SimilarityJoin(long budget, File parent, SimilarityFilter filter)
+			throws IOException {
+		this.blockBytes = Math.max(budget / 2, 1);
+		this.filter = filter;
+		this.folder = File.createTempFile("join", "", parent); // $NON-NLS-1$ // $NON-NLS-2$
+		if (!folder.delete() || !folder.mkdirs()) {
+			throw new IOException("Could not create " + folder); // $NON-NLS-1$
+		}
+		if (filter.getNeighbours() > 0) {
+			this.edges = new Sorter("edges", BY_INDEX, Math.max(budget / 4, 1)); // $NON-NLS-1$
+			this.candidates = new Sorter("candidates", BY_DISTANCE, Math.max( // $NON-NLS-1$
+					budget / 4, 1));
+		} else {
+			this.edges = new Sorter("edges", BY_INDEX, Math.max(budget / 2, 1)); // $NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Cuts the nodes into blocks, and adds their parent edges.
+	 *
+	 * @param nodes
+	 *            the nodes, shortest content first
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void partition(Iterator<NodeStore.Entry> nodes) throws IOException {
+		DataOutputStream out = null;
+		Block block = null;
+		long bytes = 0;
+		try {
+			while (nodes.hasNext()) {
+				NodeStore.Entry entry = nodes.next();
+				TempNode tn = entry.getNode();
+				long size = NodeStore.sizeOf(tn);
+				if (block == null || bytes + size > blockBytes) {
+					if (out != null) {
+						out.close();
+					}
+					block = new Block(new File(folder, "block" + blocks.size()), // $NON-NLS-1$
+							entry.length());
+					blocks.add(block);
+					out = new DataOutputStream(new BufferedOutputStream(
+							new FileOutputStream(block.file)));
+					bytes = 0;
+				}
+				out.writeInt(entry.getIndex());
+				AnalysisCheckpoint.writeNode(out, tn);
+				block.size++;
+				block.maxLength = entry.length();
+				bytes += size;
+				edges.add(new Edge(entry.getIndex(), -1, tn.getId(), tn
+						.getFatherId(), 0, tn.getDate(), tn.getWeb()));
+			}
+		} finally {
+			if (out != null) {
+				out.close();
+			}
+		}
+		log.info("Similarity join of " + blocks.size() + " blocks in " // $NON-NLS-1$ // $NON-NLS-2$
+				+ folder);
+	}
+
+	/**
+	 * Joins the next block with itself and the blocks after it.
+	 *
+	 * @return false if every block was joined
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public boolean joinNext() throws IOException {
+		if (joined == blocks.size()) {
+			return false;
+		}
+		Block block = blocks.get(joined);
+		List<NodeStore.Entry> entries = new ArrayList<NodeStore.Entry>(
+				block.size);
+		NodeStore.Run run = new NodeStore.Run(block.file, block.size);
+		while (run.advance()) {
+			entries.add(run.getHead());
+		}
+
+		for (int i = 0; i < entries.size(); i++) {
+			NodeStore.Entry a = entries.get(i);
+			for (int j = i + 1; j < entries.size(); j++) {
+				NodeStore.Entry b = entries.get(j);
+				if (b.length() - a.length() >= MAX_LENGTH_DIFFERENCE) {
+					break;
+				}
+				compare(a, b);
+			}
+		}
+
+		for (int k = joined + 1; k < blocks.size()
+				&& blocks.get(k).minLength - block.maxLength < MAX_LENGTH_DIFFERENCE; k++) {
+			Block other = blocks.get(k);
+			run = new NodeStore.Run(other.file, other.size);
+			try {
+				while (run.advance()) {
+					NodeStore.Entry b = run.getHead();
+					if (b.length() - block.maxLength >= MAX_LENGTH_DIFFERENCE) {
+						break;
+					}
+					for (int i = entries.size() - 1; i >= 0
+							&& b.length() - entries.get(i).length() < MAX_LENGTH_DIFFERENCE; i--) {
+						compare(entries.get(i), b);
+					}
+				}
+			} finally {
+				run.close();
+			}
+		}
+		joined++;
+		nodesJoined += block.size;
+		return true;
+	}
+
+	/**
+	 * Gets the edges, in the order of the node list. With k neighbours, the
+	 * candidates are read once to keep the edges first.
+	 *
+	 * @return the edges; the iterator throws IllegalStateException if a run
+	 *         cannot be read
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public Iterator<Edge> edges() throws IOException {
+		if (candidates != null) {
+			selectNeighbours();
+		}
+		final Iterator<Edge> sorted = edges.sorted();
+		return new Iterator<Edge>() {
+			private Edge next = sorted.hasNext() ? sorted.next() : null;
+
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			public Edge next() {
+				Edge edge = next;
+				if (edge == null) {
+					throw new NoSuchElementException();
+				}
+				// A pair kept by both its nodes is there twice
+				do {
+					next = sorted.hasNext() ? sorted.next() : null;
+				} while (next != null && BY_INDEX.compare(edge, next) == 0);
+				return edge;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Gets the number of blocks.
+	 *
+	 * @return the blocks
+	 */
+	public int getBlocks() {
+		return blocks.size();
+	}
+
+	/**
+	 * Gets the nodes of the blocks joined.
+	 *
+	 * @return the nodes
+	 */
+	public int getNodesJoined() {
+		return nodesJoined;
+	}
+
+	/**
+	 * Gets the distances computed.
+	 *
+	 * @return the distances
+	 */
+	public long getComputed() {
+		return computed;
+	}
+
+	/**
+	 * Gets the characters compared.
+	 *
+	 * @return the characters
+	 */
+	public long getChars() {
+		return chars;
+	}
+
+	/**
+	 * Gets the pairs over the distance of the filter.
+	 *
+	 * @return the pairs
+	 */
+	public long getFiltered() {
+		return filtered;
+	}
+
+	/**
+	 * Deletes the blocks and the runs.
+	 */
+	public void close() {
+		for (Block block : blocks) {
+			block.file.delete();
+		}
+		edges.delete();
+		if (candidates != null) {
+			candidates.delete();
+		}
+		folder.delete();
+		blocks.clear();
+	}
+
+	/**
+	 * Computes the similarity edge of two nodes, the first one in the node
+	 * list as its source.
+	 *
+	 * @param a
+	 *            a node
+	 * @param b
+	 *            another node
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void compare(NodeStore.Entry a, NodeStore.Entry b)
+			throws IOException {
+		if (b.getIndex() < a.getIndex()) {
+			NodeStore.Entry c = a;
+			a = b;
+			b = c;
+		}
+		String content = a.getNode().getContent();
+		String content2 = b.getNode().getContent();
+		int dist = LevenshteinDistance.computeLevenshteinDistance(content,
+				content2);
+		computed++;
+		chars += content.length() + content2.length();
+		if (!filter.accepts(dist, content.length(), content2.length())) {
+			filtered++;
+			return;
+		}
+		int id1 = a.getNode().getId(), id2 = b.getNode().getId();
+		if (candidates != null) {
+			candidates.add(new Edge(a.getIndex(), b.getIndex(), id1, id2, dist,
+					null, null));
+			candidates.add(new Edge(b.getIndex(), a.getIndex(), id2, id1, dist,
+					null, null));
+		} else {
+			edges.add(new Edge(a.getIndex(), b.getIndex(), id1, id2, dist,
+					null, null));
+		}
+	}
+
+	/**
+	 * Keeps the first k candidates of every node as edges, the lower index
+	 * first, and deletes the candidates.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void selectNeighbours() throws IOException {
+		int k = filter.getNeighbours();
+		Iterator<Edge> sorted = candidates.sorted();
+		int node = -1, kept = 0;
+		while (sorted.hasNext()) {
+			Edge c = sorted.next();
+			if (c.index1 != node) {
+				node = c.index1;
+				kept = 0;
+			}
+			if (kept++ < k) {
+				edges.add(c.index1 < c.index2 ? c : new Edge(c.index2,
+						c.index1, c.target, c.source, c.distance, null, null));
+			}
+		}
+		candidates.delete();
+		candidates = null;
+	}
+
+	/**
+	 * Edges sorted in runs on disk, within a budget.
+	 */
+	private final class Sorter {
+
+		/** The prefix of the run files. */
+		private final String prefix;
+
+		/** The order of the edges. */
+		private final Comparator<Edge> order;
+
+		/** The bytes of the buffer. */
+		private final long limit;
+
+		/** The runs. */
+		private final List<File> runs = new ArrayList<File>();
+
+		/** The edges in every run. */
+		private final List<Integer> runSizes = new ArrayList<Integer>();
+
+		/** The runs written, merged or not. */
+		private int runsWritten;
+
+		/** The edges not written to a run. */
+		private final List<Edge> buffer = new ArrayList<Edge>();
+
+		/** The bytes of the buffer, about. */
+		private long bufferBytes;
+
+		/**
+		 * Instantiates a new sorter.
+		 *
+		 * @param prefix
+		 *            the prefix of the run files
+		 * @param order
+		 *            the order of the edges
+		 * @param limit
+		 *            the bytes of the buffer
+		 */
+		Sorter(String prefix, Comparator<Edge> order, long limit) {
+			this.prefix = prefix;
+			this.order = order;
+			this.limit = limit;
+		}
+
+		/**
+		 * Adds an edge, writing the buffer to a run once full.
+		 *
+		 * @param edge
+		 *            the edge
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		void add(Edge edge) throws IOException {
+			buffer.add(edge);
+			bufferBytes += edge.bytes();
+			if (bufferBytes > limit) {
+				Collections.sort(buffer, order);
+				File run = new File(folder, prefix + runsWritten++);
+				write(run, buffer.iterator());
+				runs.add(run);
+				runSizes.add(Integer.valueOf(buffer.size()));
+				if (log.isDebugEnabled()) {
+					log.debug("Wrote " + buffer.size() + " edges to " + run); // $NON-NLS-1$ // $NON-NLS-2$
+				}
+				buffer.clear();
+				bufferBytes = 0;
+			}
+		}
+
+		/**
+		 * Gets the edges sorted. Every run is read once, an edge at a time,
+		 * after merging the runs in passes of {@value #MAX_OPEN_RUNS} while
+		 * there are more.
+		 *
+		 * @return the edges; the iterator throws IllegalStateException if a
+		 *         run cannot be read
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		Iterator<Edge> sorted() throws IOException {
+			while (runs.size() > MAX_OPEN_RUNS) {
+				File run = new File(folder, prefix + runsWritten++);
+				int size = write(run, merge(open(MAX_OPEN_RUNS), order));
+				List<File> merged = runs.subList(0, MAX_OPEN_RUNS);
+				for (File file : merged) {
+					file.delete();
+				}
+				merged.clear();
+				runSizes.subList(0, MAX_OPEN_RUNS).clear();
+				runs.add(run);
+				runSizes.add(Integer.valueOf(size));
+			}
+			List<EdgeRun> open = open(runs.size());
+			Collections.sort(buffer, order);
+			open.add(new EdgeRun(buffer.iterator()));
+			return merge(open, order);
+		}
+
+		/**
+		 * Deletes the runs.
+		 */
+		void delete() {
+			for (File run : runs) {
+				run.delete();
+			}
+			runs.clear();
+			runSizes.clear();
+			buffer.clear();
+		}
+
+		/**
+		 * Opens the first runs.
+		 *
+		 * @param count
+		 *            the runs to open
+		 * @return the runs, with room for one more
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		private List<EdgeRun> open(int count) throws IOException {
+			List<EdgeRun> open = new ArrayList<EdgeRun>(count + 1);
+			try {
+				for (int i = 0; i < count; i++) {
+					open.add(new EdgeRun(runs.get(i), runSizes.get(i)
+							.intValue()));
+				}
+			} catch (IOException e) {
+				for (EdgeRun run : open) {
+					run.close();
+				}
+				throw e;
+			}
+			return open;
+		}
+	}
+
+	/**
+	 * Merges sorted runs.
+	 *
+	 * @param open
+	 *            the runs
+	 * @param order
+	 *            the order of their edges
+	 * @return the edges of the runs, sorted
+	 */
+	private static Iterator<Edge> merge(List<EdgeRun> open,
+			final Comparator<Edge> order) {
+		final PriorityQueue<EdgeRun> heads = new PriorityQueue<EdgeRun>(
+				open.size() + 1, new Comparator<EdgeRun>() {
+					public int compare(EdgeRun a, EdgeRun b) {
+						return order.compare(a.head, b.head);
+					}
+				});
+		for (EdgeRun run : open) {
+			if (run.advance()) {
+				heads.add(run);
+			}
+		}
+		return new Iterator<Edge>() {
+			public boolean hasNext() {
+				return !heads.isEmpty();
+			}
+
+			public Edge next() {
+				EdgeRun run = heads.poll();
+				if (run == null) {
+					throw new NoSuchElementException();
+				}
+				Edge head = run.head;
+				if (run.advance()) {
+					heads.add(run);
+				}
+				return head;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Writes sorted edges to a run.
+	 *
+	 * @param run
+	 *            the run
+	 * @param edges
+	 *            the edges
+	 * @return the edges written
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static int write(File run, Iterator<Edge> edges) throws IOException {
+		int size = 0;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(run)));
+		try {
+			while (edges.hasNext()) {
+				Edge edge = edges.next();
+				out.writeInt(edge.index1);
+				out.writeInt(edge.index2);
+				out.writeInt(edge.source);
+				out.writeInt(edge.target);
+				if (edge.isParent()) {
+					AnalysisCheckpoint.writeString(out, edge.when);
+					AnalysisCheckpoint.writeString(out, edge.url);
+				} else {
+					out.writeInt(edge.distance);
+				}
+				size++;
+			}
+		} finally {
+			out.close();
+		}
+		return size;
+	}
+
+	/**
+	 * An edge run being read, or the run buffer.
+	 */
+	private static final class EdgeRun {
+
+		/** The run, or null. */
+		private DataInputStream in;
+
+		/** The edges left in the run. */
+		private int left;
+
+		/** The edges in memory, or null. */
+		private final Iterator<Edge> memory;
+
+		/** The current edge. */
+		private Edge head;
+
+		/**
+		 * Opens a run.
+		 *
+		 * @param file
+		 *            the file
+		 * @param size
+		 *            its edges
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		EdgeRun(File file, int size) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file), 1 << 16));
+			this.left = size;
+			this.memory = null;
+		}
+
+		/**
+		 * Reads the run buffer.
+		 *
+		 * @param memory
+		 *            the sorted edges
+		 */
+		EdgeRun(Iterator<Edge> memory) {
+			this.memory = memory;
+		}
+
+		/**
+		 * Moves to the next edge, closing the run at its end.
+		 *
+		 * @return false at the end
+		 */
+		boolean advance() {
+			if (memory != null) {
+				head = memory.hasNext() ? memory.next() : null;
+				return head != null;
+			}
+			if (left == 0) {
+				close();
+				head = null;
+				return false;
+			}
+			try {
+				int index1 = in.readInt();
+				int index2 = in.readInt();
+				int source = in.readInt();
+				int target = in.readInt();
+				if (index2 < 0) {
+					head = new Edge(index1, index2, source, target, 0,
+							AnalysisCheckpoint.readString(in),
+							AnalysisCheckpoint.readString(in));
+				} else {
+					head = new Edge(index1, index2, source, target,
+							in.readInt(), null, null);
+				}
+				left--;
+				return true;
+			} catch (IOException e) {
+				close();
+				throw new IllegalStateException("Could not read an edge run", e); // $NON-NLS-1$
+			}
+		}
+
+		/**
+		 * Closes the run.
+		 */
+		void close() {
+			JOrphanUtils.closeQuietly(in);
+			in = null;
+		}
+	}
+}
@@ -0,0 +1,586 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * The Class StagedPipeline.
+ *
+ * @description Chain of stages connected by bounded queues. Every item goes
+ *              through every stage in order; each stage has its own threads,
+ *              and a producer blocks when the queue of the next stage is full,
+ *              so a slow stage holds back the ones before it instead of
+ *              letting work pile up in memory.
+ *
+ *              Items are numbered when submitted. An ordered stage has a
+ *              single thread and receives the items in that order, whatever
+ *              the number of threads of the stages before it. An item whose
+ *              processing fails is logged and passed on as null, which the
+ *              next stages skip, so the numbering never has holes.
+ *
+ * @param <T>
+ *            the type of the items
+ */
+public class StagedPipeline<T> {
+
+	/** The Constant log. */
+	private static final Logger log = LoggingManager.getLoggerForClass();
+
+	/** The sequence number of the end marker. */
+	private static final long END = -1;
+
+	/**
+	 * A stage.
+	 *
+	 * @param <T>
+	 *            the type of the items
+	 */
+	public interface Stage<T> {
+
+		/**
+		 * Processes an item.
+		 *
+		 * @param item
+		 *            the item
+		 * @return the item passed to the next stage, or null to skip it
+		 * @throws Exception
+		 *             the item is skipped by the next stages
+		 */
+		T process(T item) throws Exception;
+	}
+
+	/**
+	 * The metrics of a stage.
+	 */
+	public static final class StageMetrics {
+
+		/** The name. */
+		private final String name;
+
+		/** The threads. */
+		private final int threads;
+
+		/** The queue. */
+		private final BlockingQueue<?> queue;
+
+		/** The processed items. */
+		private final AtomicLong processed = new AtomicLong();
+
+		/** The failed items. */
+		private final AtomicLong errors = new AtomicLong();
+
+		/** The time spent processing items. */
+		private final AtomicLong busyNanos = new AtomicLong();
+
+		/** The time producers spent waiting for room in the queue. */
+		private final AtomicLong blockedNanos = new AtomicLong();
+
+		/** The highest queue depth seen. */
+		private final AtomicInteger maxDepth = new AtomicInteger();
+
+		/** The start time of the pipeline. */
+		private volatile long started;
+
+		/** The end time of the stage, 0 while it runs. */
+		private volatile long ended;
+
+		/**
+		 * Instantiates new metrics.
+		 *
+		 * @param name
+		 *            the name
+		 * @param threads
+		 *            the threads
+		 * @param queue
+		 *            the queue
+		 */
+		StageMetrics(String name, int threads, BlockingQueue<?> queue) {
+			this.name = name;
+			this.threads = threads;
+			this.queue = queue;
+		}
+
+		/**
+		 * Gets the name.
+		 *
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Gets the threads.
+		 *
+		 * @return the threads
+		 */
+		public int getThreads() {
+			return threads;
+		}
+
+		/**
+		 * Gets the processed items.
+		 *
+		 * @return the processed items
+		 */
+		public long getProcessed() {
+			return processed.get();
+		}
+
+		/**
+		 * Gets the failed items.
+		 *
+		 * @return the failed items
+		 */
+		public long getErrors() {
+			return errors.get();
+		}
+
+		/**
+		 * Gets the current queue depth.
+		 *
+		 * @return the queue depth
+		 */
+		public int getQueueDepth() {
+			return queue.size();
+		}
+
+		/**
+		 * Gets the highest queue depth seen.
+		 *
+		 * @return the max queue depth
+		 */
+		public int getMaxQueueDepth() {
+			return maxDepth.get();
+		}
+
+		/**
+		 * Gets the time spent by all the threads processing items.
+		 *
+		 * @return the busy time in milliseconds
+		 */
+		public long getBusyMillis() {
+			return busyNanos.get() / 1000000L;
+		}
+
+		/**
+		 * Gets the time producers were blocked by a full queue.
+		 *
+		 * @return the blocked time in milliseconds
+		 */
+		public long getBlockedMillis() {
+			return blockedNanos.get() / 1000000L;
+		}
+
+		/**
+		 * Gets the throughput since the start of the pipeline.
+		 *
+		 * @return the items per second
+		 */
+		public double getThroughput() {
+			long end = ended != 0 ? ended : System.nanoTime();
+			long elapsed = end - started;
+			return elapsed <= 0 ? 0 : processed.get() * 1e9 / elapsed;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return String.format(
+					"%s[threads=%d, processed=%d, errors=%d, depth=%d, maxDepth=%d, busy=%dms, blocked=%dms, %.1f/s]", // $NON-NLS-1$
+					name, Integer.valueOf(threads),
+					Long.valueOf(getProcessed()), Long.valueOf(getErrors()),
+					Integer.valueOf(getQueueDepth()),
+					Integer.valueOf(getMaxQueueDepth()),
+					Long.valueOf(getBusyMillis()),
+					Long.valueOf(getBlockedMillis()),
+					Double.valueOf(getThroughput()));
+		}
+	}
+
+	/**
+	 * A numbered item.
+	 *
+	 * @param <T>
+	 *            the type of the item
+	 */
+	private static final class Item<T> {
+
+		/** The sequence number. */
+		final long seq;
+
+		/** The value, null if skipped. */
+		final T value;
+
+		/**
+		 * Instantiates a new item.
+		 *
+		 * @param seq
+		 *            the seq
+		 * @param value
+		 *            the value
+		 */
+		Item(long seq, T value) {
+			this.seq = seq;
+			this.value = value;
+		}
+	}
+
+	/** Orders the items of an ordered stage. */
+	private static final Comparator<Item<?>> BY_SEQ = new Comparator<Item<?>>() {
+		public int compare(Item<?> a, Item<?> b) {
+			return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+		}
+	};
+
+	/**
+	 * The threads of a stage.
+	 */
+	private final class Runner {
+
+		/** The stage. */
+		final Stage<T> stage;
+
+		/** The input queue. */
+		final BlockingQueue<Item<T>> queue;
+
+		/** The metrics. */
+		final StageMetrics metrics;
+
+		/** True if the items are processed in order. */
+		final boolean ordered;
+
+		/** The threads still running. */
+		final AtomicInteger live;
+
+		/** The next stage, null for the last one. */
+		Runner next;
+
+		/** The threads. */
+		final List<Thread> threads = new ArrayList<Thread>();
+
+		/**
+		 * Instantiates a new runner.
+		 *
+		 * @param name
+		 *            the name
+		 * @param threadCount
+		 *            the thread count
+		 * @param ordered
+		 *            the ordered
+		 * @param stage
+		 *            the stage
+		 */
+		Runner(String name, int threadCount, boolean ordered, Stage<T> stage) {
+			this.stage = stage;
+			this.ordered = ordered;
+			this.queue = new ArrayBlockingQueue<Item<T>>(capacity);
+			this.metrics = new StageMetrics(name, threadCount, queue);
+			this.live = new AtomicInteger(threadCount);
+		}
+
+		/**
+		 * Starts the threads.
+		 */
+		void start() {
+			for (int i = 0; i < metrics.threads; i++) {
+				Thread t = new Thread(new Runnable() {
+					public void run() {
+						work();
+					}
+				}, name + "-" + metrics.name + "-" + (i + 1)); // $NON-NLS-1$ // $NON-NLS-2$
+				t.setDaemon(true);
+				threads.add(t);
+				t.start();
+			}
+		}
+
+		/**
+		 * Takes the items until the end marker.
+		 */
+		void work() {
+			PriorityQueue<Item<T>> pending = ordered ? new PriorityQueue<Item<T>>(
+					16, BY_SEQ) : null;
+			long expected = 0;
+			try {
+				while (true) {
+					Item<T> item = queue.take();
+					if (item.seq == END) {
+						break;
+					}
+					if (!ordered) {
+						handle(item);
+						continue;
+					}
+					pending.add(item);
+					while (!pending.isEmpty() && pending.peek().seq == expected) {
+						handle(pending.poll());
+						expected++;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (live.decrementAndGet() == 0) {
+				metrics.ended = System.nanoTime();
+				if (next != null) {
+					for (int i = 0; i < next.metrics.threads; i++) {
+						put(next, new Item<T>(END, null));
+					}
+				}
+			}
+		}
+
+		/**
+		 * Processes an item and passes it on.
+		 *
+		 * @param item
+		 *            the item
+		 */
+		void handle(Item<T> item) {
+			T result = null;
+			if (item.value != null && !cancelled) {
+				long start = System.nanoTime();
+				try {
+					result = stage.process(item.value);
+				} catch (Exception e) {
+					metrics.errors.incrementAndGet();
+					log.error("Error in stage " + metrics.name + " on item " // $NON-NLS-1$ // $NON-NLS-2$
+							+ item.seq, e);
+				} finally {
+					metrics.busyNanos.addAndGet(System.nanoTime() - start);
+				}
+			}
+			metrics.processed.incrementAndGet();
+			if (next != null) {
+				put(next, new Item<T>(item.seq, result));
+			}
+		}
+	}
+
+	/** The name of the pipeline, used for its threads. */
+	private final String name;
+
+	/** The capacity of every queue. */
+	private final int capacity;
+
+	/** The stages, in order. */
+	private final List<Runner> runners = new ArrayList<Runner>();
+
+	/** The next sequence number. */
+	private long seq;
+
+	/** True once cancelled: the remaining items are skipped. */
+	private volatile boolean cancelled;
+
+	/** True once started. */
+	private boolean started;
+
+	/**
+	 * Instantiates a new pipeline.
+	 *
+	 * @param name
+	 *            the name
+	 * @param capacity
+	 *            the capacity of the queue in front of every stage
+	 */
+	public StagedPipeline(String name, int capacity) {
+		this.name = name;
+		this.capacity = Math.max(1, capacity);
+	}
+
+	/**
+	 * Adds a stage.
+	 *
+	 * @param stageName
+	 *            the name of the stage
+	 * @param threads
+	 *            the number of threads, ignored for an ordered stage
+	 * @param ordered
+	 *            true to process the items one at a time in submission order
+	 * @param stage
+	 *            the stage
+	 * @return this pipeline
+	 */
+	public StagedPipeline<T> addStage(String stageName, int threads,
+			boolean ordered, Stage<T> stage) {
+		if (started) {
+			throw new IllegalStateException("Pipeline already started"); // $NON-NLS-1$
+		}
+		Runner runner = new Runner(stageName, ordered ? 1 : Math.max(1,
+				threads), ordered, stage);
+		if (!runners.isEmpty()) {
+			runners.get(runners.size() - 1).next = runner;
+		}
+		runners.add(runner);
+		return this;
+	}
+
+	/**
+	 * Starts the threads of every stage.
+	 */
+	public void start() {
+		if (runners.isEmpty()) {
+			throw new IllegalStateException("No stage"); // $NON-NLS-1$
+		}
+		started = true;
+		long now = System.nanoTime();
+		for (Runner r : runners) {
+			r.metrics.started = now;
+		}
+		for (Runner r : runners) {
+			r.start();
+		}
+	}
+
+	/**
+	 * Submits an item to the first stage, waiting for room in its queue.
+	 * Called from a single thread.
+	 *
+	 * @param item
+	 *            the item
+	 */
+	public void submit(T item) {
+		put(runners.get(0), new Item<T>(seq++, item));
+	}
+
+	/**
+	 * Skips the items not processed yet. The stages still drain their queues,
+	 * so finish returns quickly.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Checks if cancelled.
+	 *
+	 * @return true, if cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Signals the end of the items and waits for every stage to finish.
+	 *
+	 * @return false if the pipeline was cancelled
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public boolean finish() throws InterruptedException {
+		Runner first = runners.get(0);
+		for (int i = 0; i < first.metrics.threads; i++) {
+			put(first, new Item<T>(END, null));
+		}
+		for (Runner r : runners) {
+			for (Thread t : r.threads) {
+				t.join();
+			}
+		}
+		return !cancelled;
+	}
+
+	/**
+	 * Gets the metrics of every stage.
+	 *
+	 * @return the metrics, in stage order
+	 */
+	public List<StageMetrics> getMetrics() {
+		List<StageMetrics> metrics = new ArrayList<StageMetrics>(
+				runners.size());
+		for (Runner r : runners) {
+			metrics.add(r.metrics);
+		}
+		return Collections.unmodifiableList(metrics);
+	}
+
+	/**
+	 * Puts an item in the queue of a stage, accounting the time blocked.
+	 *
+	 * @param runner
+	 *            the runner
+	 * @param item
+	 *            the item
+	 */
+	private void put(Runner runner, Item<T> item) {
+		BlockingQueue<Item<T>> queue = runner.queue;
+		StageMetrics metrics = runner.metrics;
+		if (!queue.offer(item)) {
+			long start = System.nanoTime();
+			boolean interrupted = false;
+			while (true) {
+				try {
+					queue.put(item);
+					break;
+				} catch (InterruptedException e) {
+					// The item must not be lost, or the stage never ends
+					interrupted = true;
+				}
+			}
+			metrics.blockedNanos.addAndGet(System.nanoTime() - start);
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		int depth = queue.size();
+		int max;
+		while (depth > (max = metrics.maxDepth.get())
+				&& !metrics.maxDepth.compareAndSet(max, depth)) {
+			// retry
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(name).append(runners.size() > 0 ? " " : ""); // $NON-NLS-1$ // $NON-NLS-2$
+		for (int i = 0; i < runners.size(); i++) {
+			if (i > 0) {
+				sb.append(" -> "); // $NON-NLS-1$
+			}
+			sb.append(runners.get(i).metrics);
+		}
+		return sb.toString();
+	}
+}
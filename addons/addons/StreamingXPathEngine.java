@@ -0,0 +1,855 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cyberneko.html.parsers.SAXParser;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * The Class StreamingXPathEngine.
+ *
+ * @description Evaluates a subset of XPath over the SAX events of NekoHTML,
+ *              without building a page model. All the queries are evaluated
+ *              in a single pass and only the subtrees that match are
+ *              buffered, so memory per sample is proportional to the matched
+ *              fragments and not to the page.
+ *
+ *              Supported expressions are absolute location paths made of
+ *              child (/) and descendant (//) steps, with a name or * test and
+ *              any number of the predicates [@a], [@a='v'],
+ *              [contains(@a,'v')] and [n], one test each: and / or are not
+ *              supported. Queries outside of this subset are reported by
+ *              {@link #isSupported(int)} and have to be evaluated by HtmlUnit.
+ *
+ *              Fragments are serialized as compact XML, so their content (and
+ *              therefore the TempNode id, size and distances) differs from
+ *              HtmlUnit's asXml().
+ */
+public class StreamingXPathEngine {
+
+	/** The NekoHTML property for the element names case. */
+	private static final String NAMES_ELEMS = "http://cyberneko.org/html/properties/names/elems"; // $NON-NLS-1$
+
+	/** The NekoHTML property for the default encoding. */
+	private static final String DEFAULT_ENCODING = "http://cyberneko.org/html/properties/default-encoding"; // $NON-NLS-1$
+
+	/** The SAX namespaces feature. */
+	private static final String NAMESPACES = "http://xml.org/sax/features/namespaces"; // $NON-NLS-1$
+
+	/** Elements serialized without closing tag. */
+	private static final String[] VOID_ELEMENTS = { "area", "base", "br",
+			"col", "hr", "img", "input", "link", "meta", "param" };
+
+	/** The compiled paths, null for the unsupported queries. */
+	private final Path[] paths;
+
+	/** True if any path uses a positional predicate. */
+	private final boolean usesPositions;
+
+	/**
+	 * Instantiates a new streaming engine for the given queries.
+	 *
+	 * @param queries
+	 *            the XPath queries to evaluate
+	 */
+	public StreamingXPathEngine(List<String> queries) {
+		paths = new Path[queries.size()];
+		boolean positions = false;
+		for (int i = 0; i < paths.length; i++) {
+			try {
+				paths[i] = new Path(queries.get(i));
+				positions |= paths[i].usesPositions();
+			} catch (IllegalArgumentException e) {
+				paths[i] = null;
+			}
+		}
+		usesPositions = positions;
+	}
+
+	/**
+	 * Checks if a query can be evaluated by the streaming engine.
+	 *
+	 * @param query
+	 *            the XPath query
+	 * @return true, if supported
+	 */
+	public static boolean isSupported(String query) {
+		try {
+			new Path(query);
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Checks if the query at position i is evaluated by this engine.
+	 *
+	 * @param i
+	 *            the query index
+	 * @return true, if supported
+	 */
+	public boolean isSupported(int i) {
+		return paths[i] != null;
+	}
+
+	/**
+	 * Checks if at least one of the queries is evaluated by this engine.
+	 *
+	 * @return true, if there is something to stream
+	 */
+	public boolean hasSupportedQueries() {
+		for (int i = 0; i < paths.length; i++) {
+			if (paths[i] != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Streams the page and extracts the matches of every supported query.
+	 *
+	 * @param in
+	 *            the captured page
+	 * @return the fragments of each query in document order, null for the
+	 *         unsupported queries
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws SAXException
+	 *             the SAX exception
+	 */
+	public List<List<Fragment>> extract(InputStream in) throws IOException,
+			SAXException {
+		Handler handler = new Handler();
+		SAXParser parser = new SAXParser();
+		parser.setProperty(NAMES_ELEMS, "lower"); // $NON-NLS-1$
+		parser.setProperty(DEFAULT_ENCODING, "UTF-8"); // $NON-NLS-1$
+		parser.setFeature(NAMESPACES, false);
+		parser.setContentHandler(handler);
+		parser.parse(new InputSource(in));
+		return handler.getResults();
+	}
+
+	/**
+	 * Encodes a (query, step) state.
+	 *
+	 * @param query
+	 *            the query index
+	 * @param step
+	 *            the step index
+	 * @return the state
+	 */
+	private static int state(int query, int step) {
+		return (query << 16) | step;
+	}
+
+	/**
+	 * Escapes text and attribute values.
+	 *
+	 * @param sb
+	 *            the buffer
+	 * @param ch
+	 *            the characters
+	 * @param start
+	 *            the start
+	 * @param length
+	 *            the length
+	 */
+	private static void escape(StringBuilder sb, char[] ch, int start,
+			int length) {
+		for (int i = start; i < start + length; i++) {
+			char c = ch[i];
+			switch (c) {
+			case '&':
+				sb.append("&amp;"); // $NON-NLS-1$
+				break;
+			case '<':
+				sb.append("&lt;"); // $NON-NLS-1$
+				break;
+			case '>':
+				sb.append("&gt;"); // $NON-NLS-1$
+				break;
+			case '"':
+				sb.append("&quot;"); // $NON-NLS-1$
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Checks if the element is serialized without closing tag.
+	 *
+	 * @param name
+	 *            the element name
+	 * @return true, if void
+	 */
+	private static boolean isVoid(String name) {
+		for (int i = 0; i < VOID_ELEMENTS.length; i++) {
+			if (VOID_ELEMENTS[i].equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A compiled location path.
+	 */
+	private static final class Path {
+
+		/** The steps. */
+		private final Step[] steps;
+
+		/**
+		 * Compiles a location path.
+		 *
+		 * @param query
+		 *            the query
+		 * @throws IllegalArgumentException
+		 *             if the query is outside of the supported subset
+		 */
+		Path(String query) {
+			String q = query.trim();
+			List<Step> list = new ArrayList<Step>();
+			int i = 0;
+			if (q.length() == 0 || q.charAt(0) != '/') {
+				throw new IllegalArgumentException(query);
+			}
+			while (i < q.length()) {
+				boolean descendant = false;
+				if (q.charAt(i) != '/') {
+					throw new IllegalArgumentException(query);
+				}
+				i++;
+				if (i < q.length() && q.charAt(i) == '/') {
+					descendant = true;
+					i++;
+				}
+				int start = i;
+				while (i < q.length() && q.charAt(i) != '/'
+						&& q.charAt(i) != '[') {
+					i++;
+				}
+				String name = q.substring(start, i).trim().toLowerCase();
+				if (!"*".equals(name) && !isName(name)) { // $NON-NLS-1$
+					throw new IllegalArgumentException(query);
+				}
+				Step step = new Step(name, descendant);
+				while (i < q.length() && q.charAt(i) == '[') {
+					int end = closingBracket(q, i);
+					step.addPredicate(q.substring(i + 1, end).trim(), query);
+					i = end + 1;
+				}
+				list.add(step);
+			}
+			if (list.isEmpty() || list.size() > 0xFFFF) {
+				throw new IllegalArgumentException(query);
+			}
+			steps = list.toArray(new Step[list.size()]);
+		}
+
+		/**
+		 * Checks if any step uses a positional predicate.
+		 *
+		 * @return true, if positions have to be tracked
+		 */
+		boolean usesPositions() {
+			for (int i = 0; i < steps.length; i++) {
+				if (steps[i].position > 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Finds the bracket closing the predicate opened at i.
+		 *
+		 * @param q
+		 *            the query
+		 * @param i
+		 *            the position of '['
+		 * @return the position of ']'
+		 */
+		private static int closingBracket(String q, int i) {
+			char quote = 0;
+			for (int j = i + 1; j < q.length(); j++) {
+				char c = q.charAt(j);
+				if (quote != 0) {
+					if (c == quote) {
+						quote = 0;
+					}
+				} else if (c == '\'' || c == '"') {
+					quote = c;
+				} else if (c == ']') {
+					return j;
+				} else if (c == '[') {
+					break;
+				}
+			}
+			throw new IllegalArgumentException(q);
+		}
+
+		/**
+		 * Checks if s is a plain element or attribute name.
+		 *
+		 * @param s
+		 *            the s
+		 * @return true, if it is a name
+		 */
+		static boolean isName(String s) {
+			if (s.length() == 0) {
+				return false;
+			}
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (!Character.isLetterOrDigit(c) && c != '-' && c != '_'
+						&& c != '.') {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A location step with its predicates.
+	 */
+	private static final class Step {
+
+		/** The element name, or "*". */
+		final String name;
+
+		/** True for the descendant (//) axis. */
+		final boolean descendant;
+
+		/** The attribute names tested. */
+		final List<String> attributes = new ArrayList<String>();
+
+		/** The expected values, null when only presence is tested. */
+		final List<String> values = new ArrayList<String>();
+
+		/** True when the value is tested with contains(). */
+		final List<Boolean> contains = new ArrayList<Boolean>();
+
+		/** The expected position among siblings, 0 if none. */
+		int position = 0;
+
+		/**
+		 * Instantiates a new step.
+		 *
+		 * @param name
+		 *            the name
+		 * @param descendant
+		 *            the descendant
+		 */
+		Step(String name, boolean descendant) {
+			this.name = name;
+			this.descendant = descendant;
+		}
+
+		/**
+		 * Compiles a predicate.
+		 *
+		 * @param p
+		 *            the predicate without brackets
+		 * @param query
+		 *            the query, for error reporting
+		 */
+		void addPredicate(String p, String query) {
+			if (hasOperator(p)) {
+				// A single test per predicate: and / or go to HtmlUnit
+				throw new IllegalArgumentException(query);
+			}
+			if (p.length() > 0 && Character.isDigit(p.charAt(0))) {
+				if (position > 0 || !attributes.isEmpty()) {
+					// Only a leading position keeps sibling semantics
+					throw new IllegalArgumentException(query);
+				}
+				try {
+					position = Integer.parseInt(p);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException(query);
+				}
+				if (position < 1) {
+					throw new IllegalArgumentException(query);
+				}
+				return;
+			}
+			if (p.startsWith("contains(") && p.endsWith(")")) { // $NON-NLS-1$
+				String args = p.substring("contains(".length(), p.length() - 1); // $NON-NLS-1$
+				int comma = args.indexOf(',');
+				if (comma < 0) {
+					throw new IllegalArgumentException(query);
+				}
+				addTest(args.substring(0, comma).trim(),
+						literal(args.substring(comma + 1).trim(), query),
+						true, query);
+				return;
+			}
+			int eq = p.indexOf('=');
+			if (eq < 0) {
+				addTest(p, null, false, query);
+			} else {
+				addTest(p.substring(0, eq).trim(),
+						literal(p.substring(eq + 1).trim(), query), false,
+						query);
+			}
+		}
+
+		/**
+		 * Checks if a predicate combines tests with and / or, outside of its
+		 * string literals.
+		 *
+		 * @param p
+		 *            the predicate without brackets
+		 * @return true, if it has an operator
+		 */
+		private static boolean hasOperator(String p) {
+			StringBuilder outside = new StringBuilder(p.length());
+			char quote = 0;
+			for (int i = 0; i < p.length(); i++) {
+				char c = p.charAt(i);
+				if (quote != 0) {
+					if (c == quote) {
+						quote = 0;
+					}
+				} else if (c == '\'' || c == '"') {
+					quote = c;
+					outside.append(' ');
+				} else {
+					outside.append(c);
+				}
+			}
+			String[] words = outside.toString().split("[^\\w@.-]+"); // $NON-NLS-1$
+			for (int i = 0; i < words.length; i++) {
+				if ("and".equals(words[i]) || "or".equals(words[i])) { // $NON-NLS-1$ // $NON-NLS-2$
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Adds an attribute test.
+		 *
+		 * @param attr
+		 *            the attribute reference (@name)
+		 * @param value
+		 *            the value, or null
+		 * @param isContains
+		 *            true for contains()
+		 * @param query
+		 *            the query, for error reporting
+		 */
+		private void addTest(String attr, String value, boolean isContains,
+				String query) {
+			if (!attr.startsWith("@") || !Path.isName(attr.substring(1))) { // $NON-NLS-1$
+				throw new IllegalArgumentException(query);
+			}
+			attributes.add(attr.substring(1).toLowerCase());
+			values.add(value);
+			contains.add(Boolean.valueOf(isContains));
+		}
+
+		/**
+		 * Unquotes a string literal.
+		 *
+		 * @param s
+		 *            the quoted literal
+		 * @param query
+		 *            the query, for error reporting
+		 * @return the value
+		 */
+		private static String literal(String s, String query) {
+			if (s.length() < 2) {
+				throw new IllegalArgumentException(query);
+			}
+			char quote = s.charAt(0);
+			if ((quote != '\'' && quote != '"')
+					|| s.charAt(s.length() - 1) != quote) {
+				throw new IllegalArgumentException(query);
+			}
+			String value = s.substring(1, s.length() - 1);
+			if (value.indexOf(quote) >= 0) {
+				// Not one literal: 'x' and @b='y' ends and starts with quotes
+				throw new IllegalArgumentException(query);
+			}
+			return value;
+		}
+
+		/**
+		 * Tests an element against this step.
+		 *
+		 * @param element
+		 *            the element name
+		 * @param atts
+		 *            the attributes
+		 * @param sameName
+		 *            the position among siblings with the same name
+		 * @param any
+		 *            the position among all the element siblings
+		 * @return true, if the element matches
+		 */
+		boolean matches(String element, Attributes atts, int sameName, int any) {
+			boolean wildcard = "*".equals(name); // $NON-NLS-1$
+			if (!wildcard && !name.equals(element)) {
+				return false;
+			}
+			if (position > 0 && position != (wildcard ? any : sameName)) {
+				return false;
+			}
+			for (int i = 0; i < attributes.size(); i++) {
+				String actual = atts.getValue(attributes.get(i));
+				if (actual == null) {
+					return false;
+				}
+				String expected = values.get(i);
+				if (expected == null) {
+					continue;
+				}
+				if (contains.get(i).booleanValue() ? actual.indexOf(expected) < 0
+						: !actual.equals(expected)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * An open element with the states reached at it.
+	 */
+	private static final class Frame {
+
+		/** The parent. */
+		final Frame parent;
+
+		/** The depth. */
+		final int depth;
+
+		/** The states. */
+		int[] states = new int[4];
+
+		/** The number of states. */
+		int count = 0;
+
+		/** The element children seen so far, by name. */
+		Map<String, int[]> childrenByName;
+
+		/** The element children seen so far. */
+		int children = 0;
+
+		/**
+		 * Instantiates a new frame.
+		 *
+		 * @param parent
+		 *            the parent
+		 */
+		Frame(Frame parent) {
+			this.parent = parent;
+			this.depth = parent == null ? 0 : parent.depth + 1;
+		}
+
+		/**
+		 * Adds a state, ignoring duplicates.
+		 *
+		 * @param s
+		 *            the state
+		 */
+		void add(int s) {
+			for (int i = 0; i < count; i++) {
+				if (states[i] == s) {
+					return;
+				}
+			}
+			if (count == states.length) {
+				int[] grown = new int[count * 2];
+				System.arraycopy(states, 0, grown, 0, count);
+				states = grown;
+			}
+			states[count++] = s;
+		}
+
+		/**
+		 * Counts a new child with the given name.
+		 *
+		 * @param name
+		 *            the name
+		 * @return its position among siblings with the same name
+		 */
+		int countChild(String name) {
+			if (childrenByName == null) {
+				childrenByName = new HashMap<String, int[]>();
+			}
+			int[] n = childrenByName.get(name);
+			if (n == null) {
+				n = new int[1];
+				childrenByName.put(name, n);
+			}
+			return ++n[0];
+		}
+	}
+
+	/**
+	 * A match being buffered.
+	 */
+	private static final class Capture {
+
+		/** The query index. */
+		final int query;
+
+		/** The depth of the matched element. */
+		final int depth;
+
+		/** The start line number. */
+		final int startLine;
+
+		/** The start column number. */
+		final int startColumn;
+
+		/** The serialized subtree. */
+		final StringBuilder sb = new StringBuilder();
+
+		/** True while the last start tag is not closed yet. */
+		boolean tagOpen = false;
+
+		/** The fragment, once the element is closed. */
+		Fragment fragment;
+
+		/**
+		 * Instantiates a new capture.
+		 *
+		 * @param query
+		 *            the query
+		 * @param depth
+		 *            the depth
+		 * @param startLine
+		 *            the start line
+		 * @param startColumn
+		 *            the start column
+		 */
+		Capture(int query, int depth, int startLine, int startColumn) {
+			this.query = query;
+			this.depth = depth;
+			this.startLine = startLine;
+			this.startColumn = startColumn;
+		}
+
+		/**
+		 * Closes the pending start tag, if any.
+		 */
+		void closeTag() {
+			if (tagOpen) {
+				sb.append('>');
+				tagOpen = false;
+			}
+		}
+	}
+
+	/**
+	 * The SAX handler running the automaton.
+	 */
+	private final class Handler extends DefaultHandler {
+
+		/** The locator. */
+		private Locator locator;
+
+		/** The current frame. */
+		private Frame top;
+
+		/** The captures of the open matched elements. */
+		private final List<Capture> active = new ArrayList<Capture>();
+
+		/** All the captures in document order. */
+		private final List<Capture> captures = new ArrayList<Capture>();
+
+		/**
+		 * Instantiates a new handler.
+		 */
+		Handler() {
+			top = new Frame(null);
+			for (int q = 0; q < paths.length; q++) {
+				if (paths[q] != null) {
+					top.add(state(q, 0));
+				}
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.xml.sax.helpers.DefaultHandler#setDocumentLocator(org.xml.sax.Locator)
+		 */
+		@Override
+		public void setDocumentLocator(Locator locator) {
+			this.locator = locator;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.xml.sax.helpers.DefaultHandler#startElement(java.lang.String,
+		 * java.lang.String, java.lang.String, org.xml.sax.Attributes)
+		 */
+		@Override
+		public void startElement(String uri, String localName, String qName,
+				Attributes atts) {
+			String name = qName.toLowerCase();
+			Frame parent = top;
+			int sameName = 0;
+			int any = ++parent.children;
+			if (usesPositions) {
+				sameName = parent.countChild(name);
+			}
+			Frame frame = new Frame(parent);
+			for (int i = 0; i < parent.count; i++) {
+				int s = parent.states[i];
+				int q = s >>> 16;
+				int k = s & 0xFFFF;
+				Step step = paths[q].steps[k];
+				if (step.descendant) {
+					frame.add(s);
+				}
+				if (step.matches(name, atts, sameName, any)) {
+					if (k + 1 == paths[q].steps.length) {
+						Capture c = new Capture(q, frame.depth, line(),
+								column());
+						active.add(c);
+						captures.add(c);
+					} else {
+						frame.add(state(q, k + 1));
+					}
+				}
+			}
+			for (int i = 0; i < active.size(); i++) {
+				Capture c = active.get(i);
+				c.closeTag();
+				c.sb.append('<').append(name);
+				for (int a = 0; a < atts.getLength(); a++) {
+					String value = atts.getValue(a);
+					c.sb.append(' ').append(atts.getQName(a).toLowerCase())
+							.append("=\""); // $NON-NLS-1$
+					escape(c.sb, value.toCharArray(), 0, value.length());
+					c.sb.append('"');
+				}
+				c.tagOpen = true;
+			}
+			top = frame;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.xml.sax.helpers.DefaultHandler#endElement(java.lang.String,
+		 * java.lang.String, java.lang.String)
+		 */
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			String name = qName.toLowerCase();
+			for (int i = active.size() - 1; i >= 0; i--) {
+				Capture c = active.get(i);
+				if (c.tagOpen && isVoid(name)) {
+					c.sb.append("/>"); // $NON-NLS-1$
+					c.tagOpen = false;
+				} else {
+					c.closeTag();
+					c.sb.append("</").append(name).append('>'); // $NON-NLS-1$
+				}
+				if (c.depth == top.depth) {
+					c.fragment = new Fragment(c.sb.toString(), c.startLine,
+							c.startColumn, line(), column());
+					active.remove(i);
+				}
+			}
+			if (top.parent != null) {
+				top = top.parent;
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.xml.sax.helpers.DefaultHandler#characters(char[], int, int)
+		 */
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			for (int i = 0; i < active.size(); i++) {
+				Capture c = active.get(i);
+				c.closeTag();
+				escape(c.sb, ch, start, length);
+			}
+		}
+
+		/**
+		 * Current line.
+		 *
+		 * @return the line number
+		 */
+		private int line() {
+			return locator == null ? 0 : locator.getLineNumber();
+		}
+
+		/**
+		 * Current column.
+		 *
+		 * @return the column number
+		 */
+		private int column() {
+			return locator == null ? 0 : locator.getColumnNumber();
+		}
+
+		/**
+		 * Groups the finished captures by query.
+		 *
+		 * @return the results
+		 */
+		List<List<Fragment>> getResults() {
+			List<List<Fragment>> results = new ArrayList<List<Fragment>>(
+					paths.length);
+			for (int q = 0; q < paths.length; q++) {
+				results.add(paths[q] == null ? null : new ArrayList<Fragment>());
+			}
+			for (int i = 0; i < captures.size(); i++) {
+				Capture c = captures.get(i);
+				if (c.fragment != null) {
+					results.get(c.query).add(c.fragment);
+				}
+			}
+			return results;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.log.Logger;
+
+/**
+ * The Class TraceSampler.
+ *
+ * @description Sampled trace of a hot loop: one event out of every N is logged
+ *              at debug level, the others are dropped before their message is
+ *              built. Call sites guard the message with {@link #isEnabled()}:
+ *
+ *              <pre>
+ *              if (TRACE.isEnabled()) {
+ *              	log.debug(&quot;foundAt &quot; + sample);
+ *              }
+ *              </pre>
+ *
+ *              N is the JMeter property xpathextractor.trace.sample. The trace
+ *              is off by default (0), and then {@link #isEnabled()} is a test
+ *              of a constant, so the loops pay nothing for it. The logger must
+ *              also be at debug level.
+ */
+public final class TraceSampler {
+
+	/** The events between two logged ones, or 0 when the trace is off. */
+	private static final int RATE = JMeterUtils.getPropDefault(
+			"xpathextractor.trace.sample", 0); // $NON-NLS-1$
+
+	/** The logger of the call site. */
+	private final Logger log;
+
+	/** The events seen. */
+	private final AtomicLong events = new AtomicLong();
+
+	/**
+	 * Instantiates a new trace sampler.
+	 *
+	 * @param log
+	 *            the logger of the call site
+	 */
+	public TraceSampler(Logger log) {
+		this.log = log;
+	}
+
+	/**
+	 * Counts an event and tells whether to log it.
+	 *
+	 * @return true, for one event out of every N when the trace is on
+	 */
+	public boolean isEnabled() {
+		return RATE > 0 && log.isDebugEnabled()
+				&& events.getAndIncrement() % RATE == 0;
+	}
+}
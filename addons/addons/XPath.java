@@ -24,6 +24,9 @@ package addons;
 import javax.swing.DefaultListModel;
 import javax.swing.JList;
 
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
 /**
  * The Class XPath.
  * 
@@ -31,14 +34,17 @@ import javax.swing.JList;
  */
 public class XPath implements Query {
 	
+	/** The Constant log. */
+	private static final Logger log = LoggingManager.getLoggerForClass();
+
 	/** The list model. */
-	public static DefaultListModel listModel;
+	private final DefaultListModel listModel = new DefaultListModel();
 	
 	/** The X path list. */
-	public static JList XPathList;
+	public JList XPathList;
 
 	/**
-	 * Instantiates a new x path.
+	 * Instantiates a new x path with an empty list.
 	 */
 	public XPath(){
 		//Nothing here
@@ -66,11 +72,11 @@ public class XPath implements Query {
 	 * @param s
 	 *            the s
 	 */
-	public static void addQuery(String s) {
-		System.out.println("ManageXPaths - addQuery - String s:" + s
-				+ " - length: " + s.length());
+	public void addQuery(String s) {
 		listModel.addElement(s);
-		System.out.println("listModel: " + listModel.toString());
+		if (log.isDebugEnabled()) {
+			log.debug("addQuery " + s + " - queries: " + listModel.getSize()); // $NON-NLS-1$ // $NON-NLS-2$
+		}
 	}
 
 	/**
@@ -80,8 +86,9 @@ public class XPath implements Query {
 	 *            the s
 	 */
 	public void addQuerys(String[] s) {
-		System.out.println("ManageXPaths - addQuerys - String[] s:"
-				+ s.toString() + " - length: " + s.length);
+		if (log.isDebugEnabled()) {
+			log.debug("addQuerys - length: " + s.length); // $NON-NLS-1$
+		}
 		for (int i = 0; i < s.length; i++) {
 			addQuery(s[i]);
 		}
@@ -93,7 +100,6 @@ public class XPath implements Query {
 	 * @return string into position i of the static staticXPathList
 	 */
 	public void clearQuerys() {
-		System.out.println("ManageXPaths - clearQuerys");
 		String[] t = getStaticsQuerys();
 		XPathList.setListData(t);
 	}
@@ -105,8 +111,7 @@ public class XPath implements Query {
 	 *            the i
 	 * @return string
 	 */
-	public static String getStaticsQuery(int i) {
-		System.out.println("ManageXPaths - getStaticsQuery");
+	public String getStaticsQuery(int i) {
 		return listModel.get(i).toString();
 	}
 
@@ -116,13 +121,10 @@ public class XPath implements Query {
 	 * @return Array
 	 */
 	public String[] getStaticsQuerys() {
-		System.out.println("ManageXPaths - getStaticsQuerys");
 		String[] s = new String[listModel.size()];
 		for (int i = 0; i < listModel.size(); i++) {
 			s[i] = listModel.get(i).toString();
 		}
-
-		System.out.println("getStaticsQuerys" + s);
 		return s;
 	}
 
@@ -132,8 +134,6 @@ public class XPath implements Query {
 	 * @return Array
 	 */
 	public DefaultListModel getStaticsQuerysLM() {
-		System.out.println("ManageXPaths - getStaticsQuerys 2");
-
 		return listModel;
 	}
 
@@ -142,10 +142,7 @@ public class XPath implements Query {
 	 * 
 	 * @return Array
 	 */
-	public static Integer getCountQuerys() {
-		System.out.println("ManageXPaths - getCountQuerys . listmodel: "
-				+ listModel.toString());
-
+	public Integer getCountQuerys() {
 		return listModel.getSize();
 	}
 
@@ -154,7 +151,6 @@ public class XPath implements Query {
 	 * 
 	 */
 	public void saveHtmlQuerys() {
-		System.out.println("ManageXPaths - saveHtmlQuerys");
 		addQuerys(getStaticsQuerys());
 	}
 }
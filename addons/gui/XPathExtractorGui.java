@@ -29,14 +29,15 @@ import java.awt.event.KeyEvent;
 import java.io.File;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.ButtonGroup;
-import javax.swing.DefaultListModel;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JComponent;
@@ -45,8 +46,10 @@ import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JRadioButton;
 import javax.swing.JScrollPane;
+import javax.swing.SwingWorker;
 import javax.swing.border.TitledBorder;
 
 import org.apache.jmeter.extractor.XPathExtractor;
@@ -55,10 +58,17 @@ import org.apache.jmeter.extractor.XPathExtractor;
 import org.apache.jmeter.processor.gui.AbstractPostProcessorGui;
 import org.apache.jmeter.testelement.TestElement;
 import org.apache.jmeter.util.JMeterUtils;
-import org.apache.jmeter.visualizers.GraphVisualizer;
 import org.apache.jorphan.gui.JLabeledTextField;
-
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import addons.AnalysisContext;
+import addons.AnalysisListener;
+import addons.AnalysisListener.Phase;
+import addons.AnalysisMetrics;
+import addons.ExtractionCache;
 import addons.ManageXPaths;
+import addons.XPath;
 
 
 /**
@@ -72,11 +82,14 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 	/** The Constant serialVersionUID. */
 	private static final long serialVersionUID = 240L;
 
+	/** The Constant log. */
+	private static final Logger log = LoggingManager.getLoggerForClass();
+
 	/** The log file name. */
-	public static String logFileName;
+	private String logFileName = AnalysisContext.DEFAULT_LOG_FILE_NAME;
 	
 	/** The destination folder. */
-	public static String destinationFolder;
+	private String destinationFolder;
 
 	/** The list scroller. */
 	private JScrollPane listScroller;
@@ -93,14 +106,26 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 	/** The build xml. */
 	private JButton buildXml;
 	
+	/** The cancel button of the running analysis. */
+	private JButton cancelXml;
+
+	/** The progress of the current analysis phase. */
+	private JProgressBar analysisProgress;
+
+	/** The analysis status. */
+	private JLabel analysisStatus;
+
+	/** The running analysis, or null. */
+	private AnalysisWorker analysis;
+
 	/** The labelselect folder. */
 	private JLabel labelselectFolder;
 	
 	/** The xpaths count. */
-	public static JLabel xpathsCount;
+	private JLabel xpathsCount;
 	
-	/** The list model. */
-	private DefaultListModel listModel;
+	/** The queries of this extractor, edited with Edit XPaths. */
+	private final XPath queries = new XPath();
 
 	/** The panel xpaths. */
 	public JPanel panelXpaths;
@@ -109,6 +134,10 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 	private final JLabeledTextField defaultField = new JLabeledTextField(
 			JMeterUtils.getResString("default_value_field"));//$NON-NLS-1$
 
+	/** The match limit field. */
+	private final JLabeledTextField matchLimitField = new JLabeledTextField(
+			"Match limit (0 = all)");//$NON-NLS-1$
+
 	/** The xpath query field. */
 	private final JLabeledTextField xpathQueryField = new JLabeledTextField(
 			JMeterUtils.getResString("xpath_extractor_query"));//$NON-NLS-1$
@@ -125,6 +154,28 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 	/** The xml. */
 	private final XMLConfPanel xml = new XMLConfPanel();
 
+	/** The XPath search type. */
+	private final JRadioButton xpathSearch = new JRadioButton("XPaths (default)");
+
+	/** The CSS selector search type. */
+	private final JRadioButton cssSearch = new JRadioButton("CSS selectors");
+
+	/** The raw start marker search type. */
+	private final JRadioButton markerSearch = new JRadioButton(
+			"Start markers (raw)");
+
+	/** Should the samples be streamed instead of loaded into a page? */
+	private final JCheckBox streaming = new JCheckBox(
+			"Streaming extraction (no DOM)");
+
+	/** Should the graph be built from the responses while the test runs? */
+	private final JCheckBox liveGraph = new JCheckBox(
+			"Build the graph during the test");
+
+	/** The GraphML file written when a live test ends. */
+	private final JLabeledTextField liveResultField = new JLabeledTextField(
+			"Graph file");//$NON-NLS-1$
+
 	/* getStaticLabel hacked to show XPath Model Analyzer */
 	/**
 	 * Gets the static label.
@@ -164,8 +215,24 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 		showScopeSettings(xpe, true);
 		xpathQueryField.setText(xpe.getXPathQuery());
 		defaultField.setText(xpe.getDefaultValue());
+		matchLimitField.setText(String.valueOf(xpe.getMatchLimit()));
 		refNameField.setText(xpe.getRefName());
 		getFragment.setSelected(xpe.getFragment());
+		streaming.setSelected(xpe.isStreaming());
+		if (XPathExtractor.SEARCH_CSS.equals(xpe.getSearchType())) {
+			cssSearch.setSelected(true);
+		} else if (XPathExtractor.SEARCH_MARKERS.equals(xpe.getSearchType())) {
+			markerSearch.setSelected(true);
+		} else {
+			xpathSearch.setSelected(true);
+		}
+		streaming.setEnabled(xpathSearch.isSelected());
+		queries.getStaticsQuerysLM().clear();
+		for (String query : xpe.getQueries()) {
+			queries.addQuery(query);
+		}
+		liveGraph.setSelected(xpe.isLive());
+		liveResultField.setText(xpe.getLiveResult());
 		xml.configure(xpe);
 	}
 
@@ -191,9 +258,26 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 			XPathExtractor xpath = (XPathExtractor) extractor;
 			saveScopeSettings(xpath);
 			xpath.setDefaultValue(defaultField.getText());
+			try {
+				xpath.setMatchLimit(Integer.parseInt(matchLimitField.getText()
+						.trim()));
+			} catch (NumberFormatException e) {
+				xpath.setMatchLimit(0);
+			}
 			xpath.setRefName(refNameField.getText());
 			xpath.setXPathQuery(xpathQueryField.getText());
 			xpath.setFragment(getFragment.isSelected());
+			xpath.setStreaming(streaming.isSelected());
+			if (cssSearch.isSelected()) {
+				xpath.setSearchType(XPathExtractor.SEARCH_CSS);
+			} else if (markerSearch.isSelected()) {
+				xpath.setSearchType(XPathExtractor.SEARCH_MARKERS);
+			} else {
+				xpath.setSearchType(XPathExtractor.SEARCH_XPATH);
+			}
+			xpath.setQueries(Arrays.asList(queries.getStaticsQuerys()));
+			xpath.setLive(liveGraph.isSelected());
+			xpath.setLiveResult(liveResultField.getText().trim());
 			xml.modifyTestElement(xpath);
 		}
 	}
@@ -207,7 +291,14 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 
 		xpathQueryField.setText(""); // $NON-NLS-1$
 		defaultField.setText(""); // $NON-NLS-1$
+		matchLimitField.setText("0"); // $NON-NLS-1$
 		refNameField.setText(""); // $NON-NLS-1$
+		streaming.setSelected(false);
+		xpathSearch.setSelected(true);
+		streaming.setEnabled(true);
+		queries.getStaticsQuerysLM().clear();
+		liveGraph.setSelected(false);
+		liveResultField.setText(""); // $NON-NLS-1$
 		xml.setDefaultValues();
 	}
 
@@ -250,8 +341,10 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 		resetContraints(gbc);
 		addField(panel, xpathQueryField, gbc);
 		resetContraints(gbc);
-		gbc.weighty = 1;
 		addField(panel, defaultField, gbc);
+		resetContraints(gbc);
+		gbc.weighty = 1;
+		addField(panel, matchLimitField, gbc);
 		return panel;
 	}
 
@@ -281,28 +374,32 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 		panel.add(selectFolder, BorderLayout.CENTER);
 		
 		// Create the radio buttons.
-		JRadioButton xp_rb = new JRadioButton("XPaths (default)");
-		xp_rb.setMnemonic(KeyEvent.VK_X);
-		xp_rb.setActionCommand("XPaths (default)");
-		xp_rb.setSelected(true);
-		xp_rb.addActionListener(xpaths());
-
-		JRadioButton otherButton = new JRadioButton("Other (coming soon)");
-		otherButton.setEnabled(false);
-		otherButton.setMnemonic(KeyEvent.VK_C);
-		otherButton.setActionCommand("Other (coming soon)");
-		otherButton.addActionListener(other());
+		xpathSearch.setMnemonic(KeyEvent.VK_X);
+		xpathSearch.setActionCommand(XPathExtractor.SEARCH_XPATH);
+		xpathSearch.setSelected(true);
+		xpathSearch.addActionListener(xpaths());
+
+		cssSearch.setMnemonic(KeyEvent.VK_C);
+		cssSearch.setActionCommand(XPathExtractor.SEARCH_CSS);
+		cssSearch.addActionListener(other());
+
+		markerSearch.setMnemonic(KeyEvent.VK_M);
+		markerSearch.setActionCommand(XPathExtractor.SEARCH_MARKERS);
+		markerSearch.addActionListener(other());
 
 		// Group the radio buttons.
 		ButtonGroup group = new ButtonGroup();
-		group.add(xp_rb);
-		group.add(otherButton);
+		group.add(xpathSearch);
+		group.add(cssSearch);
+		group.add(markerSearch);
 
 		TitledBorder title2;
 		title2 = BorderFactory.createTitledBorder("Search type: ");
 		panel2.setBorder(title2);
-		panel2.add(xp_rb);
-		panel2.add(otherButton);
+		panel2.add(xpathSearch);
+		panel2.add(cssSearch);
+		panel2.add(markerSearch);
+		panel2.add(streaming);
 
 		// JLabel labelAlgorithm = new JLabel("Search type: ");
 		// panel.add(labelAlgorithm);
@@ -323,6 +420,25 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 		buildXml.addActionListener(new BuildXml());
 		panel.add(buildXml);
 
+		cancelXml = new JButton("Cancel");
+		cancelXml.setEnabled(false);
+		cancelXml.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				if (analysis != null) {
+					analysis.requestCancel();
+				}
+			}
+		});
+		panel.add(cancelXml);
+
+		analysisProgress = new JProgressBar();
+		analysisProgress.setStringPainted(true);
+		analysisProgress.setVisible(false);
+		panel.add(analysisProgress);
+
+		analysisStatus = new JLabel();
+		panel.add(analysisStatus);
+
 		return panel;
 	}
 
@@ -376,7 +492,7 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 	 *
 	 * @return the destination folder
 	 */
-	public static String getDestinationFolder() {
+	public String getDestinationFolder() {
 		return destinationFolder;
 	}
 
@@ -385,7 +501,7 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 	 *
 	 * @param value the new destination folder
 	 */
-	public static void setDestinationFolder(String value) {
+	public void setDestinationFolder(String value) {
 		destinationFolder = value;
 	}
 
@@ -394,7 +510,7 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 	 *
 	 * @return the log file name
 	 */
-	public static String getLogFileName() {
+	public String getLogFileName() {
 		return logFileName;
 	}
 
@@ -403,7 +519,7 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 	 *
 	 * @param s the new log file name
 	 */
-	public static void setLogFileName(String s) {
+	public void setLogFileName(String s) {
 		logFileName = s;
 	}
 
@@ -412,7 +528,7 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 	 *
 	 * @return the xpaths count
 	 */
-	public static String getXpathsCount() {
+	public String getXpathsCount() {
 		return xpathsCount.getText();
 	}
 
@@ -421,7 +537,7 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 	 *
 	 * @param value the new xpaths count
 	 */
-	public static void setXpathsCount(String value) {
+	public void setXpathsCount(String value) {
 		xpathsCount.setText(value);
 	}
 
@@ -439,8 +555,10 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 		panelXpaths.setBorder(title);
 
 		manXpathsButton = new JButton("Edit XPaths");
-		manXpathsButton.addActionListener(new ManageXPaths());
+		manXpathsButton.addActionListener(new ManageXPaths(queries));
 		panelXpaths.add(manXpathsButton);
+		panelXpaths.add(liveGraph);
+		panelXpaths.add(liveResultField);
 
 		// xpathsCount = new JLabel("No XPaths selected");
 		// panel.add(xpathsCount);
@@ -476,9 +594,7 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 					File[] files = folder.listFiles();
 
 					String fileNameTemp;
-					// y lo sacamos por pantalla
 					for (File fTemp : files) {
-						System.out.println(fTemp.getName());
 						fileNameTemp = fTemp.getName();
 						if (fileNameTemp.indexOf("log") != -1) {
 							found = true;
@@ -493,34 +609,42 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 								+ getDestinationFolder());
 					}
 				}
-				System.out
-						.println("destinationFolder (MySelectFolder actionPerformed):"
-								+ getDestinationFolder());
+				if (log.isDebugEnabled()) {
+					log.debug("destinationFolder (MySelectFolder actionPerformed):" // $NON-NLS-1$
+							+ getDestinationFolder());
+				}
 
 			} else {
-				System.out.println("No Selection ");
+				log.debug("No Selection"); // $NON-NLS-1$
 			}
 		}
 	}
 
 	/**
-	 * Xpaths.
+	 * Xpaths: streaming only applies to XPath queries.
 	 *
 	 * @return the action listener
 	 */
 	private ActionListener xpaths() {
-
-		return null;
+		return new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				streaming.setEnabled(true);
+			}
+		};
 	}
 
 	/**
-	 * Other.
+	 * Other: CSS selectors are evaluated over the parsed page and start
+	 * markers over the raw bytes.
 	 *
 	 * @return the action listener
 	 */
 	private ActionListener other() {
-
-		return null;
+		return new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				streaming.setEnabled(false);
+			}
+		};
 	}
 
 	/**
@@ -535,15 +659,222 @@ public class XPathExtractorGui extends AbstractPostProcessorGui {
 		 * @see java.awt.event.ActionListener#actionPerformed(java.awt.event.ActionEvent)
 		 */
 		public void actionPerformed(ActionEvent e) {
+			if (getDestinationFolder() == null) {
+				analysisStatus.setText("Select the HTML Downloader's folder first"); // $NON-NLS-1$
+				return;
+			}
 			Calendar cal = Calendar.getInstance();
 			DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd.HH.mm.ss");
 
 			String resultfilename = dateFormat.format(cal.getTime()) + ".xml";
 			
-			GraphVisualizer.setResultFileName(resultfilename);
+			AnalysisContext context = new AnalysisContext(new File(
+					getDestinationFolder()), getLogFileName(), new File(
+					resultfilename), Arrays.asList(queries.getStaticsQuerys()));
+			// The next build only analyzes the samples captured since this one
+			context.setCheckpointFile(new File(getLogFileName() + ".checkpoint")); // $NON-NLS-1$
+			// The queries already evaluated on a sample are read from the cache
+			context.setExtractionCache(new ExtractionCache(new File(
+					getDestinationFolder(), ExtractionCache.DEFAULT_FOLDER_NAME)));
 			XPathExtractor xpe = new XPathExtractor();
-			xpe.analyzeSamples();
+			modifyTestElement(xpe);
+
+			// The analysis can take minutes: keep it off the event thread
+			buildXml.setEnabled(false);
+			cancelXml.setEnabled(true);
+			analysisProgress.setValue(0);
+			analysisProgress.setVisible(true);
+			analysis = new AnalysisWorker(xpe, context);
+			analysis.execute();
+		}
+	}
+
+	/**
+	 * Runs XPathExtractor.analyzeSamples in the background and shows its
+	 * progress. The Cancel button only asks the analysis to stop, at its next
+	 * check: the future is not cancelled, so done() and the Build button wait
+	 * for analyzeSamples to return, and two analyses never share the
+	 * checkpoint and the extraction cache.
+	 */
+	private class AnalysisWorker extends SwingWorker<Boolean, int[]> {
+
+		/** The extractor. */
+		private final XPathExtractor extractor;
+
+		/** The analysis run by this worker. */
+		private final AnalysisContext context;
+
+		/** The start time of the analysis. */
+		private final long started = System.currentTimeMillis();
 
+		/** The current phase. */
+		private volatile Phase phase = Phase.LOG;
+
+		/** The number of steps of the current phase. */
+		private volatile int size;
+
+		/** The start time of the current phase. */
+		private volatile long phaseStarted = started;
+
+		/** True once the Cancel button is pressed. */
+		private volatile boolean cancelRequested;
+
+		/** The listener of the analysis. */
+		private final AnalysisListener listener = new AnalysisListener() {
+			public void phaseStarted(Phase p, int steps) {
+				AnalysisWorker.this.phaseStarted(p, steps);
+			}
+
+			public void progress(Phase p, int done) {
+				AnalysisWorker.this.progress(p, done);
+			}
+
+			public boolean isCancelled() {
+				return cancelRequested;
+			}
+		};
+
+		/**
+		 * Instantiates a new analysis worker.
+		 *
+		 * @param extractor the extractor
+		 * @param context the analysis
+		 */
+		AnalysisWorker(XPathExtractor extractor, AnalysisContext context) {
+			this.extractor = extractor;
+			this.context = context;
+		}
+
+		/* (non-Javadoc)
+		 * @see javax.swing.SwingWorker#doInBackground()
+		 */
+		@Override
+		protected Boolean doInBackground() {
+			return Boolean.valueOf(extractor.analyzeSamples(context, listener));
+		}
+
+		/**
+		 * Asks the analysis to stop. Build stays disabled until it does.
+		 */
+		void requestCancel() {
+			cancelRequested = true;
+			cancelXml.setEnabled(false);
+			analysisStatus.setText("Cancelling..."); // $NON-NLS-1$
+		}
+
+		/**
+		 * A phase starts.
+		 *
+		 * @param p
+		 *            the phase
+		 * @param steps
+		 *            the number of steps of the phase
+		 */
+		void phaseStarted(Phase p, int steps) {
+			phase = p;
+			size = steps;
+			phaseStarted = System.currentTimeMillis();
+			publish(new int[] { p.ordinal(), 0 });
+		}
+
+		/**
+		 * Steps of the current phase are done.
+		 *
+		 * @param p
+		 *            the phase
+		 * @param done
+		 *            the number of steps done
+		 */
+		void progress(Phase p, int done) {
+			publish(new int[] { p.ordinal(), done });
+		}
+
+		/* (non-Javadoc)
+		 * @see javax.swing.SwingWorker#process(java.util.List)
+		 */
+		@Override
+		protected void process(List<int[]> chunks) {
+			if (cancelRequested) {
+				return; // Keep showing that it is cancelling
+			}
+			// Only the last update is worth painting
+			int[] last = chunks.get(chunks.size() - 1);
+			Phase p = Phase.values()[last[0]];
+			if (p != phase) {
+				return; // Stale update of a finished phase
+			}
+			int done = last[1];
+			analysisProgress.setMaximum(Math.max(1, size));
+			analysisProgress.setValue(done);
+			analysisProgress.setString(p.getLabel() + " " + done + "/" + size); // $NON-NLS-1$ // $NON-NLS-2$
+			long elapsed = System.currentTimeMillis() - phaseStarted;
+			if (elapsed > 0 && done > 0) {
+				analysisStatus.setText(String.format("%.1f/s", // $NON-NLS-1$
+						done * 1000.0 / elapsed));
+			} else {
+				analysisStatus.setText(""); // $NON-NLS-1$
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see javax.swing.SwingWorker#done()
+		 */
+		@Override
+		protected void done() {
+			buildXml.setEnabled(true);
+			cancelXml.setEnabled(false);
+			analysisProgress.setVisible(false);
+			analysis = null;
+			long seconds = (System.currentTimeMillis() - started) / 1000;
+			String status;
+			String details = null;
+			try {
+				status = get().booleanValue() ? "XML generation completed in "
+						+ seconds + " s" : "XML generation cancelled"; // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$
+				if (get().booleanValue()) {
+					status += " - " + context.getMetrics().summary(); // $NON-NLS-1$
+					details = metricsTable(context);
+				}
+			} catch (InterruptedException e) {
+				status = "XML generation interrupted"; // $NON-NLS-1$
+			} catch (ExecutionException e) {
+				status = "XML generation failed: " + e.getCause(); // $NON-NLS-1$
+			}
+			analysisStatus.setText(status);
+			analysisStatus.setToolTipText(details);
+		}
+
+		/**
+		 * Formats the time of every stage of an analysis as an HTML table,
+		 * and where its report was written.
+		 *
+		 * @param context
+		 *            the analysis
+		 * @return the table
+		 */
+		private String metricsTable(AnalysisContext context) {
+			AnalysisMetrics metrics = context.getMetrics();
+			StringBuilder sb = new StringBuilder(
+					"<html><table><tr><th>Stage</th><th>Wall ms</th><th>CPU ms</th><th>Items</th><th>Bytes</th></tr>"); // $NON-NLS-1$
+			for (AnalysisMetrics.Stage s : AnalysisMetrics.Stage.values()) {
+				sb.append("<tr><td>").append(s.getLabel()) // $NON-NLS-1$
+						.append("</td><td align=right>") // $NON-NLS-1$
+						.append(metrics.getWallNanos(s) / 1000000)
+						.append("</td><td align=right>") // $NON-NLS-1$
+						.append(metrics.getCpuNanos(s) / 1000000)
+						.append("</td><td align=right>") // $NON-NLS-1$
+						.append(metrics.getItems(s))
+						.append("</td><td align=right>") // $NON-NLS-1$
+						.append(metrics.getBytes(s)).append("</td></tr>"); // $NON-NLS-1$
+			}
+			sb.append("</table>Skipped distances:"); // $NON-NLS-1$
+			for (AnalysisMetrics.Prune p : AnalysisMetrics.Prune.values()) {
+				sb.append(' ').append(p.getKey()).append(' ').append(
+						metrics.getSkipped(p));
+			}
+			return sb.append("<br>Report: ").append( // $NON-NLS-1$
+					AnalysisMetrics.reportFile(context.getResultFile()))
+					.append("</html>").toString(); // $NON-NLS-1$
 		}
 	}
 }
\ No newline at end of file
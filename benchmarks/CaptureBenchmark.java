@@ -0,0 +1,415 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.visualizers;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import addons.AnalysisContext;
+import addons.BenchmarkCorpus;
+
+import org.apache.jmeter.samplers.SampleResult;
+
+/**
+ * The Class CaptureBenchmark.
+ *
+ * @description Drives GraphVisualizer.add, the capture path of the HTML
+ *              Downloader, from several threads at once like the sampler
+ *              threads of a test do. Every run gives a number of threads a
+ *              body size and a duration; each thread adds synthetic samples
+ *              of its own URLs as fast as it can. A run reports:
+ *              <ul>
+ *              <li>the samples added per second, by all the threads</li>
+ *              <li>the median, p99 and maximum time of one add</li>
+ *              <li>the bytes written: the bodies and the capture log</li>
+ *              </ul>
+ *
+ *              Every run captures to a folder of its own, deleted afterwards.
+ *
+ *              Usage: CaptureBenchmark [--threads=1,2,...,256]
+ *              [--sizes=1024,16384,131072] [--seconds=5] [--warmup=3]
+ *              [--urls=16] [--folder=dir]
+ */
+public class CaptureBenchmark {
+
+	/** The UTF-8 charset. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8"); // $NON-NLS-1$
+
+	/** The numbers of threads of the runs. */
+	private int[] threads = { 1, 2, 4, 8, 16, 32, 64, 128, 256 };
+
+	/** The body sizes of the runs. */
+	private int[] sizes = { 1024, 16384, 131072 };
+
+	/** The seconds every run lasts. */
+	private int seconds = 5;
+
+	/** The seconds of the warm-up run. */
+	private int warmup = 3;
+
+	/** The URLs of every thread. */
+	private int urls = 16;
+
+	/** The folder of the captures. */
+	private File folder;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the options
+	 * @throws Exception
+	 *             if a run fails
+	 */
+	public static void main(String[] args) throws Exception {
+		CaptureBenchmark benchmark = new CaptureBenchmark();
+		if (!benchmark.parse(args)) {
+			System.err.println("Usage: CaptureBenchmark [--threads=1,2,...,256]" // $NON-NLS-1$
+					+ " [--sizes=1024,16384,131072] [--seconds=5] [--warmup=3]" // $NON-NLS-1$
+					+ " [--urls=16] [--folder=dir]"); // $NON-NLS-1$
+			System.exit(2);
+		}
+		benchmark.run();
+	}
+
+	/**
+	 * Parses the options.
+	 *
+	 * @param args
+	 *            the options
+	 * @return false if an option is wrong
+	 */
+	private boolean parse(String[] args) {
+		try {
+			for (String arg : args) {
+				String value = arg.substring(arg.indexOf('=') + 1);
+				if (arg.startsWith("--threads=")) { // $NON-NLS-1$
+					threads = ints(value);
+				} else if (arg.startsWith("--sizes=")) { // $NON-NLS-1$
+					sizes = ints(value);
+				} else if (arg.startsWith("--seconds=")) { // $NON-NLS-1$
+					seconds = Integer.parseInt(value);
+				} else if (arg.startsWith("--warmup=")) { // $NON-NLS-1$
+					warmup = Integer.parseInt(value);
+				} else if (arg.startsWith("--urls=")) { // $NON-NLS-1$
+					urls = Integer.parseInt(value);
+				} else if (arg.startsWith("--folder=")) { // $NON-NLS-1$
+					folder = new File(value);
+				} else {
+					return false;
+				}
+			}
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		return threads.length > 0 && sizes.length > 0 && seconds > 0
+				&& urls > 0;
+	}
+
+	/**
+	 * Runs the benchmark: a warm-up run, then every number of threads with
+	 * every body size.
+	 *
+	 * @throws Exception
+	 *             if a run fails
+	 */
+	private void run() throws Exception {
+		if (folder == null) {
+			folder = BenchmarkCorpus.temporaryFolder("capture"); // $NON-NLS-1$
+		}
+		if (warmup > 0) {
+			run(1, sizes[0], warmup);
+		}
+		System.out.println(String.format(Locale.ROOT,
+				"%7s %8s %9s %11s %9s %9s %10s %12s %8s", "threads", // $NON-NLS-1$ // $NON-NLS-2$
+				"size", "samples", "samples/s", "p50 us", "p99 us", // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$ // $NON-NLS-5$
+				"max us", "bytes", "MB/s")); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$
+		for (int size : sizes) {
+			for (int t : threads) {
+				System.out.println(run(t, size, seconds));
+			}
+		}
+	}
+
+	/**
+	 * Runs a number of threads for some seconds.
+	 *
+	 * @param count
+	 *            the number of threads
+	 * @param size
+	 *            the body size
+	 * @param duration
+	 *            the seconds
+	 * @return the result
+	 * @throws Exception
+	 *             if the run fails
+	 */
+	private Result run(int count, int size, int duration) throws Exception {
+		File runFolder = new File(folder, "run-" + count + "-" + size); // $NON-NLS-1$ // $NON-NLS-2$
+		BenchmarkCorpus.delete(runFolder);
+		if (!runFolder.mkdirs()) {
+			throw new IOException("Could not create " + runFolder); // $NON-NLS-1$
+		}
+		try {
+			GraphVisualizer visualizer = new GraphVisualizer();
+			visualizer.setDestinationFolder(runFolder.getAbsolutePath());
+			visualizer.setLogFileName(AnalysisContext.DEFAULT_LOG_FILE_NAME);
+
+			CountDownLatch start = new CountDownLatch(1);
+			Sampler[] samplers = new Sampler[count];
+			for (int i = 0; i < count; i++) {
+				samplers[i] = new Sampler(visualizer, i, size, start);
+				samplers[i].start();
+			}
+			long begin = System.nanoTime();
+			long end = begin + duration * 1000000000L;
+			for (Sampler s : samplers) {
+				s.end = end;
+			}
+			start.countDown();
+			for (Sampler s : samplers) {
+				s.join();
+			}
+			long elapsed = System.nanoTime() - begin;
+
+			Result result = new Result(count, size, elapsed);
+			for (Sampler s : samplers) {
+				if (s.failure != null) {
+					throw s.failure;
+				}
+				result.add(s);
+			}
+			result.bytes += new File(runFolder,
+					AnalysisContext.DEFAULT_LOG_FILE_NAME).length();
+			return result;
+		} finally {
+			BenchmarkCorpus.delete(runFolder);
+		}
+	}
+
+	/**
+	 * Parses a list of numbers.
+	 *
+	 * @param value
+	 *            the numbers, separated by commas
+	 * @return the numbers
+	 */
+	private static int[] ints(String value) {
+		String[] parts = value.split(","); // $NON-NLS-1$
+		int[] ints = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			ints[i] = Integer.parseInt(parts[i].trim());
+		}
+		return ints;
+	}
+
+	/**
+	 * The Class Sampler.
+	 *
+	 * @description A sampler thread, adding samples of its own URLs in turn
+	 *              and timing every add.
+	 */
+	private class Sampler extends Thread {
+
+		/** The visualizer. */
+		private final GraphVisualizer visualizer;
+
+		/** The samples, one per URL. */
+		private final SampleResult[] results;
+
+		/** The bodies of the samples. */
+		private final byte[] body;
+
+		/** The start signal. */
+		private final CountDownLatch start;
+
+		/** When to stop, in nanoseconds. */
+		private volatile long end;
+
+		/** The time of every add, in nanoseconds. */
+		private long[] latencies = new long[1024];
+
+		/** The number of samples added. */
+		private int added;
+
+		/** The failure of the thread, or null. */
+		private Exception failure;
+
+		/**
+		 * Instantiates a new sampler.
+		 *
+		 * @param visualizer
+		 *            the visualizer
+		 * @param number
+		 *            the thread number
+		 * @param size
+		 *            the body size
+		 * @param start
+		 *            the start signal
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		Sampler(GraphVisualizer visualizer, int number, int size,
+				CountDownLatch start) throws IOException {
+			super("sampler-" + number); // $NON-NLS-1$
+			this.visualizer = visualizer;
+			this.start = start;
+			Random random = new Random(BenchmarkCorpus.SEED + number);
+			String page = BenchmarkCorpus.page(random, Math.max(1, size / 200),
+					200);
+			body = Arrays.copyOf(page.getBytes(UTF_8), size);
+			Arrays.fill(body, Math.min(page.length(), size), size, (byte) ' ');
+			results = new SampleResult[urls];
+			for (int i = 0; i < urls; i++) {
+				results[i] = new SampleResult();
+				results[i].setURL(new URL("http://www.example.com/t" + number // $NON-NLS-1$
+						+ "/page" + i)); // $NON-NLS-1$
+				results[i].setSampleLabel("page" + i); // $NON-NLS-1$
+				results[i].setResponseData(body);
+				results[i].setDataEncoding("UTF-8"); // $NON-NLS-1$
+				results[i].setResponseCode("200"); // $NON-NLS-1$
+				results[i].setSuccessful(true);
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Thread#run()
+		 */
+		@Override
+		public void run() {
+			try {
+				start.await();
+				long now = System.nanoTime();
+				while (now < end) {
+					SampleResult res = results[added % results.length];
+					res.setStampAndTime(System.currentTimeMillis(), 1);
+					visualizer.add(res);
+					long done = System.nanoTime();
+					if (added == latencies.length) {
+						latencies = Arrays.copyOf(latencies, added * 2);
+					}
+					latencies[added++] = done - now;
+					now = done;
+				}
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+	}
+
+	/**
+	 * The Class Result.
+	 *
+	 * @description The samples, latencies and bytes of a run.
+	 */
+	private static class Result {
+
+		/** The number of threads. */
+		private final int threads;
+
+		/** The body size. */
+		private final int size;
+
+		/** The duration of the run, in nanoseconds. */
+		private final long elapsed;
+
+		/** The latencies of every thread. */
+		private final List<long[]> latencies = new ArrayList<long[]>();
+
+		/** The number of samples. */
+		private int samples;
+
+		/** The bytes written. */
+		private long bytes;
+
+		/**
+		 * Instantiates a new result.
+		 *
+		 * @param threads
+		 *            the number of threads
+		 * @param size
+		 *            the body size
+		 * @param elapsed
+		 *            the duration, in nanoseconds
+		 */
+		Result(int threads, int size, long elapsed) {
+			this.threads = threads;
+			this.size = size;
+			this.elapsed = elapsed;
+		}
+
+		/**
+		 * Adds the samples of a thread.
+		 *
+		 * @param s
+		 *            the thread
+		 */
+		void add(Sampler s) {
+			latencies.add(Arrays.copyOf(s.latencies, s.added));
+			samples += s.added;
+			bytes += (long) s.added * s.body.length;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			long[] all = new long[samples];
+			int n = 0;
+			for (long[] l : latencies) {
+				System.arraycopy(l, 0, all, n, l.length);
+				n += l.length;
+			}
+			Arrays.sort(all);
+			double seconds = elapsed / 1e9;
+			return String.format(Locale.ROOT,
+					"%7d %8d %9d %11.1f %9.1f %9.1f %10.1f %12d %8.2f", // $NON-NLS-1$
+					threads, size, samples, samples / seconds, percentile(
+							all, 0.50) / 1e3, percentile(all, 0.99) / 1e3,
+					(samples == 0 ? 0 : all[samples - 1]) / 1e3, bytes, bytes
+							/ seconds / (1024 * 1024));
+		}
+
+		/**
+		 * Gets a percentile of sorted values.
+		 *
+		 * @param sorted
+		 *            the values
+		 * @param p
+		 *            the percentile, between 0 and 1
+		 * @return the value, 0 if there are none
+		 */
+		private static long percentile(long[] sorted, double p) {
+			if (sorted.length == 0) {
+				return 0;
+			}
+			int i = (int) Math.ceil(p * sorted.length) - 1;
+			return sorted[Math.max(0, i)];
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.extractor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import addons.BenchmarkCorpus;
+import addons.TempNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Class OrderNodesBenchmark.
+ *
+ * @description The nesting of the nodes of one sample by orderNodes. Every
+ *              invocation orders a copy of the same shuffled nodes, so the copy
+ *              of the list is measured too.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class OrderNodesBenchmark {
+
+	/** The number of nodes of the sample. */
+	@Param( { "10", "100", "1000", "10000" })
+	public int nodes;
+
+	/** The shuffled nodes. */
+	private List<TempNode> shuffled;
+
+	/**
+	 * Generates the nodes.
+	 */
+	@Setup
+	public void setUp() {
+		shuffled = BenchmarkCorpus.sampleNodes(nodes, 200);
+	}
+
+	/**
+	 * Orders the nodes.
+	 *
+	 * @return the ordered nodes
+	 */
+	@Benchmark
+	public List<TempNode> orderNodes() {
+		List<TempNode> copy = new ArrayList<TempNode>(shuffled);
+		XPathExtractor.orderNodes(copy);
+		return copy;
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.extractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import addons.AnalysisContext;
+import addons.BenchmarkCorpus;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Class TreatSampleBenchmark.
+ *
+ * @description The search of one sample with every query of the corpus (per
+ *              page), or with a single one of them (per query). The samples are
+ *              searched in turn and read from disk each time, like an analysis
+ *              does.
+ *
+ *              The samples are synthetic unless capture names the folder of a
+ *              recorded capture, e.g. -p capture=/path/to/capture.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TreatSampleBenchmark {
+
+	/** The search type. */
+	@Param( { XPathExtractor.SEARCH_XPATH, XPathExtractor.SEARCH_CSS,
+			XPathExtractor.SEARCH_MARKERS })
+	public String searchType;
+
+	/** Should the XPaths be streamed? */
+	@Param( { "false", "true" })
+	public boolean streaming;
+
+	/** The query searched: "all" for every one, or its index. */
+	@Param( { "all", "0", "1", "2" })
+	public String query;
+
+	/** The fragments of every synthetic page. */
+	@Param( { "50" })
+	public int fragments;
+
+	/** The folder of a recorded capture, empty for a synthetic one. */
+	@Param( { "" })
+	public String capture;
+
+	/** The synthetic capture folder, or null. */
+	private File folder;
+
+	/** The web of every sample. */
+	private final List<String> webs = new ArrayList<String>();
+
+	/** The samples. */
+	private final List<String> samples = new ArrayList<String>();
+
+	/** The extractor. */
+	private XPathExtractor extractor;
+
+	/** The context of the analysis. */
+	private AnalysisContext context;
+
+	/** The next sample. */
+	private int next;
+
+	/**
+	 * Writes or reads the capture and prepares the extractor.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Setup
+	public void setUp() throws IOException {
+		File captureFolder;
+		if (capture.length() == 0) {
+			folder = BenchmarkCorpus.temporaryFolder("capture"); // $NON-NLS-1$
+			BenchmarkCorpus.writeCapture(folder, 10, 2, fragments, 200);
+			captureFolder = folder;
+		} else {
+			captureFolder = new File(capture);
+		}
+		BenchmarkCorpus.readCapture(new File(captureFolder,
+				AnalysisContext.DEFAULT_LOG_FILE_NAME), webs, samples);
+
+		List<String> queries = BenchmarkCorpus.queries(searchType);
+		if (!"all".equals(query)) { // $NON-NLS-1$
+			queries = Collections.singletonList(queries.get(Integer
+					.parseInt(query)));
+		}
+		context = new AnalysisContext(captureFolder, null, new File(
+				"benchmark.xml"), queries); // $NON-NLS-1$
+		extractor = new XPathExtractor();
+		extractor.setSearchType(searchType);
+		extractor.setStreaming(streaming);
+		extractor.setAnalysis(context);
+	}
+
+	/**
+	 * Deletes the synthetic capture.
+	 */
+	@TearDown
+	public void tearDown() {
+		extractor.setAnalysis(null);
+		if (folder != null) {
+			BenchmarkCorpus.delete(folder);
+		}
+	}
+
+	/**
+	 * Searches the next sample.
+	 *
+	 * @return the number of nodes found
+	 */
+	@Benchmark
+	public int treatSample() {
+		context.getNodes().clear();
+		next = (next + 1) % samples.size();
+		extractor.treatSample(webs.get(next), samples.get(next), null);
+		return context.getNodes().size();
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.extractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import addons.AnalysisCheckpoint;
+import addons.AnalysisContext;
+import addons.BenchmarkCorpus;
+import addons.TempNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Class WriteXmlBenchmark.
+ *
+ * @description The writing of the XML of a sample, which looks its nodes up
+ *              in every node of the analysis, and of the GraphML result, which
+ *              compares every pair of nodes. Both are measured one call at a
+ *              time: the result of 100000 nodes takes hours while the
+ *              comparison stays quadratic, so a quick run passes
+ *              -p nodes=1000,10000.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class WriteXmlBenchmark {
+
+	/** The number of nodes of the analysis. */
+	@Param( { "1000", "10000", "100000" })
+	public int nodes;
+
+	/** The number of nodes of every web. */
+	@Param( { "100" })
+	public int nodesPerWeb;
+
+	/** The folder of the samples and the result. */
+	private File folder;
+
+	/** The extractor. */
+	private XPathExtractor extractor;
+
+	/** The context of the analysis. */
+	private AnalysisContext context;
+
+	/** The web of the sample written. */
+	private String web;
+
+	/** The sample written. */
+	private String sample;
+
+	/**
+	 * Generates the nodes.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Setup
+	public void setUp() throws IOException {
+		folder = BenchmarkCorpus.temporaryFolder("result"); // $NON-NLS-1$
+		context = new AnalysisContext(folder, null, new File("result.xml"), // $NON-NLS-1$
+				BenchmarkCorpus.QUERIES);
+		List<TempNode> list = BenchmarkCorpus.nodes(nodes, Math.max(1, nodes
+				/ nodesPerWeb), folder);
+		context.getNodes().addAll(list);
+		TempNode first = list.get(list.size() - nodes);
+		web = first.getWeb();
+		sample = first.getSamples().get(0);
+		new File(sample).getParentFile().mkdirs();
+		extractor = new XPathExtractor();
+		extractor.setAnalysis(context);
+	}
+
+	/**
+	 * Deletes the files written.
+	 */
+	@TearDown
+	public void tearDown() {
+		extractor.setAnalysis(null);
+		BenchmarkCorpus.delete(folder);
+	}
+
+	/**
+	 * Writes the XML of a sample.
+	 */
+	@Benchmark
+	public void writeSampleXml() {
+		extractor.writeSampleXml(web, sample, context.getNodes());
+	}
+
+	/**
+	 * Writes the GraphML result.
+	 *
+	 * @return true if written
+	 */
+	@Benchmark
+	public boolean writeResultsXml() {
+		return extractor.writeResultsXml(0, AnalysisCheckpoint.noSimilarities(),
+				null);
+	}
+}
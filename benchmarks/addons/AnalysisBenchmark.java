@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.jmeter.extractor.XPathExtractor;
+
+/**
+ * The Class AnalysisBenchmark.
+ *
+ * @description Runs XPathExtractor.analyzeSamples end to end on a capture
+ *              written by {@link CorpusGenerator}, or on a recorded one, and
+ *              reports the time and the peak heap of every phase. The phases
+ *              are the ones the analysis reports to its {@link AnalysisListener};
+ *              the heap is polled every few milliseconds, after a full GC
+ *              before the analysis starts.
+ *
+ *              The synthetic capture is deleted afterwards unless --keep is
+ *              given.
+ *
+ *              Usage: AnalysisBenchmark [--capture=folder] [--search=xpath]
+ *              [--streaming] [--workers=1] [--keep] [generator options]
+ */
+public class AnalysisBenchmark implements AnalysisListener {
+
+	/** The milliseconds between two polls of the heap. */
+	private static final long POLL_MILLIS = 5;
+
+	/** The heap. */
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+	/** The nanoseconds of every phase. */
+	private final Map<Phase, Long> times = new EnumMap<Phase, Long>(
+			Phase.class);
+
+	/** The peak heap of every phase, in bytes. */
+	private final Map<Phase, Long> peaks = new EnumMap<Phase, Long>(
+			Phase.class);
+
+	/** The current phase, or null. */
+	private volatile Phase phase;
+
+	/** When the current phase started, in nanoseconds. */
+	private long phaseStart;
+
+	/** The peak heap of the current phase, in bytes. */
+	private volatile long phasePeak;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the options
+	 * @throws Exception
+	 *             if the capture cannot be written
+	 */
+	public static void main(String[] args) throws Exception {
+		File capture = null;
+		String searchType = XPathExtractor.SEARCH_XPATH;
+		boolean streaming = false;
+		int workers = 1;
+		boolean keep = false;
+		File generated = BenchmarkCorpus.temporaryFolder("capture"); // $NON-NLS-1$
+		CorpusGenerator generator = new CorpusGenerator(generated);
+		boolean usage = false;
+		try {
+			for (String arg : args) {
+				String value = arg.substring(arg.indexOf('=') + 1);
+				if (arg.startsWith("--capture=")) { // $NON-NLS-1$
+					capture = new File(value);
+				} else if (arg.startsWith("--search=")) { // $NON-NLS-1$
+					searchType = value;
+				} else if ("--streaming".equals(arg)) { // $NON-NLS-1$
+					streaming = true;
+				} else if (arg.startsWith("--workers=")) { // $NON-NLS-1$
+					workers = Integer.parseInt(value);
+				} else if ("--keep".equals(arg)) { // $NON-NLS-1$
+					keep = true;
+				} else if (!generator.setOption(arg)) {
+					usage = true;
+				}
+			}
+		} catch (NumberFormatException e) {
+			usage = true;
+		}
+		if (usage || workers < 1) {
+			System.err.println("Usage: AnalysisBenchmark [--capture=folder]" // $NON-NLS-1$
+					+ " [--search=xpath|css|markers] [--streaming]" // $NON-NLS-1$
+					+ " [--workers=1] [--keep] [--urls=100] [--snapshots=10]" // $NON-NLS-1$
+					+ " [--page-size=20000] [--fragment-size=200] [--churn=0.1]" // $NON-NLS-1$
+					+ " [--near-duplicates=0.2] [--interval=60] [--seed=n]"); // $NON-NLS-1$
+			BenchmarkCorpus.delete(generated);
+			System.exit(2);
+			return;
+		}
+
+		PrintStream out = System.out;
+		try {
+			if (capture == null) {
+				long start = System.nanoTime();
+				generator.write();
+				capture = generated;
+				out.println(String.format(Locale.ROOT,
+						"Generated %d samples, %d bytes, in %.0f ms: %s", // $NON-NLS-1$
+						generator.getSampleCount(), generator.getBytes(),
+						(System.nanoTime() - start) / 1e6, capture));
+			}
+			XPathExtractor extractor = new XPathExtractor();
+			extractor.setSearchType(searchType);
+			extractor.setStreaming(streaming);
+			AnalysisContext context = new AnalysisContext(capture, null,
+					new File("benchmark-result.xml"), // $NON-NLS-1$
+					BenchmarkCorpus.queries(searchType));
+
+			AnalysisBenchmark benchmark = new AnalysisBenchmark();
+			long total = benchmark.run(extractor, context, workers);
+			boolean written = context.getResultFile().isFile();
+			benchmark.report(out, context, total, written);
+		} finally {
+			if (!keep) {
+				BenchmarkCorpus.delete(generated);
+			}
+		}
+	}
+
+	/**
+	 * Runs the analysis while polling the heap.
+	 *
+	 * @param extractor
+	 *            the extractor
+	 * @param context
+	 *            the context
+	 * @param workers
+	 *            the number of extraction threads
+	 * @return the nanoseconds of the analysis
+	 */
+	private long run(XPathExtractor extractor, AnalysisContext context,
+			int workers) {
+		System.gc();
+		Thread poller = new Thread("heap-poller") { // $NON-NLS-1$
+			@Override
+			public void run() {
+				while (!isInterrupted()) {
+					long used = memory.getHeapMemoryUsage().getUsed();
+					if (used > phasePeak) {
+						phasePeak = used;
+					}
+					try {
+						Thread.sleep(POLL_MILLIS);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		};
+		poller.setDaemon(true);
+		long start = System.nanoTime();
+		poller.start();
+		try {
+			extractor.analyzeSamples(context, this, workers);
+		} finally {
+			endPhase();
+			poller.interrupt();
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Prints the time and peak heap of every phase.
+	 *
+	 * @param out
+	 *            the output
+	 * @param context
+	 *            the context
+	 * @param total
+	 *            the nanoseconds of the analysis
+	 * @param written
+	 *            was the result written?
+	 */
+	private void report(PrintStream out, AnalysisContext context, long total,
+			boolean written) {
+		out.println(String.format(Locale.ROOT, "%-22s %12s %14s", "phase", // $NON-NLS-1$ // $NON-NLS-2$
+				"time ms", "peak heap MB")); // $NON-NLS-1$ // $NON-NLS-2$
+		long peak = 0;
+		for (Phase p : Phase.values()) {
+			if (!times.containsKey(p)) {
+				continue;
+			}
+			peak = Math.max(peak, peaks.get(p));
+			out.println(String.format(Locale.ROOT, "%-22s %12.1f %14.1f", p // $NON-NLS-1$
+					.getLabel(), times.get(p) / 1e6, peaks.get(p)
+					/ (1024.0 * 1024.0)));
+		}
+		out.println(String.format(Locale.ROOT, "%-22s %12.1f %14.1f", "total", // $NON-NLS-1$ // $NON-NLS-2$
+				total / 1e6, peak / (1024.0 * 1024.0)));
+		out.println(context.getNodeCount() + " nodes, result " // $NON-NLS-1$
+				+ (written ? context.getResultFile() : "not written")); // $NON-NLS-1$
+	}
+
+	/* (non-Javadoc)
+	 * @see addons.AnalysisListener#phaseStarted(addons.AnalysisListener.Phase, int)
+	 */
+	public void phaseStarted(Phase next, int size) {
+		endPhase();
+		phase = next;
+		phasePeak = memory.getHeapMemoryUsage().getUsed();
+		phaseStart = System.nanoTime();
+	}
+
+	/* (non-Javadoc)
+	 * @see addons.AnalysisListener#progress(addons.AnalysisListener.Phase, int)
+	 */
+	public void progress(Phase current, int done) {
+	}
+
+	/* (non-Javadoc)
+	 * @see addons.AnalysisListener#isCancelled()
+	 */
+	public boolean isCancelled() {
+		return false;
+	}
+
+	/**
+	 * Adds the time and peak heap of the current phase to its totals. A phase
+	 * can start more than once, like the log phase of a checkpoint.
+	 */
+	private void endPhase() {
+		if (phase == null) {
+			return;
+		}
+		long time = System.nanoTime() - phaseStart;
+		Long known = times.get(phase);
+		times.put(phase, known == null ? time : known + time);
+		Long peak = peaks.get(phase);
+		peaks.put(phase, peak == null ? phasePeak : Math.max(peak, phasePeak));
+		phase = null;
+	}
+}
@@ -0,0 +1,354 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.jmeter.extractor.XPathExtractor;
+
+/**
+ * The Class BenchmarkCorpus.
+ *
+ * @description The inputs of the benchmarks: synthetic HTML pages and
+ *              fragments generated from a seed, so every run measures the same
+ *              data, or the samples of a capture recorded by the HTML
+ *              Downloader.
+ *
+ *              A synthetic page is a body of nested div, p and a fragments; a
+ *              synthetic node list has a root per web followed by the fragments
+ *              of its samples, nested like orderNodes leaves them.
+ */
+public class BenchmarkCorpus {
+
+	/** The seed of the synthetic data. */
+	public static final long SEED = 20120901L;
+
+	/** The queries evaluated on the synthetic pages. */
+	public static final List<String> QUERIES = Arrays.asList("//div", // $NON-NLS-1$
+			"//p", "//a"); // $NON-NLS-1$ // $NON-NLS-2$
+
+	/** The CSS selectors evaluated on the synthetic pages. */
+	public static final List<String> SELECTORS = Arrays.asList("div", "p", // $NON-NLS-1$ // $NON-NLS-2$
+			"a"); // $NON-NLS-1$
+
+	/** The markers evaluated on the synthetic pages. */
+	public static final List<String> MARKERS = Arrays.asList("<div", "<p", // $NON-NLS-1$ // $NON-NLS-2$
+			"<a"); // $NON-NLS-1$
+
+	/** The date of the synthetic samples. */
+	private static final String DATE = "20120901.12.00.00"; // $NON-NLS-1$
+
+	/** The words of the synthetic text. */
+	private static final String[] WORDS = { "jmeter", "sample", "fragment", // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$
+			"graph", "node", "query", "xpath", "load", "test", "page", // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$ // $NON-NLS-5$ // $NON-NLS-6$ // $NON-NLS-7$
+			"content", "mining", "data", "web", "server", "response" }; // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$ // $NON-NLS-5$ // $NON-NLS-6$
+
+	/**
+	 * Instantiates a new benchmark corpus.
+	 */
+	private BenchmarkCorpus() {
+	}
+
+	/**
+	 * Gets the queries of a search type.
+	 *
+	 * @param searchType
+	 *            the search type
+	 * @return the queries
+	 */
+	public static List<String> queries(String searchType) {
+		if (XPathExtractor.SEARCH_CSS.equals(searchType)) {
+			return SELECTORS;
+		}
+		if (XPathExtractor.SEARCH_MARKERS.equals(searchType)) {
+			return MARKERS;
+		}
+		return QUERIES;
+	}
+
+	/**
+	 * Generates a text of words.
+	 *
+	 * @param random
+	 *            the random
+	 * @param length
+	 *            the length of the text, about
+	 * @return the text
+	 */
+	public static String text(Random random, int length) {
+		StringBuilder sb = new StringBuilder(length + 16);
+		while (sb.length() < length) {
+			if (sb.length() > 0) {
+				sb.append(' ');
+			}
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Generates a fragment: a div holding a paragraph and a link.
+	 *
+	 * @param random
+	 *            the random
+	 * @param length
+	 *            the length of the fragment, about
+	 * @return the fragment
+	 */
+	public static String fragment(Random random, int length) {
+		int text = Math.max(1, length - 60);
+		return "<div class=\"c" + random.nextInt(100) + "\"><p>" // $NON-NLS-1$ // $NON-NLS-2$
+				+ text(random, text / 2) + "</p><a href=\"/p" // $NON-NLS-1$
+				+ random.nextInt(1000) + "\">" + text(random, text / 2) // $NON-NLS-1$
+				+ "</a></div>"; // $NON-NLS-1$
+	}
+
+	/**
+	 * Generates a page of fragments, one per line.
+	 *
+	 * @param random
+	 *            the random
+	 * @param fragments
+	 *            the number of fragments
+	 * @param length
+	 *            the length of every fragment, about
+	 * @return the page
+	 */
+	public static String page(Random random, int fragments, int length) {
+		StringBuilder sb = new StringBuilder(fragments * (length + 1) + 100);
+		sb.append("<html><head><title>").append(text(random, 20)) // $NON-NLS-1$
+				.append("</title></head>\n<body>\n"); // $NON-NLS-1$
+		for (int i = 0; i < fragments; i++) {
+			sb.append(fragment(random, length)).append('\n');
+		}
+		sb.append("</body></html>\n"); // $NON-NLS-1$
+		return sb.toString();
+	}
+
+	/**
+	 * Generates fragments of lengths spread between two bounds.
+	 *
+	 * @param count
+	 *            the number of fragments
+	 * @param minLength
+	 *            the minimum length, about
+	 * @param maxLength
+	 *            the maximum length, about
+	 * @return the fragments
+	 */
+	public static List<String> fragments(int count, int minLength,
+			int maxLength) {
+		Random random = new Random(SEED);
+		List<String> fragments = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			fragments.add(fragment(random, minLength
+					+ random.nextInt(maxLength - minLength + 1)));
+		}
+		return fragments;
+	}
+
+	/**
+	 * Generates the nodes of an analysis: a root per web, then the fragments
+	 * spread over the webs, all of a web found at the same sample.
+	 *
+	 * @param count
+	 *            the number of fragments
+	 * @param webs
+	 *            the number of webs
+	 * @param folder
+	 *            the folder of the samples
+	 * @return the nodes
+	 */
+	public static List<TempNode> nodes(int count, int webs, File folder) {
+		Random random = new Random(SEED);
+		List<TempNode> nodes = new ArrayList<TempNode>(count + webs);
+		for (int w = 0; w < webs; w++) {
+			TempNode root = new TempNode(web(w));
+			root.setFatherId();
+			nodes.add(root);
+		}
+		for (int i = 0; i < count; i++) {
+			String web = web(i % webs);
+			TempNode tn = new TempNode(fragment(random, 40 + random
+					.nextInt(200)));
+			tn.setWeb(web);
+			tn.setDate(DATE);
+			tn.setFatherId(web);
+			tn.addSample(sample(folder, i % webs));
+			int line = i / webs + 1;
+			tn.setStartLineNumber(line);
+			tn.setStartColumnNumber(1);
+			tn.setEndLineNumber(line + (i / webs % 2 == 0 ? 1 : 0));
+			tn.setEndColumnNumber(tn.getSize());
+			nodes.add(tn);
+		}
+		return nodes;
+	}
+
+	/**
+	 * Gets the nodes of one sample, out of order, as treatSample leaves them.
+	 *
+	 * @param count
+	 *            the number of nodes
+	 * @param length
+	 *            the length of every fragment, about
+	 * @return the nodes
+	 */
+	public static List<TempNode> sampleNodes(int count, int length) {
+		Random random = new Random(SEED);
+		List<TempNode> nodes = new ArrayList<TempNode>(count);
+		int line = 1;
+		for (int i = 0; i < count; i++) {
+			TempNode tn = new TempNode(fragment(random, length));
+			tn.setWeb(web(0));
+			tn.setDate(DATE);
+			tn.setFatherId(web(0));
+			// A div enclosing the next two nodes, then those two
+			int depth = i % 3;
+			tn.setStartLineNumber(depth == 0 ? line : line + depth);
+			tn.setStartColumnNumber(depth + 1);
+			tn.setEndLineNumber(depth == 0 ? line + 3 : line + depth);
+			tn.setEndColumnNumber(length);
+			if (depth == 2) {
+				line += 4;
+			}
+			nodes.add(tn);
+		}
+		Collections.shuffle(nodes, random);
+		return nodes;
+	}
+
+	/**
+	 * Writes a capture in the layout of the HTML Downloader, with new pages at
+	 * every snapshot.
+	 *
+	 * @param folder
+	 *            the capture folder
+	 * @param webs
+	 *            the number of webs
+	 * @param snapshots
+	 *            the number of snapshots of every web
+	 * @param fragments
+	 *            the number of fragments of every page
+	 * @param length
+	 *            the length of every fragment, about
+	 * @return the log
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @see CorpusGenerator
+	 */
+	public static File writeCapture(File folder, int webs, int snapshots,
+			int fragments, int length) throws IOException {
+		CorpusGenerator generator = new CorpusGenerator(folder);
+		generator.setUrls(webs);
+		generator.setSnapshots(snapshots);
+		generator.setFragmentSize(length);
+		generator.setPageSize(fragments * length);
+		generator.setChurn(1);
+		generator.setNearDuplicates(0);
+		return generator.write();
+	}
+
+	/**
+	 * Reads the samples of a capture.
+	 *
+	 * @param logFile
+	 *            the log of the capture
+	 * @param webs
+	 *            receives the web of every sample
+	 * @param samples
+	 *            receives the samples
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void readCapture(File logFile, List<String> webs,
+			List<String> samples) throws IOException {
+		AnalysisCheckpoint.readSamples(logFile, 0, webs, samples);
+		if (samples.isEmpty()) {
+			throw new IOException("No samples in " + logFile); // $NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Creates a temporary folder.
+	 *
+	 * @param prefix
+	 *            the prefix of its name
+	 * @return the folder
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static File temporaryFolder(String prefix) throws IOException {
+		File folder = File.createTempFile(prefix, ""); // $NON-NLS-1$
+		if (!folder.delete() || !folder.mkdirs()) {
+			throw new IOException("Could not create " + folder); // $NON-NLS-1$
+		}
+		return folder;
+	}
+
+	/**
+	 * Deletes a folder and everything in it.
+	 *
+	 * @param file
+	 *            the folder
+	 */
+	public static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				delete(f);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * Gets the name of a synthetic web.
+	 *
+	 * @param w
+	 *            the web number
+	 * @return the web
+	 */
+	private static String web(int w) {
+		return "www.example.com/web" + w; // $NON-NLS-1$
+	}
+
+	/**
+	 * Gets the sample of a synthetic web.
+	 *
+	 * @param folder
+	 *            the capture folder
+	 * @param w
+	 *            the web number
+	 * @return the sample
+	 */
+	private static String sample(File folder, int w) {
+		return new File(new File(folder, "$" + DATE + "_"), "web" + w // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$
+				+ ".html").getAbsolutePath(); // $NON-NLS-1$
+	}
+}
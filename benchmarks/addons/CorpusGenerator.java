@@ -0,0 +1,462 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.apache.jmeter.visualizers.GraphVisualizer;
+
+/**
+ * The Class CorpusGenerator.
+ *
+ * @description Writes a synthetic capture in the layout of the HTML
+ *              Downloader: the log, a $yyyyMMdd.HH.mm.ss_ folder per snapshot
+ *              and a page per URL in it, named after the clean URL. The same
+ *              settings and seed always write the same capture.
+ *
+ *              Every page is a list of fragments. From one snapshot to the
+ *              next a fragment is replaced with the churn probability; a new
+ *              fragment is a near duplicate of a fragment already written (a
+ *              word changed, so it is compared and close in distance) with
+ *              the near-duplicate probability, or else a new text.
+ *
+ *              Usage: CorpusGenerator folder [--urls=100] [--snapshots=10]
+ *              [--page-size=20000] [--fragment-size=200] [--churn=0.1]
+ *              [--near-duplicates=0.2] [--interval=60] [--seed=n]
+ */
+public class CorpusGenerator {
+
+	/** The header the HTML Downloader writes at the top of a new log. */
+	public static final String LOG_HEADER = "#Internal use - DO NOT DELETE OR MODIFY#"; // $NON-NLS-1$
+
+	/** The UTF-8 charset. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8"); // $NON-NLS-1$
+
+	/** The time of the first snapshot: 2012-09-01 12:00:00. */
+	private static final long FIRST_SNAPSHOT = 1346500800000L;
+
+	/** The capture folder. */
+	private final File folder;
+
+	/** The number of URLs. */
+	private int urls = 100;
+
+	/** The snapshots of every URL. */
+	private int snapshots = 10;
+
+	/** The size of a page, in bytes, about. */
+	private int pageSize = 20000;
+
+	/** The size of a fragment, in bytes, about. */
+	private int fragmentSize = 200;
+
+	/** The probability of a fragment to change between two snapshots. */
+	private double churn = 0.1;
+
+	/** The probability of a new fragment to be a near duplicate. */
+	private double nearDuplicates = 0.2;
+
+	/** The seconds between two snapshots. */
+	private int interval = 60;
+
+	/** The seed. */
+	private long seed = BenchmarkCorpus.SEED;
+
+	/** The bytes of the pages written. */
+	private long bytes;
+
+	/**
+	 * Instantiates a new corpus generator.
+	 *
+	 * @param folder
+	 *            the capture folder, created if needed
+	 */
+	public CorpusGenerator(File folder) {
+		this.folder = folder;
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the folder and the options
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void main(String[] args) throws IOException {
+		CorpusGenerator generator = args.length > 0
+				&& !args[0].startsWith("--") ? new CorpusGenerator(new File( // $NON-NLS-1$
+				args[0])) : null;
+		for (int i = 1; generator != null && i < args.length; i++) {
+			if (!generator.setOption(args[i])) {
+				generator = null;
+			}
+		}
+		if (generator == null) {
+			System.err.println("Usage: CorpusGenerator folder [--urls=100]" // $NON-NLS-1$
+					+ " [--snapshots=10] [--page-size=20000]" // $NON-NLS-1$
+					+ " [--fragment-size=200] [--churn=0.1]" // $NON-NLS-1$
+					+ " [--near-duplicates=0.2] [--interval=60] [--seed=n]"); // $NON-NLS-1$
+			System.exit(2);
+			return;
+		}
+		File log = generator.write();
+		System.out.println("Wrote " + generator.getSampleCount() // $NON-NLS-1$
+				+ " samples, " + generator.getBytes() + " bytes, to " + log); // $NON-NLS-1$ // $NON-NLS-2$
+	}
+
+	/**
+	 * Sets an option given as --name=value.
+	 *
+	 * @param arg
+	 *            the option
+	 * @return false if the option is unknown or its value wrong
+	 */
+	public boolean setOption(String arg) {
+		int eq = arg.indexOf('=');
+		if (!arg.startsWith("--") || eq < 0) { // $NON-NLS-1$
+			return false;
+		}
+		String name = arg.substring(2, eq);
+		String value = arg.substring(eq + 1);
+		try {
+			if ("urls".equals(name)) { // $NON-NLS-1$
+				setUrls(Integer.parseInt(value));
+			} else if ("snapshots".equals(name)) { // $NON-NLS-1$
+				setSnapshots(Integer.parseInt(value));
+			} else if ("page-size".equals(name)) { // $NON-NLS-1$
+				setPageSize(Integer.parseInt(value));
+			} else if ("fragment-size".equals(name)) { // $NON-NLS-1$
+				setFragmentSize(Integer.parseInt(value));
+			} else if ("churn".equals(name)) { // $NON-NLS-1$
+				setChurn(Double.parseDouble(value));
+			} else if ("near-duplicates".equals(name)) { // $NON-NLS-1$
+				setNearDuplicates(Double.parseDouble(value));
+			} else if ("interval".equals(name)) { // $NON-NLS-1$
+				setInterval(Integer.parseInt(value));
+			} else if ("seed".equals(name)) { // $NON-NLS-1$
+				setSeed(Long.parseLong(value));
+			} else {
+				return false;
+			}
+		} catch (IllegalArgumentException e) {
+			return false; // Also a NumberFormatException
+		}
+		return true;
+	}
+
+	/**
+	 * Sets the number of URLs.
+	 *
+	 * @param urls
+	 *            the URLs
+	 */
+	public void setUrls(int urls) {
+		this.urls = positive(urls);
+	}
+
+	/**
+	 * Sets the snapshots of every URL.
+	 *
+	 * @param snapshots
+	 *            the snapshots
+	 */
+	public void setSnapshots(int snapshots) {
+		this.snapshots = positive(snapshots);
+	}
+
+	/**
+	 * Sets the size of a page.
+	 *
+	 * @param pageSize
+	 *            the size, in bytes, about
+	 */
+	public void setPageSize(int pageSize) {
+		this.pageSize = positive(pageSize);
+	}
+
+	/**
+	 * Sets the size of a fragment.
+	 *
+	 * @param fragmentSize
+	 *            the size, in bytes, about; 60 at least
+	 */
+	public void setFragmentSize(int fragmentSize) {
+		this.fragmentSize = Math.max(60, positive(fragmentSize));
+	}
+
+	/**
+	 * Sets the probability of a fragment to change between two snapshots.
+	 *
+	 * @param churn
+	 *            the probability, 0 for pages that never change and 1 for
+	 *            pages that are new at every snapshot
+	 */
+	public void setChurn(double churn) {
+		this.churn = probability(churn);
+	}
+
+	/**
+	 * Sets the probability of a new fragment to be a near duplicate of one
+	 * already written.
+	 *
+	 * @param nearDuplicates
+	 *            the probability
+	 */
+	public void setNearDuplicates(double nearDuplicates) {
+		this.nearDuplicates = probability(nearDuplicates);
+	}
+
+	/**
+	 * Sets the seconds between two snapshots.
+	 *
+	 * @param interval
+	 *            the seconds, 1 at least so every snapshot has its folder
+	 */
+	public void setInterval(int interval) {
+		this.interval = positive(interval);
+	}
+
+	/**
+	 * Sets the seed.
+	 *
+	 * @param seed
+	 *            the seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Gets the number of samples of the capture.
+	 *
+	 * @return the samples
+	 */
+	public int getSampleCount() {
+		return urls * snapshots;
+	}
+
+	/**
+	 * Gets the bytes of the pages written.
+	 *
+	 * @return the bytes
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Writes the capture.
+	 *
+	 * @return the log
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public File write() throws IOException {
+		Random random = new Random(seed);
+		DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd.HH.mm.ss"); // $NON-NLS-1$
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC")); // $NON-NLS-1$
+		int perPage = Math.max(1, pageSize / fragmentSize);
+
+		// The fragments of every page, changed at every snapshot
+		List<List<String>> pages = new ArrayList<List<String>>(urls);
+		List<String> written = new ArrayList<String>();
+		for (int u = 0; u < urls; u++) {
+			List<String> page = new ArrayList<String>(perPage);
+			for (int f = 0; f < perPage; f++) {
+				page.add(newFragment(random, written));
+			}
+			pages.add(page);
+		}
+
+		File logFile = new File(folder, AnalysisContext.DEFAULT_LOG_FILE_NAME);
+		mkdirs(folder);
+		bytes = 0;
+		Writer log = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(logFile), UTF_8));
+		try {
+			log.write(LOG_HEADER + "\n"); // $NON-NLS-1$
+			for (int s = 0; s < snapshots; s++) {
+				String folderName = "$" // $NON-NLS-1$
+						+ dateFormat.format(new Date(FIRST_SNAPSHOT + s
+								* interval * 1000L)) + "_"; // $NON-NLS-1$
+				File snapshot = new File(folder, folderName);
+				mkdirs(snapshot);
+				for (int u = 0; u < urls; u++) {
+					List<String> page = pages.get(u);
+					if (s > 0) {
+						for (int f = 0; f < page.size(); f++) {
+							if (random.nextDouble() < churn) {
+								page.set(f, newFragment(random, written));
+							}
+						}
+					}
+					String cleanUrl = GraphVisualizer
+							.cleanUrl("http://www.example.com/site" + u // $NON-NLS-1$
+									+ "/index.php?page=" + u); // $NON-NLS-1$
+					File file = new File(snapshot, cleanUrl + ".html"); // $NON-NLS-1$
+					writePage(file, random, page);
+					log.write("#" + cleanUrl + "@" + file.getAbsolutePath() // $NON-NLS-1$ // $NON-NLS-2$
+							+ "\n"); // $NON-NLS-1$
+				}
+			}
+		} finally {
+			log.close();
+		}
+		return logFile;
+	}
+
+	/**
+	 * Creates a fragment: a near duplicate of one already written, or a new
+	 * text.
+	 *
+	 * @param random
+	 *            the random
+	 * @param written
+	 *            the fragments created so far, receives the new one
+	 * @return the fragment
+	 */
+	private String newFragment(Random random, List<String> written) {
+		String fragment;
+		if (!written.isEmpty() && random.nextDouble() < nearDuplicates) {
+			fragment = nearDuplicate(random, written.get(random
+					.nextInt(written.size())));
+		} else {
+			fragment = BenchmarkCorpus.fragment(random, fragmentSize);
+		}
+		written.add(fragment);
+		return fragment;
+	}
+
+	/**
+	 * Changes a word of a fragment into a word of the same length, so the
+	 * fragment keeps its length and only a few characters change.
+	 *
+	 * @param random
+	 *            the random
+	 * @param fragment
+	 *            the fragment
+	 * @return the near duplicate
+	 */
+	private static String nearDuplicate(Random random, String fragment) {
+		int start = fragment.indexOf("<p>") + 3; // $NON-NLS-1$
+		int end = fragment.indexOf("</p>"); // $NON-NLS-1$
+		if (start < 3 || end <= start) {
+			return fragment + ' ';
+		}
+		char[] c = fragment.toCharArray();
+		int changes = 1 + random.nextInt(3);
+		for (int i = 0; i < changes; i++) {
+			c[start + random.nextInt(end - start)] = (char) ('a' + random
+					.nextInt(26));
+		}
+		return new String(c);
+	}
+
+	/**
+	 * Writes a page.
+	 *
+	 * @param file
+	 *            the file
+	 * @param random
+	 *            the random
+	 * @param fragments
+	 *            the fragments of the page, one per line
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writePage(File file, Random random, List<String> fragments)
+			throws IOException {
+		StringBuilder sb = new StringBuilder(pageSize + 200);
+		sb.append("<html><head><title>").append( // $NON-NLS-1$
+				BenchmarkCorpus.text(random, 20)).append(
+				"</title></head>\n<body>\n"); // $NON-NLS-1$
+		for (String f : fragments) {
+			sb.append(f).append('\n');
+		}
+		sb.append("</body></html>\n"); // $NON-NLS-1$
+		byte[] data = sb.toString().getBytes(UTF_8);
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		bytes += data.length;
+	}
+
+	/**
+	 * Creates a folder.
+	 *
+	 * @param dir
+	 *            the folder
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void mkdirs(File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create " + dir); // $NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Checks a number is positive.
+	 *
+	 * @param n
+	 *            the number
+	 * @return the number
+	 */
+	private static int positive(int n) {
+		if (n <= 0) {
+			throw new IllegalArgumentException("Not positive: " + n); // $NON-NLS-1$
+		}
+		return n;
+	}
+
+	/**
+	 * Checks a number is a probability.
+	 *
+	 * @param p
+	 *            the number
+	 * @return the number
+	 */
+	private static double probability(double p) {
+		if (p < 0 || p > 1) {
+			throw new IllegalArgumentException("Not a probability: " + p); // $NON-NLS-1$
+		}
+		return p;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Class LevenshteinBenchmark.
+ *
+ * @description The distance between two fragments of about the same length,
+ *              the comparison writeResultsXml makes for every pair of nodes
+ *              closer than 10 characters in length.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class LevenshteinBenchmark {
+
+	/** The length of the fragments. */
+	@Param( { "64", "256", "1024", "4096" })
+	public int length;
+
+	/** The first fragment. */
+	private String a;
+
+	/** The second fragment. */
+	private String b;
+
+	/**
+	 * Generates the fragments.
+	 */
+	@Setup
+	public void setUp() {
+		List<String> fragments = BenchmarkCorpus.fragments(2, length, length);
+		a = fragments.get(0);
+		b = fragments.get(1);
+	}
+
+	/**
+	 * Computes the distance.
+	 *
+	 * @return the distance
+	 */
+	@Benchmark
+	public int computeLevenshteinDistance() {
+		return LevenshteinDistance.computeLevenshteinDistance(a, b);
+	}
+}
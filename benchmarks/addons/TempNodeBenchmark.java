@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Class TempNodeBenchmark.
+ *
+ * @description The creation of a node for every fragment found, and the
+ *              parsing of its opener tag and size by setContent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TempNodeBenchmark {
+
+	/** The length of the fragments. */
+	@Param( { "64", "1024", "16384" })
+	public int length;
+
+	/** The fragments, used in turn. */
+	private String[] fragments;
+
+	/** The node setContent is called on. */
+	private TempNode node;
+
+	/** The next fragment. */
+	private int next;
+
+	/**
+	 * Generates the fragments.
+	 */
+	@Setup
+	public void setUp() {
+		List<String> list = BenchmarkCorpus.fragments(64, length, length);
+		fragments = list.toArray(new String[list.size()]);
+		node = new TempNode(fragments[0]);
+	}
+
+	/**
+	 * Creates a node.
+	 *
+	 * @return the node
+	 */
+	@Benchmark
+	public TempNode construct() {
+		return new TempNode(fragment());
+	}
+
+	/**
+	 * Sets the content of a node.
+	 *
+	 * @return true, if successful
+	 */
+	@Benchmark
+	public boolean setContent() {
+		return node.setContent(fragment());
+	}
+
+	/**
+	 * Gets the next fragment.
+	 *
+	 * @return the fragment
+	 */
+	private String fragment() {
+		next = (next + 1) % fragments.length;
+		return fragments[next];
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * Part of the Package addons
+ */
+package addons;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Class JfrEventSink.
+ *
+ * @description Java Flight Recorder events of the capture and the analysis,
+ *              under the category JMeter / Data mining of a recording. Every
+ *              event has the duration of its operation, so a stall of the load
+ *              generator can be matched with the plugin work around it:
+ *              <ul>
+ *              <li>addons.CaptureWrite: a sample written by the HTML
+ *              Downloader, with its URL key and bytes</li>
+ *              <li>addons.PageParse: the page of a sample parsed or mapped</li>
+ *              <li>addons.QueryEvaluation: a query evaluated on a sample</li>
+ *              <li>addons.SimilarityBatch: a node compared with the nodes after
+ *              it, with the distances computed</li>
+ *              <li>addons.GraphMLFlush: a GraphML file written</li>
+ *              </ul>
+ *
+ *              The events are enabled in the default and profile settings of
+ *              a recording. The class needs Java 11: it is compiled apart and
+ *              loaded by {@link EventSinks}.
+ */
+public final class JfrEventSink implements EventSink {
+
+	/**
+	 * Instantiates a new sink.
+	 *
+	 * @throws IllegalStateException
+	 *             if the JVM has no Flight Recorder
+	 */
+	public JfrEventSink() {
+		if (!FlightRecorder.isAvailable()) {
+			throw new IllegalStateException("Flight Recorder not available"); // $NON-NLS-1$
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see addons.EventSink#begin(addons.EventSink.Kind)
+	 */
+	public Event begin(Kind kind) {
+		PluginEvent event;
+		switch (kind) {
+		case CAPTURE_WRITE:
+			event = new CaptureWrite();
+			break;
+		case PAGE_PARSE:
+			event = new PageParse();
+			break;
+		case QUERY:
+			event = new QueryEvaluation();
+			break;
+		case SIMILARITY_BATCH:
+			event = new SimilarityBatch();
+			break;
+		default:
+			event = new GraphMLFlush();
+			break;
+		}
+		event.begin();
+		return event;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "Java Flight Recorder"; // $NON-NLS-1$
+	}
+
+	/**
+	 * The base of the events: the bytes of the operation, and the fields of
+	 * the kind set from the subject and the items.
+	 */
+	@Category({ "JMeter", "Data mining" }) // $NON-NLS-1$ // $NON-NLS-2$
+	@StackTrace(false)
+	abstract static class PluginEvent extends jdk.jfr.Event implements
+			EventSink.Event {
+
+		/** The bytes. */
+		@Label("Bytes") // $NON-NLS-1$
+		@DataAmount
+		long bytes;
+
+		/**
+		 * Sets the fields of the kind.
+		 *
+		 * @param subject
+		 *            the subject
+		 * @param items
+		 *            the items
+		 */
+		abstract void set(String subject, long items);
+
+		/* (non-Javadoc)
+		 * @see addons.EventSink.Event#commit(java.lang.String, long, long)
+		 */
+		public void commit(String subject, long items, long bytes) {
+			end();
+			if (shouldCommit()) {
+				set(subject, items);
+				this.bytes = bytes;
+				commit();
+			}
+		}
+	}
+
+	/**
+	 * A sample written by the HTML Downloader.
+	 */
+	@Name("addons.CaptureWrite") // $NON-NLS-1$
+	@Label("Capture Write") // $NON-NLS-1$
+	@Description("A response saved by the HTML Downloader and logged") // $NON-NLS-1$
+	static final class CaptureWrite extends PluginEvent {
+
+		/** The URL key. */
+		@Label("URL Key") // $NON-NLS-1$
+		String url;
+
+		/* (non-Javadoc)
+		 * @see addons.JfrEventSink.PluginEvent#set(java.lang.String, long)
+		 */
+		void set(String subject, long items) {
+			url = subject;
+		}
+	}
+
+	/**
+	 * The page of a sample parsed or mapped.
+	 */
+	@Name("addons.PageParse") // $NON-NLS-1$
+	@Label("Page Parse") // $NON-NLS-1$
+	@Description("The page of a sample loaded for the queries") // $NON-NLS-1$
+	static final class PageParse extends PluginEvent {
+
+		/** The sample. */
+		@Label("Sample") // $NON-NLS-1$
+		String sample;
+
+		/* (non-Javadoc)
+		 * @see addons.JfrEventSink.PluginEvent#set(java.lang.String, long)
+		 */
+		void set(String subject, long items) {
+			sample = subject;
+		}
+	}
+
+	/**
+	 * A query evaluated on a sample.
+	 */
+	@Name("addons.QueryEvaluation") // $NON-NLS-1$
+	@Label("Query Evaluation") // $NON-NLS-1$
+	@Description("XPath, CSS or marker queries evaluated on a sample") // $NON-NLS-1$
+	static final class QueryEvaluation extends PluginEvent {
+
+		/** The query. */
+		@Label("Query") // $NON-NLS-1$
+		String query;
+
+		/** The queries evaluated. */
+		@Label("Queries") // $NON-NLS-1$
+		long queries;
+
+		/* (non-Javadoc)
+		 * @see addons.JfrEventSink.PluginEvent#set(java.lang.String, long)
+		 */
+		void set(String subject, long items) {
+			query = subject;
+			queries = items;
+		}
+	}
+
+	/**
+	 * A node compared with the nodes after it.
+	 */
+	@Name("addons.SimilarityBatch") // $NON-NLS-1$
+	@Label("Similarity Batch") // $NON-NLS-1$
+	@Description("The distances from a node to the nodes after it") // $NON-NLS-1$
+	static final class SimilarityBatch extends PluginEvent {
+
+		/** The node. */
+		@Label("Node") // $NON-NLS-1$
+		String node;
+
+		/** The distances computed. */
+		@Label("Distances") // $NON-NLS-1$
+		long distances;
+
+		/* (non-Javadoc)
+		 * @see addons.JfrEventSink.PluginEvent#set(java.lang.String, long)
+		 */
+		void set(String subject, long items) {
+			node = subject;
+			distances = items;
+		}
+	}
+
+	/**
+	 * A GraphML file written.
+	 */
+	@Name("addons.GraphMLFlush") // $NON-NLS-1$
+	@Label("GraphML Flush") // $NON-NLS-1$
+	@Description("The GraphML of a sample or of the result written") // $NON-NLS-1$
+	static final class GraphMLFlush extends PluginEvent {
+
+		/** The file. */
+		@Label("File") // $NON-NLS-1$
+		String file;
+
+		/* (non-Javadoc)
+		 * @see addons.JfrEventSink.PluginEvent#set(java.lang.String, long)
+		 */
+		void set(String subject, long items) {
+			file = subject;
+		}
+	}
+}